@@ -16,90 +16,143 @@
 
 package ch.bfh.sensordataprocessor;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 
 import android.graphics.Color;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.os.SystemClock;
 import android.util.Log;
-import ch.bfh.sensordataprocessor.math.HighPassFilter;
-import ch.bfh.sensordataprocessor.math.IFilter;
+import ch.bfh.sensordataprocessor.hub.ISampleBlockListener;
+import ch.bfh.sensordataprocessor.hub.ISensorSubscriber;
+import ch.bfh.sensordataprocessor.hub.SampleBlock;
+import ch.bfh.sensordataprocessor.hub.SensorHub;
+import ch.bfh.sensordataprocessor.hub.SensorSlot;
+import ch.bfh.sensordataprocessor.processing.AccelerationProcessor;
+import ch.bfh.sensordataprocessor.processing.AdaptiveRateController;
+import ch.bfh.sensordataprocessor.processing.IMovementListener;
+import ch.bfh.sensordataprocessor.processing.IProcessingListener;
+import ch.bfh.sensordataprocessor.processing.MovementDetector;
+import ch.bfh.sensordataprocessor.processing.StepDetector;
+import ch.bfh.sensordataprocessor.processing.StreamAligner;
+import ch.bfh.sensordataprocessor.plot.PrimitiveXYSeries;
+import ch.bfh.sensordataprocessor.record.AsyncSampleWriter;
+import ch.bfh.sensordataprocessor.record.ISampleWriterFactory;
+import ch.bfh.sensordataprocessor.record.OverflowPolicy;
+import ch.bfh.sensordataprocessor.sensor.AndroidBatchedSensorSource;
 
 import com.androidplot.xy.LineAndPointFormatter;
 import com.androidplot.xy.LineAndPointRenderer;
-import com.androidplot.xy.SimpleXYSeries;
 import com.androidplot.xy.XYPlot;
 
 /**
- * Receives accelerometer events and writes them to CSV files and plots them on a graph.
+ * Receives accelerometer events from a {@link SensorHub} and writes them to CSV or binary
+ * files and plots them on a graph.
+ * <p>
+ * Filtering, recording and movement detection are done by an
+ * {@link AccelerationProcessor}, which has no Android dependencies and can
+ * also be fed from a recording on the JVM. This class only adapts the sensor
+ * events, opens the files and draws the plot.
+ * <p>
+ * Once constructed, the event path does not allocate: samples are queued for
+ * a background writer thread by an {@link AsyncSampleWriter} and the plot
+ * series keep primitive values.
+ * <p>
+ * Subscribed for blocks, the bursts of a batching sensor are processed and
+ * written a block at a time; blocks are not plotted.
  */
-public class AccelerationEventListener implements SensorEventListener
+public class AccelerationEventListener implements ISensorSubscriber, ISampleBlockListener,
+        IProcessingListener, IMovementListener
 {
     private static final String TAG = "AccelerationEventListener";
-    private static final char CSV_DELIM = ',';
-    private static final int THRESHHOLD = 2;
-    private static final String CSV_HEADER = "X Axis,Y Axis,Z Axis,Acceleration,Time";
-    private static final int MAX_SERIES_SIZE = 30;
     private static final int CHART_REFRESH = 125;
-
-    private final IFilter xAxisHighPassFilter;
-    private final IFilter yAxisHighPassFilter;
-    private final IFilter zAxisHighPassFilter;
-
-    private PrintWriter printWriter;
+    private static final float PLOT_RATE_HZ = 100f;
+    private static final long PLOT_WINDOW = 10000;
+    private static final int MAX_SERIES_SIZE = 2048;
+    private static final int MAX_DRAW_POINTS = 1024;
+    private static final int DEFAULT_DRAW_POINTS = 320;
+    private static final String DECIMATED_SUFFIX = "_decimated";
+
+    private final AccelerationProcessor processor;
+    private AsyncSampleWriter sampleWriter;
+    private AsyncSampleWriter decimatedSampleWriter;
     private final long startTime;
 
-    private final SimpleXYSeries xAxisSeries;
-    private final SimpleXYSeries yAxisSeries;
-    private final SimpleXYSeries zAxisSeries;
-    private final SimpleXYSeries accelerationSeries;
+    private final PrimitiveXYSeries xAxisSeries;
+    private final PrimitiveXYSeries yAxisSeries;
+    private final PrimitiveXYSeries zAxisSeries;
+    private final PrimitiveXYSeries accelerationSeries;
     private final XYPlot xyPlot;
     private long lastChartRefresh;
-    private final boolean useHighPassFilter;
-
+    private StreamAligner aligner;
+    private int alignerStream;
+    private MovementDetector movementDetector;
+    private StepDetector stepDetector;
+
+    /**
+     * @param dataDirectory directory the recording is written to
+     * @param baseName file name of the recording, without extension
+     * @param writerFactory creates the writers of the recording, e.g. a
+     *            {@link ch.bfh.sensordataprocessor.record.RecordingFormat}
+     * @param sensorType the <code>Sensor.TYPE_*</code> this listener is subscribed to
+     * @param rate the rate this listener is registered with
+     * @param sampleRateHz nominal sample rate resulting from <code>rate</code>
+     * @param removeOutliers replace spikes by the median before filtering
+     * @param recordDecimated also record a decimated copy
+     * @param batched whether the listener is subscribed for the blocks of
+     *            a batching sensor, which are then written whole
+     */
 	public AccelerationEventListener(XYPlot xyPlot, boolean useHighPassFilter,
- File dataFile) {
+            boolean removeOutliers, File dataDirectory, String baseName, ISampleWriterFactory writerFactory,
+            int sensorType, int rate, float sampleRateHz, boolean recordDecimated,
+            boolean batched) {
         this.xyPlot = xyPlot;
-        this.useHighPassFilter = useHighPassFilter;
-
-        xAxisHighPassFilter = new HighPassFilter();
-        yAxisHighPassFilter = new HighPassFilter();
-        zAxisHighPassFilter = new HighPassFilter();
 
-        // -------------------------------------------------------------
-        // for testing purposes only
-        // xAxisHighPassFilter = new LowPassFilter();
-        // yAxisHighPassFilter = new LowPassFilter();
-        // zAxisHighPassFilter = new LowPassFilter();
-
-        // xAxisHighPassFilter = new MovingAverageFilter(16);
-        // yAxisHighPassFilter = new MovingAverageFilter(16);
-        // zAxisHighPassFilter = new MovingAverageFilter(16);
-        // -------------------------------------------------------------
-
-        xAxisSeries = new SimpleXYSeries("X Axis");
-        yAxisSeries = new SimpleXYSeries("Y Axis");
-        zAxisSeries = new SimpleXYSeries("Z Axis");
-        accelerationSeries = new SimpleXYSeries("Acceleration");
+        xAxisSeries = new PrimitiveXYSeries("X Axis", MAX_SERIES_SIZE, PLOT_WINDOW,
+                MAX_DRAW_POINTS);
+        yAxisSeries = new PrimitiveXYSeries("Y Axis", MAX_SERIES_SIZE, PLOT_WINDOW,
+                MAX_DRAW_POINTS);
+        zAxisSeries = new PrimitiveXYSeries("Z Axis", MAX_SERIES_SIZE, PLOT_WINDOW,
+                MAX_DRAW_POINTS);
+        accelerationSeries = new PrimitiveXYSeries("Acceleration", MAX_SERIES_SIZE,
+                PLOT_WINDOW, MAX_DRAW_POINTS);
 
         startTime = SystemClock.uptimeMillis();
+        int batchSize = batched ? AndroidBatchedSensorSource.DEFAULT_BLOCK_CAPACITY
+                : AsyncSampleWriter.DEFAULT_BATCH_SIZE;
 
         try
         {
-            printWriter = new PrintWriter(new BufferedWriter(new FileWriter(dataFile)));
-            printWriter.println(CSV_HEADER);
+            // Disk I/O happens on the writer thread, never on the sensor callback
+            sampleWriter = new AsyncSampleWriter(writerFactory.createWriter(dataDirectory,
+                    baseName, sensorType, rate, startTime), AsyncSampleWriter.DEFAULT_CAPACITY,
+                    batchSize, OverflowPolicy.DROP_NEWEST, "SampleWriter-" + baseName);
         }
         catch (IOException e)
         {
-            Log.e(TAG, "Could not open CSV file(s)", e);
+            Log.e(TAG, "Could not open data file(s)", e);
+        }
+
+        if (recordDecimated)
+        {
+            try
+            {
+                decimatedSampleWriter = new AsyncSampleWriter(writerFactory.createWriter(
+                        dataDirectory, baseName + DECIMATED_SUFFIX, sensorType,
+                        rate, startTime), AsyncSampleWriter.DEFAULT_CAPACITY, batchSize,
+                        OverflowPolicy.DROP_NEWEST, "SampleWriter-" + baseName + DECIMATED_SUFFIX);
+            }
+            catch (IOException e)
+            {
+                Log.e(TAG, "Could not open decimated data file", e);
+            }
         }
 
+        // If the plot is null, the sensor is not active. Do not plot the
+        // data
+        processor = new AccelerationProcessor(useHighPassFilter, removeOutliers,
+                sampleWriter, decimatedSampleWriter, sampleRateHz, PLOT_RATE_HZ,
+                xyPlot == null ? null : this);
+
         if (xyPlot != null)
         {
             xyPlot.addSeries(xAxisSeries,
@@ -117,117 +170,175 @@ public class AccelerationEventListener implements SensorEventListener
         }
     }
 
-    private void writeSensorEvent(PrintWriter printWriter,
-                                  float x,
-                                  float y,
-                                  float z,
-                                  double acceleration,
-            long eventTime) {
-        if (printWriter != null)
-        {
-            StringBuffer sb = new StringBuffer()
-                .append(x).append(CSV_DELIM)
-                .append(y).append(CSV_DELIM)
-                .append(z).append(CSV_DELIM)
-                .append(acceleration).append(CSV_DELIM)
-                .append((eventTime / 1000000) - startTime);
-            
-            printWriter.println(sb.toString());
-            if (printWriter.checkError())
-            {
-                Log.w(TAG, "Error writing sensor event data");
-            }
-        }
+    /**
+     * Also feeds the raw events into a {@link StreamAligner} that joins them
+     * with other sensors. The aligner is not thread-safe, so all listeners
+     * sharing it must be subscribed on the same thread.
+     *
+     * @param stream index of this sensor's stream in the aligner
+     */
+    public void setAligner(StreamAligner aligner, int stream) {
+        this.aligner = aligner;
+        this.alignerStream = stream;
+    }
+
+    /**
+     * Lets the controller follow the filtered acceleration of this sensor,
+     * <code>null</code> to stop.
+     */
+    public void setRateController(AdaptiveRateController rateController) {
+        processor.setRateController(rateController);
+    }
+
+    /**
+     * Lets the detector look for movements in the filtered acceleration of
+     * this sensor, <code>null</code> to stop. The detector's listener is
+     * usually this listener, which logs the movements.
+     */
+    public void setMovementDetector(MovementDetector movementDetector) {
+        this.movementDetector = movementDetector;
+        processor.setMovementDetector(movementDetector);
+    }
+
+    /**
+     * Lets the detector count steps in the unfiltered acceleration of this
+     * sensor, <code>null</code> to stop.
+     */
+    public void setStepDetector(StepDetector stepDetector) {
+        this.stepDetector = stepDetector;
+        processor.setStepDetector(stepDetector);
+    }
+
+    /**
+     * Retunes the rate dependent processing after this listener was
+     * subscribed at another sampling period.
+     *
+     * @param sampleRateHz nominal sample rate of the new period
+     */
+    public void setSampleRateHz(float sampleRateHz) {
+        processor.setSampleRateHz(sampleRateHz);
     }
 
     @Override
-    public void onSensorChanged(SensorEvent event) {
-        float[] values = event.values.clone();
-        
-        // Pass values through high-pass filter if enabled
-        if (useHighPassFilter)
+    public void onSample(SensorSlot slot) {
+        if (aligner != null)
         {
-            values = applyFilter(values[0],
-                              values[1],
-                              values[2]);
+            aligner.add(alignerStream, slot.getTimestamp(), slot.getX(), slot.getY(),
+                    slot.getZ());
         }
 
-            double sumOfSquares = (values[0] * values[0])
-                    + (values[1] * values[1])
-                    + (values[2] * values[2]);
-            double acceleration = Math.sqrt(sumOfSquares);
-
-            // Write to data file
-            writeSensorEvent(printWriter,
-                             values[0],
-                             values[1],
-                             values[2],
-                             acceleration,
-                             event.timestamp);
-
-            // If the plot is null, the sensor is not active. Do not plot the
-            // data or used the data to determine if the device is moving
-            if (xyPlot != null)
- {
+        processor.process(slot.getTimestamp(), slot.getX(), slot.getY(), slot.getZ());
+
+        if (processor.takeWriteError() != null)
+        {
+            Log.w(TAG, "Error writing sensor event data");
+        }
+
+        if (xyPlot != null)
+        {
             long current = SystemClock.uptimeMillis();
 
-            // Limit how much the chart gets updated
+            // Limit how much the chart gets redrawn
             if ((current - lastChartRefresh) >= CHART_REFRESH) {
-                long timestamp = (event.timestamp / 1000000) - startTime;
-
-                // Plot data
-                addDataPoint(xAxisSeries, timestamp, values[0]);
-                addDataPoint(yAxisSeries, timestamp, values[1]);
-                addDataPoint(zAxisSeries, timestamp, values[2]);
-                addDataPoint(accelerationSeries, timestamp, acceleration);
+                // Reduce the window to about one point per pixel
+                int drawPoints = xyPlot.getWidth() > 0 ? xyPlot.getWidth()
+                        : DEFAULT_DRAW_POINTS;
+                xAxisSeries.updateDrawPoints(drawPoints);
+                yAxisSeries.updateDrawPoints(drawPoints);
+                zAxisSeries.updateDrawPoints(drawPoints);
+                accelerationSeries.updateDrawPoints(drawPoints);
 
                 xyPlot.redraw();
 
                 lastChartRefresh = current;
             }
+        }
+    }
 
-            // A "movement" is only triggered of the total acceleration is
-            // above a threshold
-            if (acceleration > THRESHHOLD) {
-                Log.i(TAG, "Movement detected");
+    /**
+     * Processes a burst in one go, so that it is filtered and handed to the
+     * writer thread as one block.
+     */
+    @Override
+    public void onBlock(int sensorType, SampleBlock block) {
+        long[] timestamps = block.getTimestamps();
+        float[] frames = block.getFrames();
+        int size = block.getSize();
+        if (aligner != null)
+        {
+            // before the block is filtered in place
+            for (int i = 0, frame = 0; i < size; ++i, frame += SampleBlock.AXIS_COUNT)
+            {
+                aligner.add(alignerStream, timestamps[i], frames[frame],
+                        frames[frame + 1], frames[frame + 2]);
             }
         }
-    }
 
-    private void addDataPoint(SimpleXYSeries series, Number timestamp, Number value) {
-        if (series.size() == MAX_SERIES_SIZE)
+        processor.processBlock(timestamps, frames, 0, size);
+
+        if (processor.takeWriteError() != null)
         {
-            series.removeFirst();
+            Log.w(TAG, "Error writing sensor event data");
         }
-        
-        series.addLast(timestamp, value);
     }
 
-    private float[] applyFilter(float x, float y, float z) {
-        float[] filteredValues = new float[3];
-		
-        // TODO For Students: Apply your math stuff here.
-        filteredValues[0] = xAxisHighPassFilter.processValue(x);
-        filteredValues[1] = yAxisHighPassFilter.processValue(y);
-        filteredValues[2] = zAxisHighPassFilter.processValue(z);
+    @Override
+    public void onPlotFrame(long eventTime, float x, float y, float z, float acceleration) {
+        long timestamp = (eventTime / 1000000) - startTime;
+
+        // Plot data
+        addDataPoint(xAxisSeries, timestamp, x);
+        addDataPoint(yAxisSeries, timestamp, y);
+        addDataPoint(zAxisSeries, timestamp, z);
+        addDataPoint(accelerationSeries, timestamp, acceleration);
+    }
 
-        return filteredValues;
-	}
+    @Override
+    public void onMovementStarted(long timestamp, double peakAcceleration) {
+        Log.i(TAG, "Movement started");
+    }
+
+    @Override
+    public void onMovementEnded(long startTimestamp, long endTimestamp,
+            double peakAcceleration) {
+        Log.i(TAG, "Movement ended after " + (endTimestamp - startTimestamp) / 1000000
+                + " ms, peak " + peakAcceleration);
+    }
+
+    private void addDataPoint(PrimitiveXYSeries series, long timestamp, float value) {
+        // The series drops points older than PLOT_WINDOW
+        series.addLast(timestamp, value);
+    }
 
     public void stop() {
-        if (printWriter != null)
+        if (movementDetector != null)
         {
-            printWriter.close();
+            movementDetector.finish();
+            Log.d(TAG, "Movement: " + movementDetector);
         }
-
-		// if (printWriter.checkError()) // FIXME Put this in again.
-		// {
-		// Log.e(TAG, "Error closing writer");
-		// }
+        if (stepDetector != null)
+        {
+            Log.d(TAG, "Steps: " + stepDetector);
+        }
+        closeWriter(sampleWriter);
+        closeWriter(decimatedSampleWriter);
     }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
-        // no-op
+    private void closeWriter(AsyncSampleWriter writer) {
+        if (writer != null)
+        {
+            try
+            {
+                writer.close();
+            }
+            catch (IOException e)
+            {
+                Log.e(TAG, "Error closing writer", e);
+            }
+
+            Log.d(TAG, "Dropped samples: " + writer.getDroppedSamples()
+                    + ", queue high-water mark: " + writer.getHighWaterMark()
+                    + "/" + writer.getCapacity());
+        }
     }
 }
@@ -17,16 +17,35 @@
 package ch.bfh.sensordataprocessor;
 
 import java.io.File;
+import java.io.IOException;
 
 import android.app.Activity;
 import android.content.SharedPreferences;
 import android.hardware.Sensor;
 import android.hardware.SensorManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.CheckBox;
 import android.widget.ToggleButton;
+import ch.bfh.sensordataprocessor.hub.SensorHub;
+import ch.bfh.sensordataprocessor.hub.Subscription;
+import ch.bfh.sensordataprocessor.pref.PreferenceHelper;
+import ch.bfh.sensordataprocessor.processing.AdaptiveRateController;
+import ch.bfh.sensordataprocessor.processing.IAlignedFrameListener;
+import ch.bfh.sensordataprocessor.processing.IMovementListener;
+import ch.bfh.sensordataprocessor.processing.ISamplingRateListener;
+import ch.bfh.sensordataprocessor.processing.MovementDetector;
+import ch.bfh.sensordataprocessor.processing.StepDetector;
+import ch.bfh.sensordataprocessor.processing.StreamAligner;
+import ch.bfh.sensordataprocessor.record.AlignedCsvWriter;
+import ch.bfh.sensordataprocessor.record.ISampleWriterFactory;
+import ch.bfh.sensordataprocessor.record.RecordingFormat;
+import ch.bfh.sensordataprocessor.sensor.AndroidSensorSource;
+import ch.bfh.sensordataprocessor.sensor.SensorRates;
+import ch.bfh.sensordataprocessor.store.SessionStore;
 
 import com.androidplot.xy.BoundaryMode;
 import com.androidplot.xy.XYPlot;
@@ -39,16 +58,59 @@ public class MainActivity extends Activity {
 	private static final int RATE = SensorManager.SENSOR_DELAY_NORMAL;
 	private static final String USE_HIGH_PASS_FILTER_PREFERENCE_KEY = "USE_HIGH_PASS_FILTER_PREFERENCE_KEY";
 	private static final String SELECTED_SENSOR_TYPE_PREFERENCE_KEY = "SELECTED_SENSOR_TYPE_PREFERENCE_KEY";
+	private static final String USE_BINARY_RECORDING_PREFERENCE_KEY = "USE_BINARY_RECORDING_PREFERENCE_KEY";
+	private static final String RECORD_DECIMATED_PREFERENCE_KEY = "RECORD_DECIMATED_PREFERENCE_KEY";
+	private static final String RECORD_ALIGNED_PREFERENCE_KEY = "RECORD_ALIGNED_PREFERENCE_KEY";
+	private static final String USE_COMPRESSED_RECORDING_PREFERENCE_KEY = "USE_COMPRESSED_RECORDING_PREFERENCE_KEY";
+	private static final String USE_SESSION_STORE_PREFERENCE_KEY = "USE_SESSION_STORE_PREFERENCE_KEY";
+	private static final String ADAPT_RATE_PREFERENCE_KEY = "ADAPT_RATE_PREFERENCE_KEY";
+	private static final String REMOVE_OUTLIERS_PREFERENCE_KEY = "REMOVE_OUTLIERS_PREFERENCE_KEY";
+	private static final String BATCHED_RECORDING_PREFERENCE_KEY = "BATCHED_RECORDING_PREFERENCE_KEY";
+	private static final String ALIGNED_FILE_NAME = "aligned.csv";
+	private static final String[] ALIGNED_COLUMNS = { "Accelerometer X",
+			"Accelerometer Y", "Accelerometer Z", "Linear Acceleration X",
+			"Linear Acceleration Y", "Linear Acceleration Z" };
+	private static final int ACCELEROMETER_STREAM = 0;
+	private static final int LINEAR_ACCELERATION_STREAM = 1;
+	private static final long ALIGNMENT_LATENESS = 100000000L;
+	private static final int ALIGNMENT_BUFFER_SIZE = 64;
+	private static final String SESSIONS_DIRECTORY = "sessions";
+	private static final long SESSION_STORE_MAX_BYTES = 256L * 1024 * 1024;
+	private static final long SESSION_STORE_MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+	private static final int MAX_REPORT_LATENCY_MICROS = 5000000;
 
 	private SensorManager sensorManager;
+	private SensorHub sensorHub;
 	private int selectedSensorType;
 	private boolean readingAccelerationData;
 	private SharedPreferences preferences;
 	private AccelerationEventListener accelerometerListener;
 	private AccelerationEventListener linearAccelerationListener;
+	private Subscription accelerometerSubscription;
+	private Subscription linearAccelerationSubscription;
 	private boolean useHighPassFilter;
+	private boolean useBinaryRecording;
+	private boolean recordDecimated;
+	private boolean recordAligned;
+	private boolean useCompressedRecording;
+	private boolean useSessionStore;
+	private boolean adaptRate;
+	private boolean removeOutliers;
+	private boolean batchedRecording;
+	private boolean recordingBatched;
+	private AdaptiveRateController rateController;
+	private StreamAligner aligner;
+	private AlignedCsvWriter alignedWriter;
 	private XYPlot xyPlot;
 	private CheckBox highPassFilterCheckBox;
+	private CheckBox binaryRecordingCheckBox;
+	private CheckBox decimatedRecordingCheckBox;
+	private CheckBox alignedRecordingCheckBox;
+	private CheckBox compressedRecordingCheckBox;
+	private CheckBox sessionStoreCheckBox;
+	private CheckBox adaptiveRateCheckBox;
+	private CheckBox removeOutliersCheckBox;
+	private CheckBox batchedRecordingCheckBox;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -57,8 +119,17 @@ public class MainActivity extends Activity {
 		super.setContentView(R.layout.main);
 
         highPassFilterCheckBox = (CheckBox) findViewById(R.id.highPassFilterCheckBox);
+        binaryRecordingCheckBox = (CheckBox) findViewById(R.id.binaryRecordingCheckBox);
+        decimatedRecordingCheckBox = (CheckBox) findViewById(R.id.decimatedRecordingCheckBox);
+        alignedRecordingCheckBox = (CheckBox) findViewById(R.id.alignedRecordingCheckBox);
+        compressedRecordingCheckBox = (CheckBox) findViewById(R.id.compressedRecordingCheckBox);
+        sessionStoreCheckBox = (CheckBox) findViewById(R.id.sessionStoreCheckBox);
+        adaptiveRateCheckBox = (CheckBox) findViewById(R.id.adaptiveRateCheckBox);
+        removeOutliersCheckBox = (CheckBox) findViewById(R.id.removeOutliersCheckBox);
+        batchedRecordingCheckBox = (CheckBox) findViewById(R.id.batchedRecordingCheckBox);
 
 		sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
+		sensorHub = AndroidSensorSource.getSharedHub(this);
 
 		readingAccelerationData = false;
 
@@ -70,6 +141,54 @@ public class MainActivity extends Activity {
 				USE_HIGH_PASS_FILTER_PREFERENCE_KEY, useHighPassFilter);
         ((CheckBox) findViewById(R.id.highPassFilterCheckBox)).setChecked(useHighPassFilter);
 
+		useBinaryRecording = getResources().getBoolean(
+				R.bool.useBinaryRecordingDefaultValue);
+		useBinaryRecording = preferences.getBoolean(
+				USE_BINARY_RECORDING_PREFERENCE_KEY, useBinaryRecording);
+		binaryRecordingCheckBox.setChecked(useBinaryRecording);
+
+		recordDecimated = getResources().getBoolean(
+				R.bool.recordDecimatedDefaultValue);
+		recordDecimated = preferences.getBoolean(
+				RECORD_DECIMATED_PREFERENCE_KEY, recordDecimated);
+		decimatedRecordingCheckBox.setChecked(recordDecimated);
+
+		recordAligned = getResources().getBoolean(
+				R.bool.recordAlignedDefaultValue);
+		recordAligned = preferences.getBoolean(
+				RECORD_ALIGNED_PREFERENCE_KEY, recordAligned);
+		alignedRecordingCheckBox.setChecked(recordAligned);
+
+		useCompressedRecording = getResources().getBoolean(
+				R.bool.useCompressedRecordingDefaultValue);
+		useCompressedRecording = preferences.getBoolean(
+				USE_COMPRESSED_RECORDING_PREFERENCE_KEY, useCompressedRecording);
+		compressedRecordingCheckBox.setChecked(useCompressedRecording);
+
+		useSessionStore = getResources().getBoolean(
+				R.bool.useSessionStoreDefaultValue);
+		useSessionStore = preferences.getBoolean(
+				USE_SESSION_STORE_PREFERENCE_KEY, useSessionStore);
+		sessionStoreCheckBox.setChecked(useSessionStore);
+
+		adaptRate = getResources().getBoolean(
+				R.bool.adaptRateDefaultValue);
+		adaptRate = preferences.getBoolean(
+				ADAPT_RATE_PREFERENCE_KEY, adaptRate);
+		adaptiveRateCheckBox.setChecked(adaptRate);
+
+		removeOutliers = getResources().getBoolean(
+				R.bool.removeOutliersDefaultValue);
+		removeOutliers = preferences.getBoolean(
+				REMOVE_OUTLIERS_PREFERENCE_KEY, removeOutliers);
+		removeOutliersCheckBox.setChecked(removeOutliers);
+
+		batchedRecording = getResources().getBoolean(
+				R.bool.batchedRecordingDefaultValue);
+		batchedRecording = preferences.getBoolean(
+				BATCHED_RECORDING_PREFERENCE_KEY, batchedRecording);
+		batchedRecordingCheckBox.setChecked(batchedRecording);
+
 		selectedSensorType = preferences.getInt(
 				SELECTED_SENSOR_TYPE_PREFERENCE_KEY, Sensor.TYPE_ACCELEROMETER);
 
@@ -92,6 +211,16 @@ public class MainActivity extends Activity {
 	@Override
 	protected void onPause() {
 		super.onPause();
+		// A batched recording goes on in the background, e.g. with the
+		// screen off, until it is stopped or the activity is destroyed
+		if (!recordingBatched) {
+			stopReadingAccelerationData();
+		}
+	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
 		stopReadingAccelerationData();
 	}
 
@@ -132,38 +261,138 @@ public class MainActivity extends Activity {
 			// sensorSelector.getChildAt(i).setEnabled(false);
 			// }
 			highPassFilterCheckBox.setEnabled(false);
+			binaryRecordingCheckBox.setEnabled(false);
+			decimatedRecordingCheckBox.setEnabled(false);
+			alignedRecordingCheckBox.setEnabled(false);
+			compressedRecordingCheckBox.setEnabled(false);
+			sessionStoreCheckBox.setEnabled(false);
+			adaptiveRateCheckBox.setEnabled(false);
+			removeOutliersCheckBox.setEnabled(false);
+			batchedRecordingCheckBox.setEnabled(false);
+			recordingBatched = batchedRecording;
 
 			// Data files are stored on the external cache directory so they can
 			// be pulled off of the device by the user
-			File accelerometerDataFile = new File(getExternalCacheDir(),
-					"accelerometer.csv");
-			File linearAcceclerationDataFile = new File(getExternalCacheDir(),
-					"linearAcceleration.csv");
+			File dataDirectory = getExternalCacheDir();
+			// Compression takes precedence over the plain binary format
+			RecordingFormat format = useCompressedRecording ? RecordingFormat.COMPRESSED
+					: useBinaryRecording ? RecordingFormat.BINARY
+					: RecordingFormat.CSV;
+			ISampleWriterFactory writerFactory = format;
+			if (useSessionStore) {
+				// Sessions are written as indexed binary segments, the oldest
+				// of which are dropped once the store outgrows its budget
+				SessionStore store = new SessionStore(new File(dataDirectory,
+						SESSIONS_DIRECTORY), SESSION_STORE_MAX_BYTES,
+						SESSION_STORE_MAX_AGE);
+				try {
+					dataDirectory = store.createSession();
+					writerFactory = store;
+				} catch (IOException e) {
+					Log.e(TAG, "Could not create session, recording to "
+							+ dataDirectory, e);
+				}
+			}
 
+			final Sensor accelerometer = sensorManager
+					.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+			final Sensor linearAcceleration = sensorManager
+					.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION);
+			float accelerometerRateHz = SensorRates.nominalRateHz(RATE,
+					accelerometer);
+			float linearAccelerationRateHz = SensorRates.nominalRateHz(RATE,
+					linearAcceleration);
+
+			// Batched events arrive in bursts on a background thread and
+			// are only recorded, not plotted
+			XYPlot plot = recordingBatched ? null : xyPlot;
 			if (selectedSensorType == Sensor.TYPE_ACCELEROMETER) {
 				xyPlot.setTitle("Sensor.TYPE_ACCELEROMETER");
-				accelerometerListener = new AccelerationEventListener(xyPlot,
-						useHighPassFilter, accelerometerDataFile);
+				accelerometerListener = new AccelerationEventListener(plot,
+						useHighPassFilter, removeOutliers, dataDirectory,
+						"accelerometer", writerFactory, Sensor.TYPE_ACCELEROMETER,
+						RATE, accelerometerRateHz, recordDecimated,
+						recordingBatched);
 
 				linearAccelerationListener = new AccelerationEventListener(
-						null, useHighPassFilter, linearAcceclerationDataFile);
+						null, useHighPassFilter, removeOutliers, dataDirectory,
+						"linearAcceleration", writerFactory,
+						Sensor.TYPE_LINEAR_ACCELERATION, RATE,
+						linearAccelerationRateHz, recordDecimated,
+						recordingBatched);
 			} else {
 				xyPlot.setTitle("Sensor.TYPE_LINEAR_ACCELERATION");
 				accelerometerListener = new AccelerationEventListener(null,
-						useHighPassFilter, accelerometerDataFile);
+						useHighPassFilter, removeOutliers, dataDirectory,
+						"accelerometer", writerFactory, Sensor.TYPE_ACCELEROMETER,
+						RATE, accelerometerRateHz, recordDecimated,
+						recordingBatched);
 
 				linearAccelerationListener = new AccelerationEventListener(
-						xyPlot, useHighPassFilter, linearAcceclerationDataFile);
+						plot, useHighPassFilter, removeOutliers, dataDirectory,
+						"linearAcceleration", writerFactory,
+						Sensor.TYPE_LINEAR_ACCELERATION, RATE,
+						linearAccelerationRateHz, recordDecimated,
+						recordingBatched);
+			}
+
+			// Only the plotted sensor is used to determine if the device is
+			// moving
+			AccelerationEventListener plottedListener =
+					selectedSensorType == Sensor.TYPE_ACCELEROMETER ? accelerometerListener
+							: linearAccelerationListener;
+			plottedListener.setMovementDetector(createMovementDetector(plottedListener));
+
+			// The bursts of both sensors arrive at different times, which
+			// neither the aligner nor the rate controller can follow
+			boolean alignRecording = recordAligned && !recordingBatched;
+			boolean adaptRecordingRate = adaptRate && !recordingBatched;
+			if (recordingBatched && (recordAligned || adaptRate)) {
+				Log.i(TAG, "No aligned recording or adaptive rate while batching");
 			}
 
-			sensorManager.registerListener(accelerometerListener,
-					sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-					RATE);
+			// With an adaptive rate, steps are only counted while the rate
+			// is high enough
+			int fastest = SensorManager.SENSOR_DELAY_FASTEST;
+			float stepRateHz = adaptRecordingRate ? Math.max(accelerometerRateHz,
+					SensorRates.nominalRateHz(fastest, accelerometer))
+					: accelerometerRateHz;
+			if (StepDetector.supportsRate(stepRateHz)) {
+				accelerometerListener.setStepDetector(new StepDetector(
+						stepRateHz, null));
+			} else {
+				Log.i(TAG, "No step detection at " + stepRateHz + " Hz");
+			}
 
-			sensorManager.registerListener(linearAccelerationListener,
-					sensorManager
-							.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION),
-					RATE);
+			if (alignRecording) {
+				startAlignedRecording(dataDirectory, Math.min(
+						accelerometerRateHz, linearAccelerationRateHz));
+			}
+
+			int samplingPeriod = SensorRates.samplingPeriodMicros(RATE);
+			if (adaptRecordingRate) {
+				// Sample at RATE while the device rests and as fast as
+				// possible while it moves
+				rateController = new AdaptiveRateController(samplingPeriod,
+						SensorRates.samplingPeriodMicros(fastest),
+						SensorRates.nominalRateHz(fastest, accelerometer),
+						new ISamplingRateListener() {
+							@Override
+							public void onSamplingPeriodChanged(long timestamp,
+									int samplingPeriodMicros) {
+								subscribe(samplingPeriodMicros);
+								accelerometerListener.setSampleRateHz(SensorRates
+										.nominalRateHz(samplingPeriodMicros,
+												accelerometer));
+								linearAccelerationListener.setSampleRateHz(SensorRates
+										.nominalRateHz(samplingPeriodMicros,
+												linearAcceleration));
+							}
+						});
+				accelerometerListener.setRateController(rateController);
+				samplingPeriod = rateController.getSamplingPeriodMicros();
+			}
+			subscribe(samplingPeriod);
 
 			readingAccelerationData = true;
 
@@ -171,6 +400,40 @@ public class MainActivity extends Activity {
 		}
 	}
 
+	/**
+	 * Creates a movement detector configured by the movement preferences.
+	 * The baseline time constant only applies to magnitudes that include
+	 * gravity; high-pass filtered and linear acceleration magnitudes rest at
+	 * 0, where an adaptive baseline would only follow the movements.
+	 */
+	private MovementDetector createMovementDetector(IMovementListener listener) {
+		PreferenceHelper helper = new PreferenceHelper(
+				getString(R.string.movement_preferences_key), this);
+		float enterThreshold = helper.getFloat(this,
+				R.string.pref_movement_enter_threshold,
+				R.string.pref_movement_enter_threshold_default);
+		float exitThreshold = helper.getFloat(this,
+				R.string.pref_movement_exit_threshold,
+				R.string.pref_movement_exit_threshold_default);
+		long minMovementMillis = helper.getLong(this,
+				R.string.pref_movement_min_duration,
+				R.string.pref_movement_min_duration_default);
+		long minRestMillis = helper.getLong(this,
+				R.string.pref_movement_min_rest,
+				R.string.pref_movement_min_rest_default);
+		float baselineTimeConstant = 0;
+		if (!useHighPassFilter
+				&& selectedSensorType == Sensor.TYPE_ACCELEROMETER) {
+			baselineTimeConstant = helper.getFloat(this,
+					R.string.pref_movement_baseline,
+					R.string.pref_movement_baseline_default);
+		}
+		return new MovementDetector(enterThreshold,
+				Math.min(exitThreshold, enterThreshold),
+				minMovementMillis * 1000000L, minRestMillis * 1000000L,
+				baselineTimeConstant, listener);
+	}
+
 	private void stopReadingAccelerationData() {
 		if (readingAccelerationData) {
 			// Re-enable sensor and options UI views
@@ -178,20 +441,151 @@ public class MainActivity extends Activity {
 			// sensorSelector.getChildAt(i).setEnabled(true);
 			// }
 			highPassFilterCheckBox.setEnabled(true);
-
-			sensorManager.unregisterListener(accelerometerListener);
-			sensorManager.unregisterListener(linearAccelerationListener);
-
-			// Tell listeners to clean up after themselves
-			accelerometerListener.stop();
-			linearAccelerationListener.stop();
+			binaryRecordingCheckBox.setEnabled(true);
+			decimatedRecordingCheckBox.setEnabled(true);
+			alignedRecordingCheckBox.setEnabled(true);
+			compressedRecordingCheckBox.setEnabled(true);
+			sessionStoreCheckBox.setEnabled(true);
+			adaptiveRateCheckBox.setEnabled(true);
+			removeOutliersCheckBox.setEnabled(true);
+			batchedRecordingCheckBox.setEnabled(true);
+
+			if (recordingBatched) {
+				stopBatchedRecording();
+			} else {
+				sensorHub.unsubscribe(accelerometerSubscription);
+				sensorHub.unsubscribe(linearAccelerationSubscription);
+				accelerometerSubscription = null;
+				linearAccelerationSubscription = null;
+
+				if (rateController != null) {
+					accelerometerListener.setRateController(null);
+					Log.d(TAG, "Adaptive rate: " + rateController);
+					rateController = null;
+				}
+
+				// Tell listeners to clean up after themselves
+				accelerometerListener.stop();
+				linearAccelerationListener.stop();
+				stopAlignedRecording();
+			}
 
 			readingAccelerationData = false;
+			recordingBatched = false;
 
 			Log.d(TAG, "Stopped reading acceleration data");
 		}
 	}
 
+	/**
+	 * Unsubscribes and stops the listeners on the thread the blocks are
+	 * delivered on, after the blocks already on their way, so that the
+	 * last burst is still written before the files are closed.
+	 */
+	private void stopBatchedRecording() {
+		final Subscription accelerometer = accelerometerSubscription;
+		final Subscription linearAcceleration = linearAccelerationSubscription;
+		final AccelerationEventListener accelerometerStopped = accelerometerListener;
+		final AccelerationEventListener linearAccelerationStopped = linearAccelerationListener;
+		accelerometerSubscription = null;
+		linearAccelerationSubscription = null;
+
+		Handler batchHandler = AndroidSensorSource.getBatchHandler(this);
+		batchHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				sensorHub.unsubscribe(accelerometer);
+				sensorHub.unsubscribe(linearAcceleration);
+				accelerometerStopped.stop();
+				linearAccelerationStopped.stop();
+				Log.d(TAG, "Stopped batched recording");
+			}
+		});
+	}
+
+	/**
+	 * Subscribes both listeners at a new sampling period. The new
+	 * subscriptions are added before the old ones are removed, so the hub
+	 * only changes the registration of each sensor once. A batched
+	 * recording subscribes for blocks, so that the hub registers the
+	 * sensors for batching while nothing else consumes them.
+	 */
+	private void subscribe(int samplingPeriod) {
+		Subscription previousAccelerometer = accelerometerSubscription;
+		Subscription previousLinearAcceleration = linearAccelerationSubscription;
+
+		if (recordingBatched) {
+			accelerometerSubscription = sensorHub.subscribeBlocks(
+					Sensor.TYPE_ACCELEROMETER, samplingPeriod,
+					MAX_REPORT_LATENCY_MICROS, accelerometerListener);
+			linearAccelerationSubscription = sensorHub.subscribeBlocks(
+					Sensor.TYPE_LINEAR_ACCELERATION, samplingPeriod,
+					MAX_REPORT_LATENCY_MICROS, linearAccelerationListener);
+		} else {
+			accelerometerSubscription = sensorHub.subscribe(
+					Sensor.TYPE_ACCELEROMETER, samplingPeriod,
+					accelerometerListener);
+			linearAccelerationSubscription = sensorHub.subscribe(
+					Sensor.TYPE_LINEAR_ACCELERATION, samplingPeriod,
+					linearAccelerationListener);
+		}
+
+		sensorHub.unsubscribe(previousAccelerometer);
+		sensorHub.unsubscribe(previousLinearAcceleration);
+	}
+
+	/**
+	 * Joins both sensors into one record per tick of the slower sensor.
+	 * Both listeners are registered on the main thread, which the aligner
+	 * requires.
+	 */
+	private void startAlignedRecording(File dataDirectory, float rateHz) {
+		try {
+			alignedWriter = new AlignedCsvWriter(new File(dataDirectory,
+					ALIGNED_FILE_NAME), ALIGNED_COLUMNS,
+					SystemClock.uptimeMillis());
+		} catch (IOException e) {
+			Log.e(TAG, "Could not open aligned data file", e);
+			return;
+		}
+
+		aligner = new StreamAligner(2, 3, (long) (1e9 / rateHz),
+				ALIGNMENT_LATENESS, ALIGNMENT_BUFFER_SIZE,
+				StreamAligner.Interpolation.CUBIC,
+				new IAlignedFrameListener() {
+					@Override
+					public void onAlignedFrame(long timestamp, float[] values,
+							int staleStreams) {
+						try {
+							alignedWriter.writeFrame(timestamp, values,
+									staleStreams);
+						} catch (IOException e) {
+							Log.w(TAG, "Error writing aligned frame");
+						}
+					}
+				});
+		accelerometerListener.setAligner(aligner, ACCELEROMETER_STREAM);
+		linearAccelerationListener.setAligner(aligner,
+				LINEAR_ACCELERATION_STREAM);
+	}
+
+	private void stopAlignedRecording() {
+		if (aligner != null) {
+			aligner.flush();
+			Log.d(TAG, "Aligned frames: " + aligner.getFrames()
+					+ ", dropped samples: " + aligner.getDroppedSamples());
+			aligner = null;
+		}
+		if (alignedWriter != null) {
+			try {
+				alignedWriter.close();
+			} catch (IOException e) {
+				Log.e(TAG, "Error closing aligned data file", e);
+			}
+			alignedWriter = null;
+		}
+	}
+
 	public void onHighPassFilterCheckBoxClicked(View view) {
 		useHighPassFilter = ((CheckBox) view).isChecked();
 		preferences
@@ -199,4 +593,68 @@ public class MainActivity extends Activity {
 				.putBoolean(USE_HIGH_PASS_FILTER_PREFERENCE_KEY,
 						useHighPassFilter).commit();
 	}
+
+	public void onBinaryRecordingCheckBoxClicked(View view) {
+		useBinaryRecording = ((CheckBox) view).isChecked();
+		preferences
+				.edit()
+				.putBoolean(USE_BINARY_RECORDING_PREFERENCE_KEY,
+						useBinaryRecording).commit();
+	}
+
+	public void onDecimatedRecordingCheckBoxClicked(View view) {
+		recordDecimated = ((CheckBox) view).isChecked();
+		preferences
+				.edit()
+				.putBoolean(RECORD_DECIMATED_PREFERENCE_KEY,
+						recordDecimated).commit();
+	}
+
+	public void onAlignedRecordingCheckBoxClicked(View view) {
+		recordAligned = ((CheckBox) view).isChecked();
+		preferences
+				.edit()
+				.putBoolean(RECORD_ALIGNED_PREFERENCE_KEY,
+						recordAligned).commit();
+	}
+
+	public void onCompressedRecordingCheckBoxClicked(View view) {
+		useCompressedRecording = ((CheckBox) view).isChecked();
+		preferences
+				.edit()
+				.putBoolean(USE_COMPRESSED_RECORDING_PREFERENCE_KEY,
+						useCompressedRecording).commit();
+	}
+
+	public void onSessionStoreCheckBoxClicked(View view) {
+		useSessionStore = ((CheckBox) view).isChecked();
+		preferences
+				.edit()
+				.putBoolean(USE_SESSION_STORE_PREFERENCE_KEY,
+						useSessionStore).commit();
+	}
+
+	public void onAdaptiveRateCheckBoxClicked(View view) {
+		adaptRate = ((CheckBox) view).isChecked();
+		preferences
+				.edit()
+				.putBoolean(ADAPT_RATE_PREFERENCE_KEY,
+						adaptRate).commit();
+	}
+
+	public void onRemoveOutliersCheckBoxClicked(View view) {
+		removeOutliers = ((CheckBox) view).isChecked();
+		preferences
+				.edit()
+				.putBoolean(REMOVE_OUTLIERS_PREFERENCE_KEY,
+						removeOutliers).commit();
+	}
+
+	public void onBatchedRecordingCheckBoxClicked(View view) {
+		batchedRecording = ((CheckBox) view).isChecked();
+		preferences
+				.edit()
+				.putBoolean(BATCHED_RECORDING_PREFERENCE_KEY,
+						batchedRecording).commit();
+	}
 }
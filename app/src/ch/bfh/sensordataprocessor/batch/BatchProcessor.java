@@ -0,0 +1,577 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.batch;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.bfh.sensordataprocessor.batch.RecordingSummary.ChannelSummary;
+import ch.bfh.sensordataprocessor.math.FilterChain;
+import ch.bfh.sensordataprocessor.math.MultiChannelFilter;
+import ch.bfh.sensordataprocessor.processing.AccelerationProcessor;
+import ch.bfh.sensordataprocessor.processing.AxisStatistics;
+import ch.bfh.sensordataprocessor.processing.IMovementListener;
+import ch.bfh.sensordataprocessor.processing.MovementDetector;
+import ch.bfh.sensordataprocessor.record.BinaryRecordingConverter;
+import ch.bfh.sensordataprocessor.record.ISampleSource;
+import ch.bfh.sensordataprocessor.record.ISampleWriter;
+import ch.bfh.sensordataprocessor.record.RecordingFormat;
+import ch.bfh.sensordataprocessor.replay.ReplayEngine;
+
+/**
+ * Post-processes a directory of recordings on the JVM. Every recording is
+ * streamed block by block through a configurable filter chain and an
+ * {@link AccelerationProcessor} with a {@link MovementDetector}, and
+ * summarised in a {@link RecordingSummary}; memory use does not depend on the
+ * length of the recordings. The recordings are processed in parallel by a
+ * fixed pool of workers that take the next recording from a shared index, so
+ * a worker that finishes early simply takes more.
+ * <p>
+ * Usage:
+ * <code>BatchProcessor &lt;directory&gt; [--filter spec] [--threads n[,n...]]
+ * [--output directory] [--format csv|bin|sdc]</code>
+ * <p>
+ * The directory is searched recursively for CSV, binary and compressed
+ * recordings. The filter spec is described in {@link FilterChainSpec} and
+ * defaults to the high-pass filter used on the device. With
+ * <code>--output</code> a <code>summary.csv</code> with one row per recording
+ * is written, and with <code>--format</code> the filtered recordings as well.
+ * Given several thread counts, the whole batch is run once per count to
+ * report how files/s and samples/s scale.
+ */
+public class BatchProcessor
+{
+    public static final String SUMMARY_FILE_NAME = "summary.csv";
+    public static final String DEFAULT_FILTER = "highpass";
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final float PLOT_RATE_HZ = 100f;
+    private static final String[] CHANNEL_NAMES = { "x", "y", "z", "acceleration" };
+
+    private final File inputDirectory;
+    private final FilterChainSpec filterSpec;
+    private final File outputDirectory;
+    private final RecordingFormat outputFormat;
+
+    /**
+     * @param outputDirectory where the filtered recordings are written
+     * @param outputFormat format of the filtered recordings, <code>null</code>
+     *            to not write them
+     */
+    public BatchProcessor(File inputDirectory, FilterChainSpec filterSpec, File outputDirectory,
+            RecordingFormat outputFormat)
+    {
+        this.inputDirectory = inputDirectory;
+        this.filterSpec = filterSpec;
+        this.outputDirectory = outputDirectory;
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * @return the recordings below the input directory, sorted by path
+     */
+    public List<File> findRecordings()
+    {
+        List<File> recordings = new ArrayList<File>();
+        collectRecordings(inputDirectory, recordings);
+        return recordings;
+    }
+
+    /**
+     * Processes the recordings in parallel. A recording that cannot be read
+     * does not stop the batch; its summary carries the error instead.
+     *
+     * @param parallelism number of worker threads
+     * @return the summaries, in the order of the recordings
+     */
+    public RecordingSummary[] process(List<File> recordings, int parallelism)
+    {
+        RecordingSummary[] summaries = new RecordingSummary[recordings.size()];
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try
+        {
+            List<Future<?>> workers = new ArrayList<Future<?>>(parallelism);
+            for (int i = 0; i < parallelism; ++i)
+            {
+                workers.add(executor.submit(new RecordingWorker(recordings, summaries, next)));
+            }
+            for (Future<?> worker : workers)
+            {
+                worker.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing recordings", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Processing a recording failed", e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return summaries;
+    }
+
+    /**
+     * Processes a single recording on the calling thread.
+     */
+    public RecordingSummary summarize(File recording)
+    {
+        RecordingSummary summary = new RecordingSummary(recording);
+        try
+        {
+            process(recording, summary);
+        }
+        catch (IOException e)
+        {
+            summary.setError(e.getMessage());
+        }
+        catch (RuntimeException e)
+        {
+            summary.setError(e.toString());
+        }
+        return summary;
+    }
+
+    private void process(File recording, RecordingSummary summary) throws IOException
+    {
+        float sampleRateHz = ReplayEngine.estimateSampleRateHz(recording);
+        summary.setSampleRateHz(sampleRateHz);
+
+        FilterChain[] chains = new FilterChain[3];
+        for (int i = 0; i < chains.length; ++i)
+        {
+            chains[i] = filterSpec.createChain(sampleRateHz);
+        }
+        MultiChannelFilter filter = new MultiChannelFilter(chains);
+
+        ISampleSource source = RecordingFormat.forFile(recording).openSource(recording);
+        ISampleWriter writer = null;
+        try
+        {
+            if (outputFormat != null)
+            {
+                writer = outputFormat.createWriter(outputDirectory, outputName(recording), 0, 0,
+                        source.getStartTime());
+            }
+            // the axes are filtered here, the processor only detects and writes
+            AccelerationProcessor processor = new AccelerationProcessor(false, writer, null,
+                    sampleRateHz, PLOT_RATE_HZ, null);
+            MovementDetector movementDetector = new MovementDetector(
+                    new MovementListener(summary));
+            processor.setMovementDetector(movementDetector);
+
+            long[] timestamps = new long[BLOCK_SIZE];
+            float[] frames = new float[BLOCK_SIZE * 3];
+            int count;
+            do
+            {
+                count = 0;
+                while (count < BLOCK_SIZE && source.next())
+                {
+                    timestamps[count] = source.getTimestamp();
+                    frames[3 * count] = source.getX();
+                    frames[3 * count + 1] = source.getY();
+                    frames[3 * count + 2] = source.getZ();
+                    ++count;
+                }
+                if (count == 0)
+                {
+                    break;
+                }
+
+                filter.processInterleaved(frames, 0, count);
+                for (int i = 0, frame = 0; i < count; ++i, frame += 3)
+                {
+                    float x = frames[frame];
+                    float y = frames[frame + 1];
+                    float z = frames[frame + 2];
+                    summary.addSample(timestamps[i], x, y, z,
+                            (float) Math.sqrt(x * x + y * y + z * z));
+                }
+                processor.processBlock(timestamps, frames, 0, count);
+
+                IOException error = processor.takeWriteError();
+                if (error != null)
+                {
+                    throw error;
+                }
+            }
+            while (count == BLOCK_SIZE);
+            movementDetector.finish();
+        }
+        finally
+        {
+            source.close();
+            if (writer != null)
+            {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Recordings from different devices usually share their file names, so
+     * the output name is made from the path below the input directory.
+     */
+    private String outputName(File recording)
+    {
+        String root = inputDirectory.getAbsolutePath();
+        String path = recording.getAbsolutePath();
+        if (path.startsWith(root + File.separator))
+        {
+            path = path.substring(root.length() + 1);
+        }
+        else
+        {
+            path = recording.getName();
+        }
+        int dot = path.lastIndexOf('.');
+        if (dot > path.lastIndexOf(File.separatorChar))
+        {
+            path = path.substring(0, dot);
+        }
+        return path.replace(File.separatorChar, '_');
+    }
+
+    private void collectRecordings(File directory, List<File> recordings)
+    {
+        File[] files = directory.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files)
+        {
+            if (file.isDirectory())
+            {
+                // do not pick up our own output
+                if (!file.getAbsoluteFile().equals(
+                        outputDirectory == null ? null : outputDirectory.getAbsoluteFile()))
+                {
+                    collectRecordings(file, recordings);
+                }
+            }
+            else if (isRecording(file))
+            {
+                recordings.add(file);
+            }
+        }
+    }
+
+    private static boolean isRecording(File file)
+    {
+        String name = file.getName();
+        return (name.endsWith(BinaryRecordingConverter.CSV_EXTENSION)
+                    && !name.equals(SUMMARY_FILE_NAME))
+                || name.endsWith(BinaryRecordingConverter.BINARY_EXTENSION)
+                || name.endsWith(BinaryRecordingConverter.COMPRESSED_EXTENSION);
+    }
+
+    /**
+     * Writes one row per recording with the statistics of each channel.
+     */
+    public static void writeSummary(RecordingSummary[] summaries, File file) throws IOException
+    {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8")));
+        try
+        {
+            out.print("file,samples,duration_s,rate_hz,movements,moving_s,movement_peak");
+            for (String channel : CHANNEL_NAMES)
+            {
+                out.print("," + channel + "_mean," + channel + "_sd," + channel + "_rms,"
+                        + channel + "_min," + channel + "_max");
+                for (double probability : RecordingSummary.QUANTILES)
+                {
+                    out.print("," + channel + "_p" + Math.round(probability * 100));
+                }
+            }
+            out.println(",error");
+
+            for (RecordingSummary summary : summaries)
+            {
+                out.print(quote(summary.getFile().getPath()));
+                out.printf(Locale.US, ",%d,%.3f,%.1f,%d,%.3f,%.4f", summary.getSamples(),
+                        summary.getDurationSeconds(), summary.getSampleRateHz(),
+                        summary.getMovements(), summary.getMovingSeconds(),
+                        summary.getMovementPeak());
+                for (int channel = 0; channel < AxisStatistics.CHANNEL_COUNT; ++channel)
+                {
+                    ChannelSummary statistics = summary.getChannel(channel);
+                    out.printf(Locale.US, ",%.6f,%.6f,%.6f,%.6f,%.6f",
+                            statistics.getMean(), statistics.getStandardDeviation(),
+                            statistics.getRms(), statistics.getMin(), statistics.getMax());
+                    for (int i = 0; i < RecordingSummary.QUANTILES.length; ++i)
+                    {
+                        out.printf(Locale.US, ",%.6f", statistics.getQuantile(i));
+                    }
+                }
+                out.print(',');
+                if (summary.getError() != null)
+                {
+                    out.print(quote(summary.getError()));
+                }
+                out.println();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        if (out.checkError())
+        {
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    private static String quote(String value)
+    {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        File inputDirectory = null;
+        File outputDirectory = null;
+        RecordingFormat outputFormat = null;
+        String filter = DEFAULT_FILTER;
+        int[] threadCounts = { Runtime.getRuntime().availableProcessors() };
+
+        try
+        {
+            for (int i = 0; i < args.length; ++i)
+            {
+                String arg = args[i];
+                if (arg.equals("--filter") && i + 1 < args.length)
+                {
+                    filter = args[++i];
+                }
+                else if (arg.equals("--threads") && i + 1 < args.length)
+                {
+                    threadCounts = parseThreadCounts(args[++i]);
+                }
+                else if (arg.equals("--output") && i + 1 < args.length)
+                {
+                    outputDirectory = new File(args[++i]);
+                }
+                else if (arg.equals("--format") && i + 1 < args.length)
+                {
+                    outputFormat = parseFormat(args[++i]);
+                }
+                else if (inputDirectory == null && !arg.startsWith("--"))
+                {
+                    inputDirectory = new File(arg);
+                }
+                else
+                {
+                    throw new IllegalArgumentException("Unexpected argument: " + arg);
+                }
+            }
+            if (outputFormat != null && outputDirectory == null)
+            {
+                throw new IllegalArgumentException("--format needs --output");
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            inputDirectory = null;
+        }
+        if (inputDirectory == null || !inputDirectory.isDirectory())
+        {
+            System.err.println("Usage: BatchProcessor <directory> [--filter spec]"
+                    + " [--threads n[,n...]] [--output directory] [--format csv|bin|sdc]");
+            System.exit(1);
+        }
+
+        FilterChainSpec filterSpec;
+        try
+        {
+            filterSpec = FilterChainSpec.parse(filter);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (outputDirectory != null && !outputDirectory.isDirectory()
+                && !outputDirectory.mkdirs())
+        {
+            throw new IOException("Could not create " + outputDirectory);
+        }
+
+        BatchProcessor processor = new BatchProcessor(inputDirectory, filterSpec,
+                outputDirectory, outputFormat);
+        List<File> recordings = processor.findRecordings();
+        if (recordings.isEmpty())
+        {
+            System.err.println("No recordings found in " + inputDirectory);
+            System.exit(1);
+        }
+        System.out.printf(Locale.US, "%d recordings, filter %s%n", recordings.size(),
+                filterSpec);
+
+        if (threadCounts.length > 1)
+        {
+            // let the JIT compile the processing path and the OS cache the
+            // files, so the first measurement is not penalised
+            processor.process(recordings, threadCounts[threadCounts.length - 1]);
+        }
+
+        RecordingSummary[] summaries = null;
+        double baseline = 0;
+        for (int threads : threadCounts)
+        {
+            long start = System.nanoTime();
+            summaries = processor.process(recordings, threads);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            long samples = 0;
+            for (RecordingSummary summary : summaries)
+            {
+                samples += summary.getSamples();
+            }
+            if (baseline == 0)
+            {
+                baseline = seconds;
+            }
+            System.out.printf(Locale.US,
+                    "%3d threads: %8.3f s  %8.1f files/s  %12.0f samples/s  speedup %.2f%n",
+                    threads, seconds, recordings.size() / seconds, samples / seconds,
+                    baseline / seconds);
+        }
+
+        int failures = 0;
+        for (RecordingSummary summary : summaries)
+        {
+            if (summary.getError() != null)
+            {
+                System.err.println(summary.getFile() + ": " + summary.getError());
+                ++failures;
+            }
+        }
+        if (failures > 0)
+        {
+            System.err.printf(Locale.US, "%d of %d recordings failed%n", failures,
+                    summaries.length);
+        }
+
+        if (outputDirectory != null)
+        {
+            File summaryFile = new File(outputDirectory, SUMMARY_FILE_NAME);
+            writeSummary(summaries, summaryFile);
+            System.out.println("Summary written to " + summaryFile);
+        }
+    }
+
+    private static RecordingFormat parseFormat(String value)
+    {
+        for (RecordingFormat format : RecordingFormat.values())
+        {
+            if (format.getExtension().equals("." + value))
+            {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown format: " + value);
+    }
+
+    private static int[] parseThreadCounts(String value)
+    {
+        String[] parts = value.split(",");
+        int[] counts = new int[parts.length];
+        for (int i = 0; i < parts.length; ++i)
+        {
+            counts[i] = Integer.parseInt(parts[i].trim());
+            if (counts[i] < 1)
+            {
+                throw new IllegalArgumentException("Thread counts must be positive");
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Takes recordings from the shared index until none is left.
+     */
+    private class RecordingWorker implements Runnable
+    {
+        private final List<File> recordings;
+        private final RecordingSummary[] summaries;
+        private final AtomicInteger next;
+
+        RecordingWorker(List<File> recordings, RecordingSummary[] summaries, AtomicInteger next)
+        {
+            this.recordings = recordings;
+            this.summaries = summaries;
+            this.next = next;
+        }
+
+        @Override
+        public void run()
+        {
+            int index;
+            while ((index = next.getAndIncrement()) < summaries.length)
+            {
+                summaries[index] = summarize(recordings.get(index));
+            }
+        }
+    }
+
+    private static class MovementListener implements IMovementListener
+    {
+        private final RecordingSummary summary;
+
+        MovementListener(RecordingSummary summary)
+        {
+            this.summary = summary;
+        }
+
+        @Override
+        public void onMovementStarted(long timestamp, double peakAcceleration)
+        {
+        }
+
+        @Override
+        public void onMovementEnded(long startTimestamp, long endTimestamp,
+                double peakAcceleration)
+        {
+            summary.addMovement(startTimestamp, endTimestamp, peakAcceleration);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import ch.bfh.sensordataprocessor.math.BiquadCascadeFilter;
+import ch.bfh.sensordataprocessor.math.FilterChain;
+import ch.bfh.sensordataprocessor.math.HighPassFilter;
+import ch.bfh.sensordataprocessor.math.IFilter;
+import ch.bfh.sensordataprocessor.math.LowPassFilter;
+import ch.bfh.sensordataprocessor.math.MovingAverageFilter;
+import ch.bfh.sensordataprocessor.math.SlidingMedianFilter;
+
+/**
+ * Filter chain described by a comma separated list of stages, for example
+ * <code>hampel:9,highpass:0.7</code>. The stages are:
+ * <ul>
+ * <li><code>highpass[:alpha]</code>, <code>lowpass[:alpha]</code></li>
+ * <li><code>average:size</code>, <code>median:size</code>,
+ * <code>hampel:size</code></li>
+ * <li><code>butterlow:order:hz</code>, <code>butterhigh:order:hz</code></li>
+ * </ul>
+ * <code>none</code> describes an empty chain. A spec can create any number of
+ * chains, one for each axis of each recording, since filters keep state.
+ */
+public class FilterChainSpec
+{
+    private static final String SEPARATOR = ",";
+    private static final String ARGUMENT_SEPARATOR = ":";
+    private static final String NONE = "none";
+    private static final float VALIDATION_RATE_HZ = 1000f;
+
+    private final String spec;
+    private final String[][] stages;
+
+    private FilterChainSpec(String spec, String[][] stages)
+    {
+        this.spec = spec;
+        this.stages = stages;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a stage is unknown or its
+     *             arguments are invalid
+     */
+    public static FilterChainSpec parse(String spec)
+    {
+        String trimmed = spec.trim().toLowerCase(Locale.US);
+        List<String[]> stages = new ArrayList<String[]>();
+        if (!trimmed.equals(NONE) && trimmed.length() > 0)
+        {
+            for (String stage : trimmed.split(SEPARATOR))
+            {
+                stages.add(stage.trim().split(ARGUMENT_SEPARATOR));
+            }
+        }
+        FilterChainSpec result = new FilterChainSpec(trimmed,
+                stages.toArray(new String[stages.size()][]));
+        // fail on the command line rather than in a worker; the rate is high
+        // enough not to reject cut-offs that are valid for real recordings
+        result.createChain(VALIDATION_RATE_HZ);
+        return result;
+    }
+
+    /**
+     * @param sampleRateHz rate of the recording, needed by the Butterworth
+     *            stages
+     */
+    public FilterChain createChain(float sampleRateHz)
+    {
+        IFilter[] filters = new IFilter[stages.length];
+        for (int i = 0; i < stages.length; ++i)
+        {
+            filters[i] = createFilter(stages[i], sampleRateHz);
+        }
+        return new FilterChain(filters);
+    }
+
+    @Override
+    public String toString()
+    {
+        return stages.length == 0 ? NONE : spec;
+    }
+
+    private static IFilter createFilter(String[] stage, float sampleRateHz)
+    {
+        String name = stage[0];
+        try
+        {
+            if (name.equals("highpass"))
+            {
+                checkArguments(stage, 0, 1);
+                return stage.length == 1 ? new HighPassFilter()
+                        : new HighPassFilter(Float.parseFloat(stage[1]));
+            }
+            if (name.equals("lowpass"))
+            {
+                checkArguments(stage, 0, 1);
+                return stage.length == 1 ? new LowPassFilter()
+                        : new LowPassFilter(Float.parseFloat(stage[1]));
+            }
+            if (name.equals("average"))
+            {
+                checkArguments(stage, 1, 1);
+                return new MovingAverageFilter(Integer.parseInt(stage[1]));
+            }
+            if (name.equals("median"))
+            {
+                checkArguments(stage, 1, 1);
+                return new SlidingMedianFilter(Integer.parseInt(stage[1]));
+            }
+            if (name.equals("hampel"))
+            {
+                checkArguments(stage, 1, 1);
+                return SlidingMedianFilter.hampel(Integer.parseInt(stage[1]));
+            }
+            if (name.equals("butterlow"))
+            {
+                checkArguments(stage, 2, 2);
+                return BiquadCascadeFilter.butterworthLowPass(Integer.parseInt(stage[1]),
+                        Double.parseDouble(stage[2]), sampleRateHz);
+            }
+            if (name.equals("butterhigh"))
+            {
+                checkArguments(stage, 2, 2);
+                return BiquadCascadeFilter.butterworthHighPass(Integer.parseInt(stage[1]),
+                        Double.parseDouble(stage[2]), sampleRateHz);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid argument for filter " + name + ": "
+                    + e.getMessage());
+        }
+        throw new IllegalArgumentException("Unknown filter: " + name);
+    }
+
+    private static void checkArguments(String[] stage, int min, int max)
+    {
+        int count = stage.length - 1;
+        if (count < min || count > max)
+        {
+            throw new IllegalArgumentException("Filter " + stage[0] + " takes "
+                    + (min == max ? String.valueOf(min) : min + " to " + max)
+                    + " arguments");
+        }
+    }
+}
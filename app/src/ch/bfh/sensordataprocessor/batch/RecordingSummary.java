@@ -0,0 +1,223 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.batch;
+
+import java.io.File;
+
+import ch.bfh.sensordataprocessor.math.P2QuantileEstimator;
+import ch.bfh.sensordataprocessor.processing.AxisStatistics;
+
+/**
+ * Statistics and detected movements of a whole recording. Everything is
+ * accumulated in constant memory, whatever the length of the recording.
+ */
+public class RecordingSummary
+{
+    /** Probabilities of the quantiles estimated for each channel. */
+    public static final double[] QUANTILES = { 0.5, 0.95 };
+
+    private final File file;
+    private final ChannelSummary[] channels = new ChannelSummary[AxisStatistics.CHANNEL_COUNT];
+    private float sampleRateHz;
+    private long samples;
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private long movements;
+    private long movingNanos;
+    private double movementPeak;
+    private String error;
+
+    public RecordingSummary(File file)
+    {
+        this.file = file;
+        for (int i = 0; i < channels.length; ++i)
+        {
+            channels[i] = new ChannelSummary();
+        }
+    }
+
+    void setSampleRateHz(float sampleRateHz)
+    {
+        this.sampleRateHz = sampleRateHz;
+    }
+
+    void addSample(long timestamp, float x, float y, float z, float acceleration)
+    {
+        if (samples == 0)
+        {
+            firstTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+        ++samples;
+
+        channels[AxisStatistics.X].add(x);
+        channels[AxisStatistics.Y].add(y);
+        channels[AxisStatistics.Z].add(z);
+        channels[AxisStatistics.ACCELERATION].add(acceleration);
+    }
+
+    void addMovement(long startTimestamp, long endTimestamp, double peakAcceleration)
+    {
+        ++movements;
+        movingNanos += endTimestamp - startTimestamp;
+        movementPeak = Math.max(movementPeak, peakAcceleration);
+    }
+
+    void setError(String error)
+    {
+        this.error = error;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public float getSampleRateHz()
+    {
+        return sampleRateHz;
+    }
+
+    public long getSamples()
+    {
+        return samples;
+    }
+
+    public double getDurationSeconds()
+    {
+        return samples == 0 ? 0 : (lastTimestamp - firstTimestamp) / 1e9;
+    }
+
+    /**
+     * @return the number of movements found by the
+     *         {@link ch.bfh.sensordataprocessor.processing.MovementDetector}
+     */
+    public long getMovements()
+    {
+        return movements;
+    }
+
+    /**
+     * @return the total duration of the movements
+     */
+    public double getMovingSeconds()
+    {
+        return movingNanos / 1e9;
+    }
+
+    /**
+     * @return the largest deviation of the acceleration from its baseline
+     *         during a movement
+     */
+    public double getMovementPeak()
+    {
+        return movementPeak;
+    }
+
+    /**
+     * @param channel one of the {@link AxisStatistics} channels
+     */
+    public ChannelSummary getChannel(int channel)
+    {
+        return channels[channel];
+    }
+
+    /**
+     * @return why the recording could not be processed, <code>null</code> if
+     *         it was
+     */
+    public String getError()
+    {
+        return error;
+    }
+
+    /**
+     * Running statistics of one channel.
+     */
+    public static class ChannelSummary
+    {
+        private final P2QuantileEstimator[] quantiles =
+                new P2QuantileEstimator[QUANTILES.length];
+        private long count;
+        private double mean;
+        private double m2;
+        private float min = Float.NaN;
+        private float max = Float.NaN;
+
+        ChannelSummary()
+        {
+            for (int i = 0; i < quantiles.length; ++i)
+            {
+                quantiles[i] = new P2QuantileEstimator(QUANTILES[i]);
+            }
+        }
+
+        void add(float value)
+        {
+            ++count;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+
+            if (count == 1 || value < min)
+            {
+                min = value;
+            }
+            if (count == 1 || value > max)
+            {
+                max = value;
+            }
+            for (P2QuantileEstimator quantile : quantiles)
+            {
+                quantile.add(value);
+            }
+        }
+
+        public double getMean()
+        {
+            return count == 0 ? Double.NaN : mean;
+        }
+
+        public double getStandardDeviation()
+        {
+            return count < 2 ? 0 : Math.sqrt(m2 / (count - 1));
+        }
+
+        public double getRms()
+        {
+            return count == 0 ? Double.NaN : Math.sqrt(mean * mean + m2 / count);
+        }
+
+        public float getMin()
+        {
+            return min;
+        }
+
+        public float getMax()
+        {
+            return max;
+        }
+
+        /**
+         * @param index index into {@link RecordingSummary#QUANTILES}
+         */
+        public double getQuantile(int index)
+        {
+            return quantiles[index].getQuantile();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.hub;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simulated sensors for running a {@link SensorHub} on the JVM. Every
+ * registered type produces a three-axis sine at its sampling period on a
+ * simulated clock, so tests and load tests are deterministic and run as fast
+ * as the hub can take the events.
+ */
+public class FakeSensorSource implements ISensorSource
+{
+    /**
+     * Period used for registrations asking for the fastest rate.
+     */
+    public static final int FASTEST_PERIOD_MICROS = 1000;
+
+    private final List<Sensor> sensors = new ArrayList<Sensor>();
+    private final float[] values = new float[3];
+    private long now;
+    private int registrations;
+
+    @Override
+    public synchronized boolean register(int sensorType, int samplingPeriodMicros,
+            SensorHub hub)
+    {
+        long period = 1000L * (samplingPeriodMicros > 0 ? samplingPeriodMicros
+                : FASTEST_PERIOD_MICROS);
+        Sensor sensor = find(sensorType);
+        if (sensor == null)
+        {
+            sensor = new Sensor(sensorType);
+            sensor.nextEvent = now;
+            sensors.add(sensor);
+        }
+        sensor.period = period;
+        sensor.hub = hub;
+        ++registrations;
+        return true;
+    }
+
+    @Override
+    public synchronized void unregister(int sensorType)
+    {
+        Sensor sensor = find(sensorType);
+        if (sensor != null)
+        {
+            sensors.remove(sensor);
+        }
+    }
+
+    /**
+     * Advances the simulated clock, publishing the events of all registered
+     * sensors that fall into the interval in time order.
+     *
+     * @return the number of events published
+     */
+    public synchronized long advance(long nanos)
+    {
+        long end = now + nanos;
+        long events = 0;
+        while (true)
+        {
+            Sensor next = null;
+            for (int i = 0; i < sensors.size(); ++i)
+            {
+                Sensor sensor = sensors.get(i);
+                if (sensor.nextEvent < end && (next == null || sensor.nextEvent < next.nextEvent))
+                {
+                    next = sensor;
+                }
+            }
+            if (next == null)
+            {
+                break;
+            }
+
+            now = next.nextEvent;
+            double phase = now * 1e-9 * 2 * Math.PI;
+            values[0] = (float) Math.sin(phase);
+            values[1] = (float) Math.cos(phase);
+            values[2] = (float) (9.81 + 0.1 * Math.sin(3 * phase));
+            next.hub.publish(next.type, now, 3, values, values.length);
+            next.nextEvent += next.period;
+            ++events;
+        }
+        now = end;
+        return events;
+    }
+
+    /**
+     * @return the current time of the simulated clock in nanoseconds
+     */
+    public synchronized long getTime()
+    {
+        return now;
+    }
+
+    public synchronized boolean isRegistered(int sensorType)
+    {
+        return find(sensorType) != null;
+    }
+
+    /**
+     * @return the number of calls to {@link #register}, including changes of
+     *         the sampling period
+     */
+    public synchronized int getRegistrations()
+    {
+        return registrations;
+    }
+
+    private Sensor find(int sensorType)
+    {
+        for (Sensor sensor : sensors)
+        {
+            if (sensor.type == sensorType)
+            {
+                return sensor;
+            }
+        }
+        return null;
+    }
+
+    private static final class Sensor
+    {
+        final int type;
+        long period;
+        long nextEvent;
+        SensorHub hub;
+
+        Sensor(int type)
+        {
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.hub;
+
+/**
+ * Sensors that may hold events in a hardware FIFO for up to a maximum report
+ * latency and then deliver them as a burst, which saves the application
+ * processor from waking up for every sample. Each burst is passed on as one
+ * or more {@link SampleBlock}s.
+ */
+public interface IBatchedSensorSource
+{
+    /**
+     * @param samplingPeriodMicros requested time between events, 0 for as
+     *            fast as possible
+     * @param maxReportLatencyMicros how long events may be held back, 0 to
+     *            deliver every event at once
+     * @return <code>false</code> if there is no such sensor
+     */
+    public boolean register(int sensorType, int samplingPeriodMicros,
+            int maxReportLatencyMicros, ISampleBlockListener listener);
+
+    public void unregister(int sensorType);
+
+    /**
+     * Delivers the events held back for a sensor type without waiting for
+     * the report latency, e.g. before the recording is closed.
+     */
+    public void flush(int sensorType);
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.hub;
+
+/**
+ * Receives the bursts of a batching sensor as blocks.
+ */
+public interface ISampleBlockListener
+{
+    /**
+     * The block is reused once this returns, and may be modified in place,
+     * e.g. by filtering it.
+     */
+    public void onBlock(int sensorType, SampleBlock block);
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.hub;
+
+/**
+ * Delivers the events of physical or simulated sensors to a
+ * {@link SensorHub}, which registers each sensor type once.
+ */
+public interface ISensorSource
+{
+    /**
+     * Starts publishing the events of a sensor type to the hub, or changes
+     * the sampling period if the type is already registered.
+     *
+     * @param samplingPeriodMicros requested time between events, 0 for as
+     *            fast as possible
+     * @return <code>false</code> if there is no such sensor
+     */
+    public boolean register(int sensorType, int samplingPeriodMicros, SensorHub hub);
+
+    public void unregister(int sensorType);
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.hub;
+
+/**
+ * Receives the events a {@link SensorHub} fans out.
+ */
+public interface ISensorSubscriber
+{
+    /**
+     * Called on the thread the event was published on. The slot is reused
+     * for the next event of its sensor, so values that are needed later have
+     * to be copied out of it.
+     */
+    public void onSample(SensorSlot slot);
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.hub;
+
+/**
+ * Preallocated block of three-axis samples, used to pass a burst of events
+ * from a sensor FIFO on in one call. The values are interleaved,
+ * <code>x0, y0, z0, x1, y1, z1, ...</code>, as the block filters and
+ * block writers expect them.
+ */
+public class SampleBlock
+{
+    public static final int AXIS_COUNT = 3;
+
+    private final long[] timestamps;
+    private final float[] frames;
+    private int size;
+
+    public SampleBlock(int capacity)
+    {
+        timestamps = new long[capacity];
+        frames = new float[capacity * AXIS_COUNT];
+    }
+
+    /**
+     * @return whether the block is full after adding the sample
+     */
+    public boolean add(long timestamp, float x, float y, float z)
+    {
+        int frame = size * AXIS_COUNT;
+        timestamps[size] = timestamp;
+        frames[frame] = x;
+        frames[frame + 1] = y;
+        frames[frame + 2] = z;
+        return ++size == timestamps.length;
+    }
+
+    /**
+     * Replaces the samples of this block with those of another one, which
+     * must not hold more samples than this block can.
+     */
+    public void copyFrom(SampleBlock other)
+    {
+        System.arraycopy(other.timestamps, 0, timestamps, 0, other.size);
+        System.arraycopy(other.frames, 0, frames, 0, other.size * AXIS_COUNT);
+        size = other.size;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    public long[] getTimestamps()
+    {
+        return timestamps;
+    }
+
+    public float[] getFrames()
+    {
+        return frames;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    public int getCapacity()
+    {
+        return timestamps.length;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+}
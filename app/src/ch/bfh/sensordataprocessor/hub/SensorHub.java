@@ -0,0 +1,461 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.hub;
+
+/**
+ * Owns the single registration of each sensor type and fans every event out
+ * to the subscribers of that type, such as the recorder, the plot, the
+ * statistics and the detectors.
+ * <p>
+ * An event is copied once into the preallocated {@link SensorSlot} of its
+ * type and the same slot is handed to every subscriber, so publishing does
+ * not allocate. A type is registered with the {@link ISensorSource} when it
+ * gets its first subscriber, at the shortest sampling period any of its
+ * subscribers asks for, and unregistered when the last one leaves.
+ * Subscribers that need fewer events thin them out with a decimation and a
+ * rate limit of their own.
+ * <p>
+ * Block subscribers take the events in {@link SampleBlock}s. While all
+ * subscribers of a type take blocks and the hub has an
+ * {@link IBatchedSensorSource}, the type is registered with that source
+ * instead, at the shortest maximum report latency asked for, and its bursts
+ * are handed on as they come on the batched source's thread. Otherwise block
+ * subscribers get each event in a block of its own. Either way a type has a
+ * single registration.
+ * <p>
+ * Events of one type must be published on one thread at a time. Subscribing
+ * and unsubscribing may happen on any thread; the subscriber lists are copied
+ * on write, so publishing never takes a lock.
+ */
+public class SensorHub implements ISampleBlockListener
+{
+    private static final int NOT_BATCHED = -1;
+
+    private final ISensorSource source;
+    private final IBatchedSensorSource batchedSource;
+    private volatile Channel[] channels = new Channel[0];
+
+    /**
+     * @param batchedSource source of the types all of whose subscribers take
+     *            blocks, or <code>null</code> to register every type with
+     *            <code>source</code>
+     */
+    public SensorHub(ISensorSource source, IBatchedSensorSource batchedSource)
+    {
+        this.source = source;
+        this.batchedSource = batchedSource;
+    }
+
+    public SensorHub(ISensorSource source)
+    {
+        this(source, null);
+    }
+
+    /**
+     * Subscribes to every event of a sensor type.
+     *
+     * @see #subscribe(int, int, long, int, ISensorSubscriber)
+     */
+    public Subscription subscribe(int sensorType, int samplingPeriodMicros,
+            ISensorSubscriber subscriber)
+    {
+        return subscribe(sensorType, samplingPeriodMicros, 0, 1, subscriber);
+    }
+
+    /**
+     * @param samplingPeriodMicros sampling period the sensor has to be
+     *            registered with at least, 0 for as fast as possible
+     * @param minIntervalNanos minimum time between delivered events, 0 for
+     *            no limit
+     * @param decimation only every <code>decimation</code>th event is
+     *            delivered
+     * @return the subscription, or <code>null</code> if the source has no
+     *         such sensor or could not register it at the shorter period
+     */
+    public synchronized Subscription subscribe(int sensorType, int samplingPeriodMicros,
+            long minIntervalNanos, int decimation, ISensorSubscriber subscriber)
+    {
+        Subscription subscription = new Subscription(sensorType, samplingPeriodMicros,
+                minIntervalNanos, decimation, subscriber);
+        return add(subscription) ? subscription : null;
+    }
+
+    /**
+     * Subscribes to every event of a three-axis sensor type, in blocks. The
+     * block is reused once the listener returns.
+     *
+     * @param maxReportLatencyMicros how long the events may be held back in
+     *            the sensor's FIFO
+     * @return the subscription, or <code>null</code> if the source has no
+     *         such sensor or could not register it as asked
+     */
+    public synchronized Subscription subscribeBlocks(int sensorType, int samplingPeriodMicros,
+            int maxReportLatencyMicros, ISampleBlockListener listener)
+    {
+        Subscription subscription = new Subscription(sensorType, samplingPeriodMicros,
+                maxReportLatencyMicros, listener);
+        return add(subscription) ? subscription : null;
+    }
+
+    /**
+     * Removes a subscription. The sensor is registered at a longer sampling
+     * period if nobody needs the shorter one any more, and unregistered after
+     * its last subscriber. Unknown subscriptions and <code>null</code> are
+     * ignored.
+     */
+    public synchronized void unsubscribe(Subscription subscription)
+    {
+        if (subscription == null)
+        {
+            return;
+        }
+        Channel channel = findChannel(subscription.sensorType);
+        if (channel == null)
+        {
+            return;
+        }
+
+        Subscription[] subscriptions = channel.subscriptions;
+        int index = -1;
+        for (int i = 0; i < subscriptions.length; ++i)
+        {
+            if (subscriptions[i] == subscription)
+            {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0)
+        {
+            return;
+        }
+
+        if (subscriptions.length == 1)
+        {
+            unregister(channel);
+            removeChannel(channel);
+            return;
+        }
+
+        Subscription[] removed = new Subscription[subscriptions.length - 1];
+        System.arraycopy(subscriptions, 0, removed, 0, index);
+        System.arraycopy(subscriptions, index + 1, removed, index, removed.length - index);
+        channel.subscriptions = removed;
+
+        int samplingPeriodMicros = samplingPeriod(removed);
+        int maxReportLatencyMicros = reportLatency(removed);
+        if (samplingPeriodMicros != channel.samplingPeriodMicros
+                || maxReportLatencyMicros != channel.maxReportLatencyMicros)
+        {
+            reregister(channel, samplingPeriodMicros, maxReportLatencyMicros);
+        }
+    }
+
+    /**
+     * Copies an event into the slot of its type and delivers it to the
+     * subscribers that accept it. Events of types without subscribers are
+     * dropped.
+     *
+     * @param values the event values, of which the first <code>count</code>
+     *            are copied
+     */
+    public void publish(int sensorType, long timestamp, int accuracy, float[] values, int count)
+    {
+        Channel channel = findChannel(sensorType);
+        if (channel == null)
+        {
+            return;
+        }
+        ++channel.published;
+
+        SensorSlot slot = channel.slot;
+        slot.set(timestamp, accuracy, values, count);
+        for (Subscription subscription : channel.subscriptions)
+        {
+            if (subscription.accept(timestamp))
+            {
+                if (subscription.subscriber != null)
+                {
+                    subscription.subscriber.onSample(slot);
+                }
+                else
+                {
+                    // refilled for each listener, which may modify it
+                    SampleBlock single = channel.single;
+                    single.clear();
+                    single.add(timestamp, slot.getX(), slot.getY(), slot.getZ());
+                    subscription.blockListener.onBlock(sensorType, single);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands a burst of the batched source on to the block subscribers of its
+     * type. All but the last get a copy, since a listener may modify the
+     * block in place. Per event subscribers are skipped; the burst was
+     * collected before they subscribed.
+     */
+    @Override
+    public void onBlock(int sensorType, SampleBlock block)
+    {
+        Channel channel = findChannel(sensorType);
+        if (channel == null)
+        {
+            return;
+        }
+        channel.published += block.getSize();
+
+        Subscription[] subscriptions = channel.subscriptions;
+        int last = -1;
+        for (int i = 0; i < subscriptions.length; ++i)
+        {
+            if (subscriptions[i].blockListener != null)
+            {
+                last = i;
+            }
+        }
+        for (int i = 0; i <= last; ++i)
+        {
+            Subscription subscription = subscriptions[i];
+            if (subscription.blockListener == null)
+            {
+                continue;
+            }
+            SampleBlock delivered = block;
+            if (i < last)
+            {
+                if (channel.copy == null || channel.copy.getCapacity() < block.getSize())
+                {
+                    channel.copy = new SampleBlock(block.getCapacity());
+                }
+                channel.copy.copyFrom(block);
+                delivered = channel.copy;
+            }
+            subscription.deliveredBlock(block.getSize());
+            subscription.blockListener.onBlock(sensorType, delivered);
+        }
+    }
+
+    /**
+     * @return the number of events published for a sensor type since its
+     *         registration
+     */
+    public long getPublished(int sensorType)
+    {
+        Channel channel = findChannel(sensorType);
+        return channel == null ? 0 : channel.published;
+    }
+
+    /**
+     * @return the sampling period a sensor type is registered with, or -1 if
+     *         it is not registered
+     */
+    public synchronized int getSamplingPeriodMicros(int sensorType)
+    {
+        Channel channel = findChannel(sensorType);
+        return channel == null ? -1 : channel.samplingPeriodMicros;
+    }
+
+    /**
+     * @return the maximum report latency a sensor type is registered with,
+     *         or -1 if it is not registered for batching
+     */
+    public synchronized int getMaxReportLatencyMicros(int sensorType)
+    {
+        Channel channel = findChannel(sensorType);
+        return channel == null ? NOT_BATCHED : channel.maxReportLatencyMicros;
+    }
+
+    /**
+     * Adds a subscription to the channel of its type, creating the channel
+     * or registering the type anew if needed.
+     *
+     * @return <code>false</code> if the type could not be registered
+     */
+    private boolean add(Subscription subscription)
+    {
+        Channel channel = findChannel(subscription.sensorType);
+        Subscription[] subscriptions = channel == null ? new Subscription[0]
+                : channel.subscriptions;
+        Subscription[] added = new Subscription[subscriptions.length + 1];
+        System.arraycopy(subscriptions, 0, added, 0, subscriptions.length);
+        added[subscriptions.length] = subscription;
+
+        int samplingPeriodMicros = samplingPeriod(added);
+        int maxReportLatencyMicros = reportLatency(added);
+        if (channel == null)
+        {
+            if (!register(subscription.sensorType, samplingPeriodMicros,
+                    maxReportLatencyMicros))
+            {
+                return false;
+            }
+            channel = new Channel(subscription.sensorType, samplingPeriodMicros,
+                    maxReportLatencyMicros);
+            Channel[] addedChannels = new Channel[channels.length + 1];
+            System.arraycopy(channels, 0, addedChannels, 0, channels.length);
+            addedChannels[channels.length] = channel;
+            channels = addedChannels;
+        }
+        else if ((samplingPeriodMicros != channel.samplingPeriodMicros
+                || maxReportLatencyMicros != channel.maxReportLatencyMicros)
+                && !reregister(channel, samplingPeriodMicros, maxReportLatencyMicros))
+        {
+            return false;
+        }
+        channel.subscriptions = added;
+        return true;
+    }
+
+    /**
+     * Registers the type of a channel at a new sampling period or report
+     * latency, moving it between the sources if it starts or stops being
+     * batched. If that fails, the previous registration is restored; if that
+     * fails too, the sensor is left without a registration and the channel
+     * with its subscribers is removed.
+     *
+     * @return <code>true</code> if the channel has the new registration
+     */
+    private boolean reregister(Channel channel, int samplingPeriodMicros,
+            int maxReportLatencyMicros)
+    {
+        boolean moving = (maxReportLatencyMicros == NOT_BATCHED)
+                != (channel.maxReportLatencyMicros == NOT_BATCHED);
+        if (moving)
+        {
+            unregister(channel);
+        }
+        if (register(channel.sensorType, samplingPeriodMicros, maxReportLatencyMicros))
+        {
+            channel.samplingPeriodMicros = samplingPeriodMicros;
+            channel.maxReportLatencyMicros = maxReportLatencyMicros;
+            return true;
+        }
+        if (!register(channel.sensorType, channel.samplingPeriodMicros,
+                channel.maxReportLatencyMicros))
+        {
+            removeChannel(channel);
+        }
+        return false;
+    }
+
+    private boolean register(int sensorType, int samplingPeriodMicros,
+            int maxReportLatencyMicros)
+    {
+        return maxReportLatencyMicros == NOT_BATCHED
+                ? source.register(sensorType, samplingPeriodMicros, this)
+                : batchedSource.register(sensorType, samplingPeriodMicros,
+                        maxReportLatencyMicros, this);
+    }
+
+    private void unregister(Channel channel)
+    {
+        if (channel.maxReportLatencyMicros == NOT_BATCHED)
+        {
+            source.unregister(channel.sensorType);
+        }
+        else
+        {
+            batchedSource.unregister(channel.sensorType);
+        }
+    }
+
+    private static int samplingPeriod(Subscription[] subscriptions)
+    {
+        int samplingPeriodMicros = Integer.MAX_VALUE;
+        for (Subscription subscription : subscriptions)
+        {
+            samplingPeriodMicros = Math.min(samplingPeriodMicros,
+                    subscription.samplingPeriodMicros);
+        }
+        return samplingPeriodMicros;
+    }
+
+    /**
+     * @return the shortest report latency of the subscriptions if all of
+     *         them take blocks and there is a batched source, otherwise
+     *         {@link #NOT_BATCHED}
+     */
+    private int reportLatency(Subscription[] subscriptions)
+    {
+        if (batchedSource == null)
+        {
+            return NOT_BATCHED;
+        }
+        int maxReportLatencyMicros = Integer.MAX_VALUE;
+        for (Subscription subscription : subscriptions)
+        {
+            if (subscription.blockListener == null)
+            {
+                return NOT_BATCHED;
+            }
+            maxReportLatencyMicros = Math.min(maxReportLatencyMicros,
+                    subscription.maxReportLatencyMicros);
+        }
+        return maxReportLatencyMicros;
+    }
+
+    private Channel findChannel(int sensorType)
+    {
+        // only a handful of types are registered at a time
+        for (Channel channel : channels)
+        {
+            if (channel.sensorType == sensorType)
+            {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    private void removeChannel(Channel channel)
+    {
+        Channel[] current = channels;
+        Channel[] removed = new Channel[current.length - 1];
+        int count = 0;
+        for (Channel other : current)
+        {
+            if (other != channel)
+            {
+                removed[count++] = other;
+            }
+        }
+        channels = removed;
+    }
+
+    private static final class Channel
+    {
+        final int sensorType;
+        final SensorSlot slot;
+        final SampleBlock single = new SampleBlock(1);
+        volatile Subscription[] subscriptions = new Subscription[0];
+        int samplingPeriodMicros;
+        int maxReportLatencyMicros;
+        long published;
+        // used by the batched source's thread only
+        SampleBlock copy;
+
+        Channel(int sensorType, int samplingPeriodMicros, int maxReportLatencyMicros)
+        {
+            this.sensorType = sensorType;
+            this.slot = new SensorSlot(sensorType);
+            this.samplingPeriodMicros = samplingPeriodMicros;
+            this.maxReportLatencyMicros = maxReportLatencyMicros;
+        }
+    }
+}
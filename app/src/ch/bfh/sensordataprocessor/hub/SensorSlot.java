@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.hub;
+
+/**
+ * Preallocated copy of the latest event of one sensor type. The
+ * {@link SensorHub} copies each event into the slot once and hands the same
+ * slot to every subscriber.
+ */
+public class SensorSlot
+{
+    /**
+     * More than any sensor type reports; the rotation vector has five values
+     * and the uncalibrated sensors six.
+     */
+    public static final int MAX_VALUES = 16;
+
+    private final int sensorType;
+    private final float[] values = new float[MAX_VALUES];
+    private int valueCount;
+    private long timestamp;
+    private int accuracy;
+
+    SensorSlot(int sensorType)
+    {
+        this.sensorType = sensorType;
+    }
+
+    void set(long timestamp, int accuracy, float[] values, int count)
+    {
+        this.timestamp = timestamp;
+        this.accuracy = accuracy;
+        this.valueCount = Math.min(count, MAX_VALUES);
+        System.arraycopy(values, 0, this.values, 0, valueCount);
+    }
+
+    public int getSensorType()
+    {
+        return sensorType;
+    }
+
+    /**
+     * @return the event timestamp in nanoseconds
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public int getAccuracy()
+    {
+        return accuracy;
+    }
+
+    public int getValueCount()
+    {
+        return valueCount;
+    }
+
+    public float getValue(int index)
+    {
+        return values[index];
+    }
+
+    public float getX()
+    {
+        return values[0];
+    }
+
+    public float getY()
+    {
+        return values[1];
+    }
+
+    public float getZ()
+    {
+        return values[2];
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.hub;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Batching sensors on a simulated clock, for measuring the block path on
+ * the JVM. Each registered type produces a three-axis sine into a FIFO of
+ * its own, which is delivered as one block when it is full or its oldest
+ * event has waited for the maximum report latency.
+ */
+public class SimulatedBatchedSource implements IBatchedSensorSource
+{
+    /**
+     * Period used for registrations asking for the fastest rate.
+     */
+    public static final int FASTEST_PERIOD_MICROS = 1000;
+
+    private final int fifoCapacity;
+    private final List<Sensor> sensors = new ArrayList<Sensor>();
+    private long now;
+    private long bursts;
+
+    /**
+     * @param fifoCapacity number of events the simulated FIFO holds, which
+     *            bounds the burst size
+     */
+    public SimulatedBatchedSource(int fifoCapacity)
+    {
+        this.fifoCapacity = fifoCapacity;
+    }
+
+    @Override
+    public synchronized boolean register(int sensorType, int samplingPeriodMicros,
+            int maxReportLatencyMicros, ISampleBlockListener listener)
+    {
+        unregister(sensorType);
+        Sensor sensor = new Sensor(sensorType, fifoCapacity);
+        sensor.period = 1000L * (samplingPeriodMicros > 0 ? samplingPeriodMicros
+                : FASTEST_PERIOD_MICROS);
+        sensor.latency = 1000L * maxReportLatencyMicros;
+        sensor.listener = listener;
+        sensor.nextEvent = now;
+        sensors.add(sensor);
+        return true;
+    }
+
+    @Override
+    public synchronized void unregister(int sensorType)
+    {
+        Sensor sensor = find(sensorType);
+        if (sensor != null)
+        {
+            sensors.remove(sensor);
+        }
+    }
+
+    @Override
+    public synchronized void flush(int sensorType)
+    {
+        Sensor sensor = find(sensorType);
+        if (sensor != null)
+        {
+            deliver(sensor);
+        }
+    }
+
+    /**
+     * Advances the simulated clock, sampling all registered sensors and
+     * delivering the FIFOs that are due.
+     *
+     * @return the number of events sampled
+     */
+    public synchronized long advance(long nanos)
+    {
+        long end = now + nanos;
+        long events = 0;
+        for (int i = 0; i < sensors.size(); ++i)
+        {
+            Sensor sensor = sensors.get(i);
+            SampleBlock fifo = sensor.fifo;
+            for (long t = sensor.nextEvent; t < end; t += sensor.period)
+            {
+                double phase = t * 1e-9 * 2 * Math.PI;
+                boolean full = fifo.add(t, (float) Math.sin(phase), (float) Math.cos(phase),
+                        (float) (9.81 + 0.1 * Math.sin(3 * phase)));
+                ++events;
+                if (full || t - fifo.getTimestamps()[0] >= sensor.latency)
+                {
+                    deliver(sensor);
+                }
+                sensor.nextEvent = t + sensor.period;
+            }
+        }
+        now = end;
+        return events;
+    }
+
+    /**
+     * @return the number of blocks delivered
+     */
+    public synchronized long getBursts()
+    {
+        return bursts;
+    }
+
+    private void deliver(Sensor sensor)
+    {
+        if (!sensor.fifo.isEmpty())
+        {
+            sensor.listener.onBlock(sensor.type, sensor.fifo);
+            sensor.fifo.clear();
+            ++bursts;
+        }
+    }
+
+    private Sensor find(int sensorType)
+    {
+        for (Sensor sensor : sensors)
+        {
+            if (sensor.type == sensorType)
+            {
+                return sensor;
+            }
+        }
+        return null;
+    }
+
+    private static final class Sensor
+    {
+        final int type;
+        final SampleBlock fifo;
+        long period;
+        long latency;
+        long nextEvent;
+        ISampleBlockListener listener;
+
+        Sensor(int type, int fifoCapacity)
+        {
+            this.type = type;
+            this.fifo = new SampleBlock(fifoCapacity);
+        }
+    }
+}
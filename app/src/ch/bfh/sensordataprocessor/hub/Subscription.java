@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.hub;
+
+/**
+ * A subscriber's interest in one sensor type, returned by
+ * {@link SensorHub#subscribe} or {@link SensorHub#subscribeBlocks} and
+ * needed to unsubscribe.
+ * <p>
+ * A block subscription takes every event, in blocks, and allows the hub to
+ * hold events back for up to its maximum report latency.
+ * <p>
+ * Each event first passes the decimation, which keeps every
+ * <i>n</i>th event, and then the rate limit, which keeps at most one event
+ * per minimum interval. The counters are only updated on the publishing
+ * thread.
+ */
+public class Subscription
+{
+    final int sensorType;
+    final int samplingPeriodMicros;
+    final ISensorSubscriber subscriber;
+    final ISampleBlockListener blockListener;
+    final int maxReportLatencyMicros;
+    private final long minIntervalNanos;
+    private final int decimation;
+
+    private int decimationCount;
+    private long nextDue = Long.MIN_VALUE;
+    private long delivered;
+    private long skipped;
+
+    Subscription(int sensorType, int samplingPeriodMicros, long minIntervalNanos,
+            int decimation, ISensorSubscriber subscriber)
+    {
+        if (decimation < 1)
+        {
+            throw new IllegalArgumentException("decimation must be at least 1");
+        }
+        this.sensorType = sensorType;
+        this.samplingPeriodMicros = samplingPeriodMicros;
+        this.minIntervalNanos = minIntervalNanos;
+        this.decimation = decimation;
+        this.subscriber = subscriber;
+        this.blockListener = null;
+        this.maxReportLatencyMicros = 0;
+    }
+
+    Subscription(int sensorType, int samplingPeriodMicros, int maxReportLatencyMicros,
+            ISampleBlockListener blockListener)
+    {
+        this.sensorType = sensorType;
+        this.samplingPeriodMicros = samplingPeriodMicros;
+        this.minIntervalNanos = 0;
+        this.decimation = 1;
+        this.subscriber = null;
+        this.blockListener = blockListener;
+        this.maxReportLatencyMicros = maxReportLatencyMicros;
+    }
+
+    /**
+     * @return whether the event at <code>timestamp</code> is delivered
+     */
+    boolean accept(long timestamp)
+    {
+        if (++decimationCount < decimation)
+        {
+            ++skipped;
+            return false;
+        }
+        decimationCount = 0;
+
+        if (minIntervalNanos > 0)
+        {
+            if (timestamp < nextDue)
+            {
+                ++skipped;
+                return false;
+            }
+            // stay on the grid so the average rate matches the limit, unless
+            // the stream paused for longer than an interval
+            nextDue = nextDue == Long.MIN_VALUE || timestamp - nextDue >= minIntervalNanos
+                    ? timestamp + minIntervalNanos
+                    : nextDue + minIntervalNanos;
+        }
+        ++delivered;
+        return true;
+    }
+
+    void deliveredBlock(int size)
+    {
+        delivered += size;
+    }
+
+    public int getSensorType()
+    {
+        return sensorType;
+    }
+
+    /**
+     * @return the subscriber, or <code>null</code> for a block subscription
+     */
+    public ISensorSubscriber getSubscriber()
+    {
+        return subscriber;
+    }
+
+    /**
+     * @return the block listener, or <code>null</code> unless this is a block
+     *         subscription
+     */
+    public ISampleBlockListener getBlockListener()
+    {
+        return blockListener;
+    }
+
+    /**
+     * @return the number of events handed to the subscriber
+     */
+    public long getDelivered()
+    {
+        return delivered;
+    }
+
+    /**
+     * @return the number of events dropped by decimation or the rate limit
+     */
+    public long getSkipped()
+    {
+        return skipped;
+    }
+}
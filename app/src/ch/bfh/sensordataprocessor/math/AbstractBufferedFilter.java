@@ -21,9 +21,9 @@ public abstract class AbstractBufferedFilter implements IBufferedFilter {
     private static final int DEFAULT_BUFFER_SIZE = 128;
 
     protected float filteredValue;
-    private final float circularBuffer[];
-    private int circularIndex;
-    private int count;
+    protected final float circularBuffer[];
+    protected int circularIndex;
+    protected int count;
 
     public AbstractBufferedFilter(int bufferSize) {
         circularBuffer = new float[bufferSize];
@@ -44,6 +44,33 @@ public abstract class AbstractBufferedFilter implements IBufferedFilter {
 
     protected abstract void processNewValue(float newValue);
 
+    @Override
+    public void processBlock(float[] values, int offset, int length) {
+        processBlock(values, offset, values, offset, length);
+    }
+
+    /**
+     * Generic per-sample loop, subclasses override it with a specialised one.
+     */
+    @Override
+    public void processBlock(float[] input, int inputOffset, float[] output, int outputOffset,
+            int length) {
+        for (int i = 0; i < length; ++i) {
+            pushValue(input[inputOffset + i]);
+            output[outputOffset + i] = getValue();
+        }
+    }
+
+    @Override
+    public void processInterleaved(float[] frames, int offset, int frameCount,
+            int channelCount, int channel) {
+        int end = offset + frameCount * channelCount;
+        for (int i = offset + channel; i < end; i += channelCount) {
+            pushValue(frames[i]);
+            frames[i] = getValue();
+        }
+    }
+
     protected float getValue() {
         return filteredValue;
     }
@@ -16,7 +16,7 @@
 
 package ch.bfh.sensordataprocessor.math;
 
-public abstract class AbstractFilter implements IFilter {
+public abstract class AbstractFilter implements IBlockFilter {
 
     protected float lastValue = 0;
 
@@ -28,4 +28,29 @@ public abstract class AbstractFilter implements IFilter {
         lastValue = value;
     }
 
+    @Override
+    public void processBlock(float[] values, int offset, int length) {
+        processBlock(values, offset, values, offset, length);
+    }
+
+    /**
+     * Generic per-sample loop, subclasses override it with a specialised one.
+     */
+    @Override
+    public void processBlock(float[] input, int inputOffset, float[] output, int outputOffset,
+            int length) {
+        for (int i = 0; i < length; ++i) {
+            output[outputOffset + i] = processValue(input[inputOffset + i]);
+        }
+    }
+
+    @Override
+    public void processInterleaved(float[] frames, int offset, int frameCount,
+            int channelCount, int channel) {
+        int end = offset + frameCount * channelCount;
+        for (int i = offset + channel; i < end; i += channelCount) {
+            frames[i] = processValue(frames[i]);
+        }
+    }
+
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Keeps the orientation quaternion in primitive fields and provides the
+ * quaternion arithmetic shared by the fusion algorithms.
+ */
+public abstract class AbstractOrientationFilter implements IOrientationFilter {
+
+    protected float q0 = 1f;
+    protected float q1;
+    protected float q2;
+    protected float q3;
+
+    @Override
+    public void update(float gx, float gy, float gz,
+            float ax, float ay, float az,
+            float mx, float my, float mz, float dt) {
+        if (mx == 0f && my == 0f && mz == 0f) {
+            updateImu(gx, gy, gz, ax, ay, az, dt);
+        } else {
+            updateMarg(gx, gy, gz, ax, ay, az, mx, my, mz, dt);
+        }
+    }
+
+    /**
+     * Update with a non-zero magnetic field.
+     */
+    protected abstract void updateMarg(float gx, float gy, float gz,
+            float ax, float ay, float az,
+            float mx, float my, float mz, float dt);
+
+    @Override
+    public void getQuaternion(float[] quaternion) {
+        quaternion[0] = q0;
+        quaternion[1] = q1;
+        quaternion[2] = q2;
+        quaternion[3] = q3;
+    }
+
+    public float getW() {
+        return q0;
+    }
+
+    public float getX() {
+        return q1;
+    }
+
+    public float getY() {
+        return q2;
+    }
+
+    public float getZ() {
+        return q3;
+    }
+
+    /**
+     * @return x of the unit gravity direction in the sensor frame
+     */
+    public float getGravityX() {
+        return 2f * (q1 * q3 - q0 * q2);
+    }
+
+    public float getGravityY() {
+        return 2f * (q0 * q1 + q2 * q3);
+    }
+
+    public float getGravityZ() {
+        return q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3;
+    }
+
+    @Override
+    public void reset() {
+        q0 = 1f;
+        q1 = 0f;
+        q2 = 0f;
+        q3 = 0f;
+    }
+
+    /**
+     * Integrates the angular rate, <code>q += 0.5 q * (0, g) dt</code>.
+     */
+    protected void integrateRate(float gx, float gy, float gz, float dt) {
+        float h = 0.5f * dt;
+        gx *= h;
+        gy *= h;
+        gz *= h;
+        float a = q0;
+        float b = q1;
+        float c = q2;
+        q0 += -b * gx - c * gy - q3 * gz;
+        q1 += a * gx + c * gz - q3 * gy;
+        q2 += a * gy - b * gz + q3 * gx;
+        q3 += a * gz + b * gy - c * gx;
+    }
+
+    protected void normalizeQuaternion() {
+        float norm = invSqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        q0 *= norm;
+        q1 *= norm;
+        q2 *= norm;
+        q3 *= norm;
+    }
+
+    protected static float invSqrt(float x) {
+        return (float) (1.0 / Math.sqrt(x));
+    }
+}
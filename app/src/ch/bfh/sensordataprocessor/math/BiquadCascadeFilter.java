@@ -0,0 +1,283 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Cascade of second order sections in direct form II transposed.
+ * <p>
+ * The static factory methods design Butterworth and Chebyshev type I filters
+ * from a cutoff frequency and the sample rate with the bilinear transform,
+ * pre-warped at the cutoff. An odd order adds one first order section.
+ */
+public class BiquadCascadeFilter extends AbstractFilter implements IBlockFilter {
+
+    private static final int B0 = 0;
+    private static final int B1 = 1;
+    private static final int B2 = 2;
+    private static final int A1 = 3;
+    private static final int A2 = 4;
+    private static final int COEFFICIENTS_PER_SECTION = 5;
+
+    private final float[] coefficients;
+    private final float[] state;
+    private final int sectionCount;
+
+    /**
+     * @param coefficients <code>b0, b1, b2, a1, a2</code> for each section,
+     *            normalised to <code>a0 = 1</code>
+     */
+    public BiquadCascadeFilter(float[] coefficients) {
+        if (coefficients.length == 0 || coefficients.length % COEFFICIENTS_PER_SECTION != 0) {
+            throw new IllegalArgumentException("Expected five coefficients per section");
+        }
+        this.coefficients = coefficients.clone();
+        this.sectionCount = coefficients.length / COEFFICIENTS_PER_SECTION;
+        this.state = new float[2 * sectionCount];
+    }
+
+    public static BiquadCascadeFilter butterworthLowPass(int order, double cutoffHz,
+            double sampleRateHz) {
+        return new BiquadCascadeFilter(design(order, 0, cutoffHz, sampleRateHz, false));
+    }
+
+    public static BiquadCascadeFilter butterworthHighPass(int order, double cutoffHz,
+            double sampleRateHz) {
+        return new BiquadCascadeFilter(design(order, 0, cutoffHz, sampleRateHz, true));
+    }
+
+    /**
+     * Band-pass built from a high-pass at <code>lowHz</code> followed by a
+     * low-pass at <code>highHz</code>, each of the given order.
+     */
+    public static BiquadCascadeFilter butterworthBandPass(int order, double lowHz,
+            double highHz, double sampleRateHz) {
+        if (lowHz >= highHz) {
+            throw new IllegalArgumentException("Lower band edge must be below upper band edge");
+        }
+        return new BiquadCascadeFilter(concat(design(order, 0, lowHz, sampleRateHz, true),
+                design(order, 0, highHz, sampleRateHz, false)));
+    }
+
+    /**
+     * @param rippleDb pass-band ripple in dB, must be positive
+     */
+    public static BiquadCascadeFilter chebyshevLowPass(int order, double rippleDb,
+            double cutoffHz, double sampleRateHz) {
+        checkRipple(rippleDb);
+        return new BiquadCascadeFilter(design(order, rippleDb, cutoffHz, sampleRateHz, false));
+    }
+
+    /**
+     * @param rippleDb pass-band ripple in dB, must be positive
+     */
+    public static BiquadCascadeFilter chebyshevHighPass(int order, double rippleDb,
+            double cutoffHz, double sampleRateHz) {
+        checkRipple(rippleDb);
+        return new BiquadCascadeFilter(design(order, rippleDb, cutoffHz, sampleRateHz, true));
+    }
+
+    public int getSectionCount() {
+        return sectionCount;
+    }
+
+    public void reset() {
+        for (int i = 0; i < state.length; ++i) {
+            state[i] = 0f;
+        }
+        setLastValue(0f);
+    }
+
+    @Override
+    public float processValue(float newValue) {
+        float value = newValue;
+        for (int s = 0; s < sectionCount; ++s) {
+            int c = s * COEFFICIENTS_PER_SECTION;
+            int z = 2 * s;
+            float out = coefficients[c + B0] * value + state[z];
+            state[z] = state[z + 1] + coefficients[c + B1] * value - coefficients[c + A1] * out;
+            state[z + 1] = coefficients[c + B2] * value - coefficients[c + A2] * out;
+            value = out;
+        }
+        setLastValue(value);
+        return value;
+    }
+
+    /**
+     * Runs the block through one section at a time so that the section
+     * coefficients and state stay in locals for the inner loop.
+     */
+    @Override
+    public void processBlock(float[] input, int inputOffset, float[] output, int outputOffset,
+            int length) {
+        if (length <= 0) {
+            return;
+        }
+        float[] source = input;
+        int sourceOffset = inputOffset;
+        for (int s = 0; s < sectionCount; ++s) {
+            int c = s * COEFFICIENTS_PER_SECTION;
+            float b0 = coefficients[c + B0];
+            float b1 = coefficients[c + B1];
+            float b2 = coefficients[c + B2];
+            float a1 = coefficients[c + A1];
+            float a2 = coefficients[c + A2];
+            float s0 = state[2 * s];
+            float s1 = state[2 * s + 1];
+            for (int i = 0; i < length; ++i) {
+                float in = source[sourceOffset + i];
+                float out = b0 * in + s0;
+                s0 = s1 + b1 * in - a1 * out;
+                s1 = b2 * in - a2 * out;
+                output[outputOffset + i] = out;
+            }
+            state[2 * s] = s0;
+            state[2 * s + 1] = s1;
+            source = output;
+            sourceOffset = outputOffset;
+        }
+        setLastValue(output[outputOffset + length - 1]);
+    }
+
+    @Override
+    public void processInterleaved(float[] frames, int offset, int frameCount,
+            int channelCount, int channel) {
+        int start = offset + channel;
+        int end = offset + frameCount * channelCount;
+        if (start >= end) {
+            return;
+        }
+        for (int s = 0; s < sectionCount; ++s) {
+            int c = s * COEFFICIENTS_PER_SECTION;
+            float b0 = coefficients[c + B0];
+            float b1 = coefficients[c + B1];
+            float b2 = coefficients[c + B2];
+            float a1 = coefficients[c + A1];
+            float a2 = coefficients[c + A2];
+            float s0 = state[2 * s];
+            float s1 = state[2 * s + 1];
+            for (int i = start; i < end; i += channelCount) {
+                float in = frames[i];
+                float out = b0 * in + s0;
+                s0 = s1 + b1 * in - a1 * out;
+                s1 = b2 * in - a2 * out;
+                frames[i] = out;
+            }
+            state[2 * s] = s0;
+            state[2 * s + 1] = s1;
+        }
+        setLastValue(frames[end - channelCount]);
+    }
+
+    /**
+     * Designs the sections of a Butterworth (<code>rippleDb == 0</code>) or
+     * Chebyshev type I filter.
+     */
+    private static float[] design(int order, double rippleDb, double cutoffHz,
+            double sampleRateHz, boolean highPass) {
+        if (order < 1) {
+            throw new IllegalArgumentException("Order must be at least 1");
+        }
+        if (cutoffHz <= 0 || cutoffHz >= sampleRateHz / 2) {
+            throw new IllegalArgumentException("Cutoff must be between 0 and the Nyquist frequency");
+        }
+
+        double c = 2.0 * sampleRateHz;
+        double warped = c * Math.tan(Math.PI * cutoffHz / sampleRateHz);
+        double sinhMu = 0;
+        double coshMu = 1;
+        double gain = 1;
+        if (rippleDb > 0) {
+            double epsilon = Math.sqrt(Math.pow(10.0, rippleDb / 10.0) - 1.0);
+            double mu = asinh(1.0 / epsilon) / order;
+            sinhMu = Math.sinh(mu);
+            coshMu = Math.cosh(mu);
+            if (order % 2 == 0) {
+                // even order Chebyshev filters start at the bottom of the ripple
+                gain = 1.0 / Math.sqrt(1.0 + epsilon * epsilon);
+            }
+        }
+
+        int sections = (order + 1) / 2;
+        float[] result = new float[sections * COEFFICIENTS_PER_SECTION];
+        for (int k = 0; k < order / 2; ++k) {
+            double theta = Math.PI * (2 * k + 1) / (2.0 * order);
+            double sigma;
+            double omega;
+            if (rippleDb > 0) {
+                sigma = sinhMu * Math.sin(theta);
+                omega = coshMu * Math.cos(theta);
+            } else {
+                sigma = Math.sin(theta);
+                omega = Math.cos(theta);
+            }
+            double poleMagnitude = Math.sqrt(sigma * sigma + omega * omega);
+            double q = poleMagnitude / (2.0 * sigma);
+            double w = highPass ? warped / poleMagnitude : warped * poleMagnitude;
+            secondOrderSection(result, k, w, q, c, highPass, k == 0 ? gain : 1.0);
+        }
+        if (order % 2 == 1) {
+            double sigma = rippleDb > 0 ? sinhMu : 1.0;
+            double w = highPass ? warped / sigma : warped * sigma;
+            firstOrderSection(result, sections - 1, w, c, highPass);
+        }
+        return result;
+    }
+
+    private static void secondOrderSection(float[] result, int section, double w, double q,
+            double c, boolean highPass, double gain) {
+        double d0 = c * c + (w / q) * c + w * w;
+        double d1 = 2.0 * (w * w - c * c);
+        double d2 = c * c - (w / q) * c + w * w;
+        double n = (highPass ? c * c : w * w) * gain / d0;
+        int i = section * COEFFICIENTS_PER_SECTION;
+        result[i + B0] = (float) n;
+        result[i + B1] = (float) (highPass ? -2.0 * n : 2.0 * n);
+        result[i + B2] = (float) n;
+        result[i + A1] = (float) (d1 / d0);
+        result[i + A2] = (float) (d2 / d0);
+    }
+
+    private static void firstOrderSection(float[] result, int section, double w, double c,
+            boolean highPass) {
+        double d0 = c + w;
+        double n = (highPass ? c : w) / d0;
+        int i = section * COEFFICIENTS_PER_SECTION;
+        result[i + B0] = (float) n;
+        result[i + B1] = (float) (highPass ? -n : n);
+        result[i + B2] = 0f;
+        result[i + A1] = (float) ((w - c) / d0);
+        result[i + A2] = 0f;
+    }
+
+    private static void checkRipple(double rippleDb) {
+        if (rippleDb <= 0) {
+            throw new IllegalArgumentException("Ripple must be positive");
+        }
+    }
+
+    private static double asinh(double x) {
+        return Math.log(x + Math.sqrt(x * x + 1.0));
+    }
+
+    private static float[] concat(float[] first, float[] second) {
+        float[] result = new float[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Complementary orientation filter: the gyroscope is integrated and the
+ * result is rotated a fraction of the way towards the tilt given by gravity
+ * and the heading given by the magnetic field. The fraction follows from
+ * the time constant, <code>dt / (timeConstant + dt)</code>, so the gyroscope
+ * dominates at high frequencies and the absolute references at low ones.
+ */
+public class ComplementaryOrientationFilter extends AbstractOrientationFilter {
+
+    static final float STANDARD_TIME_CONSTANT = 0.5f;
+
+    private static final float MIN_CORRECTION_SINE = 1e-6f;
+
+    private final float timeConstant;
+
+    /**
+     * @param timeConstant in seconds
+     */
+    public ComplementaryOrientationFilter(float timeConstant) {
+        this.timeConstant = timeConstant;
+    }
+
+    public ComplementaryOrientationFilter() {
+        this(STANDARD_TIME_CONSTANT);
+    }
+
+    @Override
+    protected void updateMarg(float gx, float gy, float gz,
+            float ax, float ay, float az,
+            float mx, float my, float mz, float dt) {
+        integrateRate(gx, gy, gz, dt);
+        normalizeQuaternion();
+
+        float gain = dt / (timeConstant + dt);
+        correctTilt(ax, ay, az, gain);
+
+        // heading of the horizontal component of the field in the earth frame
+        float hx = (1f - 2f * (q2 * q2 + q3 * q3)) * mx
+                + 2f * (q1 * q2 - q0 * q3) * my
+                + 2f * (q1 * q3 + q0 * q2) * mz;
+        float hy = 2f * (q1 * q2 + q0 * q3) * mx
+                + (1f - 2f * (q1 * q1 + q3 * q3)) * my
+                + 2f * (q2 * q3 - q0 * q1) * mz;
+        if (hx != 0f || hy != 0f) {
+            float half = -0.5f * gain * (float) Math.atan2(hy, hx);
+            rotateEarth(0f, 0f, 1f, (float) Math.cos(half), (float) Math.sin(half));
+        }
+    }
+
+    @Override
+    public void updateImu(float gx, float gy, float gz,
+            float ax, float ay, float az, float dt) {
+        integrateRate(gx, gy, gz, dt);
+        normalizeQuaternion();
+        correctTilt(ax, ay, az, dt / (timeConstant + dt));
+    }
+
+    /**
+     * Rotates the estimate so that the measured acceleration, taken into the
+     * earth frame, moves by <code>gain</code> of its angle towards up.
+     */
+    private void correctTilt(float ax, float ay, float az, float gain) {
+        if (ax == 0f && ay == 0f && az == 0f) {
+            return;
+        }
+        float norm = invSqrt(ax * ax + ay * ay + az * az);
+        ax *= norm;
+        ay *= norm;
+        az *= norm;
+
+        float ex = (1f - 2f * (q2 * q2 + q3 * q3)) * ax
+                + 2f * (q1 * q2 - q0 * q3) * ay
+                + 2f * (q1 * q3 + q0 * q2) * az;
+        float ey = 2f * (q1 * q2 + q0 * q3) * ax
+                + (1f - 2f * (q1 * q1 + q3 * q3)) * ay
+                + 2f * (q2 * q3 - q0 * q1) * az;
+        float ez = 2f * (q1 * q3 - q0 * q2) * ax
+                + 2f * (q2 * q3 + q0 * q1) * ay
+                + (1f - 2f * (q1 * q1 + q2 * q2)) * az;
+
+        // axis e x up = (ey, -ex, 0), its length is the sine of the error
+        float sine = (float) Math.sqrt(ex * ex + ey * ey);
+        if (sine < MIN_CORRECTION_SINE) {
+            return;
+        }
+        float half = 0.5f * gain * (float) Math.atan2(sine, ez);
+        rotateEarth(ey / sine, -ex / sine, 0f, (float) Math.cos(half),
+                (float) Math.sin(half));
+    }
+
+    /**
+     * Pre-multiplies the estimate by a rotation about a unit axis of the
+     * earth frame.
+     */
+    private void rotateEarth(float ux, float uy, float uz, float cosHalf, float sinHalf) {
+        float r0 = cosHalf;
+        float r1 = ux * sinHalf;
+        float r2 = uy * sinHalf;
+        float r3 = uz * sinHalf;
+        float a = q0;
+        float b = q1;
+        float c = q2;
+        float d = q3;
+        q0 = r0 * a - r1 * b - r2 * c - r3 * d;
+        q1 = r0 * b + r1 * a + r2 * d - r3 * c;
+        q2 = r0 * c - r1 * d + r2 * a + r3 * b;
+        q3 = r0 * d + r1 * c - r2 * b + r3 * a;
+        normalizeQuaternion();
+    }
+}
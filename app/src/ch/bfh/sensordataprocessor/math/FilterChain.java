@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a pipeline of filters, e.g. high-pass &rarr; moving average &rarr;
+ * low-pass, as a single filter.
+ * <p>
+ * Adjacent {@link ILinearFilter} stages that have not processed any data yet
+ * are fused into one {@link IirFilter} as long as the combined order stays
+ * at or below {@link #MAX_FUSED_ORDER}; higher orders are kept as separate
+ * stages because a single high order recurrence loses precision in
+ * <code>float</code>. Blocks are run through the chain stage by stage so
+ * that each stage keeps its state in locals for the whole block.
+ */
+public class FilterChain extends AbstractFilter implements IBlockFilter {
+
+    public static final int MAX_FUSED_ORDER = 2;
+
+    private final IBlockFilter[] stages;
+
+    public FilterChain(IFilter... filters) {
+        List<IBlockFilter> fused = new ArrayList<IBlockFilter>();
+        for (IFilter filter : filters) {
+            IBlockFilter stage = toBlockFilter(filter);
+            int last = fused.size() - 1;
+            if (last >= 0 && canFuse(fused.get(last), stage)) {
+                fused.set(last, fuse((ILinearFilter) fused.get(last), (ILinearFilter) stage));
+            } else {
+                fused.add(stage);
+            }
+        }
+        stages = fused.toArray(new IBlockFilter[fused.size()]);
+    }
+
+    /**
+     * @return the number of stages left after fusion
+     */
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    @Override
+    public float processValue(float newValue) {
+        float value = newValue;
+        for (int i = 0; i < stages.length; ++i) {
+            value = stages[i].processValue(value);
+        }
+        setLastValue(value);
+        return value;
+    }
+
+    @Override
+    public void processBlock(float[] input, int inputOffset, float[] output, int outputOffset,
+            int length) {
+        if (stages.length == 0) {
+            System.arraycopy(input, inputOffset, output, outputOffset, length);
+            return;
+        }
+        stages[0].processBlock(input, inputOffset, output, outputOffset, length);
+        for (int i = 1; i < stages.length; ++i) {
+            stages[i].processBlock(output, outputOffset, output, outputOffset, length);
+        }
+        if (length > 0) {
+            setLastValue(output[outputOffset + length - 1]);
+        }
+    }
+
+    @Override
+    public void processInterleaved(float[] frames, int offset, int frameCount,
+            int channelCount, int channel) {
+        for (int i = 0; i < stages.length; ++i) {
+            stages[i].processInterleaved(frames, offset, frameCount, channelCount, channel);
+        }
+        if (frameCount > 0) {
+            setLastValue(frames[offset + (frameCount - 1) * channelCount + channel]);
+        }
+    }
+
+    private static boolean canFuse(IBlockFilter first, IBlockFilter second) {
+        if (!(first instanceof ILinearFilter) || !(second instanceof ILinearFilter)) {
+            return false;
+        }
+        ILinearFilter a = (ILinearFilter) first;
+        ILinearFilter b = (ILinearFilter) second;
+        return a.isAtRest() && b.isAtRest() && order(a) + order(b) <= MAX_FUSED_ORDER;
+    }
+
+    private static int order(ILinearFilter filter) {
+        return Math.max(filter.getFeedforwardCoefficients().length - 1,
+                filter.getFeedbackCoefficients().length);
+    }
+
+    /**
+     * Multiplies the transfer functions of two linear stages.
+     */
+    static IirFilter fuse(ILinearFilter first, ILinearFilter second) {
+        float[] b = multiply(first.getFeedforwardCoefficients(),
+                second.getFeedforwardCoefficients(), false);
+        float[] a = multiply(first.getFeedbackCoefficients(),
+                second.getFeedbackCoefficients(), true);
+        return new IirFilter(b, a);
+    }
+
+    /**
+     * Polynomial product; with <code>monic</code> set, both operands and the
+     * result omit their implicit leading coefficient of one.
+     */
+    private static float[] multiply(float[] p, float[] q, boolean monic) {
+        int shift = monic ? 1 : 0;
+        double[] pp = new double[p.length + shift];
+        double[] qq = new double[q.length + shift];
+        pp[0] = monic ? 1.0 : 0.0;
+        qq[0] = monic ? 1.0 : 0.0;
+        for (int i = 0; i < p.length; ++i) {
+            pp[i + shift] = p[i];
+        }
+        for (int i = 0; i < q.length; ++i) {
+            qq[i + shift] = q[i];
+        }
+
+        double[] product = new double[pp.length + qq.length - 1];
+        for (int i = 0; i < pp.length; ++i) {
+            for (int j = 0; j < qq.length; ++j) {
+                product[i + j] += pp[i] * qq[j];
+            }
+        }
+
+        float[] result = new float[product.length - shift];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = (float) product[i + shift];
+        }
+        return result;
+    }
+
+    private static IBlockFilter toBlockFilter(final IFilter filter) {
+        if (filter instanceof IBlockFilter) {
+            return (IBlockFilter) filter;
+        }
+        return new AbstractFilter() {
+            @Override
+            public float processValue(float newValue) {
+                return filter.processValue(newValue);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Finite impulse response filter.
+ * <p>
+ * The delay line is stored twice in a row so that the convolution is always
+ * one contiguous loop without wrap-around. The static factory methods design
+ * linear-phase windowed-sinc filters, which delay the signal by
+ * {@link #getGroupDelay()} samples.
+ */
+public class FirFilter extends AbstractFilter implements ILinearFilter {
+
+    private final float[] taps;
+    private final float[] delayLine;
+    private int position;
+
+    public FirFilter(float[] taps) {
+        if (taps.length == 0) {
+            throw new IllegalArgumentException("At least one tap is required");
+        }
+        this.taps = taps.clone();
+        this.delayLine = new float[2 * taps.length];
+        this.position = 0;
+    }
+
+    /**
+     * @param tapCount number of taps, odd so the filter has an integer delay
+     */
+    public static FirFilter lowPass(int tapCount, double cutoffHz, double sampleRateHz,
+            WindowFunction window) {
+        return new FirFilter(toFloat(windowedSinc(tapCount, cutoffHz, sampleRateHz, window)));
+    }
+
+    /**
+     * High-pass by spectral inversion of the matching low-pass.
+     */
+    public static FirFilter highPass(int tapCount, double cutoffHz, double sampleRateHz,
+            WindowFunction window) {
+        double[] h = windowedSinc(tapCount, cutoffHz, sampleRateHz, window);
+        for (int i = 0; i < h.length; ++i) {
+            h[i] = -h[i];
+        }
+        h[tapCount / 2] += 1.0;
+        return new FirFilter(toFloat(h));
+    }
+
+    /**
+     * Band-pass as the difference of two low-pass filters.
+     */
+    public static FirFilter bandPass(int tapCount, double lowHz, double highHz,
+            double sampleRateHz, WindowFunction window) {
+        if (lowHz >= highHz) {
+            throw new IllegalArgumentException("Lower band edge must be below upper band edge");
+        }
+        double[] high = windowedSinc(tapCount, highHz, sampleRateHz, window);
+        double[] low = windowedSinc(tapCount, lowHz, sampleRateHz, window);
+        for (int i = 0; i < high.length; ++i) {
+            high[i] -= low[i];
+        }
+        return new FirFilter(toFloat(high));
+    }
+
+    public int getTapCount() {
+        return taps.length;
+    }
+
+    /**
+     * @return the delay in samples introduced by a symmetric filter
+     */
+    public float getGroupDelay() {
+        return (taps.length - 1) / 2f;
+    }
+
+    @Override
+    public float processValue(float newValue) {
+        int n = taps.length;
+        position = position == 0 ? n - 1 : position - 1;
+        delayLine[position] = newValue;
+        delayLine[position + n] = newValue;
+
+        float sum = 0f;
+        for (int k = 0; k < n; ++k) {
+            sum += taps[k] * delayLine[position + k];
+        }
+        setLastValue(sum);
+        return sum;
+    }
+
+    @Override
+    public void processBlock(float[] input, int inputOffset, float[] output, int outputOffset,
+            int length) {
+        float[] h = taps;
+        float[] line = delayLine;
+        int n = h.length;
+        int pos = position;
+        float sum = getLastValue();
+        for (int i = 0; i < length; ++i) {
+            float in = input[inputOffset + i];
+            pos = pos == 0 ? n - 1 : pos - 1;
+            line[pos] = in;
+            line[pos + n] = in;
+            sum = 0f;
+            for (int k = 0; k < n; ++k) {
+                sum += h[k] * line[pos + k];
+            }
+            output[outputOffset + i] = sum;
+        }
+        position = pos;
+        setLastValue(sum);
+    }
+
+    @Override
+    public float[] getFeedforwardCoefficients() {
+        return taps.clone();
+    }
+
+    @Override
+    public float[] getFeedbackCoefficients() {
+        return new float[0];
+    }
+
+    @Override
+    public boolean isAtRest() {
+        for (int i = 0; i < taps.length; ++i) {
+            if (delayLine[i] != 0f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Low-pass windowed sinc, normalised to unity gain at DC.
+     */
+    private static double[] windowedSinc(int tapCount, double cutoffHz, double sampleRateHz,
+            WindowFunction window) {
+        if (tapCount < 1 || tapCount % 2 == 0) {
+            throw new IllegalArgumentException("Tap count must be odd and positive");
+        }
+        if (cutoffHz <= 0 || cutoffHz >= sampleRateHz / 2) {
+            throw new IllegalArgumentException("Cutoff must be between 0 and the Nyquist frequency");
+        }
+
+        double fc = cutoffHz / sampleRateHz;
+        int middle = tapCount / 2;
+        double[] h = new double[tapCount];
+        double sum = 0;
+        for (int i = 0; i < tapCount; ++i) {
+            int m = i - middle;
+            double sinc = m == 0 ? 2.0 * fc : Math.sin(2.0 * Math.PI * fc * m) / (Math.PI * m);
+            h[i] = sinc * window.value(i, tapCount);
+            sum += h[i];
+        }
+        for (int i = 0; i < tapCount; ++i) {
+            h[i] /= sum;
+        }
+        return h;
+    }
+
+    private static float[] toFloat(double[] values) {
+        float[] result = new float[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            result[i] = (float) values[i];
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Reduces the rate of time-stamped multi-channel frames by an integer factor
+ * with a windowed-sinc anti-alias filter.
+ * <p>
+ * The filter is evaluated polyphase style: inputs are only stored in the
+ * delay line and the convolution runs once per output frame, so the cost
+ * per input frame is <code>taps / factor</code> multiply-adds per channel.
+ * Output timestamps are the timestamps of the input frame at the centre of
+ * the filter, which compensates for its group delay.
+ */
+public class FrameDecimator {
+
+    /** Anti-alias cutoff relative to the output Nyquist frequency. */
+    private static final double CUTOFF_RATIO = 0.8;
+    private static final int TAPS_PER_PHASE = 8;
+
+    private final int channelCount;
+    private final int factor;
+    private final float[] taps;
+    private final float[][] delayLines;
+    private final long[] timestampLine;
+    private int position;
+    private int phase;
+    private boolean primed;
+
+    private final float[] output;
+    private long outputTimestamp;
+
+    public FrameDecimator(int channelCount, int factor) {
+        if (channelCount < 1 || factor < 1) {
+            throw new IllegalArgumentException("Channel count and factor must be positive");
+        }
+        this.channelCount = channelCount;
+        this.factor = factor;
+
+        if (factor == 1) {
+            taps = new float[] { 1f };
+        } else {
+            double cutoff = CUTOFF_RATIO * 0.5 / factor;
+            taps = FirFilter.lowPass(TAPS_PER_PHASE * factor + 1, cutoff, 1.0,
+                    WindowFunction.BLACKMAN).getFeedforwardCoefficients();
+        }
+        delayLines = new float[channelCount][2 * taps.length];
+        timestampLine = new long[taps.length];
+        output = new float[channelCount];
+    }
+
+    /**
+     * Picks the integer factor that brings <code>inputRateHz</code> closest
+     * to, but not below, <code>outputRateHz</code>.
+     */
+    public static FrameDecimator forRates(int channelCount, double inputRateHz,
+            double outputRateHz) {
+        return new FrameDecimator(channelCount, factorForRates(inputRateHz, outputRateHz));
+    }
+
+    /**
+     * @return the factor {@link #forRates(int, double, double)} picks
+     */
+    public static int factorForRates(double inputRateHz, double outputRateHz) {
+        return Math.max(1, (int) Math.floor(inputRateHz / outputRateHz));
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * @param frame <code>channelCount</code> values starting at <code>offset</code>
+     * @return <code>true</code> if a new output frame is available
+     */
+    public boolean push(long timestamp, float[] frame, int offset) {
+        if (!primed) {
+            prime(timestamp, frame, offset);
+        }
+        int n = taps.length;
+        position = position == 0 ? n - 1 : position - 1;
+        timestampLine[position] = timestamp;
+        for (int c = 0; c < channelCount; ++c) {
+            float[] line = delayLines[c];
+            float value = frame[offset + c];
+            line[position] = value;
+            line[position + n] = value;
+        }
+
+        if (++phase < factor) {
+            return false;
+        }
+        phase = 0;
+
+        for (int c = 0; c < channelCount; ++c) {
+            float[] line = delayLines[c];
+            float sum = 0f;
+            for (int k = 0; k < n; ++k) {
+                sum += taps[k] * line[position + k];
+            }
+            output[c] = sum;
+        }
+        int centre = position + n / 2;
+        outputTimestamp = timestampLine[centre >= n ? centre - n : centre];
+        return true;
+    }
+
+    /**
+     * Decimates a block of interleaved frames.
+     *
+     * @param outputTimestamps receives one timestamp per output frame
+     * @param outputFrames receives the interleaved output frames
+     * @return the number of output frames written
+     */
+    public int processBlock(long[] timestamps, float[] frames, int frameCount,
+            long[] outputTimestamps, float[] outputFrames) {
+        int produced = 0;
+        for (int i = 0; i < frameCount; ++i) {
+            if (push(timestamps[i], frames, i * channelCount)) {
+                outputTimestamps[produced] = outputTimestamp;
+                System.arraycopy(output, 0, outputFrames, produced * channelCount,
+                        channelCount);
+                ++produced;
+            }
+        }
+        return produced;
+    }
+
+    /**
+     * Fills the delay lines with the first frame so the filter does not ramp
+     * up from zero, like {@link AbstractBufferedFilter#primeBuffer(float)}.
+     */
+    private void prime(long timestamp, float[] frame, int offset) {
+        for (int i = 0; i < timestampLine.length; ++i) {
+            timestampLine[i] = timestamp;
+        }
+        for (int c = 0; c < channelCount; ++c) {
+            float[] line = delayLines[c];
+            for (int i = 0; i < line.length; ++i) {
+                line[i] = frame[offset + c];
+            }
+        }
+        primed = true;
+    }
+
+    public long getOutputTimestamp() {
+        return outputTimestamp;
+    }
+
+    public float getOutput(int channel) {
+        return output[channel];
+    }
+
+}
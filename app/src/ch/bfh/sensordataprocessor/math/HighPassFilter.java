@@ -16,7 +16,7 @@
 
 package ch.bfh.sensordataprocessor.math;
 
-public class HighPassFilter extends AbstractFilter implements IFilter {
+public class HighPassFilter extends AbstractFilter implements ILinearFilter {
 
     static final float STANDARD_HIGH_PASS_ALPHA = 0.7f;
 
@@ -40,4 +40,52 @@ public class HighPassFilter extends AbstractFilter implements IFilter {
         return val;
     }
 
+    @Override
+    public float[] getFeedforwardCoefficients() {
+        return new float[] { alpha, -alpha };
+    }
+
+    @Override
+    public float[] getFeedbackCoefficients() {
+        return new float[] { -alpha };
+    }
+
+    @Override
+    public boolean isAtRest() {
+        return getLastValue() == 0f && filteredValue == 0f;
+    }
+
+    @Override
+    public void processBlock(float[] input, int inputOffset, float[] output, int outputOffset,
+            int length) {
+        float a = alpha;
+        float previousInput = getLastValue();
+        float previousOutput = filteredValue;
+        for (int i = 0; i < length; ++i) {
+            float in = input[inputOffset + i];
+            previousOutput = a * (previousOutput + in - previousInput);
+            previousInput = in;
+            output[outputOffset + i] = previousOutput;
+        }
+        setLastValue(previousInput);
+        filteredValue = previousOutput;
+    }
+
+    @Override
+    public void processInterleaved(float[] frames, int offset, int frameCount,
+            int channelCount, int channel) {
+        float a = alpha;
+        float previousInput = getLastValue();
+        float previousOutput = filteredValue;
+        int end = offset + frameCount * channelCount;
+        for (int i = offset + channel; i < end; i += channelCount) {
+            float in = frames[i];
+            previousOutput = a * (previousOutput + in - previousInput);
+            previousInput = in;
+            frames[i] = previousOutput;
+        }
+        setLastValue(previousInput);
+        filteredValue = previousOutput;
+    }
+
 }
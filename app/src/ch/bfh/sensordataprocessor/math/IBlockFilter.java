@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * A filter that can process whole blocks of samples in one call. Processing
+ * a block is equivalent to calling {@link #processValue(float)} for every
+ * sample in order, and shares the same filter state.
+ */
+public interface IBlockFilter extends IFilter {
+
+    /**
+     * Filters <code>values[offset .. offset + length)</code> in place.
+     */
+    public void processBlock(float[] values, int offset, int length);
+
+    /**
+     * Filters <code>length</code> samples from <code>input</code> into
+     * <code>output</code>. The arrays may be the same.
+     */
+    public void processBlock(float[] input, int inputOffset, float[] output, int outputOffset,
+            int length);
+
+    /**
+     * Filters one channel of an interleaved block in place, for example the
+     * y axis of <code>x0, y0, z0, x1, y1, z1, ...</code>.
+     *
+     * @param frameCount number of frames, each <code>channelCount</code> samples wide
+     * @param channel index of the channel within a frame
+     */
+    public void processInterleaved(float[] frames, int offset, int frameCount,
+            int channelCount, int channel);
+
+}
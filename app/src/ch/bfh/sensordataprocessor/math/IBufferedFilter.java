@@ -16,7 +16,7 @@
 
 package ch.bfh.sensordataprocessor.math;
 
-public interface IBufferedFilter extends IFilter {
+public interface IBufferedFilter extends IBlockFilter {
 
     // TODO Do we need this Interface? tbd.
 
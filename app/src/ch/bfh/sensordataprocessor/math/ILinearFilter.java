@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * A linear time-invariant filter described by the difference equation
+ * <pre>
+ * y[n] = b[0] x[n] + b[1] x[n-1] + ... - a[0] y[n-1] - a[1] y[n-2] - ...
+ * </pre>
+ * Exposing the coefficients lets a {@link FilterChain} fuse adjacent linear
+ * stages into a single recurrence.
+ */
+public interface ILinearFilter extends IBlockFilter {
+
+    /**
+     * @return the feed-forward coefficients <code>b[0..]</code>
+     */
+    public float[] getFeedforwardCoefficients();
+
+    /**
+     * @return the feedback coefficients <code>a[0..]</code>, applied to
+     *         <code>y[n-1], y[n-2], ...</code>
+     */
+    public float[] getFeedbackCoefficients();
+
+    /**
+     * @return <code>true</code> if all internal state is zero, i.e. the
+     *         filter has not seen any non-zero input yet
+     */
+    public boolean isAtRest();
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Estimates the orientation of the device from gyroscope, accelerometer and
+ * optionally magnetometer samples.
+ * <p>
+ * The orientation is a unit quaternion <code>(w, x, y, z)</code> that rotates
+ * vectors from the sensor frame into an earth frame whose z axis points up
+ * and whose x axis points to magnetic north.
+ */
+public interface IOrientationFilter {
+
+    /**
+     * @param gx angular rate around x in rad/s, likewise <code>gy, gz</code>
+     * @param ax acceleration along x in any unit, likewise <code>ay, az</code>
+     * @param mx magnetic field along x in any unit, likewise <code>my, mz</code>
+     * @param dt time since the previous update in seconds
+     */
+    public void update(float gx, float gy, float gz,
+            float ax, float ay, float az,
+            float mx, float my, float mz, float dt);
+
+    /**
+     * Same as {@link #update} without a magnetometer; the heading drifts
+     * with the gyroscope bias.
+     */
+    public void updateImu(float gx, float gy, float gz,
+            float ax, float ay, float az, float dt);
+
+    /**
+     * @param quaternion receives <code>w, x, y, z</code>
+     */
+    public void getQuaternion(float[] quaternion);
+
+    /**
+     * Resets the orientation to the identity.
+     */
+    public void reset();
+
+}
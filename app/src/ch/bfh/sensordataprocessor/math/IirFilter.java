@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Generic IIR filter in direct form II transposed, used for the recurrences
+ * a {@link FilterChain} fuses from adjacent linear stages.
+ */
+public class IirFilter extends AbstractFilter implements ILinearFilter {
+
+    private final float[] b;
+    private final float[] a;
+    private final float[] state;
+    private final int order;
+
+    /**
+     * @param b feed-forward coefficients
+     * @param a feedback coefficients for <code>y[n-1], y[n-2], ...</code>
+     */
+    public IirFilter(float[] b, float[] a) {
+        order = Math.max(b.length - 1, a.length);
+        this.b = new float[order + 1];
+        this.a = new float[order];
+        System.arraycopy(b, 0, this.b, 0, b.length);
+        System.arraycopy(a, 0, this.a, 0, a.length);
+        state = new float[order];
+    }
+
+    @Override
+    public float processValue(float newValue) {
+        float out = b[0] * newValue + (order > 0 ? state[0] : 0f);
+        for (int i = 0; i < order - 1; ++i) {
+            state[i] = state[i + 1] + b[i + 1] * newValue - a[i] * out;
+        }
+        if (order > 0) {
+            state[order - 1] = b[order] * newValue - a[order - 1] * out;
+        }
+        setLastValue(out);
+        return out;
+    }
+
+    @Override
+    public void processBlock(float[] input, int inputOffset, float[] output, int outputOffset,
+            int length) {
+        if (order == 2) {
+            float b0 = b[0], b1 = b[1], b2 = b[2];
+            float a1 = a[0], a2 = a[1];
+            float s0 = state[0], s1 = state[1];
+            float out = getLastValue();
+            for (int i = 0; i < length; ++i) {
+                float in = input[inputOffset + i];
+                out = b0 * in + s0;
+                s0 = s1 + b1 * in - a1 * out;
+                s1 = b2 * in - a2 * out;
+                output[outputOffset + i] = out;
+            }
+            state[0] = s0;
+            state[1] = s1;
+            setLastValue(out);
+        } else {
+            super.processBlock(input, inputOffset, output, outputOffset, length);
+        }
+    }
+
+    @Override
+    public float[] getFeedforwardCoefficients() {
+        return b.clone();
+    }
+
+    @Override
+    public float[] getFeedbackCoefficients() {
+        return a.clone();
+    }
+
+    @Override
+    public boolean isAtRest() {
+        for (int i = 0; i < order; ++i) {
+            if (state[i] != 0f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+}
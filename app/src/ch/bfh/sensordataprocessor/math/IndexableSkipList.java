@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Sorted multiset of floats with a fixed capacity that supports insertion,
+ * removal and access by rank in <code>O(log n)</code>.
+ * <p>
+ * Each link of the skip list also stores how many elements it skips, so the
+ * element of a given rank is found by walking down the levels. Nodes live in
+ * primitive arrays and are recycled through a free list; nothing is allocated
+ * after construction. <code>NaN</code> is not supported.
+ */
+public class IndexableSkipList {
+
+    private static final int HEAD = 0;
+    private static final int NIL = -1;
+
+    private final int levels;
+    private final float[] values;
+    private final int[] nodeLevels;
+    private final int[] next;
+    private final int[] widths;
+    private final int[] freeNodes;
+    private int freeCount;
+    private int size;
+
+    private final int[] chain;
+    private final int[] chainSteps;
+    private int random = 0x2545F491;
+
+    public IndexableSkipList(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        levels = 32 - Integer.numberOfLeadingZeros(capacity);
+        int nodes = capacity + 1;
+        values = new float[nodes];
+        nodeLevels = new int[nodes];
+        next = new int[nodes * levels];
+        widths = new int[nodes * levels];
+        freeNodes = new int[capacity];
+        chain = new int[levels];
+        chainSteps = new int[levels];
+        clear();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return freeNodes.length;
+    }
+
+    public void clear() {
+        nodeLevels[HEAD] = levels;
+        for (int level = 0; level < levels; ++level) {
+            next[HEAD * levels + level] = NIL;
+            widths[HEAD * levels + level] = 1;
+        }
+        freeCount = freeNodes.length;
+        for (int i = 0; i < freeCount; ++i) {
+            freeNodes[i] = freeCount - i;
+        }
+        size = 0;
+    }
+
+    public void insert(float value) {
+        if (size == freeNodes.length) {
+            throw new IllegalStateException("Skip list is full");
+        }
+        int node = HEAD;
+        int steps = 0;
+        for (int level = levels - 1; level >= 0; --level) {
+            int following;
+            while ((following = next[node * levels + level]) != NIL
+                    && values[following] <= value) {
+                steps += widths[node * levels + level];
+                node = following;
+            }
+            chain[level] = node;
+            chainSteps[level] = steps;
+        }
+
+        int created = freeNodes[--freeCount];
+        int height = randomLevel();
+        values[created] = value;
+        nodeLevels[created] = height;
+        for (int level = 0; level < height; ++level) {
+            int previous = chain[level] * levels + level;
+            int skipped = steps - chainSteps[level];
+            next[created * levels + level] = next[previous];
+            next[previous] = created;
+            widths[created * levels + level] = widths[previous] - skipped;
+            widths[previous] = skipped + 1;
+        }
+        for (int level = height; level < levels; ++level) {
+            ++widths[chain[level] * levels + level];
+        }
+        ++size;
+    }
+
+    /**
+     * Removes one element equal to <code>value</code>.
+     *
+     * @return <code>false</code> if there is no such element
+     */
+    public boolean remove(float value) {
+        int node = HEAD;
+        for (int level = levels - 1; level >= 0; --level) {
+            int following;
+            while ((following = next[node * levels + level]) != NIL
+                    && values[following] < value) {
+                node = following;
+            }
+            chain[level] = node;
+        }
+
+        int removed = next[chain[0] * levels];
+        if (removed == NIL || values[removed] != value) {
+            return false;
+        }
+        int height = nodeLevels[removed];
+        for (int level = 0; level < height; ++level) {
+            int previous = chain[level] * levels + level;
+            widths[previous] += widths[removed * levels + level] - 1;
+            next[previous] = next[removed * levels + level];
+        }
+        for (int level = height; level < levels; ++level) {
+            --widths[chain[level] * levels + level];
+        }
+        freeNodes[freeCount++] = removed;
+        --size;
+        return true;
+    }
+
+    /**
+     * @param rank 0 for the smallest element
+     */
+    public float get(int rank) {
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException("Rank " + rank + " of " + size);
+        }
+        int node = HEAD;
+        int remaining = rank + 1;
+        for (int level = levels - 1; level >= 0; --level) {
+            int width;
+            while (next[node * levels + level] != NIL
+                    && (width = widths[node * levels + level]) <= remaining) {
+                remaining -= width;
+                node = next[node * levels + level];
+            }
+        }
+        return values[node];
+    }
+
+    private int randomLevel() {
+        // xorshift, one level per trailing one bit
+        int x = random;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        random = x;
+        return Math.min(levels, 1 + Integer.numberOfTrailingZeros(~x));
+    }
+}
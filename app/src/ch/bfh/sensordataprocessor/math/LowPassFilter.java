@@ -16,7 +16,7 @@
 
 package ch.bfh.sensordataprocessor.math;
 
-public class LowPassFilter extends AbstractFilter implements IFilter {
+public class LowPassFilter extends AbstractFilter implements ILinearFilter {
 
     static final float STANDARD_LOW_PASS_ALPHA = 0.1f;
 
@@ -32,7 +32,51 @@ public class LowPassFilter extends AbstractFilter implements IFilter {
 
     @Override
     public float processValue(float newValue) {
-        return getLastValue() * (1.0f - alpha) + newValue * alpha;
+        float val = getLastValue() * (1.0f - alpha) + newValue * alpha;
+        setLastValue(val);
+        return val;
+    }
+
+    @Override
+    public float[] getFeedforwardCoefficients() {
+        return new float[] { alpha };
+    }
+
+    @Override
+    public float[] getFeedbackCoefficients() {
+        return new float[] { alpha - 1.0f };
+    }
+
+    @Override
+    public boolean isAtRest() {
+        return getLastValue() == 0f;
+    }
+
+    @Override
+    public void processBlock(float[] input, int inputOffset, float[] output, int outputOffset,
+            int length) {
+        float a = alpha;
+        float b = 1.0f - alpha;
+        float previous = getLastValue();
+        for (int i = 0; i < length; ++i) {
+            previous = previous * b + input[inputOffset + i] * a;
+            output[outputOffset + i] = previous;
+        }
+        setLastValue(previous);
+    }
+
+    @Override
+    public void processInterleaved(float[] frames, int offset, int frameCount,
+            int channelCount, int channel) {
+        float a = alpha;
+        float b = 1.0f - alpha;
+        float previous = getLastValue();
+        int end = offset + frameCount * channelCount;
+        for (int i = offset + channel; i < end; i += channelCount) {
+            previous = previous * b + frames[i] * a;
+            frames[i] = previous;
+        }
+        setLastValue(previous);
     }
 
 }
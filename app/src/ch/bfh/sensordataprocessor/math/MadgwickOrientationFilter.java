@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Madgwick's gradient descent orientation filter. Each update takes one
+ * gradient step of size <code>beta</code> towards the orientation that
+ * explains the measured gravity and magnetic field.
+ */
+public class MadgwickOrientationFilter extends AbstractOrientationFilter {
+
+    static final float STANDARD_BETA = 0.1f;
+
+    private final float beta;
+
+    public MadgwickOrientationFilter(float beta) {
+        this.beta = beta;
+    }
+
+    public MadgwickOrientationFilter() {
+        this(STANDARD_BETA);
+    }
+
+    @Override
+    protected void updateMarg(float gx, float gy, float gz,
+            float ax, float ay, float az,
+            float mx, float my, float mz, float dt) {
+        float qDot0 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+        float qDot1 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+        float qDot2 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+        float qDot3 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+        if (!(ax == 0f && ay == 0f && az == 0f)) {
+            float norm = invSqrt(ax * ax + ay * ay + az * az);
+            ax *= norm;
+            ay *= norm;
+            az *= norm;
+            norm = invSqrt(mx * mx + my * my + mz * mz);
+            mx *= norm;
+            my *= norm;
+            mz *= norm;
+
+            float _2q0mx = 2f * q0 * mx;
+            float _2q0my = 2f * q0 * my;
+            float _2q0mz = 2f * q0 * mz;
+            float _2q1mx = 2f * q1 * mx;
+            float _2q0 = 2f * q0;
+            float _2q1 = 2f * q1;
+            float _2q2 = 2f * q2;
+            float _2q3 = 2f * q3;
+            float _2q0q2 = 2f * q0 * q2;
+            float _2q2q3 = 2f * q2 * q3;
+            float q0q0 = q0 * q0;
+            float q0q1 = q0 * q1;
+            float q0q2 = q0 * q2;
+            float q0q3 = q0 * q3;
+            float q1q1 = q1 * q1;
+            float q1q2 = q1 * q2;
+            float q1q3 = q1 * q3;
+            float q2q2 = q2 * q2;
+            float q2q3 = q2 * q3;
+            float q3q3 = q3 * q3;
+
+            // reference direction of the earth's magnetic field
+            float hx = mx * q0q0 - _2q0my * q3 + _2q0mz * q2 + mx * q1q1 + _2q1 * my * q2
+                    + _2q1 * mz * q3 - mx * q2q2 - mx * q3q3;
+            float hy = _2q0mx * q3 + my * q0q0 - _2q0mz * q1 + _2q1mx * q2 - my * q1q1
+                    + my * q2q2 + _2q2 * mz * q3 - my * q3q3;
+            float _2bx = (float) Math.sqrt(hx * hx + hy * hy);
+            float _2bz = -_2q0mx * q2 + _2q0my * q1 + mz * q0q0 + _2q1mx * q3 - mz * q1q1
+                    + _2q2 * my * q3 - mz * q2q2 + mz * q3q3;
+            float _4bx = 2f * _2bx;
+            float _4bz = 2f * _2bz;
+
+            // gradient of the objective function
+            float fgx = 2f * q1q3 - _2q0q2 - ax;
+            float fgy = 2f * q0q1 + _2q2q3 - ay;
+            float fgz = 1f - 2f * q1q1 - 2f * q2q2 - az;
+            float fbx = _2bx * (0.5f - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx;
+            float fby = _2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my;
+            float fbz = _2bx * (q0q2 + q1q3) + _2bz * (0.5f - q1q1 - q2q2) - mz;
+
+            float s0 = -_2q2 * fgx + _2q1 * fgy - _2bz * q2 * fbx
+                    + (-_2bx * q3 + _2bz * q1) * fby + _2bx * q2 * fbz;
+            float s1 = _2q3 * fgx + _2q0 * fgy - 4f * q1 * fgz + _2bz * q3 * fbx
+                    + (_2bx * q2 + _2bz * q0) * fby + (_2bx * q3 - _4bz * q1) * fbz;
+            float s2 = -_2q0 * fgx + _2q3 * fgy - 4f * q2 * fgz
+                    + (-_4bx * q2 - _2bz * q0) * fbx + (_2bx * q1 + _2bz * q3) * fby
+                    + (_2bx * q0 - _4bz * q2) * fbz;
+            float s3 = _2q1 * fgx + _2q2 * fgy + (-_4bx * q3 + _2bz * q1) * fbx
+                    + (-_2bx * q0 + _2bz * q2) * fby + _2bx * q1 * fbz;
+
+            norm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+            if (norm > 0f) {
+                norm = invSqrt(norm);
+                qDot0 -= beta * s0 * norm;
+                qDot1 -= beta * s1 * norm;
+                qDot2 -= beta * s2 * norm;
+                qDot3 -= beta * s3 * norm;
+            }
+        }
+
+        integrate(qDot0, qDot1, qDot2, qDot3, dt);
+    }
+
+    @Override
+    public void updateImu(float gx, float gy, float gz,
+            float ax, float ay, float az, float dt) {
+        float qDot0 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+        float qDot1 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+        float qDot2 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+        float qDot3 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+        if (!(ax == 0f && ay == 0f && az == 0f)) {
+            float norm = invSqrt(ax * ax + ay * ay + az * az);
+            ax *= norm;
+            ay *= norm;
+            az *= norm;
+
+            float _2q0 = 2f * q0;
+            float _2q1 = 2f * q1;
+            float _2q2 = 2f * q2;
+            float _2q3 = 2f * q3;
+            float _4q0 = 4f * q0;
+            float _4q1 = 4f * q1;
+            float _4q2 = 4f * q2;
+            float _8q1 = 8f * q1;
+            float _8q2 = 8f * q2;
+            float q0q0 = q0 * q0;
+            float q1q1 = q1 * q1;
+            float q2q2 = q2 * q2;
+            float q3q3 = q3 * q3;
+
+            float s0 = _4q0 * q2q2 + _2q2 * ax + _4q0 * q1q1 - _2q1 * ay;
+            float s1 = _4q1 * q3q3 - _2q3 * ax + 4f * q0q0 * q1 - _2q0 * ay - _4q1
+                    + _8q1 * q1q1 + _8q1 * q2q2 + _4q1 * az;
+            float s2 = 4f * q0q0 * q2 + _2q0 * ax + _4q2 * q3q3 - _2q3 * ay - _4q2
+                    + _8q2 * q1q1 + _8q2 * q2q2 + _4q2 * az;
+            float s3 = 4f * q1q1 * q3 - _2q1 * ax + 4f * q2q2 * q3 - _2q2 * ay;
+
+            norm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+            if (norm > 0f) {
+                norm = invSqrt(norm);
+                qDot0 -= beta * s0 * norm;
+                qDot1 -= beta * s1 * norm;
+                qDot2 -= beta * s2 * norm;
+                qDot3 -= beta * s3 * norm;
+            }
+        }
+
+        integrate(qDot0, qDot1, qDot2, qDot3, dt);
+    }
+
+    private void integrate(float qDot0, float qDot1, float qDot2, float qDot3, float dt) {
+        q0 += qDot0 * dt;
+        q1 += qDot1 * dt;
+        q2 += qDot2 * dt;
+        q3 += qDot3 * dt;
+        normalizeQuaternion();
+    }
+}
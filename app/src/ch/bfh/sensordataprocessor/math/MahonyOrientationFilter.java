@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Mahony's nonlinear complementary filter. The error between the measured
+ * and the estimated directions of gravity and magnetic field is fed back
+ * into the angular rate through a PI controller, whose integral term also
+ * estimates the gyroscope bias.
+ */
+public class MahonyOrientationFilter extends AbstractOrientationFilter {
+
+    static final float STANDARD_KP = 1f;
+    static final float STANDARD_KI = 0f;
+
+    private final float twoKp;
+    private final float twoKi;
+
+    private float integralX;
+    private float integralY;
+    private float integralZ;
+
+    public MahonyOrientationFilter(float kp, float ki) {
+        this.twoKp = 2f * kp;
+        this.twoKi = 2f * ki;
+    }
+
+    public MahonyOrientationFilter() {
+        this(STANDARD_KP, STANDARD_KI);
+    }
+
+    @Override
+    protected void updateMarg(float gx, float gy, float gz,
+            float ax, float ay, float az,
+            float mx, float my, float mz, float dt) {
+        if (!(ax == 0f && ay == 0f && az == 0f)) {
+            float norm = invSqrt(ax * ax + ay * ay + az * az);
+            ax *= norm;
+            ay *= norm;
+            az *= norm;
+            norm = invSqrt(mx * mx + my * my + mz * mz);
+            mx *= norm;
+            my *= norm;
+            mz *= norm;
+
+            float q0q0 = q0 * q0;
+            float q0q1 = q0 * q1;
+            float q0q2 = q0 * q2;
+            float q0q3 = q0 * q3;
+            float q1q1 = q1 * q1;
+            float q1q2 = q1 * q2;
+            float q1q3 = q1 * q3;
+            float q2q2 = q2 * q2;
+            float q2q3 = q2 * q3;
+            float q3q3 = q3 * q3;
+
+            // reference direction of the earth's magnetic field
+            float hx = 2f * (mx * (0.5f - q2q2 - q3q3) + my * (q1q2 - q0q3)
+                    + mz * (q1q3 + q0q2));
+            float hy = 2f * (mx * (q1q2 + q0q3) + my * (0.5f - q1q1 - q3q3)
+                    + mz * (q2q3 - q0q1));
+            float bx = (float) Math.sqrt(hx * hx + hy * hy);
+            float bz = 2f * (mx * (q1q3 - q0q2) + my * (q2q3 + q0q1)
+                    + mz * (0.5f - q1q1 - q2q2));
+
+            // estimated directions of gravity and magnetic field, halved
+            float halfVx = q1q3 - q0q2;
+            float halfVy = q0q1 + q2q3;
+            float halfVz = q0q0 - 0.5f + q3q3;
+            float halfWx = bx * (0.5f - q2q2 - q3q3) + bz * (q1q3 - q0q2);
+            float halfWy = bx * (q1q2 - q0q3) + bz * (q0q1 + q2q3);
+            float halfWz = bx * (q0q2 + q1q3) + bz * (0.5f - q1q1 - q2q2);
+
+            float halfEx = (ay * halfVz - az * halfVy) + (my * halfWz - mz * halfWy);
+            float halfEy = (az * halfVx - ax * halfVz) + (mz * halfWx - mx * halfWz);
+            float halfEz = (ax * halfVy - ay * halfVx) + (mx * halfWy - my * halfWx);
+
+            applyFeedback(halfEx, halfEy, halfEz, dt);
+            gx += twoKp * halfEx + integralX;
+            gy += twoKp * halfEy + integralY;
+            gz += twoKp * halfEz + integralZ;
+        }
+
+        integrateRate(gx, gy, gz, dt);
+        normalizeQuaternion();
+    }
+
+    @Override
+    public void updateImu(float gx, float gy, float gz,
+            float ax, float ay, float az, float dt) {
+        if (!(ax == 0f && ay == 0f && az == 0f)) {
+            float norm = invSqrt(ax * ax + ay * ay + az * az);
+            ax *= norm;
+            ay *= norm;
+            az *= norm;
+
+            float halfVx = q1 * q3 - q0 * q2;
+            float halfVy = q0 * q1 + q2 * q3;
+            float halfVz = q0 * q0 - 0.5f + q3 * q3;
+
+            float halfEx = ay * halfVz - az * halfVy;
+            float halfEy = az * halfVx - ax * halfVz;
+            float halfEz = ax * halfVy - ay * halfVx;
+
+            applyFeedback(halfEx, halfEy, halfEz, dt);
+            gx += twoKp * halfEx + integralX;
+            gy += twoKp * halfEy + integralY;
+            gz += twoKp * halfEz + integralZ;
+        }
+
+        integrateRate(gx, gy, gz, dt);
+        normalizeQuaternion();
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        integralX = 0f;
+        integralY = 0f;
+        integralZ = 0f;
+    }
+
+    /**
+     * @return the estimated gyroscope bias around x in rad/s
+     */
+    public float getBiasX() {
+        return -integralX;
+    }
+
+    public float getBiasY() {
+        return -integralY;
+    }
+
+    public float getBiasZ() {
+        return -integralZ;
+    }
+
+    private void applyFeedback(float halfEx, float halfEy, float halfEz, float dt) {
+        if (twoKi > 0f) {
+            integralX += twoKi * halfEx * dt;
+            integralY += twoKi * halfEy * dt;
+            integralZ += twoKi * halfEz * dt;
+        } else {
+            integralX = 0f;
+            integralY = 0f;
+            integralZ = 0f;
+        }
+    }
+}
@@ -28,4 +28,64 @@ public class MovingAverageFilter extends AbstractBufferedFilter implements IBuff
         setValue(getValue() + (newValue - getLastValue()) / getBufferLength());
     }
 
+    @Override
+    public void processBlock(float[] input, int inputOffset, float[] output, int outputOffset,
+            int length) {
+        if (length > 0 && count == 0) {
+            pushValue(input[inputOffset]);
+            output[outputOffset] = getValue();
+            ++inputOffset;
+            ++outputOffset;
+            --length;
+        }
+
+        float[] buffer = circularBuffer;
+        float bufferLength = buffer.length;
+        int index = circularIndex;
+        float value = filteredValue;
+        for (int i = 0; i < length; ++i) {
+            float in = input[inputOffset + i];
+            value += (in - buffer[index]) / bufferLength;
+            buffer[index] = in;
+            if (++index == buffer.length) {
+                index = 0;
+            }
+            output[outputOffset + i] = value;
+        }
+        circularIndex = index;
+        filteredValue = value;
+        count += length;
+    }
+
+    @Override
+    public void processInterleaved(float[] frames, int offset, int frameCount,
+            int channelCount, int channel) {
+        int start = offset + channel;
+        int end = offset + frameCount * channelCount;
+        if (start < end && count == 0) {
+            pushValue(frames[start]);
+            frames[start] = getValue();
+            start += channelCount;
+        }
+        if (start < end) {
+            count += (end - start + channelCount - 1) / channelCount;
+        }
+
+        float[] buffer = circularBuffer;
+        float bufferLength = buffer.length;
+        int index = circularIndex;
+        float value = filteredValue;
+        for (int i = start; i < end; i += channelCount) {
+            float in = frames[i];
+            value += (in - buffer[index]) / bufferLength;
+            buffer[index] = in;
+            if (++index == buffer.length) {
+                index = 0;
+            }
+            frames[i] = value;
+        }
+        circularIndex = index;
+        filteredValue = value;
+    }
+
 }
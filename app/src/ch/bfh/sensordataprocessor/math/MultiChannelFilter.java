@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Applies one {@link IBlockFilter} per channel to interleaved frames, e.g.
+ * <code>x0, y0, z0, x1, y1, z1, ...</code> for a three-axis sensor.
+ */
+public class MultiChannelFilter {
+
+    private final IBlockFilter[] channelFilters;
+
+    public MultiChannelFilter(IBlockFilter... channelFilters) {
+        this.channelFilters = channelFilters.clone();
+    }
+
+    public int getChannelCount() {
+        return channelFilters.length;
+    }
+
+    public IBlockFilter getChannelFilter(int channel) {
+        return channelFilters[channel];
+    }
+
+    /**
+     * Filters <code>frameCount</code> interleaved frames in place.
+     */
+    public void processInterleaved(float[] frames, int offset, int frameCount) {
+        int channelCount = channelFilters.length;
+        for (int channel = 0; channel < channelCount; ++channel) {
+            channelFilters[channel].processInterleaved(frames, offset, frameCount,
+                    channelCount, channel);
+        }
+    }
+
+    /**
+     * Filters a single frame in place.
+     */
+    public void processFrame(float[] frame) {
+        for (int channel = 0; channel < channelFilters.length; ++channel) {
+            frame[channel] = channelFilters[channel].processValue(frame[channel]);
+        }
+    }
+
+}
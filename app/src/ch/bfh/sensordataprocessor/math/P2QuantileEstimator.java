@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+import java.util.Arrays;
+
+/**
+ * Streaming quantile estimate with the P&sup2; algorithm of Jain and
+ * Chlamtac: five markers track the minimum, the quantile, the maximum and
+ * two points in between, and are moved along a piecewise parabolic fit.
+ * Memory and time per sample are constant.
+ */
+public class P2QuantileEstimator {
+
+    private static final int MARKERS = 5;
+
+    private final double probability;
+    private final double[] heights = new double[MARKERS];
+    private final int[] positions = new int[MARKERS];
+    private final double[] desired = new double[MARKERS];
+    private final double[] increments = new double[MARKERS];
+    private final double[] scratch = new double[MARKERS];
+    private long count;
+
+    /**
+     * @param probability the quantile to estimate, between 0 and 1
+     */
+    public P2QuantileEstimator(double probability) {
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("Probability must be between 0 and 1");
+        }
+        this.probability = probability;
+    }
+
+    public double getProbability() {
+        return probability;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void add(double value) {
+        if (count < MARKERS) {
+            heights[(int) count++] = value;
+            if (count == MARKERS) {
+                Arrays.sort(heights);
+                double p = probability;
+                for (int i = 0; i < MARKERS; ++i) {
+                    positions[i] = i;
+                }
+                desired[0] = 0;
+                desired[1] = 2 * p;
+                desired[2] = 4 * p;
+                desired[3] = 2 + 2 * p;
+                desired[4] = 4;
+                increments[0] = 0;
+                increments[1] = p / 2;
+                increments[2] = p;
+                increments[3] = (1 + p) / 2;
+                increments[4] = 1;
+            }
+            return;
+        }
+
+        int cell;
+        if (value < heights[0]) {
+            heights[0] = value;
+            cell = 0;
+        } else if (value >= heights[MARKERS - 1]) {
+            heights[MARKERS - 1] = value;
+            cell = MARKERS - 2;
+        } else {
+            cell = 0;
+            while (value >= heights[cell + 1]) {
+                ++cell;
+            }
+        }
+
+        for (int i = cell + 1; i < MARKERS; ++i) {
+            ++positions[i];
+        }
+        for (int i = 0; i < MARKERS; ++i) {
+            desired[i] += increments[i];
+        }
+        ++count;
+
+        for (int i = 1; i < MARKERS - 1; ++i) {
+            double d = desired[i] - positions[i];
+            if ((d >= 1 && positions[i + 1] - positions[i] > 1)
+                    || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int sign = d > 0 ? 1 : -1;
+                double height = parabolic(i, sign);
+                if (heights[i - 1] < height && height < heights[i + 1]) {
+                    heights[i] = height;
+                } else {
+                    heights[i] = linear(i, sign);
+                }
+                positions[i] += sign;
+            }
+        }
+    }
+
+    /**
+     * @return the estimate, exact while fewer than five values were added, or
+     *         <code>NaN</code> without values
+     */
+    public double getQuantile() {
+        if (count >= MARKERS) {
+            return heights[2];
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        int n = (int) count;
+        System.arraycopy(heights, 0, scratch, 0, n);
+        Arrays.sort(scratch, 0, n);
+        return scratch[(int) Math.round(probability * (n - 1))];
+    }
+
+    public void reset() {
+        count = 0;
+    }
+
+    private double parabolic(int i, int sign) {
+        double n0 = positions[i - 1];
+        double n1 = positions[i];
+        double n2 = positions[i + 1];
+        return heights[i] + sign / (n2 - n0)
+                * ((n1 - n0 + sign) * (heights[i + 1] - heights[i]) / (n2 - n1)
+                + (n2 - n1 - sign) * (heights[i] - heights[i - 1]) / (n1 - n0));
+    }
+
+    private double linear(int i, int sign) {
+        return heights[i] + sign * (heights[i + sign] - heights[i])
+                / (positions[i + sign] - positions[i]);
+    }
+}
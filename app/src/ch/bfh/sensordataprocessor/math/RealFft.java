@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * In-place fast Fourier transform of real input of a fixed power of two
+ * length <code>n</code>.
+ * <p>
+ * The even and odd samples are transformed together as the real and
+ * imaginary parts of one complex FFT of length <code>n / 2</code>, whose
+ * result is then split into the spectrum of the real input. The twiddle
+ * factors and the bit reversal permutation are computed once in the
+ * constructor, so {@link #forward(float[])} does not allocate.
+ */
+public class RealFft {
+
+    private final int size;
+    private final int half;
+    // cos and sin of 2 pi k / size for k < size / 2, used by both passes
+    private final float[] cos;
+    private final float[] sin;
+    private final int[] swaps;
+
+    /**
+     * @param size the transform length, a power of two of at least 4
+     */
+    public RealFft(int size) {
+        if (size < 4 || (size & (size - 1)) != 0) {
+            throw new IllegalArgumentException("Size must be a power of two of at least 4");
+        }
+        this.size = size;
+        this.half = size / 2;
+        cos = new float[half];
+        sin = new float[half];
+        for (int k = 0; k < half; ++k) {
+            double angle = 2.0 * Math.PI * k / size;
+            cos[k] = (float) Math.cos(angle);
+            sin[k] = (float) Math.sin(angle);
+        }
+
+        // pairs of complex indices to swap for the bit reversal
+        int bits = Integer.numberOfTrailingZeros(half);
+        int count = 0;
+        int[] pairs = new int[half];
+        for (int i = 0; i < half; ++i) {
+            int reversed = Integer.reverse(i) >>> (32 - bits);
+            if (bits > 0 && i < reversed) {
+                pairs[count++] = i;
+                pairs[count++] = reversed;
+            }
+        }
+        swaps = new int[count];
+        System.arraycopy(pairs, 0, swaps, 0, count);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Replaces <code>data</code>, the <code>n</code> real input samples, with
+     * their spectrum <code>X[k] = sum x[j] exp(-2 pi i j k / n)</code> packed
+     * into the same <code>n</code> floats: <code>data[0]</code> holds the
+     * real <code>X[0]</code>, <code>data[1]</code> the real
+     * <code>X[n / 2]</code>, and <code>data[2k]</code>,
+     * <code>data[2k + 1]</code> the real and imaginary part of
+     * <code>X[k]</code> for <code>0 &lt; k &lt; n / 2</code>.
+     */
+    public void forward(float[] data) {
+        if (data.length < size) {
+            throw new IllegalArgumentException("Expected at least " + size + " values");
+        }
+        complexForward(data);
+
+        // split the transform of the packed even and odd samples
+        float re0 = data[0];
+        float im0 = data[1];
+        data[0] = re0 + im0;
+        data[1] = re0 - im0;
+        for (int k = 1, m = half - 1; k <= m; ++k, --m) {
+            int a = 2 * k;
+            int b = 2 * m;
+            float evenRe = 0.5f * (data[a] + data[b]);
+            float evenIm = 0.5f * (data[a + 1] - data[b + 1]);
+            float oddRe = 0.5f * (data[a + 1] + data[b + 1]);
+            float oddIm = -0.5f * (data[a] - data[b]);
+            // exp(-2 pi i k / n) * odd
+            float wr = cos[k];
+            float wi = -sin[k];
+            float re = wr * oddRe - wi * oddIm;
+            float im = wr * oddIm + wi * oddRe;
+            data[a] = evenRe + re;
+            data[a + 1] = evenIm + im;
+            // X[n / 2 - k] = conj(even - w * odd)
+            data[b] = evenRe - re;
+            data[b + 1] = im - evenIm;
+        }
+    }
+
+    /**
+     * Computes the one-sided power <code>|X[k]|&sup2;</code> of a spectrum
+     * packed by {@link #forward(float[])}.
+     *
+     * @param power receives <code>n / 2 + 1</code> values
+     */
+    public void power(float[] spectrum, float[] power) {
+        power[0] = spectrum[0] * spectrum[0];
+        power[half] = spectrum[1] * spectrum[1];
+        for (int k = 1; k < half; ++k) {
+            float re = spectrum[2 * k];
+            float im = spectrum[2 * k + 1];
+            power[k] = re * re + im * im;
+        }
+    }
+
+    /**
+     * Iterative radix-2 FFT of the <code>n / 2</code> complex values
+     * interleaved in <code>data</code>.
+     */
+    private void complexForward(float[] data) {
+        for (int i = 0; i < swaps.length; i += 2) {
+            int a = 2 * swaps[i];
+            int b = 2 * swaps[i + 1];
+            float re = data[a];
+            float im = data[a + 1];
+            data[a] = data[b];
+            data[a + 1] = data[b + 1];
+            data[b] = re;
+            data[b + 1] = im;
+        }
+
+        for (int length = 2; length <= half; length <<= 1) {
+            int span = length >> 1;
+            // twiddle exp(-2 pi i j / length) is entry j * size / length
+            int step = size / length;
+            for (int j = 0; j < span; ++j) {
+                float wr = cos[j * step];
+                float wi = -sin[j * step];
+                for (int i = j; i < half; i += length) {
+                    int a = 2 * i;
+                    int b = 2 * (i + span);
+                    float re = wr * data[b] - wi * data[b + 1];
+                    float im = wr * data[b + 1] + wi * data[b];
+                    data[b] = data[a] - re;
+                    data[b + 1] = data[a + 1] - im;
+                    data[a] += re;
+                    data[a + 1] += im;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Combines time-stamped accelerometer, gyroscope and magnetometer samples,
+ * as delivered by separate sensor listeners, into an orientation and the
+ * linear acceleration.
+ * <p>
+ * The gyroscope drives the updates: accelerometer and magnetometer samples
+ * are only stored and used by the next gyroscope sample. A magnetic field
+ * older than {@link #MAX_MAGNETIC_FIELD_AGE} is ignored. Nothing is
+ * allocated per sample.
+ */
+public class SensorFusion {
+
+    public static final float GRAVITY = 9.80665f;
+
+    /** Maximum age of a magnetic field sample in nanoseconds. */
+    public static final long MAX_MAGNETIC_FIELD_AGE = 500000000L;
+
+    /** Longer gaps between gyroscope samples are not integrated. */
+    private static final long MAX_GYROSCOPE_GAP = 500000000L;
+
+    private final AbstractOrientationFilter filter;
+
+    private float ax;
+    private float ay;
+    private float az;
+    private boolean hasAcceleration;
+
+    private float mx;
+    private float my;
+    private float mz;
+    private long magneticFieldTimestamp;
+    private boolean hasMagneticField;
+
+    private long gyroscopeTimestamp;
+    private boolean hasGyroscope;
+    private long timestamp;
+    private long updates;
+
+    private float linearX;
+    private float linearY;
+    private float linearZ;
+
+    public SensorFusion(AbstractOrientationFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param timestamp nanoseconds
+     * @param x acceleration in m/s^2, likewise <code>y, z</code>
+     */
+    public void onAccelerometer(long timestamp, float x, float y, float z) {
+        ax = x;
+        ay = y;
+        az = z;
+        hasAcceleration = true;
+    }
+
+    /**
+     * @param timestamp nanoseconds
+     * @param x magnetic field in any unit, likewise <code>y, z</code>
+     */
+    public void onMagneticField(long timestamp, float x, float y, float z) {
+        mx = x;
+        my = y;
+        mz = z;
+        magneticFieldTimestamp = timestamp;
+        hasMagneticField = true;
+    }
+
+    /**
+     * @param timestamp nanoseconds
+     * @param x angular rate in rad/s, likewise <code>y, z</code>
+     * @return <code>true</code> if the orientation was updated
+     */
+    public boolean onGyroscope(long timestamp, float x, float y, float z) {
+        long gap = timestamp - gyroscopeTimestamp;
+        boolean integrate = hasGyroscope && hasAcceleration
+                && gap > 0 && gap <= MAX_GYROSCOPE_GAP;
+        gyroscopeTimestamp = timestamp;
+        hasGyroscope = true;
+        if (!integrate) {
+            return false;
+        }
+
+        float dt = gap * 1e-9f;
+        if (hasMagneticField && timestamp - magneticFieldTimestamp <= MAX_MAGNETIC_FIELD_AGE) {
+            filter.update(x, y, z, ax, ay, az, mx, my, mz, dt);
+        } else {
+            filter.updateImu(x, y, z, ax, ay, az, dt);
+        }
+
+        linearX = ax - GRAVITY * filter.getGravityX();
+        linearY = ay - GRAVITY * filter.getGravityY();
+        linearZ = az - GRAVITY * filter.getGravityZ();
+        this.timestamp = timestamp;
+        ++updates;
+        return true;
+    }
+
+    /**
+     * @param quaternion receives <code>w, x, y, z</code>, see
+     *            {@link IOrientationFilter}
+     */
+    public void getQuaternion(float[] quaternion) {
+        filter.getQuaternion(quaternion);
+    }
+
+    /**
+     * @param acceleration receives the acceleration without gravity in the
+     *            sensor frame, in m/s^2
+     */
+    public void getLinearAcceleration(float[] acceleration) {
+        acceleration[0] = linearX;
+        acceleration[1] = linearY;
+        acceleration[2] = linearZ;
+    }
+
+    public float getLinearAccelerationX() {
+        return linearX;
+    }
+
+    public float getLinearAccelerationY() {
+        return linearY;
+    }
+
+    public float getLinearAccelerationZ() {
+        return linearZ;
+    }
+
+    /**
+     * @return the timestamp of the last update in nanoseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getUpdateCount() {
+        return updates;
+    }
+
+    public AbstractOrientationFilter getFilter() {
+        return filter;
+    }
+
+    public void reset() {
+        filter.reset();
+        hasAcceleration = false;
+        hasMagneticField = false;
+        hasGyroscope = false;
+        linearX = 0f;
+        linearY = 0f;
+        linearZ = 0f;
+        updates = 0;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Median of the last <code>windowSize</code> values, kept in an
+ * {@link IndexableSkipList} so that each value costs
+ * <code>O(log windowSize)</code>.
+ * <p>
+ * In Hampel mode the filter passes values through unchanged and only
+ * replaces outliers by the median: a value is an outlier if it differs from
+ * the window median by more than <code>threshold</code> scaled median
+ * absolute deviations. The window includes the current value, so the
+ * filter is causal and adds no delay. The median absolute deviation is
+ * selected from the two sorted halves of the window around the median in
+ * <code>O(log&sup2; windowSize)</code>.
+ */
+public class SlidingMedianFilter extends AbstractFilter implements IBlockFilter {
+
+    /** Scales the median absolute deviation to a standard deviation. */
+    static final float MAD_SCALE = 1.4826f;
+    static final float STANDARD_HAMPEL_THRESHOLD = 3f;
+
+    private final IndexableSkipList sorted;
+    private final float[] window;
+    private final boolean hampel;
+    private final float threshold;
+    private int index;
+    private int count;
+    private float median;
+
+    public SlidingMedianFilter(int windowSize) {
+        this(windowSize, false, 0f);
+    }
+
+    private SlidingMedianFilter(int windowSize, boolean hampel, float threshold) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        this.sorted = new IndexableSkipList(windowSize);
+        this.window = new float[windowSize];
+        this.hampel = hampel;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param threshold number of scaled median absolute deviations from the
+     *            median beyond which a value is replaced
+     */
+    public static SlidingMedianFilter hampel(int windowSize, float threshold) {
+        return new SlidingMedianFilter(windowSize, true, threshold);
+    }
+
+    public static SlidingMedianFilter hampel(int windowSize) {
+        return hampel(windowSize, STANDARD_HAMPEL_THRESHOLD);
+    }
+
+    @Override
+    public float processValue(float newValue) {
+        if (count == window.length) {
+            sorted.remove(window[index]);
+        } else {
+            ++count;
+        }
+        window[index] = newValue;
+        if (++index == window.length) {
+            index = 0;
+        }
+        sorted.insert(newValue);
+
+        median = computeMedian();
+        float value = newValue;
+        if (!hampel) {
+            value = median;
+        } else if (Math.abs(newValue - median) > threshold * MAD_SCALE
+                * medianAbsoluteDeviation()) {
+            value = median;
+        }
+        setLastValue(value);
+        return value;
+    }
+
+    /**
+     * @return the median of the window after the last value
+     */
+    public float getMedian() {
+        return median;
+    }
+
+    public int getWindowSize() {
+        return window.length;
+    }
+
+    public boolean isHampel() {
+        return hampel;
+    }
+
+    public void reset() {
+        sorted.clear();
+        index = 0;
+        count = 0;
+        median = 0;
+        setLastValue(0);
+    }
+
+    private float computeMedian() {
+        int half = count / 2;
+        if ((count & 1) != 0) {
+            return sorted.get(half);
+        }
+        return 0.5f * (sorted.get(half - 1) + sorted.get(half));
+    }
+
+    /**
+     * Splits the sorted window at the median into distances increasing away
+     * from it on either side, and selects the median of their union.
+     */
+    private float medianAbsoluteDeviation() {
+        int half = count / 2;
+        if ((count & 1) != 0) {
+            return selectDeviation(half);
+        }
+        return 0.5f * (selectDeviation(half - 1) + selectDeviation(half));
+    }
+
+    /**
+     * @param rank 0 for the smallest absolute deviation
+     */
+    private float selectDeviation(int rank) {
+        int split = (count + 1) / 2;
+        int lowerLength = split;
+        int upperLength = count - split;
+        int taken = rank + 1;
+
+        // take i deviations from the lower half and taken - i from the upper
+        int low = Math.max(0, taken - upperLength);
+        int high = Math.min(taken, lowerLength);
+        while (low < high) {
+            int i = (low + high) >>> 1;
+            if (upperDeviation(split, taken - i - 1) > lowerDeviation(split, i)) {
+                low = i + 1;
+            } else {
+                high = i;
+            }
+        }
+
+        int j = taken - low;
+        float deviation = 0f;
+        if (low > 0) {
+            deviation = lowerDeviation(split, low - 1);
+        }
+        if (j > 0) {
+            deviation = Math.max(deviation, upperDeviation(split, j - 1));
+        }
+        return deviation;
+    }
+
+    private float lowerDeviation(int split, int i) {
+        return median - sorted.get(split - 1 - i);
+    }
+
+    private float upperDeviation(int split, int j) {
+        return sorted.get(split + j) - median;
+    }
+}
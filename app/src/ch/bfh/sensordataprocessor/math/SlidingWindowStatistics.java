@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Statistics over the last <code>windowSize</code> values of a stream, each
+ * updated in constant time per value:
+ * <ul>
+ * <li>mean and variance with Welford's update, extended to remove the value
+ * leaving the window, and recomputed from the window every
+ * {@value #RECOMPUTE_INTERVAL} window lengths so rounding errors cannot
+ * accumulate, which keeps the cost constant on average,</li>
+ * <li>minimum and maximum with monotonic deques of window positions,</li>
+ * <li>quantiles with pairs of {@link P2QuantileEstimator}s restarted every
+ * window length and staggered by half a window; the estimate comes from the
+ * one that has seen more values, i.e. the latest half to full window.</li>
+ * </ul>
+ */
+public class SlidingWindowStatistics {
+
+    static final int RECOMPUTE_INTERVAL = 4;
+
+    private final float[] window;
+    private final long[] minDeque;
+    private final long[] maxDeque;
+    private int minHead;
+    private int minSize;
+    private int maxHead;
+    private int maxSize;
+
+    private final P2QuantileEstimator[][] estimators;
+    private final int stagger;
+
+    private long total;
+    private int count;
+    private double mean;
+    private double m2;
+
+    /**
+     * @param probabilities quantiles to estimate, between 0 and 1
+     */
+    public SlidingWindowStatistics(int windowSize, double... probabilities) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        window = new float[windowSize];
+        minDeque = new long[windowSize];
+        maxDeque = new long[windowSize];
+        stagger = Math.max(1, windowSize / 2);
+        estimators = new P2QuantileEstimator[2][probabilities.length];
+        for (int i = 0; i < probabilities.length; ++i) {
+            estimators[0][i] = new P2QuantileEstimator(probabilities[i]);
+            estimators[1][i] = new P2QuantileEstimator(probabilities[i]);
+        }
+    }
+
+    public void add(float value) {
+        int size = window.length;
+        long position = total++;
+        int slot = (int) (position % size);
+
+        // leave the window
+        if (minSize > 0 && minDeque[minHead] <= position - size) {
+            minHead = next(minHead);
+            --minSize;
+        }
+        if (maxSize > 0 && maxDeque[maxHead] <= position - size) {
+            maxHead = next(maxHead);
+            --maxSize;
+        }
+
+        if (count < size) {
+            ++count;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+        } else {
+            double old = window[slot];
+            double previousMean = mean;
+            mean += (value - old) / size;
+            m2 += (value - old) * (value - mean + old - previousMean);
+            if (m2 < 0) {
+                m2 = 0;
+            }
+        }
+        window[slot] = value;
+        if (count == size && (position + 1) % ((long) RECOMPUTE_INTERVAL * size) == 0) {
+            recompute();
+        }
+
+        while (minSize > 0 && value(minDeque[last(minHead, minSize)]) >= value) {
+            --minSize;
+        }
+        minDeque[wrap(minHead + minSize)] = position;
+        ++minSize;
+        while (maxSize > 0 && value(maxDeque[last(maxHead, maxSize)]) <= value) {
+            --maxSize;
+        }
+        maxDeque[wrap(maxHead + maxSize)] = position;
+        ++maxSize;
+
+        for (int e = 0; e < 2; ++e) {
+            boolean restart = (position + e * stagger) % size == 0;
+            P2QuantileEstimator[] set = estimators[e];
+            for (int i = 0; i < set.length; ++i) {
+                if (restart) {
+                    set[i].reset();
+                }
+                set[i].add(value);
+            }
+        }
+    }
+
+    public int getWindowSize() {
+        return window.length;
+    }
+
+    /**
+     * @return the number of values in the window
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * @return the sample variance of the window
+     */
+    public double getVariance() {
+        return count < 2 ? 0 : m2 / (count - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    public double getRms() {
+        return count == 0 ? Double.NaN : Math.sqrt(mean * mean + m2 / count);
+    }
+
+    public float getMin() {
+        return minSize == 0 ? Float.NaN : value(minDeque[minHead]);
+    }
+
+    public float getMax() {
+        return maxSize == 0 ? Float.NaN : value(maxDeque[maxHead]);
+    }
+
+    public int getQuantileCount() {
+        return estimators[0].length;
+    }
+
+    public double getQuantileProbability(int index) {
+        return estimators[0][index].getProbability();
+    }
+
+    public double getQuantile(int index) {
+        P2QuantileEstimator first = estimators[0][index];
+        P2QuantileEstimator second = estimators[1][index];
+        return (first.getCount() >= second.getCount() ? first : second).getQuantile();
+    }
+
+    public void reset() {
+        total = 0;
+        count = 0;
+        mean = 0;
+        m2 = 0;
+        minHead = 0;
+        minSize = 0;
+        maxHead = 0;
+        maxSize = 0;
+        for (P2QuantileEstimator[] set : estimators) {
+            for (P2QuantileEstimator estimator : set) {
+                estimator.reset();
+            }
+        }
+    }
+
+    /**
+     * Replaces the running mean and sum of squared deviations by their
+     * values computed from the full window in two passes.
+     */
+    private void recompute() {
+        double sum = 0;
+        for (float value : window) {
+            sum += value;
+        }
+        double exactMean = sum / window.length;
+        double squares = 0;
+        for (float value : window) {
+            double deviation = value - exactMean;
+            squares += deviation * deviation;
+        }
+        mean = exactMean;
+        m2 = squares;
+    }
+
+    private float value(long position) {
+        return window[(int) (position % window.length)];
+    }
+
+    private int next(int index) {
+        return index + 1 == window.length ? 0 : index + 1;
+    }
+
+    private int wrap(int index) {
+        return index >= window.length ? index - window.length : index;
+    }
+
+    private int last(int head, int size) {
+        return wrap(head + size - 1);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.math;
+
+/**
+ * Window functions for FIR design and spectral analysis.
+ */
+public enum WindowFunction {
+
+    RECTANGULAR,
+    HANN,
+    HAMMING,
+    BLACKMAN;
+
+    /**
+     * @return the symmetric window coefficient <code>n</code> of a window of
+     *         the given length
+     */
+    public double value(int n, int length) {
+        if (length == 1) {
+            return 1.0;
+        }
+        double phase = 2.0 * Math.PI * n / (length - 1);
+        switch (this) {
+            case HANN:
+                return 0.5 - 0.5 * Math.cos(phase);
+            case HAMMING:
+                return 0.54 - 0.46 * Math.cos(phase);
+            case BLACKMAN:
+                return 0.42 - 0.5 * Math.cos(phase) + 0.08 * Math.cos(2.0 * phase);
+            default:
+                return 1.0;
+        }
+    }
+
+    public float[] create(int length) {
+        float[] window = new float[length];
+        for (int n = 0; n < length; ++n) {
+            window[n] = (float) value(n, length);
+        }
+        return window;
+    }
+
+}
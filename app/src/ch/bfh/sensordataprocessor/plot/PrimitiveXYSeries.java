@@ -0,0 +1,344 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.plot;
+
+import com.androidplot.series.XYSeries;
+
+/**
+ * XY series backed by primitive ring buffers that keeps a whole recent window
+ * of points but only shows a downsampled view of it.
+ * <p>
+ * Points are added on the producer thread without allocating. Before each
+ * redraw the producer calls {@link #updateDrawPoints(int)}, which reduces the
+ * window to about one point per pixel with Largest-Triangle-Three-Buckets.
+ * LTTB keeps the points that shape the curve, so peaks stay visible at a
+ * fixed drawing cost whatever the sample rate. The plot reads the view
+ * through {@link XYSeries}; the view is double buffered and its
+ * <code>Number</code>s are preallocated, so drawing does not allocate either.
+ */
+public class PrimitiveXYSeries implements XYSeries
+{
+    // returned while the view is empty
+    private static final Number ZERO = Integer.valueOf(0);
+
+    private final String title;
+    private final long maxXRange;
+
+    // window, only touched by the producer thread
+    private final long[] xValues;
+    private final float[] yValues;
+    private int head;
+    private int size;
+
+    // downsampled view; the back buffer is filled by the producer and
+    // swapped in under the lock
+    private DrawBuffer front;
+    private DrawBuffer back;
+
+    // set by clear(), applied to the window by the producer
+    private volatile boolean clearRequested;
+
+    /**
+     * @param capacity maximum number of points kept in the window
+     * @param maxXRange points older than the newest x value minus this range
+     *            are dropped, <code>Long.MAX_VALUE</code> for no limit
+     * @param maxDrawPoints maximum number of points the view can hold
+     */
+    public PrimitiveXYSeries(String title, int capacity, long maxXRange, int maxDrawPoints)
+    {
+        this.title = title;
+        this.maxXRange = maxXRange;
+        this.xValues = new long[capacity];
+        this.yValues = new float[capacity];
+        this.front = new DrawBuffer(maxDrawPoints);
+        this.back = new DrawBuffer(maxDrawPoints);
+    }
+
+    /**
+     * Appends a point, dropping the oldest ones once the window is full or
+     * spans more than the maximum x range.
+     */
+    public void addLast(long x, float y)
+    {
+        applyClear();
+        int index = physicalIndex(size);
+        xValues[index] = x;
+        yValues[index] = y;
+
+        if (size < xValues.length)
+        {
+            ++size;
+        }
+        else
+        {
+            head = nextIndex(head);
+        }
+
+        while (size > 1 && x - xValues[head] > maxXRange)
+        {
+            head = nextIndex(head);
+            --size;
+        }
+    }
+
+    /**
+     * Recomputes the view from the current window.
+     *
+     * @param targetPoints number of points to reduce the window to, usually
+     *            the plot width in pixels
+     */
+    public void updateDrawPoints(int targetPoints)
+    {
+        applyClear();
+        DrawBuffer buffer = back;
+        int threshold = Math.min(targetPoints, buffer.capacity());
+
+        if (threshold >= size || threshold < 3)
+        {
+            int count = Math.min(size, buffer.capacity());
+            int first = size - count;
+            for (int i = 0; i < count; ++i)
+            {
+                buffer.set(i, xValues[physicalIndex(first + i)],
+                        yValues[physicalIndex(first + i)]);
+            }
+            buffer.size = count;
+        }
+        else
+        {
+            largestTriangleThreeBuckets(buffer, threshold);
+        }
+
+        synchronized (this)
+        {
+            if (clearRequested)
+            {
+                // computed from the window before it was cleared
+                buffer.size = 0;
+            }
+            back = front;
+            front = buffer;
+        }
+    }
+
+    /**
+     * Empties the view at once and the window with the next point or update.
+     * May be called from any thread.
+     */
+    public void clear()
+    {
+        synchronized (this)
+        {
+            front.size = 0;
+        }
+        clearRequested = true;
+    }
+
+    private void applyClear()
+    {
+        if (clearRequested)
+        {
+            clearRequested = false;
+            head = 0;
+            size = 0;
+        }
+    }
+
+    /**
+     * @return the number of points in the window
+     */
+    public int getWindowSize()
+    {
+        return size;
+    }
+
+    @Override
+    public String getTitle()
+    {
+        return title;
+    }
+
+    @Override
+    public synchronized int size()
+    {
+        return front.size;
+    }
+
+    /**
+     * The view may shrink between the plot's calls to {@link #size()} and
+     * here, so out of range indices are clamped, and 0 is returned while the
+     * view is empty.
+     */
+    @Override
+    public synchronized Number getX(int index)
+    {
+        return front.size == 0 ? ZERO : front.x[clamp(index)];
+    }
+
+    @Override
+    public synchronized Number getY(int index)
+    {
+        return front.size == 0 ? ZERO : front.y[clamp(index)];
+    }
+
+    private int clamp(int index)
+    {
+        return Math.max(0, Math.min(index, front.size - 1));
+    }
+
+    private void largestTriangleThreeBuckets(DrawBuffer buffer, int threshold)
+    {
+        double every = (double) (size - 2) / (threshold - 2);
+        int a = 0;
+        int out = 0;
+        buffer.set(out++, xValues[physicalIndex(0)], yValues[physicalIndex(0)]);
+
+        for (int bucket = 0; bucket < threshold - 2; ++bucket)
+        {
+            // average of the next bucket is the third triangle corner
+            int nextStart = (int) ((bucket + 1) * every) + 1;
+            int nextEnd = Math.min((int) ((bucket + 2) * every) + 1, size);
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; ++i)
+            {
+                int p = physicalIndex(i);
+                averageX += xValues[p];
+                averageY += yValues[p];
+            }
+            int nextLength = nextEnd - nextStart;
+            if (nextLength > 0)
+            {
+                averageX /= nextLength;
+                averageY /= nextLength;
+            }
+            else
+            {
+                averageX = xValues[physicalIndex(size - 1)];
+                averageY = yValues[physicalIndex(size - 1)];
+            }
+
+            int start = (int) (bucket * every) + 1;
+            int end = (int) ((bucket + 1) * every) + 1;
+            int pa = physicalIndex(a);
+            double ax = xValues[pa];
+            double ay = yValues[pa];
+            double maxArea = -1;
+            int selected = start;
+            for (int i = start; i < end; ++i)
+            {
+                int p = physicalIndex(i);
+                double area = Math.abs((ax - averageX) * (yValues[p] - ay)
+                        - (ax - xValues[p]) * (averageY - ay));
+                if (area > maxArea)
+                {
+                    maxArea = area;
+                    selected = i;
+                }
+            }
+
+            int ps = physicalIndex(selected);
+            buffer.set(out++, xValues[ps], yValues[ps]);
+            a = selected;
+        }
+
+        int last = physicalIndex(size - 1);
+        buffer.set(out++, xValues[last], yValues[last]);
+        buffer.size = out;
+    }
+
+    private int physicalIndex(int index)
+    {
+        int physical = head + index;
+        return physical >= xValues.length ? physical - xValues.length : physical;
+    }
+
+    private int nextIndex(int index)
+    {
+        return index + 1 == xValues.length ? 0 : index + 1;
+    }
+
+    private static final class DrawBuffer
+    {
+        final MutableNumber[] x;
+        final MutableNumber[] y;
+        int size;
+
+        DrawBuffer(int capacity)
+        {
+            x = new MutableNumber[capacity];
+            y = new MutableNumber[capacity];
+            for (int i = 0; i < capacity; ++i)
+            {
+                x[i] = new MutableNumber();
+                y[i] = new MutableNumber();
+            }
+        }
+
+        int capacity()
+        {
+            return x.length;
+        }
+
+        void set(int index, long xValue, float yValue)
+        {
+            x[index].value = xValue;
+            y[index].value = yValue;
+        }
+    }
+
+    /**
+     * Reusable <code>Number</code>; only valid until the buffer holding it is
+     * refilled, which is enough for the plot that reads it while drawing.
+     */
+    private static final class MutableNumber extends Number
+    {
+        private static final long serialVersionUID = 1L;
+
+        double value;
+
+        @Override
+        public int intValue()
+        {
+            return (int) value;
+        }
+
+        @Override
+        public long longValue()
+        {
+            return (long) value;
+        }
+
+        @Override
+        public float floatValue()
+        {
+            return (float) value;
+        }
+
+        @Override
+        public double doubleValue()
+        {
+            return value;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.valueOf(value);
+        }
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+import java.io.IOException;
+
+import ch.bfh.sensordataprocessor.math.FilterChain;
+import ch.bfh.sensordataprocessor.math.FrameDecimator;
+import ch.bfh.sensordataprocessor.math.HighPassFilter;
+import ch.bfh.sensordataprocessor.math.MultiChannelFilter;
+import ch.bfh.sensordataprocessor.math.SlidingMedianFilter;
+import ch.bfh.sensordataprocessor.record.IBlockSampleWriter;
+import ch.bfh.sensordataprocessor.record.ISampleWriter;
+
+/**
+ * The filter, record and detect path for three-axis acceleration samples,
+ * free of Android dependencies so that recordings can be replayed through it
+ * on the JVM.
+ * <p>
+ * Once constructed, {@link #process(long, float, float, float)} and
+ * {@link #processBlock(long[], float[], int, int)} do not allocate, except
+ * for redesigning the rate dependent stages after
+ * {@link #setSampleRateHz(float)}.
+ */
+public class AccelerationProcessor
+{
+    private static final float DECIMATED_RECORDING_RATE_HZ = 25f;
+    private static final int FRAME_CHANNELS = 4;
+    private static final int OUTLIER_WINDOW_SIZE = 9;
+
+    private final boolean filterAxes;
+    private final MultiChannelFilter axisFilter;
+    private final ISampleWriter sampleWriter;
+    private final IBlockSampleWriter blockWriter;
+    private final ISampleWriter decimatedSampleWriter;
+    private final float plotRateHz;
+    private FrameDecimator plotDecimator;
+    private FrameDecimator recordingDecimator;
+    private final IProcessingListener listener;
+
+    // rate the stages are designed for, and the one they are retuned to
+    // with the next sample
+    private float sampleRateHz;
+    private volatile float requestedSampleRateHz;
+
+    private final float[] values = new float[3];
+    private final float[] frame = new float[FRAME_CHANNELS];
+    private ProcessingStats stats;
+    private AxisStatistics statistics;
+    private AdaptiveRateController rateController;
+    private MovementDetector movementDetector;
+    private SpectralAnalyzer spectralAnalyzer;
+    private StepDetector stepDetector;
+    private IOException writeError;
+
+    /**
+     * @param removeOutliers replace spikes on each axis by the median of the
+     *            last {@value #OUTLIER_WINDOW_SIZE} samples before the
+     *            high-pass filter, see {@link SlidingMedianFilter#hampel(int)}
+     * @param sampleWriter receives every filtered sample, may be <code>null</code>
+     * @param decimatedSampleWriter receives the samples decimated to
+     *            {@value #DECIMATED_RECORDING_RATE_HZ} Hz, may be <code>null</code>
+     * @param sampleRateHz nominal rate of the input samples
+     * @param plotRateHz rate of the frames passed to
+     *            {@link IProcessingListener#onPlotFrame}
+     * @param listener may be <code>null</code> if nothing is displayed
+     */
+    public AccelerationProcessor(boolean useHighPassFilter, boolean removeOutliers,
+            ISampleWriter sampleWriter, ISampleWriter decimatedSampleWriter,
+            float sampleRateHz, float plotRateHz, IProcessingListener listener)
+    {
+        this.filterAxes = useHighPassFilter || removeOutliers;
+        this.sampleWriter = sampleWriter;
+        this.blockWriter = sampleWriter instanceof IBlockSampleWriter
+                ? (IBlockSampleWriter) sampleWriter : null;
+        this.decimatedSampleWriter = decimatedSampleWriter;
+        this.plotRateHz = plotRateHz;
+        this.listener = listener;
+        this.sampleRateHz = sampleRateHz;
+        this.requestedSampleRateHz = sampleRateHz;
+
+        axisFilter = new MultiChannelFilter(createAxisFilter(useHighPassFilter, removeOutliers),
+                                            createAxisFilter(useHighPassFilter, removeOutliers),
+                                            createAxisFilter(useHighPassFilter, removeOutliers));
+
+        // x, y, z and acceleration are decimated together
+        plotDecimator = listener == null ? null
+                : FrameDecimator.forRates(FRAME_CHANNELS, sampleRateHz, plotRateHz);
+        recordingDecimator = decimatedSampleWriter == null ? null
+                : FrameDecimator.forRates(FRAME_CHANNELS, sampleRateHz,
+                        DECIMATED_RECORDING_RATE_HZ);
+    }
+
+    public AccelerationProcessor(boolean useHighPassFilter, ISampleWriter sampleWriter,
+            ISampleWriter decimatedSampleWriter, float sampleRateHz, float plotRateHz,
+            IProcessingListener listener)
+    {
+        this(useHighPassFilter, false, sampleWriter, decimatedSampleWriter, sampleRateHz,
+                plotRateHz, listener);
+    }
+
+    /**
+     * Creates the filter chain applied to each axis. Every axis needs its own
+     * instance because the chain keeps the filter state.
+     */
+    private static FilterChain createAxisFilter(boolean useHighPassFilter,
+            boolean removeOutliers)
+    {
+        // TODO For Students: Apply your math stuff here.
+        if (!removeOutliers)
+        {
+            return new FilterChain(new HighPassFilter());
+        }
+        // spikes are removed first, so the high-pass does not spread them
+        if (!useHighPassFilter)
+        {
+            return new FilterChain(SlidingMedianFilter.hampel(OUTLIER_WINDOW_SIZE));
+        }
+        return new FilterChain(SlidingMedianFilter.hampel(OUTLIER_WINDOW_SIZE),
+                               new HighPassFilter());
+
+        // -------------------------------------------------------------
+        // for testing purposes only
+        // return new FilterChain(new LowPassFilter());
+        // return new FilterChain(new MovingAverageFilter(16));
+        // return new FilterChain(new HighPassFilter(),
+        //                        new MovingAverageFilter(16),
+        //                        new LowPassFilter());
+        // -------------------------------------------------------------
+    }
+
+    /**
+     * Enables per-stage latency measurement, <code>null</code> to disable it.
+     */
+    public void setStats(ProcessingStats stats)
+    {
+        this.stats = stats;
+    }
+
+    /**
+     * Feeds the filtered samples into sliding window statistics,
+     * <code>null</code> to stop.
+     */
+    public void setStatistics(AxisStatistics statistics)
+    {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Feeds the filtered acceleration magnitude into a controller that
+     * adapts the sampling rate to the activity, <code>null</code> to stop.
+     * The controller's listener has to pass each new rate to
+     * {@link #setSampleRateHz(float)}, otherwise the rate dependent stages
+     * stay sized for the nominal rate.
+     */
+    public void setRateController(AdaptiveRateController rateController)
+    {
+        this.rateController = rateController;
+    }
+
+    /**
+     * Feeds the filtered acceleration magnitude into a detector that reports
+     * the start and end of movements, <code>null</code> to stop.
+     */
+    public void setMovementDetector(MovementDetector movementDetector)
+    {
+        this.movementDetector = movementDetector;
+    }
+
+    /**
+     * Feeds the filtered samples into a short-time spectral analysis,
+     * <code>null</code> to stop.
+     */
+    public void setSpectralAnalyzer(SpectralAnalyzer spectralAnalyzer)
+    {
+        this.spectralAnalyzer = spectralAnalyzer;
+    }
+
+    /**
+     * Feeds the unfiltered acceleration magnitude into a step detector,
+     * <code>null</code> to stop. The detector is retuned to the current
+     * rate and skips the samples of rates it cannot run at.
+     */
+    public void setStepDetector(StepDetector stepDetector)
+    {
+        this.stepDetector = stepDetector;
+    }
+
+    /**
+     * Announces a new nominal rate of the input samples, e.g. after the
+     * sensor was registered at another sampling period. With the next
+     * sample the decimators are redesigned so their outputs keep their
+     * rates, and the step detector and spectral analyzer are retuned. The
+     * samples still delivered at the old rate until then are processed as
+     * if they had the new one. May be called from any thread.
+     */
+    public void setSampleRateHz(float sampleRateHz)
+    {
+        requestedSampleRateHz = sampleRateHz;
+    }
+
+    public float getSampleRateHz()
+    {
+        return sampleRateHz;
+    }
+
+    private void updateSampleRate()
+    {
+        float rateHz = requestedSampleRateHz;
+        if (rateHz == sampleRateHz)
+        {
+            return;
+        }
+        sampleRateHz = rateHz;
+        if (plotDecimator != null
+                && plotDecimator.getFactor() != FrameDecimator.factorForRates(rateHz, plotRateHz))
+        {
+            plotDecimator = FrameDecimator.forRates(FRAME_CHANNELS, rateHz, plotRateHz);
+        }
+        if (recordingDecimator != null && recordingDecimator.getFactor()
+                != FrameDecimator.factorForRates(rateHz, DECIMATED_RECORDING_RATE_HZ))
+        {
+            recordingDecimator = FrameDecimator.forRates(FRAME_CHANNELS, rateHz,
+                    DECIMATED_RECORDING_RATE_HZ);
+        }
+    }
+
+    /**
+     * @return whether the detector runs at the current rate
+     */
+    private boolean tune(StepDetector stepDetector)
+    {
+        return stepDetector.getSampleRateHz() == sampleRateHz
+                || stepDetector.setSampleRateHz(sampleRateHz);
+    }
+
+    /**
+     * @return the last error raised by a writer since the previous call, or
+     *         <code>null</code>
+     */
+    public IOException takeWriteError()
+    {
+        IOException error = writeError;
+        writeError = null;
+        return error;
+    }
+
+    /**
+     * @param timestamp nanoseconds, as in <code>SensorEvent.timestamp</code>
+     */
+    public void process(long timestamp, float x, float y, float z)
+    {
+        ProcessingStats stats = this.stats;
+        long time = stats == null ? 0 : System.nanoTime();
+        updateSampleRate();
+
+        StepDetector stepDetector = this.stepDetector;
+        if (stepDetector != null && tune(stepDetector))
+        {
+            stepDetector.update(timestamp, Math.sqrt(x * x + y * y + z * z));
+            time = lap(stats, ProcessingStage.STEPS, time);
+        }
+
+        values[0] = x;
+        values[1] = y;
+        values[2] = z;
+
+        // Pass values through the outlier and high-pass filters if enabled
+        if (filterAxes)
+        {
+            axisFilter.processFrame(values);
+        }
+
+        double sumOfSquares = (values[0] * values[0])
+                + (values[1] * values[1])
+                + (values[2] * values[2]);
+        double acceleration = Math.sqrt(sumOfSquares);
+        time = lap(stats, ProcessingStage.FILTER, time);
+
+        // Write to data file
+        write(sampleWriter, timestamp, values[0], values[1], values[2], acceleration);
+        time = lap(stats, ProcessingStage.RECORD, time);
+
+        analyze(timestamp, values[0], values[1], values[2], acceleration, stats, time);
+    }
+
+    /**
+     * Processes a burst of samples, such as the contents of a hardware FIFO,
+     * in one call. The axes are filtered block-wise and the block is handed
+     * to the writer in one call if it is an {@link IBlockSampleWriter}; the
+     * other stages run per sample as in
+     * {@link #process(long, float, float, float)}. The frames are filtered in
+     * place.
+     *
+     * @param frames x, y and z of each sample, interleaved
+     * @param offset index of the first sample
+     */
+    public void processBlock(long[] timestamps, float[] frames, int offset, int count)
+    {
+        ProcessingStats stats = this.stats;
+        long time = stats == null ? 0 : System.nanoTime();
+        updateSampleRate();
+
+        // steps are detected on the unfiltered frames
+        StepDetector stepDetector = this.stepDetector;
+        if (stepDetector != null && tune(stepDetector))
+        {
+            for (int i = offset, frame = offset * 3; i < offset + count; ++i, frame += 3)
+            {
+                stepDetector.update(timestamps[i], magnitude(frames, frame));
+            }
+            time = lapBlock(stats, ProcessingStage.STEPS, time, count);
+        }
+
+        if (filterAxes)
+        {
+            axisFilter.processInterleaved(frames, offset * 3, count);
+        }
+        time = lapBlock(stats, ProcessingStage.FILTER, time, count);
+
+        if (blockWriter != null)
+        {
+            try
+            {
+                blockWriter.writeBlock(timestamps, frames, offset, count);
+            }
+            catch (IOException e)
+            {
+                writeError = e;
+            }
+        }
+        else if (sampleWriter != null)
+        {
+            for (int i = offset, frame = offset * 3; i < offset + count; ++i, frame += 3)
+            {
+                write(sampleWriter, timestamps[i], frames[frame], frames[frame + 1],
+                        frames[frame + 2], magnitude(frames, frame));
+            }
+        }
+        time = lapBlock(stats, ProcessingStage.RECORD, time, count);
+
+        for (int i = offset, frame = offset * 3; i < offset + count; ++i, frame += 3)
+        {
+            time = analyze(timestamps[i], frames[frame], frames[frame + 1], frames[frame + 2],
+                    magnitude(frames, frame), stats, time);
+        }
+    }
+
+    /**
+     * Runs the stages after recording: statistics, spectrum, rate control,
+     * decimation and detection.
+     *
+     * @return the time the last stage finished, for the next lap
+     */
+    private long analyze(long timestamp, float x, float y, float z, double acceleration,
+            ProcessingStats stats, long time)
+    {
+        AxisStatistics statistics = this.statistics;
+        if (statistics != null)
+        {
+            statistics.add(timestamp, x, y, z, (float) acceleration);
+            time = lap(stats, ProcessingStage.STATISTICS, time);
+        }
+
+        SpectralAnalyzer spectralAnalyzer = this.spectralAnalyzer;
+        if (spectralAnalyzer != null)
+        {
+            if (spectralAnalyzer.getSampleRateHz() != sampleRateHz)
+            {
+                spectralAnalyzer.setSampleRateHz(sampleRateHz);
+            }
+            spectralAnalyzer.add(timestamp, x, y, z);
+            time = lap(stats, ProcessingStage.SPECTRUM, time);
+        }
+
+        AdaptiveRateController rateController = this.rateController;
+        if (rateController != null)
+        {
+            rateController.update(timestamp, acceleration);
+        }
+
+        frame[0] = x;
+        frame[1] = y;
+        frame[2] = z;
+        frame[3] = (float) acceleration;
+
+        if (recordingDecimator != null && recordingDecimator.push(timestamp, frame, 0))
+        {
+            write(decimatedSampleWriter,
+                  recordingDecimator.getOutputTimestamp(),
+                  recordingDecimator.getOutput(0),
+                  recordingDecimator.getOutput(1),
+                  recordingDecimator.getOutput(2),
+                  recordingDecimator.getOutput(3));
+        }
+
+        // Without a listener nothing is displayed
+        if (listener != null && plotDecimator.push(timestamp, frame, 0))
+        {
+            listener.onPlotFrame(plotDecimator.getOutputTimestamp(),
+                                 plotDecimator.getOutput(0),
+                                 plotDecimator.getOutput(1),
+                                 plotDecimator.getOutput(2),
+                                 plotDecimator.getOutput(3));
+        }
+        time = lap(stats, ProcessingStage.DECIMATE, time);
+
+        MovementDetector movementDetector = this.movementDetector;
+        if (movementDetector != null)
+        {
+            movementDetector.update(timestamp, acceleration);
+            time = lap(stats, ProcessingStage.DETECT, time);
+        }
+
+        if (stats != null)
+        {
+            stats.addSample();
+        }
+        return time;
+    }
+
+    private void write(ISampleWriter writer, long timestamp, float x, float y, float z,
+            double acceleration)
+    {
+        if (writer != null)
+        {
+            try
+            {
+                writer.writeSample(timestamp, x, y, z, acceleration);
+            }
+            catch (IOException e)
+            {
+                writeError = e;
+            }
+        }
+    }
+
+    private static double magnitude(float[] frames, int frame)
+    {
+        float x = frames[frame];
+        float y = frames[frame + 1];
+        float z = frames[frame + 2];
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+
+    private static long lapBlock(ProcessingStats stats, ProcessingStage stage, long start,
+            int samples)
+    {
+        if (stats == null)
+        {
+            return 0;
+        }
+        long now = System.nanoTime();
+        stats.addStage(stage, now - start, samples);
+        return now;
+    }
+
+    private static long lap(ProcessingStats stats, ProcessingStage stage, long start)
+    {
+        if (stats == null)
+        {
+            return 0;
+        }
+        long now = System.nanoTime();
+        stats.addStage(stage, now - start);
+        return now;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+import java.util.Locale;
+
+/**
+ * Chooses the sampling rate from the activity of the device, as a state
+ * machine fed with the acceleration magnitude.
+ * <p>
+ * The signal energy is the exponentially smoothed square of the magnitude's
+ * deviation from its slow moving mean, so it works on high-pass filtered and
+ * on raw magnitudes alike. Once the energy exceeds the wake threshold the
+ * controller switches to {@link State#ACTIVE} and the fast rate at once;
+ * only after the energy has stayed below the lower rest threshold for the
+ * rest delay does it fall back to {@link State#REST} and the slow rate. The
+ * two thresholds and the delay keep it from toggling on borderline motion.
+ * <p>
+ * It starts out {@link State#ACTIVE}, the safe choice while the filters
+ * upstream are still settling, and lowers the rate once the signal has been
+ * quiet for the rest delay.
+ * <p>
+ * The controller has no Android dependencies and works on event timestamps,
+ * so a replayed recording yields the same decisions as the live sensor.
+ */
+public class AdaptiveRateController
+{
+    public enum State
+    {
+        REST, ACTIVE
+    }
+
+    public static final double DEFAULT_WAKE_THRESHOLD = 0.25;
+    public static final double DEFAULT_REST_THRESHOLD = 0.05;
+    public static final long DEFAULT_REST_DELAY = 3000000000L;
+
+    private static final double ENERGY_TIME_CONSTANT = 0.25;
+    private static final double BASELINE_TIME_CONSTANT = 2.0;
+    private static final long MAX_GAP = 1000000000L;
+
+    private final int restPeriodMicros;
+    private final int activePeriodMicros;
+    private final double restRateHz;
+    private final double activeRateHz;
+    private final double wakeThreshold;
+    private final double restThreshold;
+    private final long restDelay;
+    private final ISamplingRateListener listener;
+
+    private State state = State.ACTIVE;
+    private boolean started;
+    private long lastTimestamp;
+    private long quietSince;
+    private double baseline;
+    private double energy;
+
+    private long restNanos;
+    private long activeNanos;
+    private int transitions;
+
+    /**
+     * @param restPeriodMicros sampling period while at rest
+     * @param activePeriodMicros sampling period while moving, 0 for as fast as
+     *            possible
+     * @param activeRateHz rate the sensor actually delivers while moving,
+     *            needed to estimate the samples saved
+     * @param wakeThreshold energy in (m/s&sup2;)&sup2; above which the
+     *            device is moving
+     * @param restThreshold energy below which the device may be at rest,
+     *            lower than the wake threshold
+     * @param restDelay nanoseconds the energy has to stay below the rest
+     *            threshold before the rate is lowered
+     * @param listener may be <code>null</code> to poll
+     *            {@link #getSamplingPeriodMicros()}
+     */
+    public AdaptiveRateController(int restPeriodMicros, int activePeriodMicros,
+            float activeRateHz, double wakeThreshold, double restThreshold, long restDelay,
+            ISamplingRateListener listener)
+    {
+        if (restThreshold > wakeThreshold)
+        {
+            throw new IllegalArgumentException("restThreshold must not exceed wakeThreshold");
+        }
+        this.restPeriodMicros = restPeriodMicros;
+        this.activePeriodMicros = activePeriodMicros;
+        this.restRateHz = 1e6 / restPeriodMicros;
+        this.activeRateHz = activeRateHz;
+        this.wakeThreshold = wakeThreshold;
+        this.restThreshold = restThreshold;
+        this.restDelay = restDelay;
+        this.listener = listener;
+    }
+
+    public AdaptiveRateController(int restPeriodMicros, int activePeriodMicros,
+            float activeRateHz, ISamplingRateListener listener)
+    {
+        this(restPeriodMicros, activePeriodMicros, activeRateHz, DEFAULT_WAKE_THRESHOLD,
+                DEFAULT_REST_THRESHOLD, DEFAULT_REST_DELAY, listener);
+    }
+
+    /**
+     * @param timestamp nanoseconds, as in <code>SensorEvent.timestamp</code>
+     * @param acceleration the acceleration magnitude
+     * @return whether the sampling period has changed
+     */
+    public boolean update(long timestamp, double acceleration)
+    {
+        if (!started)
+        {
+            started = true;
+            lastTimestamp = timestamp;
+            quietSince = timestamp;
+            baseline = acceleration;
+            return false;
+        }
+
+        long elapsed = timestamp - lastTimestamp;
+        lastTimestamp = timestamp;
+        if (elapsed <= 0)
+        {
+            return false;
+        }
+        // a paused stream says nothing about the activity in between
+        elapsed = Math.min(elapsed, MAX_GAP);
+        if (state == State.ACTIVE)
+        {
+            activeNanos += elapsed;
+        }
+        else
+        {
+            restNanos += elapsed;
+        }
+
+        double dt = elapsed * 1e-9;
+        baseline += dt / (BASELINE_TIME_CONSTANT + dt) * (acceleration - baseline);
+        double deviation = acceleration - baseline;
+        energy += dt / (ENERGY_TIME_CONSTANT + dt) * (deviation * deviation - energy);
+
+        if (energy >= restThreshold)
+        {
+            quietSince = timestamp;
+        }
+
+        if (state == State.REST && energy > wakeThreshold)
+        {
+            return changeState(timestamp, State.ACTIVE);
+        }
+        if (state == State.ACTIVE && timestamp - quietSince >= restDelay)
+        {
+            return changeState(timestamp, State.REST);
+        }
+        return false;
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    /**
+     * @return the sampling period for the current state
+     */
+    public int getSamplingPeriodMicros()
+    {
+        return state == State.ACTIVE ? activePeriodMicros : restPeriodMicros;
+    }
+
+    public double getEnergy()
+    {
+        return energy;
+    }
+
+    /**
+     * @return the fraction of time spent at the fast rate
+     */
+    public double getDutyCycle()
+    {
+        long total = restNanos + activeNanos;
+        return total == 0 ? 0 : (double) activeNanos / total;
+    }
+
+    /**
+     * @return the estimated number of samples not taken compared to sampling
+     *         at the fast rate all the time
+     */
+    public long getSamplesSaved()
+    {
+        return Math.max(0, Math.round(restNanos * 1e-9 * (activeRateHz - restRateHz)));
+    }
+
+    public int getTransitions()
+    {
+        return transitions;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.US,
+                "%s, duty cycle %.1f%%, %d transitions, %d samples saved", state,
+                100 * getDutyCycle(), transitions, getSamplesSaved());
+    }
+
+    private boolean changeState(long timestamp, State next)
+    {
+        state = next;
+        quietSince = timestamp;
+        ++transitions;
+        if (listener != null)
+        {
+            listener.onSamplingPeriodChanged(timestamp, getSamplingPeriodMicros());
+        }
+        return true;
+    }
+}
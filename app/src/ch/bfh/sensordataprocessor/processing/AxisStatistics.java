@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.bfh.sensordataprocessor.math.SlidingWindowStatistics;
+
+/**
+ * Sliding window statistics of the x, y and z axis and of the acceleration
+ * magnitude, fed by an {@link AccelerationProcessor}.
+ * <p>
+ * After every sample the producer publishes the values through a triple
+ * buffer: it fills its own buffer and atomically swaps it with the shared
+ * one, so it never waits for a reader. {@link #readSnapshot} takes the latest
+ * published buffer in the same way and copies it out.
+ */
+public class AxisStatistics
+{
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int Z = 2;
+    public static final int ACCELERATION = 3;
+    public static final int CHANNEL_COUNT = 4;
+
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private final SlidingWindowStatistics[] channels;
+    private final double[] probabilities;
+    private final int stride;
+
+    private final double[][] buffers;
+    private final long[] bufferSamples = new long[3];
+    private final long[] bufferTimestamps = new long[3];
+    private final AtomicInteger shared = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+    private long samples;
+
+    /**
+     * @param windowSize number of samples in the window
+     * @param probabilities quantiles to estimate, between 0 and 1
+     */
+    public AxisStatistics(int windowSize, double... probabilities)
+    {
+        this.probabilities = probabilities.clone();
+        this.stride = StatisticsSnapshot.QUANTILES + probabilities.length;
+        channels = new SlidingWindowStatistics[CHANNEL_COUNT];
+        for (int i = 0; i < CHANNEL_COUNT; ++i)
+        {
+            channels[i] = new SlidingWindowStatistics(windowSize, probabilities);
+        }
+        buffers = new double[3][CHANNEL_COUNT * stride];
+    }
+
+    /**
+     * Adds a sample and publishes the updated statistics. Only call from one
+     * thread.
+     */
+    public void add(long timestamp, float x, float y, float z, float acceleration)
+    {
+        channels[X].add(x);
+        channels[Y].add(y);
+        channels[Z].add(z);
+        channels[ACCELERATION].add(acceleration);
+        ++samples;
+
+        double[] values = buffers[back];
+        for (int channel = 0; channel < CHANNEL_COUNT; ++channel)
+        {
+            SlidingWindowStatistics statistics = channels[channel];
+            int base = channel * stride;
+            values[base + StatisticsSnapshot.COUNT] = statistics.getCount();
+            values[base + StatisticsSnapshot.MEAN] = statistics.getMean();
+            values[base + StatisticsSnapshot.STANDARD_DEVIATION] =
+                    statistics.getStandardDeviation();
+            values[base + StatisticsSnapshot.RMS] = statistics.getRms();
+            values[base + StatisticsSnapshot.MIN] = statistics.getMin();
+            values[base + StatisticsSnapshot.MAX] = statistics.getMax();
+            for (int i = 0; i < probabilities.length; ++i)
+            {
+                values[base + StatisticsSnapshot.QUANTILES + i] = statistics.getQuantile(i);
+            }
+        }
+        bufferSamples[back] = samples;
+        bufferTimestamps[back] = timestamp;
+        back = shared.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    public StatisticsSnapshot createSnapshot()
+    {
+        return new StatisticsSnapshot(CHANNEL_COUNT, probabilities);
+    }
+
+    /**
+     * Copies the latest published statistics. Readers are serialized among
+     * themselves but never block the producer.
+     *
+     * @return <code>false</code> if nothing was published yet
+     */
+    public synchronized boolean readSnapshot(StatisticsSnapshot snapshot)
+    {
+        if ((shared.get() & FRESH) != 0)
+        {
+            front = shared.getAndSet(front) & INDEX_MASK;
+        }
+        System.arraycopy(buffers[front], 0, snapshot.values, 0, snapshot.values.length);
+        snapshot.samples = bufferSamples[front];
+        snapshot.timestamp = bufferTimestamps[front];
+        return snapshot.samples > 0;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+/**
+ * Receives the joined frames of a {@link StreamAligner}.
+ */
+public interface IAlignedFrameListener {
+
+    /**
+     * @param timestamp the tick in nanoseconds
+     * @param values the channels of stream 0, followed by those of stream 1
+     *            and so on; only valid during the call
+     * @param staleStreams bit <code>i</code> is set if stream <code>i</code>
+     *            did not reach the tick within the lateness tolerance and
+     *            holds its nearest value, or <code>NaN</code> if it never
+     *            delivered a sample, or if it had a longer gap around the
+     *            tick
+     */
+    public void onAlignedFrame(long timestamp, float[] values, int staleStreams);
+
+}
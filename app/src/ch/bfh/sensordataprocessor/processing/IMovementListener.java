@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+/**
+ * Receives the movements found by a {@link MovementDetector}. Called on the
+ * thread that feeds the detector.
+ */
+public interface IMovementListener {
+
+    /**
+     * The device has been moving for at least the minimum movement duration.
+     *
+     * @param timestamp nanoseconds, when the movement began
+     * @param peakAcceleration largest deviation from the baseline so far
+     */
+    public void onMovementStarted(long timestamp, double peakAcceleration);
+
+    /**
+     * The device has been at rest for at least the minimum rest duration.
+     *
+     * @param startTimestamp nanoseconds, when the movement began
+     * @param endTimestamp nanoseconds, when the movement stopped
+     * @param peakAcceleration largest deviation from the baseline during the
+     *            movement
+     */
+    public void onMovementEnded(long startTimestamp, long endTimestamp,
+            double peakAcceleration);
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+/**
+ * Notified by an {@link AdaptiveRateController} when the sensor should be
+ * registered at a different rate.
+ */
+public interface ISamplingRateListener
+{
+    /**
+     * Called on the thread feeding the controller.
+     *
+     * @param samplingPeriodMicros the new sampling period, 0 for as fast as
+     *            possible
+     */
+    public void onSamplingPeriodChanged(long timestamp, int samplingPeriodMicros);
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+/**
+ * Receives the steps counted by a {@link StepDetector}. Called on the thread
+ * that feeds the detector.
+ */
+public interface IStepListener {
+
+    /**
+     * @param timestamp nanoseconds, of the peak of the step
+     * @param steps steps counted so far, including this one
+     * @param cadence steps per minute, 0 until two steps in a row were close
+     *            enough to tell
+     */
+    public void onStep(long timestamp, long steps, double cadence);
+
+}
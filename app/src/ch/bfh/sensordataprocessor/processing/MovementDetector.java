@@ -0,0 +1,262 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+import java.util.Locale;
+
+/**
+ * Finds movements in the acceleration magnitude and reports their start and
+ * end instead of every sample above a threshold.
+ * <p>
+ * The signal is the deviation of the magnitude from a baseline, a slow moving
+ * mean of the magnitude. Gravity on an unfiltered magnitude and the offset or
+ * start-up transient of a filter are thereby removed; an offset that lasts
+ * several time constants ends a movement.
+ * <p>
+ * A movement starts when the signal crosses the enter threshold and is
+ * confirmed once the minimum movement duration has passed and the signal is
+ * still or again above the lower exit threshold. It ends, or an unconfirmed
+ * one is dropped, once the signal has stayed below the exit threshold for the
+ * minimum rest duration. Shorter dips, such as the zero crossings of a shaken
+ * device, are tolerated. The two thresholds and the durations keep a single
+ * spike from starting a movement and a short pause from ending one.
+ * <p>
+ * Nothing is allocated per sample. The detector has no Android dependencies
+ * and works on event timestamps, so a replayed recording yields the same
+ * movements as the live sensor.
+ */
+public class MovementDetector
+{
+    /** The threshold the app used before movements had a start and an end. */
+    public static final double DEFAULT_ENTER_THRESHOLD = 2.0;
+    public static final double DEFAULT_EXIT_THRESHOLD = 1.0;
+    public static final long DEFAULT_MIN_MOVEMENT_DURATION = 100000000L;
+    public static final long DEFAULT_MIN_REST_DURATION = 500000000L;
+    public static final double DEFAULT_BASELINE_TIME_CONSTANT = 5.0;
+
+    private static final long MAX_GAP = 1000000000L;
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final double enterThreshold;
+    private final double exitThreshold;
+    private final long minMovementDuration;
+    private final long minRestDuration;
+    private final double baselineTimeConstant;
+    private final IMovementListener listener;
+
+    private boolean started;
+    private boolean moving;
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private double baseline;
+    // start of a movement, pending until it lasted the minimum duration
+    private long movementStart = UNSET;
+    // start of a pause in a movement, pending until it lasted the minimum
+    // rest duration
+    private long restStart = UNSET;
+    private double peak;
+
+    private int movements;
+    private long movingNanos;
+
+    /**
+     * @param enterThreshold deviation from the baseline in m/s&sup2; above
+     *            which the device may be moving
+     * @param exitThreshold deviation below which the device may be at rest,
+     *            not above the enter threshold
+     * @param minMovementDuration nanoseconds after crossing the enter
+     *            threshold before a movement is confirmed
+     * @param minRestDuration nanoseconds the signal has to stay below the exit
+     *            threshold to end a movement or drop an unconfirmed one
+     * @param baselineTimeConstant seconds, 0 for a fixed baseline of 0 as for
+     *            high-pass filtered input
+     * @param listener may be <code>null</code> to poll {@link #isMoving()}
+     */
+    public MovementDetector(double enterThreshold, double exitThreshold,
+            long minMovementDuration, long minRestDuration, double baselineTimeConstant,
+            IMovementListener listener)
+    {
+        if (exitThreshold > enterThreshold)
+        {
+            throw new IllegalArgumentException("exitThreshold must not exceed enterThreshold");
+        }
+        this.enterThreshold = enterThreshold;
+        this.exitThreshold = exitThreshold;
+        this.minMovementDuration = minMovementDuration;
+        this.minRestDuration = minRestDuration;
+        this.baselineTimeConstant = baselineTimeConstant;
+        this.listener = listener;
+    }
+
+    public MovementDetector(IMovementListener listener)
+    {
+        this(DEFAULT_ENTER_THRESHOLD, DEFAULT_EXIT_THRESHOLD, DEFAULT_MIN_MOVEMENT_DURATION,
+                DEFAULT_MIN_REST_DURATION, DEFAULT_BASELINE_TIME_CONSTANT, listener);
+    }
+
+    /**
+     * @param timestamp nanoseconds, as in <code>SensorEvent.timestamp</code>
+     * @param acceleration the acceleration magnitude
+     * @return whether a movement started or ended
+     */
+    public boolean update(long timestamp, double acceleration)
+    {
+        if (!started)
+        {
+            started = true;
+            firstTimestamp = timestamp;
+            lastTimestamp = timestamp;
+            baseline = baselineTimeConstant > 0 ? acceleration : 0;
+            return false;
+        }
+
+        long elapsed = timestamp - lastTimestamp;
+        if (elapsed < 0)
+        {
+            return false;
+        }
+        lastTimestamp = timestamp;
+        double signal = Math.abs(acceleration - baseline);
+        if (baselineTimeConstant > 0)
+        {
+            // a paused stream says nothing about the baseline in between;
+            // until the time constant has passed the baseline is the plain
+            // mean, so a filter's start-up transient does not stick
+            double dt = Math.min(elapsed, MAX_GAP) * 1e-9;
+            double timeConstant = Math.min(baselineTimeConstant,
+                    (timestamp - firstTimestamp) * 1e-9);
+            baseline += dt / (timeConstant + dt) * (acceleration - baseline);
+        }
+
+        if (movementStart == UNSET)
+        {
+            if (signal > enterThreshold)
+            {
+                movementStart = timestamp;
+                restStart = UNSET;
+                peak = signal;
+            }
+            return false;
+        }
+
+        // a movement, pending or confirmed
+        peak = Math.max(peak, signal);
+        if (moving)
+        {
+            movingNanos += Math.min(elapsed, MAX_GAP);
+        }
+        if (signal >= exitThreshold)
+        {
+            restStart = UNSET;
+        }
+        else if (restStart == UNSET)
+        {
+            restStart = timestamp;
+        }
+
+        if (restStart != UNSET && timestamp - restStart >= minRestDuration)
+        {
+            if (moving)
+            {
+                endMovement(restStart);
+                return true;
+            }
+            // only a spike
+            movementStart = UNSET;
+            restStart = UNSET;
+            return false;
+        }
+
+        if (!moving && restStart == UNSET
+                && timestamp - movementStart >= minMovementDuration)
+        {
+            moving = true;
+            ++movements;
+            movingNanos += timestamp - movementStart;
+            if (listener != null)
+            {
+                listener.onMovementStarted(movementStart, peak);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Ends a movement still going on, e.g. at the end of a recording.
+     *
+     * @return whether a movement was ended
+     */
+    public boolean finish()
+    {
+        if (!moving)
+        {
+            movementStart = UNSET;
+            restStart = UNSET;
+            return false;
+        }
+        endMovement(restStart != UNSET ? restStart : lastTimestamp);
+        return true;
+    }
+
+    public boolean isMoving()
+    {
+        return moving;
+    }
+
+    public double getBaseline()
+    {
+        return baseline;
+    }
+
+    /**
+     * @return the number of movements started
+     */
+    public int getMovements()
+    {
+        return movements;
+    }
+
+    /**
+     * @return nanoseconds spent moving, including the pause before a movement
+     *         ended
+     */
+    public long getMovingNanos()
+    {
+        return movingNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.US, "%d movements, %.1f s moving, baseline %.3f",
+                movements, movingNanos * 1e-9, baseline);
+    }
+
+    private void endMovement(long endTimestamp)
+    {
+        long start = movementStart;
+        double movementPeak = peak;
+        moving = false;
+        movementStart = UNSET;
+        restStart = UNSET;
+        if (listener != null)
+        {
+            listener.onMovementEnded(start, endTimestamp, movementPeak);
+        }
+    }
+}
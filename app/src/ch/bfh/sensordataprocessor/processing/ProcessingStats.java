@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+import java.util.Locale;
+
+/**
+ * Latency of each {@link ProcessingStage}, accumulated in primitive arrays.
+ * Only updated from the thread that feeds the processor.
+ */
+public class ProcessingStats
+{
+    private static final int STAGE_COUNT = ProcessingStage.values().length;
+
+    private final long[] totalNanos = new long[STAGE_COUNT];
+    private final long[] maxNanos = new long[STAGE_COUNT];
+    private final long[] counts = new long[STAGE_COUNT];
+    private long samples;
+
+    public void addSample()
+    {
+        ++samples;
+    }
+
+    public void addStage(ProcessingStage stage, long nanos)
+    {
+        int i = stage.ordinal();
+        totalNanos[i] += nanos;
+        counts[i]++;
+        if (nanos > maxNanos[i])
+        {
+            maxNanos[i] = nanos;
+        }
+    }
+
+    /**
+     * Adds the time a stage took for a block of samples, counted as the
+     * per-sample average.
+     */
+    public void addStage(ProcessingStage stage, long nanos, int samples)
+    {
+        int i = stage.ordinal();
+        totalNanos[i] += nanos;
+        counts[i] += samples;
+        long perSample = nanos / Math.max(1, samples);
+        if (perSample > maxNanos[i])
+        {
+            maxNanos[i] = perSample;
+        }
+    }
+
+    public long getSamples()
+    {
+        return samples;
+    }
+
+    public double getMeanNanos(ProcessingStage stage)
+    {
+        int i = stage.ordinal();
+        return counts[i] == 0 ? 0 : (double) totalNanos[i] / counts[i];
+    }
+
+    public long getMaxNanos(ProcessingStage stage)
+    {
+        return maxNanos[stage.ordinal()];
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < STAGE_COUNT; ++i)
+        {
+            totalNanos[i] = 0;
+            maxNanos[i] = 0;
+            counts[i] = 0;
+        }
+        samples = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (ProcessingStage stage : ProcessingStage.values())
+        {
+            sb.append(String.format(Locale.US, "%-10s mean %8.1f ns  max %9d ns%n",
+                    stage, getMeanNanos(stage), getMaxNanos(stage)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+import java.util.Locale;
+
+import ch.bfh.sensordataprocessor.math.RealFft;
+import ch.bfh.sensordataprocessor.math.WindowFunction;
+
+/**
+ * Short-time spectral analysis of the x, y and z axis over overlapping
+ * windows, fed by an {@link AccelerationProcessor}.
+ * <p>
+ * Every <code>hopSize</code> samples the last <code>windowSize</code>
+ * samples of each axis are freed of their mean, weighted with the window
+ * function and transformed with a {@link RealFft}. From the transform come
+ * the one-sided power spectral density in (m/s&sup2;)&sup2;/Hz, the energy in
+ * each band, i.e. the variance the band contributes, and the dominant
+ * frequency, interpolated between the bins around the largest non-DC value.
+ * <p>
+ * The frequency axis assumes the nominal sample rate, like the decimators,
+ * and is rescaled by {@link #setSampleRateHz(float)}.
+ * Nothing is allocated per sample or per window. The budget is 1% of a core
+ * at 1 kHz, above the fastest accelerometer rates, i.e. 10 &micro;s per
+ * sample. The cost is one copy into the ring buffer plus, every hop, three
+ * transforms of <code>windowSize</code> points, which
+ * {@link ch.bfh.sensordataprocessor.replay.SpectrumBenchmark} measures at
+ * about 40 to 50 ns per sample for 128 to 1024 points with half overlap on a
+ * desktop JVM, leaving ample margin for a phone.
+ */
+public class SpectralAnalyzer
+{
+    public static final int AXES = 3;
+
+    private final int windowSize;
+    private final int hopSize;
+    private float sampleRateHz;
+    private float binWidthHz;
+    private final float[] window;
+    private final double sumOfSquares;
+    private float densityScale;
+    private final double[] bandEdgesHz;
+    private final int[] bandBins;
+    private final RealFft fft;
+    private final ISpectrumListener listener;
+
+    private final float[][] history;
+    private final float[] work;
+    private final float[][] density;
+    private final double[][] bandEnergies;
+    private final float[] peakFrequencies;
+    private int position;
+    private long samples;
+    private long windows;
+
+    /**
+     * @param windowSize samples per window, a power of two of at least 4
+     * @param hopSize samples between the starts of two windows, at most
+     *            <code>windowSize</code>; half of it for the usual overlap
+     * @param sampleRateHz nominal rate of the samples
+     * @param bandEdgesHz ascending edges of the bands whose energy is
+     *            reported, band <code>i</code> from edge <code>i</code>
+     *            inclusive to edge <code>i + 1</code> exclusive
+     * @param listener may be <code>null</code> to poll {@link #getWindows()}
+     */
+    public SpectralAnalyzer(int windowSize, int hopSize, float sampleRateHz,
+            WindowFunction windowFunction, double[] bandEdgesHz, ISpectrumListener listener)
+    {
+        if (hopSize < 1 || hopSize > windowSize)
+        {
+            throw new IllegalArgumentException("Hop size must be between 1 and the window size");
+        }
+        for (int i = 1; i < bandEdgesHz.length; ++i)
+        {
+            if (bandEdgesHz[i] < bandEdgesHz[i - 1])
+            {
+                throw new IllegalArgumentException("Band edges must be ascending");
+            }
+        }
+        fft = new RealFft(windowSize);
+        this.windowSize = windowSize;
+        this.hopSize = hopSize;
+        this.listener = listener;
+
+        window = windowFunction.create(windowSize);
+        double sumOfSquares = 0;
+        for (float w : window)
+        {
+            sumOfSquares += w * w;
+        }
+        this.sumOfSquares = sumOfSquares;
+
+        this.bandEdgesHz = bandEdgesHz.clone();
+        bandBins = new int[bandEdgesHz.length];
+        scale(sampleRateHz);
+
+        // each row holds the samples twice so a window is always contiguous
+        history = new float[AXES][2 * windowSize];
+        work = new float[windowSize];
+        density = new float[AXES][windowSize / 2 + 1];
+        bandEnergies = new double[AXES][Math.max(0, bandEdgesHz.length - 1)];
+        peakFrequencies = new float[AXES];
+    }
+
+    /**
+     * Rescales the frequency axis to a new sample rate. The window restarts,
+     * so no spectrum mixes samples of both rates. Only call from the thread
+     * that adds the samples.
+     */
+    public void setSampleRateHz(float sampleRateHz)
+    {
+        scale(sampleRateHz);
+        samples = 0;
+    }
+
+    private void scale(float sampleRateHz)
+    {
+        this.sampleRateHz = sampleRateHz;
+        binWidthHz = sampleRateHz / windowSize;
+        densityScale = (float) (1.0 / (sampleRateHz * sumOfSquares));
+        for (int i = 0; i < bandBins.length; ++i)
+        {
+            bandBins[i] = Math.min(windowSize / 2 + 1,
+                    (int) Math.ceil(bandEdgesHz[i] / binWidthHz));
+        }
+    }
+
+    /**
+     * Adds a sample and analyses the window ending with it once it is due.
+     * Only call from one thread.
+     *
+     * @return whether a new spectrum was computed
+     */
+    public boolean add(long timestamp, float x, float y, float z)
+    {
+        history[0][position] = history[0][position + windowSize] = x;
+        history[1][position] = history[1][position + windowSize] = y;
+        history[2][position] = history[2][position + windowSize] = z;
+        if (++position == windowSize)
+        {
+            position = 0;
+        }
+        ++samples;
+
+        if (samples < windowSize || (samples - windowSize) % hopSize != 0)
+        {
+            return false;
+        }
+        for (int axis = 0; axis < AXES; ++axis)
+        {
+            analyze(axis);
+        }
+        ++windows;
+        if (listener != null)
+        {
+            listener.onSpectrum(timestamp, this);
+        }
+        return true;
+    }
+
+    private void analyze(int axis)
+    {
+        // the oldest sample is at the write position
+        float[] values = history[axis];
+        double sum = 0;
+        for (int i = 0; i < windowSize; ++i)
+        {
+            sum += values[position + i];
+        }
+        float mean = (float) (sum / windowSize);
+        for (int i = 0; i < windowSize; ++i)
+        {
+            work[i] = (values[position + i] - mean) * window[i];
+        }
+        fft.forward(work);
+
+        float[] psd = density[axis];
+        fft.power(work, psd);
+        int last = windowSize / 2;
+        psd[0] *= densityScale;
+        psd[last] *= densityScale;
+        int peak = 1;
+        for (int k = 1; k < last; ++k)
+        {
+            // one-sided, the negative frequencies fold onto the positive
+            psd[k] *= 2 * densityScale;
+            if (psd[k] > psd[peak])
+            {
+                peak = k;
+            }
+        }
+        if (psd[last] > psd[peak])
+        {
+            peak = last;
+        }
+
+        double[] energies = bandEnergies[axis];
+        for (int band = 0; band < energies.length; ++band)
+        {
+            double energy = 0;
+            for (int k = bandBins[band]; k < bandBins[band + 1]; ++k)
+            {
+                energy += psd[k];
+            }
+            energies[band] = energy * binWidthHz;
+        }
+
+        peakFrequencies[axis] = psd[peak] > 0 ? interpolatePeak(psd, peak, last) * binWidthHz
+                : 0;
+    }
+
+    /**
+     * @return the peak bin refined by a parabola through its neighbours
+     */
+    private static float interpolatePeak(float[] psd, int peak, int last)
+    {
+        if (peak >= last)
+        {
+            return peak;
+        }
+        float left = psd[peak - 1];
+        float centre = psd[peak];
+        float right = psd[peak + 1];
+        float curvature = left - 2 * centre + right;
+        return curvature < 0 ? peak + 0.5f * (left - right) / curvature : peak;
+    }
+
+    public int getWindowSize()
+    {
+        return windowSize;
+    }
+
+    public int getHopSize()
+    {
+        return hopSize;
+    }
+
+    public float getSampleRateHz()
+    {
+        return sampleRateHz;
+    }
+
+    /**
+     * @return the frequency spacing of the spectral density
+     */
+    public float getBinWidthHz()
+    {
+        return binWidthHz;
+    }
+
+    /**
+     * @return the number of windows analysed
+     */
+    public long getWindows()
+    {
+        return windows;
+    }
+
+    /**
+     * @return the <code>windowSize / 2 + 1</code> values of the one-sided
+     *         power spectral density of the last window, bin <code>k</code>
+     *         at <code>k * getBinWidthHz()</code>. The array is overwritten by
+     *         the next window; copy it to keep it.
+     */
+    public float[] getPowerSpectralDensity(int axis)
+    {
+        return density[axis];
+    }
+
+    public int getBandCount()
+    {
+        return bandEnergies[0].length;
+    }
+
+    /**
+     * @return the energy of band <code>band</code> in the last window, in
+     *         (m/s&sup2;)&sup2;
+     */
+    public double getBandEnergy(int axis, int band)
+    {
+        return bandEnergies[axis][band];
+    }
+
+    /**
+     * @return the frequency with the most power in the last window, the mean
+     *         excluded, 0 if the window was constant
+     */
+    public float getPeakFrequency(int axis)
+    {
+        return peakFrequencies[axis];
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "%d windows of %d samples, %.2f Hz bins",
+                windows, windowSize, binWidthHz));
+        if (windows > 0)
+        {
+            for (int axis = 0; axis < AXES; ++axis)
+            {
+                builder.append(String.format(Locale.US, "%n  %c peak %6.2f Hz",
+                        (char) ('X' + axis), peakFrequencies[axis]));
+                for (int band = 0; band < getBandCount(); ++band)
+                {
+                    builder.append(String.format(Locale.US, ", %.1f-%.1f Hz %.4f",
+                            bandEdgesHz[band], bandEdgesHz[band + 1],
+                            bandEnergies[axis][band]));
+                }
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+/**
+ * Copy of the statistics of each channel of an {@link AxisStatistics} at one
+ * sample. Reused by the reader, see {@link AxisStatistics#readSnapshot}.
+ */
+public class StatisticsSnapshot
+{
+    static final int COUNT = 0;
+    static final int MEAN = 1;
+    static final int STANDARD_DEVIATION = 2;
+    static final int RMS = 3;
+    static final int MIN = 4;
+    static final int MAX = 5;
+    static final int QUANTILES = 6;
+
+    private final double[] probabilities;
+    private final int stride;
+    final double[] values;
+    long samples;
+    long timestamp;
+
+    StatisticsSnapshot(int channelCount, double[] probabilities)
+    {
+        this.probabilities = probabilities;
+        this.stride = QUANTILES + probabilities.length;
+        this.values = new double[channelCount * stride];
+    }
+
+    /**
+     * @return the number of samples seen when the snapshot was taken
+     */
+    public long getSamples()
+    {
+        return samples;
+    }
+
+    /**
+     * @return the timestamp of the latest sample in nanoseconds
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public int getWindowCount(int channel)
+    {
+        return (int) get(channel, COUNT);
+    }
+
+    public double getMean(int channel)
+    {
+        return get(channel, MEAN);
+    }
+
+    public double getStandardDeviation(int channel)
+    {
+        return get(channel, STANDARD_DEVIATION);
+    }
+
+    public double getRms(int channel)
+    {
+        return get(channel, RMS);
+    }
+
+    public double getMin(int channel)
+    {
+        return get(channel, MIN);
+    }
+
+    public double getMax(int channel)
+    {
+        return get(channel, MAX);
+    }
+
+    public int getQuantileCount()
+    {
+        return probabilities.length;
+    }
+
+    public double getQuantileProbability(int index)
+    {
+        return probabilities[index];
+    }
+
+    public double getQuantile(int channel, int index)
+    {
+        return get(channel, QUANTILES + index);
+    }
+
+    private double get(int channel, int field)
+    {
+        return values[channel * stride + field];
+    }
+}
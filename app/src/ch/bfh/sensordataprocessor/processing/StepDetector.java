@@ -0,0 +1,275 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+import java.util.Locale;
+
+import ch.bfh.sensordataprocessor.math.BiquadCascadeFilter;
+
+/**
+ * Counts steps and estimates the cadence from the acceleration magnitude,
+ * without keeping the recording.
+ * <p>
+ * The magnitude is smoothed by a Butterworth low-pass that keeps the step
+ * frequency and removes the impacts, and freed of gravity by a slow moving
+ * mean. Every excursion of the result above an adaptive threshold, a
+ * multiple of its moving standard deviation, is one candidate step, counted
+ * at its highest point once the signal falls back below the mean. Candidates
+ * within the refractory period of the previous step are dropped, which
+ * suppresses the second peak some gaits show per step. The cadence is the
+ * mean of the last {@value #CADENCE_INTERVALS} intervals between steps;
+ * after a pause longer than {@value #MAX_STEP_INTERVAL} ns it starts over.
+ * <p>
+ * The state is constant in size and nothing is allocated per sample. The
+ * detector expects the unfiltered magnitude, so it gives the same counts
+ * whether or not the axes are high-pass filtered for recording.
+ */
+public class StepDetector
+{
+    public static final double DEFAULT_CUTOFF_HZ = 3.0;
+    public static final double DEFAULT_THRESHOLD_FACTOR = 0.6;
+    public static final double DEFAULT_MIN_THRESHOLD = 0.5;
+    public static final long DEFAULT_REFRACTORY_PERIOD = 250000000L;
+
+    static final int CADENCE_INTERVALS = 8;
+    static final long MAX_STEP_INTERVAL = 2000000000L;
+
+    private static final int FILTER_ORDER = 2;
+    private static final double BASELINE_TIME_CONSTANT = 2.0;
+    private static final double DEVIATION_TIME_CONSTANT = 2.0;
+    private static final long MAX_GAP = 1000000000L;
+
+    private final double cutoffHz;
+    private float sampleRateHz;
+    private BiquadCascadeFilter lowPass;
+    private final double thresholdFactor;
+    private final double minThreshold;
+    private final long refractoryPeriod;
+    private final IStepListener listener;
+
+    private boolean started;
+    private float offset;
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private double baseline;
+    private double variance;
+
+    private boolean aboveThreshold;
+    private double candidatePeak;
+    private long candidateTimestamp;
+
+    private long steps;
+    private long lastStep;
+    private final long[] intervals = new long[CADENCE_INTERVALS];
+    private int intervalCount;
+    private int nextInterval;
+    private long intervalSum;
+
+    /**
+     * @param sampleRateHz nominal rate of the samples, more than twice
+     *            <code>cutoffHz</code>
+     * @param cutoffHz corner of the low-pass, above the fastest cadence
+     * @param thresholdFactor multiple of the standard deviation a peak has to
+     *            exceed
+     * @param minThreshold m/s&sup2; a peak has to exceed at least, so noise at
+     *            rest does not count
+     * @param refractoryPeriod nanoseconds after a step in which no other is
+     *            counted
+     * @param listener may be <code>null</code> to poll {@link #getSteps()}
+     */
+    public StepDetector(float sampleRateHz, double cutoffHz, double thresholdFactor,
+            double minThreshold, long refractoryPeriod, IStepListener listener)
+    {
+        if (!supportsRate(sampleRateHz, cutoffHz))
+        {
+            throw new IllegalArgumentException(String.format(Locale.US,
+                    "Step detection with a %.1f Hz low-pass needs more than %.1f Hz,"
+                            + " not %.1f Hz", cutoffHz, 2 * cutoffHz, sampleRateHz));
+        }
+        this.cutoffHz = cutoffHz;
+        this.sampleRateHz = sampleRateHz;
+        lowPass = BiquadCascadeFilter.butterworthLowPass(FILTER_ORDER, cutoffHz, sampleRateHz);
+        this.thresholdFactor = thresholdFactor;
+        this.minThreshold = minThreshold;
+        this.refractoryPeriod = refractoryPeriod;
+        this.listener = listener;
+    }
+
+    public StepDetector(float sampleRateHz, IStepListener listener)
+    {
+        this(sampleRateHz, DEFAULT_CUTOFF_HZ, DEFAULT_THRESHOLD_FACTOR, DEFAULT_MIN_THRESHOLD,
+                DEFAULT_REFRACTORY_PERIOD, listener);
+    }
+
+    /**
+     * @return whether the default low-pass can be designed for the rate,
+     *         i.e. the rate is more than twice {@link #DEFAULT_CUTOFF_HZ}
+     */
+    public static boolean supportsRate(float sampleRateHz)
+    {
+        return supportsRate(sampleRateHz, DEFAULT_CUTOFF_HZ);
+    }
+
+    private static boolean supportsRate(float sampleRateHz, double cutoffHz)
+    {
+        return sampleRateHz > 2 * cutoffHz;
+    }
+
+    /**
+     * Redesigns the low-pass for a new sample rate. The signal path starts
+     * over as after the first sample, the count and the cadence are kept.
+     *
+     * @return <code>false</code>, leaving the detector unchanged, if the
+     *         rate is not more than twice the cutoff
+     */
+    public boolean setSampleRateHz(float sampleRateHz)
+    {
+        if (!supportsRate(sampleRateHz, cutoffHz))
+        {
+            return false;
+        }
+        this.sampleRateHz = sampleRateHz;
+        lowPass = BiquadCascadeFilter.butterworthLowPass(FILTER_ORDER, cutoffHz, sampleRateHz);
+        started = false;
+        aboveThreshold = false;
+        return true;
+    }
+
+    public float getSampleRateHz()
+    {
+        return sampleRateHz;
+    }
+
+    /**
+     * @param timestamp nanoseconds, as in <code>SensorEvent.timestamp</code>
+     * @param acceleration the unfiltered acceleration magnitude
+     * @return whether a step was counted
+     */
+    public boolean update(long timestamp, double acceleration)
+    {
+        if (!started)
+        {
+            // filter the change from the first sample, so the low-pass does
+            // not ring on the step from 0 to gravity
+            started = true;
+            offset = (float) acceleration;
+            firstTimestamp = timestamp;
+            lastTimestamp = timestamp;
+            lowPass.processValue(0f);
+            return false;
+        }
+
+        long elapsed = timestamp - lastTimestamp;
+        if (elapsed < 0)
+        {
+            return false;
+        }
+        lastTimestamp = timestamp;
+        double smoothed = lowPass.processValue((float) acceleration - offset);
+
+        // until the time constants have passed these are plain means, so
+        // the first seconds are not dominated by the first sample
+        double dt = Math.min(elapsed, MAX_GAP) * 1e-9;
+        double age = (timestamp - firstTimestamp) * 1e-9;
+        baseline += dt / (Math.min(BASELINE_TIME_CONSTANT, age) + dt) * (smoothed - baseline);
+        double deviation = smoothed - baseline;
+        variance += dt / (Math.min(DEVIATION_TIME_CONSTANT, age) + dt)
+                * (deviation * deviation - variance);
+        double threshold = Math.max(minThreshold, thresholdFactor * Math.sqrt(variance));
+
+        if (deviation > threshold)
+        {
+            if (!aboveThreshold || deviation > candidatePeak)
+            {
+                candidatePeak = deviation;
+                candidateTimestamp = timestamp;
+            }
+            aboveThreshold = true;
+            return false;
+        }
+        if (!aboveThreshold || deviation > 0)
+        {
+            return false;
+        }
+
+        aboveThreshold = false;
+        if (steps > 0 && candidateTimestamp - lastStep < refractoryPeriod)
+        {
+            return false;
+        }
+        countStep(candidateTimestamp);
+        return true;
+    }
+
+    private void countStep(long timestamp)
+    {
+        long interval = timestamp - lastStep;
+        if (steps > 0 && interval <= MAX_STEP_INTERVAL)
+        {
+            if (intervalCount == CADENCE_INTERVALS)
+            {
+                intervalSum -= intervals[nextInterval];
+            }
+            else
+            {
+                ++intervalCount;
+            }
+            intervals[nextInterval] = interval;
+            intervalSum += interval;
+            nextInterval = (nextInterval + 1) % CADENCE_INTERVALS;
+        }
+        else
+        {
+            // the first step after a pause
+            intervalCount = 0;
+            nextInterval = 0;
+            intervalSum = 0;
+        }
+        lastStep = timestamp;
+        ++steps;
+        if (listener != null)
+        {
+            listener.onStep(timestamp, steps, getCadence());
+        }
+    }
+
+    public long getSteps()
+    {
+        return steps;
+    }
+
+    /**
+     * @return steps per minute over the last intervals, 0 before the second
+     *         step of a walk or once the last step is more than
+     *         {@value #MAX_STEP_INTERVAL} ns old
+     */
+    public double getCadence()
+    {
+        if (intervalCount == 0 || lastTimestamp - lastStep > MAX_STEP_INTERVAL)
+        {
+            return 0;
+        }
+        return 60e9 * intervalCount / intervalSum;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.US, "%d steps, cadence %.1f steps/min", steps,
+                getCadence());
+    }
+}
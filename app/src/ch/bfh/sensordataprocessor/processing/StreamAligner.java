@@ -0,0 +1,375 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.processing;
+
+import java.util.Arrays;
+
+/**
+ * Joins several sensor streams, e.g. accelerometer and linear acceleration,
+ * into one frame per tick of a common clock.
+ * <p>
+ * Each stream is buffered with its nanosecond <code>event.timestamp</code>s
+ * in a bounded ring. A tick is emitted as soon as every stream has samples
+ * on both sides of it, interpolated linearly or with a cubic Hermite spline
+ * through the neighbouring samples. Once any stream is more than the
+ * lateness tolerance ahead of a tick the tick is emitted anyway, and the
+ * streams that have not caught up are marked stale, as are streams with a
+ * gap longer than the tolerance around the tick. Ticks lie on multiples of
+ * the period. Only call from one thread.
+ */
+public class StreamAligner
+{
+    public enum Interpolation
+    {
+        LINEAR,
+        CUBIC
+    }
+
+    private final int streamCount;
+    private final int channelCount;
+    private final long period;
+    private final long lateness;
+    private final Interpolation interpolation;
+    private final IAlignedFrameListener listener;
+
+    private final int capacity;
+    private final long[][] timestamps;
+    private final float[][] values;
+    private final int[] heads;
+    private final int[] sizes;
+    private final float[] frame;
+
+    private boolean started;
+    private long firstTimestamp = Long.MAX_VALUE;
+    private long newestTimestamp = Long.MIN_VALUE;
+    private long nextTick;
+    private long frames;
+    private long droppedSamples;
+    private long lateSamples;
+
+    /**
+     * @param periodNanos distance between ticks
+     * @param latenessNanos how far a stream may lag behind the others before
+     *            ticks are emitted without it
+     * @param capacity samples buffered per stream; the oldest are dropped
+     *            when a stream gets that far ahead
+     */
+    public StreamAligner(int streamCount, int channelCount, long periodNanos,
+            long latenessNanos, int capacity, Interpolation interpolation,
+            IAlignedFrameListener listener)
+    {
+        if (streamCount < 1 || streamCount > 31 || channelCount < 1 || periodNanos <= 0
+                || capacity < 4)
+        {
+            throw new IllegalArgumentException("Invalid stream aligner configuration");
+        }
+        this.streamCount = streamCount;
+        this.channelCount = channelCount;
+        this.period = periodNanos;
+        this.lateness = latenessNanos;
+        this.interpolation = interpolation;
+        this.listener = listener;
+        this.capacity = capacity;
+
+        timestamps = new long[streamCount][capacity];
+        values = new float[streamCount][capacity * channelCount];
+        heads = new int[streamCount];
+        sizes = new int[streamCount];
+        frame = new float[streamCount * channelCount];
+    }
+
+    /**
+     * Adds a three-channel sample.
+     *
+     * @throws IllegalStateException if the aligner does not have three
+     *             channels
+     */
+    public void add(int stream, long timestamp, float x, float y, float z)
+    {
+        if (channelCount != 3)
+        {
+            throw new IllegalStateException("The stream aligner has " + channelCount
+                    + " channels, not 3");
+        }
+        int slot = store(stream, timestamp);
+        if (slot >= 0)
+        {
+            float[] buffer = values[stream];
+            int base = slot * channelCount;
+            buffer[base] = x;
+            buffer[base + 1] = y;
+            buffer[base + 2] = z;
+            emit(false);
+        }
+    }
+
+    public void add(int stream, long timestamp, float[] sample, int offset)
+    {
+        int slot = store(stream, timestamp);
+        if (slot >= 0)
+        {
+            System.arraycopy(sample, offset, values[stream], slot * channelCount,
+                    channelCount);
+            emit(false);
+        }
+    }
+
+    /**
+     * Emits the remaining ticks up to the newest sample, e.g. at the end of a
+     * session.
+     */
+    public void flush()
+    {
+        emit(true);
+    }
+
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    /**
+     * @return the number of samples dropped because a buffer was full
+     */
+    public long getDroppedSamples()
+    {
+        return droppedSamples;
+    }
+
+    /**
+     * @return the number of samples ignored because they were not newer than
+     *         the previous sample of their stream
+     */
+    public long getLateSamples()
+    {
+        return lateSamples;
+    }
+
+    private int store(int stream, long timestamp)
+    {
+        int size = sizes[stream];
+        if (size > 0 && timestamp <= timestamps[stream][slot(stream, size - 1)])
+        {
+            ++lateSamples;
+            return -1;
+        }
+        if (size == capacity)
+        {
+            heads[stream] = slot(stream, 1);
+            --size;
+            ++droppedSamples;
+        }
+        int slot = slot(stream, size);
+        timestamps[stream][slot] = timestamp;
+        sizes[stream] = size + 1;
+
+        if (timestamp < firstTimestamp)
+        {
+            firstTimestamp = timestamp;
+        }
+        if (timestamp > newestTimestamp)
+        {
+            newestTimestamp = timestamp;
+        }
+        return slot;
+    }
+
+    private void emit(boolean flush)
+    {
+        if (!started && !start(flush))
+        {
+            return;
+        }
+
+        while (nextTick <= newestTimestamp)
+        {
+            long tick = nextTick;
+            boolean overdue = flush || newestTimestamp - tick > lateness;
+            int stale = 0;
+            for (int stream = 0; stream < streamCount; ++stream)
+            {
+                if (!isReady(stream, tick))
+                {
+                    if (!overdue)
+                    {
+                        return;
+                    }
+                    stale |= 1 << stream;
+                }
+            }
+
+            for (int stream = 0; stream < streamCount; ++stream)
+            {
+                if (!interpolate(stream, tick, stream * channelCount))
+                {
+                    stale |= 1 << stream;
+                }
+                discard(stream, tick);
+            }
+            ++frames;
+            nextTick += period;
+            listener.onAlignedFrame(tick, frame, stale);
+        }
+    }
+
+    /**
+     * Starts the clock at the first tick all streams have reached, or at the
+     * first tick of the streams present once the others are overdue.
+     */
+    private boolean start(boolean flush)
+    {
+        boolean complete = true;
+        long latestFirst = Long.MIN_VALUE;
+        for (int stream = 0; stream < streamCount; ++stream)
+        {
+            if (sizes[stream] == 0)
+            {
+                complete = false;
+            }
+            else
+            {
+                latestFirst = Math.max(latestFirst, timestamps[stream][heads[stream]]);
+            }
+        }
+        if (!complete && !flush && newestTimestamp - firstTimestamp <= lateness)
+        {
+            return false;
+        }
+
+        long tick = (latestFirst / period) * period;
+        if (tick < latestFirst)
+        {
+            tick += period;
+        }
+        nextTick = tick;
+        started = true;
+        return true;
+    }
+
+    private boolean isReady(int stream, long tick)
+    {
+        int size = sizes[stream];
+        if (size == 0)
+        {
+            return false;
+        }
+        long[] times = timestamps[stream];
+        long newest = times[slot(stream, size - 1)];
+        if (newest == tick || interpolation == Interpolation.LINEAR)
+        {
+            return newest >= tick;
+        }
+        // the spline also needs the sample after the right neighbour
+        return size > 1 && times[slot(stream, size - 2)] >= tick;
+    }
+
+    /**
+     * @return <code>false</code> if the value is held, or interpolated across
+     *         a gap longer than the lateness tolerance
+     */
+    private boolean interpolate(int stream, long tick, int offset)
+    {
+        int size = sizes[stream];
+        if (size == 0)
+        {
+            Arrays.fill(frame, offset, offset + channelCount, Float.NaN);
+            return false;
+        }
+
+        long[] times = timestamps[stream];
+        float[] buffer = values[stream];
+
+        // right is the first sample after the tick
+        int right = 0;
+        while (right < size && times[slot(stream, right)] <= tick)
+        {
+            ++right;
+        }
+        if (right == 0 || right == size)
+        {
+            // before the first or after the last sample: hold
+            int held = slot(stream, right == 0 ? 0 : size - 1);
+            System.arraycopy(buffer, held * channelCount, frame, offset, channelCount);
+            return times[held] == tick;
+        }
+
+        int s1 = slot(stream, right - 1);
+        int s2 = slot(stream, right);
+        long t1 = times[s1];
+        long t2 = times[s2];
+        double span = t2 - t1;
+        float u = (float) ((tick - t1) / span);
+        int b1 = s1 * channelCount;
+        int b2 = s2 * channelCount;
+
+        if (interpolation == Interpolation.LINEAR)
+        {
+            for (int c = 0; c < channelCount; ++c)
+            {
+                float v1 = buffer[b1 + c];
+                frame[offset + c] = v1 + (buffer[b2 + c] - v1) * u;
+            }
+            return span <= lateness;
+        }
+
+        // Hermite spline with Catmull-Rom tangents for uneven spacing
+        boolean hasBefore = right >= 2;
+        boolean hasAfter = right + 1 < size;
+        int s0 = hasBefore ? slot(stream, right - 2) : s1;
+        int s3 = hasAfter ? slot(stream, right + 1) : s2;
+        float scale0 = hasBefore ? (float) (span / (t2 - times[s0])) : 1f;
+        float scale3 = hasAfter ? (float) (span / (times[s3] - t1)) : 1f;
+        int b0 = hasBefore ? s0 * channelCount : b1;
+        int b3 = hasAfter ? s3 * channelCount : b2;
+
+        float u2 = u * u;
+        float u3 = u2 * u;
+        float h00 = 2 * u3 - 3 * u2 + 1;
+        float h10 = u3 - 2 * u2 + u;
+        float h01 = -2 * u3 + 3 * u2;
+        float h11 = u3 - u2;
+        for (int c = 0; c < channelCount; ++c)
+        {
+            float v1 = buffer[b1 + c];
+            float v2 = buffer[b2 + c];
+            float m1 = (v2 - buffer[b0 + c]) * scale0;
+            float m2 = (buffer[b3 + c] - v1) * scale3;
+            frame[offset + c] = h00 * v1 + h10 * m1 + h01 * v2 + h11 * m2;
+        }
+        return span <= lateness;
+    }
+
+    /**
+     * Drops the samples no later tick can need: everything before the sample
+     * preceding the left neighbour of the tick.
+     */
+    private void discard(int stream, long tick)
+    {
+        long[] times = timestamps[stream];
+        while (sizes[stream] >= 3 && times[slot(stream, 2)] <= tick)
+        {
+            heads[stream] = slot(stream, 1);
+            --sizes[stream];
+        }
+    }
+
+    private int slot(int stream, int index)
+    {
+        int slot = heads[stream] + index;
+        return slot >= capacity ? slot - capacity : slot;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import ch.bfh.sensordataprocessor.util.CsvLineBuffer;
+
+/**
+ * Writes time-aligned frames of several streams as one CSV record per tick:
+ * the given columns, a <code>Stale</code> bit mask of the streams that
+ * missed the tick, and the time in milliseconds relative to the start time
+ * of the recording as in {@link CsvSampleWriter}.
+ */
+public class AlignedCsvWriter
+{
+    private static final char CSV_DELIM = ',';
+
+    private final CsvLineBuffer lineBuffer;
+    private final OutputStream outputStream;
+    private final int columnCount;
+    private final long startTime;
+
+    /**
+     * @param startTime start of the recording in milliseconds, on the same
+     *            clock as the event timestamps
+     */
+    public AlignedCsvWriter(File dataFile, String[] columns, long startTime) throws IOException
+    {
+        this.columnCount = columns.length;
+        this.startTime = startTime;
+        lineBuffer = new CsvLineBuffer(32 * (columns.length + 2));
+
+        StringBuilder header = new StringBuilder();
+        for (String column : columns)
+        {
+            header.append(column).append(CSV_DELIM);
+        }
+        header.append("Stale").append(CSV_DELIM).append("Time").append('\n');
+
+        outputStream = new BufferedOutputStream(new FileOutputStream(dataFile));
+        outputStream.write(header.toString().getBytes("US-ASCII"));
+    }
+
+    /**
+     * @param timestamp nanoseconds
+     */
+    public void writeFrame(long timestamp, float[] values, int staleStreams) throws IOException
+    {
+        lineBuffer.reset();
+        for (int i = 0; i < columnCount; ++i)
+        {
+            lineBuffer.append(values[i]).append(CSV_DELIM);
+        }
+        lineBuffer.append(staleStreams).append(CSV_DELIM)
+            .append((timestamp / 1000000) - startTime)
+            .newLine();
+
+        lineBuffer.writeTo(outputStream);
+    }
+
+    public void close() throws IOException
+    {
+        outputStream.close();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples the sensor callback from disk I/O. Samples are published into a
+ * {@link SampleRingBuffer} and a dedicated writer thread drains them in
+ * batches into the wrapped {@link ISampleWriter}. Blocks are queued as a
+ * whole and, if the wrapped writer is an {@link IBlockSampleWriter}, each
+ * batch is written as one block.
+ * <p>
+ * If the wrapped writer fails, the error is reported once by
+ * {@link #writeSample}, {@link #writeBlock} or {@link #close()}, and from then on the writer
+ * thread drops the queued samples instead of retrying them against a full or
+ * broken disk.
+ * <p>
+ * Plain Java, so it can also be used when replaying recordings on the JVM.
+ */
+public class AsyncSampleWriter implements IBlockSampleWriter
+{
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = 5000000L;
+
+    private final ISampleWriter delegate;
+    private final SampleRingBuffer ringBuffer;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private volatile boolean failed;
+    private volatile IOException writeError;
+    // written by the writer thread only
+    private volatile long discardedSamples;
+
+    /**
+     * @param overflowPolicy what {@link #writeSample} does when the queue is
+     *            full; {@link OverflowPolicy#BLOCK} waits for the writer
+     *            thread and must not be used from a sensor callback
+     */
+    public AsyncSampleWriter(ISampleWriter delegate, int capacity, int batchSize,
+            OverflowPolicy overflowPolicy, String threadName)
+    {
+        this.delegate = delegate;
+        this.ringBuffer = new SampleRingBuffer(capacity, batchSize, overflowPolicy);
+
+        writerThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drainLoop();
+            }
+        }, threadName);
+        writerThread.setPriority(Thread.NORM_PRIORITY - 1);
+        writerThread.start();
+    }
+
+    public AsyncSampleWriter(ISampleWriter delegate, String threadName)
+    {
+        this(delegate, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, OverflowPolicy.DROP_NEWEST,
+                threadName);
+    }
+
+    /**
+     * Queues the sample; never touches the disk. An error raised by the
+     * writer thread is reported once, on the next call after it occurred;
+     * from then on samples are dropped.
+     */
+    @Override
+    public void writeSample(long timestamp, float x, float y, float z, double acceleration)
+            throws IOException
+    {
+        throwWriteError();
+        ringBuffer.offer(timestamp, x, y, z, acceleration);
+    }
+
+    /**
+     * Queues the block like {@link #writeSample}, publishing it to the writer
+     * thread at once. The acceleration magnitude is computed here for
+     * writers that store it.
+     */
+    @Override
+    public void writeBlock(long[] timestamps, float[] frames, int offset, int count)
+            throws IOException
+    {
+        throwWriteError();
+        ringBuffer.offerBlock(timestamps, frames, offset, count);
+    }
+
+    /**
+     * Stops the writer thread after it has written all queued samples and
+     * closes the wrapped writer.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try
+        {
+            writerThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        try
+        {
+            if (failed)
+            {
+                discardedSamples += ringBuffer.discard();
+            }
+            while (!failed && ringBuffer.drainTo(delegate) > 0)
+            {
+                // drain what was published after the writer thread stopped
+            }
+        }
+        finally
+        {
+            delegate.close();
+        }
+        throwWriteError();
+    }
+
+    /**
+     * @return the samples dropped because the queue was full or the writer
+     *         had failed
+     */
+    public long getDroppedSamples()
+    {
+        return ringBuffer.getDroppedSamples() + discardedSamples;
+    }
+
+    public int getHighWaterMark()
+    {
+        return ringBuffer.getHighWaterMark();
+    }
+
+    public int getCapacity()
+    {
+        return ringBuffer.getCapacity();
+    }
+
+    private void throwWriteError() throws IOException
+    {
+        IOException error = writeError;
+        if (error != null)
+        {
+            writeError = null;
+            throw error;
+        }
+    }
+
+    private void drainLoop()
+    {
+        while (running)
+        {
+            if (failed)
+            {
+                // keep a blocking producer going without writing
+                discardedSamples += ringBuffer.discard();
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            try
+            {
+                if (ringBuffer.drainTo(delegate) == 0)
+                {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            catch (IOException e)
+            {
+                // reported to the producer by the next writeSample(); a
+                // failed disk rarely recovers, so do not retry
+                writeError = e;
+                failed = true;
+            }
+        }
+    }
+}
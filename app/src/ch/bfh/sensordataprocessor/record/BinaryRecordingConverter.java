@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts binary and compressed recordings back into the CSV layout written
+ * by {@link CsvSampleWriter}, so existing tooling can keep reading them.
+ * <p>
+ * Usage: <code>BinaryRecordingConverter &lt;input.bin|input.sdc&gt; [output.csv]</code>
+ */
+public class BinaryRecordingConverter
+{
+    public static final String BINARY_EXTENSION = ".bin";
+    public static final String CSV_EXTENSION = ".csv";
+    public static final String COMPRESSED_EXTENSION = ".sdc";
+
+    /**
+     * @return the number of converted samples
+     */
+    public static long convertToCsv(File binaryFile, File csvFile) throws IOException
+    {
+        ISampleSource reader = RecordingFormat.forFile(binaryFile).openSource(binaryFile);
+        try
+        {
+            CsvSampleWriter writer = new CsvSampleWriter(csvFile, reader.getStartTime());
+            long count = 0;
+            try
+            {
+                while (reader.next())
+                {
+                    float x = reader.getX();
+                    float y = reader.getY();
+                    float z = reader.getZ();
+                    double acceleration = Math.sqrt((x * x) + (y * y) + (z * z));
+                    writer.writeSample(reader.getTimestamp(), x, y, z, acceleration);
+                    ++count;
+                }
+            }
+            finally
+            {
+                writer.close();
+            }
+            return count;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1 || args.length > 2)
+        {
+            System.err.println("Usage: BinaryRecordingConverter <input"
+                    + BINARY_EXTENSION + "|input" + COMPRESSED_EXTENSION + "> [output"
+                    + CSV_EXTENSION + "]");
+            System.exit(1);
+        }
+
+        File binaryFile = new File(args[0]);
+        if (RecordingFormat.forFile(binaryFile) == RecordingFormat.CSV)
+        {
+            System.err.println(binaryFile + " is already a CSV recording");
+            System.exit(1);
+        }
+        File csvFile;
+        if (args.length == 2)
+        {
+            csvFile = new File(args[1]);
+        }
+        else
+        {
+            String name = binaryFile.getPath();
+            int dot = name.lastIndexOf('.');
+            if (dot > name.lastIndexOf(File.separatorChar))
+            {
+                name = name.substring(0, dot);
+            }
+            csvFile = new File(name + CSV_EXTENSION);
+        }
+
+        long count = convertToCsv(binaryFile, csvFile);
+        System.out.println("Converted " + count + " samples to " + csvFile);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequentially reads a file written by {@link BinarySampleWriter}. The
+ * current record is exposed through primitive getters after each successful
+ * call to {@link #next()}.
+ */
+public class BinarySampleReader implements ISampleSource
+{
+    private static final int RECORDS_PER_READ = 512;
+
+    private final FileInputStream inputStream;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    private final int sensorType;
+    private final int rate;
+    private final long startTime;
+
+    private long timestamp;
+    private float x;
+    private float y;
+    private float z;
+
+    public BinarySampleReader(File dataFile) throws IOException
+    {
+        inputStream = new FileInputStream(dataFile);
+        channel = inputStream.getChannel();
+        buffer = ByteBuffer.allocateDirect(BinarySampleWriter.RECORD_SIZE * RECORDS_PER_READ)
+                .order(BinarySampleWriter.BYTE_ORDER);
+        buffer.limit(0);
+
+        try
+        {
+            if (!fill(BinarySampleWriter.HEADER_SIZE))
+            {
+                throw new EOFException("Missing header in " + dataFile);
+            }
+            if (buffer.getInt() != BinarySampleWriter.MAGIC)
+            {
+                throw new IOException(dataFile + " is not a binary sensor recording");
+            }
+            short version = buffer.getShort();
+            short axisCount = buffer.getShort();
+            if (version != BinarySampleWriter.VERSION
+                    || axisCount != BinarySampleWriter.AXIS_COUNT)
+            {
+                throw new IOException("Unsupported recording version " + version
+                        + " with " + axisCount + " axes");
+            }
+            sensorType = buffer.getInt();
+            rate = buffer.getInt();
+            startTime = buffer.getLong();
+        }
+        catch (IOException e)
+        {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return <code>false</code> at the end of the file; a truncated trailing
+     *         record is ignored
+     */
+    @Override
+    public boolean next() throws IOException
+    {
+        if (!fill(BinarySampleWriter.RECORD_SIZE))
+        {
+            return false;
+        }
+        timestamp = buffer.getLong();
+        x = buffer.getFloat();
+        y = buffer.getFloat();
+        z = buffer.getFloat();
+        return true;
+    }
+
+    /**
+     * Positions the reader so that the next call to {@link #next()} reads
+     * the record with the given index, counted from 0.
+     */
+    public void seekRecord(long record) throws IOException
+    {
+        channel.position(BinarySampleWriter.HEADER_SIZE
+                + record * BinarySampleWriter.RECORD_SIZE);
+        buffer.clear();
+        buffer.limit(0);
+    }
+
+    /**
+     * @return the number of complete records in the file
+     */
+    public long getRecordCount() throws IOException
+    {
+        return (channel.size() - BinarySampleWriter.HEADER_SIZE)
+                / BinarySampleWriter.RECORD_SIZE;
+    }
+
+    public int getSensorType()
+    {
+        return sensorType;
+    }
+
+    public int getRate()
+    {
+        return rate;
+    }
+
+    @Override
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    @Override
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    @Override
+    public float getX()
+    {
+        return x;
+    }
+
+    @Override
+    public float getY()
+    {
+        return y;
+    }
+
+    @Override
+    public float getZ()
+    {
+        return z;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        inputStream.close();
+    }
+
+    private boolean fill(int required) throws IOException
+    {
+        if (buffer.remaining() >= required)
+        {
+            return true;
+        }
+        buffer.compact();
+        while (buffer.position() < required)
+        {
+            if (channel.read(buffer) < 0)
+            {
+                buffer.flip();
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+}
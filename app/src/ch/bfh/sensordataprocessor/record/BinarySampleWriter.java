@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes samples as fixed-width little-endian binary records through a
+ * {@link FileChannel}.
+ * <p>
+ * The file starts with a {@value #HEADER_SIZE} byte header:
+ * <pre>
+ * int   magic        'SDPB'
+ * short version      1
+ * short axis count   3
+ * int   sensor type  Sensor.TYPE_*
+ * int   rate         rate the sensor was registered with
+ * long  start time   milliseconds, on the clock of the CSV time column
+ * </pre>
+ * followed by {@value #RECORD_SIZE} byte records of a <code>long</code>
+ * nanosecond event timestamp and one <code>float</code> per axis. The
+ * acceleration magnitude is not stored; it is recomputed when reading.
+ */
+public class BinarySampleWriter implements IBlockSampleWriter
+{
+    public static final int MAGIC = 0x53445042;
+    public static final short VERSION = 1;
+    public static final short AXIS_COUNT = 3;
+    public static final int HEADER_SIZE = 24;
+    public static final int RECORD_SIZE = 8 + 4 * AXIS_COUNT;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final int RECORDS_PER_FLUSH = 512;
+
+    private final FileOutputStream outputStream;
+    private final FileChannel channel;
+    private ByteBuffer buffer;
+    private long writeCount;
+
+    public BinarySampleWriter(File dataFile, int sensorType, int rate, long startTime)
+            throws IOException
+    {
+        outputStream = new FileOutputStream(dataFile);
+        channel = outputStream.getChannel();
+        buffer = ByteBuffer.allocateDirect(RECORD_SIZE * RECORDS_PER_FLUSH).order(BYTE_ORDER);
+
+        buffer.putInt(MAGIC)
+            .putShort(VERSION)
+            .putShort(AXIS_COUNT)
+            .putInt(sensorType)
+            .putInt(rate)
+            .putLong(startTime);
+    }
+
+    @Override
+    public void writeSample(long timestamp, float x, float y, float z, double acceleration)
+            throws IOException
+    {
+        if (buffer.remaining() < RECORD_SIZE)
+        {
+            flush();
+        }
+        buffer.putLong(timestamp)
+            .putFloat(x)
+            .putFloat(y)
+            .putFloat(z);
+    }
+
+    /**
+     * Writes the block and everything buffered before it with one write to
+     * the channel. The buffer grows once if a block does not fit into it.
+     */
+    @Override
+    public void writeBlock(long[] timestamps, float[] frames, int offset, int count)
+            throws IOException
+    {
+        int size = count * RECORD_SIZE;
+        if (buffer.remaining() < size)
+        {
+            ByteBuffer larger = ByteBuffer.allocateDirect(buffer.position() + size)
+                    .order(BYTE_ORDER);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        int frame = offset * AXIS_COUNT;
+        for (int i = offset; i < offset + count; ++i)
+        {
+            buffer.putLong(timestamps[i])
+                .putFloat(frames[frame])
+                .putFloat(frames[frame + 1])
+                .putFloat(frames[frame + 2]);
+            frame += AXIS_COUNT;
+        }
+        flush();
+    }
+
+    public void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+            ++writeCount;
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return the number of writes to the channel so far
+     */
+    public long getWriteCount()
+    {
+        return writeCount;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.IOException;
+
+/**
+ * Reads values written by {@link BitWriter}.
+ */
+final class BitReader
+{
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private long accumulator;
+    private int available;
+
+    void reset(byte[] buffer, int length)
+    {
+        this.buffer = buffer;
+        this.position = 0;
+        this.limit = length;
+        this.available = 0;
+        this.accumulator = 0;
+    }
+
+    boolean readBit() throws IOException
+    {
+        return readBits(1) != 0;
+    }
+
+    /**
+     * @param count at most 32
+     */
+    long readBits(int count) throws IOException
+    {
+        while (available < count)
+        {
+            if (position == limit)
+            {
+                throw new IOException("Corrupt compressed block");
+            }
+            accumulator = (accumulator << 8) | (buffer[position++] & 0xFF);
+            available += 8;
+        }
+        available -= count;
+        return (accumulator >>> available) & ((1L << count) - 1);
+    }
+
+    long readLong(int count) throws IOException
+    {
+        if (count > 32)
+        {
+            long high = readBits(count - 32);
+            return (high << 32) | readBits(32);
+        }
+        return readBits(count);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+/**
+ * Packs values of up to 32 bits most significant bit first into a
+ * preallocated <code>byte[]</code>.
+ */
+final class BitWriter
+{
+    private final byte[] buffer;
+    private int position;
+    private long accumulator;
+    private int pending;
+
+    BitWriter(int capacity)
+    {
+        buffer = new byte[capacity];
+    }
+
+    void writeBit(boolean bit)
+    {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * @param count number of low bits of <code>value</code> to write, at most 32
+     */
+    void writeBits(long value, int count)
+    {
+        accumulator = (accumulator << count) | (value & ((1L << count) - 1));
+        pending += count;
+        while (pending >= 8)
+        {
+            pending -= 8;
+            buffer[position++] = (byte) (accumulator >>> pending);
+        }
+    }
+
+    void writeLong(long value, int count)
+    {
+        if (count > 32)
+        {
+            writeBits(value >>> 32, count - 32);
+            writeBits(value, 32);
+        }
+        else
+        {
+            writeBits(value, count);
+        }
+    }
+
+    /**
+     * Pads the last byte with zero bits.
+     *
+     * @return the number of bytes written
+     */
+    int finish()
+    {
+        if (pending > 0)
+        {
+            buffer[position++] = (byte) (accumulator << (8 - pending));
+            pending = 0;
+        }
+        return position;
+    }
+
+    byte[] array()
+    {
+        return buffer;
+    }
+
+    void reset()
+    {
+        position = 0;
+        pending = 0;
+        accumulator = 0;
+    }
+}
@@ -0,0 +1,631 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streaming parser for the CSV layout written by {@link CsvSampleWriter}.
+ * The file is read in chunks into a reused <code>ByteBuffer</code> and the
+ * numbers are parsed straight from its bytes, without creating
+ * <code>String</code>s or splitting lines. Rows are either read one at a time
+ * through {@link #next()} and the getters, or in blocks into the caller's
+ * primitive column arrays through {@link #read}.
+ * <p>
+ * A row is parsed in a single pass over its bytes. Rows with fields that are
+ * not plain decimals with at most {@value #MAX_FAST_DIGITS} significant
+ * digits, such as <code>NaN</code>, exponents or padded numbers, are parsed
+ * again field by field with <code>Float.parseFloat</code>, so every value is
+ * the same as <code>Float.parseFloat</code> returns.
+ */
+public class CsvSampleParser
+{
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    // rows are parsed without looking for the line feed first while this
+    // many bytes are buffered, enough for any row written by the app
+    private static final int LOOKAHEAD = 1024;
+
+    // mantissa and power of ten are both exact doubles below these limits,
+    // so a single division rounds correctly
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long DROPPED_BITS_MASK = (1L << 29) - 1;
+    private static final long HALF_DROPPED_BITS = 1L << 28;
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final File dataFile;
+    private final FileInputStream inputStream;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] bytes;
+    private int position;
+    private int limit;
+    private boolean endOfFile;
+    private long lineNumber;
+
+    // cursor of the field being parsed; the end of the current line is only
+    // known once the row is parsed, or after a retry
+    private int cursor;
+    private int lineEnd;
+    private boolean lineLocated;
+    private boolean retry;
+
+    private long timestamp;
+    private float x;
+    private float y;
+    private float z;
+    private float acceleration;
+
+    public CsvSampleParser(File dataFile) throws IOException
+    {
+        this(dataFile, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize bytes read at once, also the maximum line length
+     */
+    public CsvSampleParser(File dataFile, int chunkSize) throws IOException
+    {
+        this.dataFile = dataFile;
+        inputStream = new FileInputStream(dataFile);
+        channel = inputStream.getChannel();
+        bytes = new byte[Math.max(chunkSize, 2 * LOOKAHEAD)];
+        buffer = ByteBuffer.wrap(bytes);
+
+        try
+        {
+            lineNumber = 1;
+            if (!locateLine() || !isHeader())
+            {
+                throw new IOException(dataFile + " is not a CSV sensor recording");
+            }
+        }
+        catch (IOException e)
+        {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Parses the next row.
+     *
+     * @return <code>false</code> once the file is exhausted
+     */
+    public boolean next() throws IOException
+    {
+        if (!skipEmptyLines())
+        {
+            return false;
+        }
+        ++lineNumber;
+
+        if (!parseRow(false))
+        {
+            locateLine();
+            parseRow(true);
+        }
+        return true;
+    }
+
+    /**
+     * Parses up to <code>count</code> rows into the columns. A column array
+     * may be <code>null</code> if the column is not needed.
+     *
+     * @param timestamps nanoseconds, like {@link #getTimestamp()}
+     * @return the number of rows read, less than <code>count</code> only at the
+     *         end of the file
+     */
+    public int read(long[] timestamps, float[] x, float[] y, float[] z, float[] acceleration,
+            int offset, int count) throws IOException
+    {
+        int read = 0;
+        while (read < count && next())
+        {
+            int index = offset + read;
+            if (timestamps != null)
+            {
+                timestamps[index] = timestamp;
+            }
+            if (x != null)
+            {
+                x[index] = this.x;
+            }
+            if (y != null)
+            {
+                y[index] = this.y;
+            }
+            if (z != null)
+            {
+                z[index] = this.z;
+            }
+            if (acceleration != null)
+            {
+                acceleration[index] = this.acceleration;
+            }
+            ++read;
+        }
+        return read;
+    }
+
+    /**
+     * @return the timestamp of the current row in nanoseconds, relative to
+     *         the start of the recording
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public float getX()
+    {
+        return x;
+    }
+
+    public float getY()
+    {
+        return y;
+    }
+
+    public float getZ()
+    {
+        return z;
+    }
+
+    public float getAcceleration()
+    {
+        return acceleration;
+    }
+
+    /**
+     * @return the line number of the current row, the header being line 1
+     */
+    public long getLineNumber()
+    {
+        return lineNumber;
+    }
+
+    public void close() throws IOException
+    {
+        inputStream.close();
+    }
+
+    /**
+     * Parses the row at the current position.
+     *
+     * @param located whether {@link #lineEnd} is known; if not, the row is
+     *            only parsed if it is plain, and <code>false</code> is
+     *            returned otherwise
+     */
+    private boolean parseRow(boolean located) throws IOException
+    {
+        lineLocated = located;
+        retry = false;
+        cursor = position;
+
+        float x = parseFloat();
+        float y = parseFloat();
+        float z = parseFloat();
+        float acceleration = parseFloat();
+        long time = parseLong();
+        if (retry)
+        {
+            return false;
+        }
+        if (cursor <= lineEnd)
+        {
+            throw malformed("expected 5 columns");
+        }
+
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.acceleration = acceleration;
+        timestamp = time * NANOS_PER_MILLI;
+        position = Math.min(lineEnd + 1, limit);
+        return true;
+    }
+
+    /**
+     * Skips empty lines and makes sure at least {@link #LOOKAHEAD} bytes are
+     * buffered before the next row, unless the file ends earlier.
+     *
+     * @return <code>false</code> at the end of the file
+     */
+    private boolean skipEmptyLines() throws IOException
+    {
+        byte[] bytes = this.bytes;
+        while (true)
+        {
+            if (!endOfFile && limit - position < LOOKAHEAD)
+            {
+                fill();
+            }
+            if (position == limit)
+            {
+                return false;
+            }
+            if (bytes[position] == '\n')
+            {
+                ++position;
+            }
+            else if (bytes[position] == '\r'
+                    && (position + 1 == limit || bytes[position + 1] == '\n'))
+            {
+                position = Math.min(position + 2, limit);
+            }
+            else
+            {
+                return true;
+            }
+            ++lineNumber;
+        }
+    }
+
+    /**
+     * Makes sure the line at the current position is completely in the
+     * buffer and sets {@link #lineEnd} to its line feed, or to the end of the
+     * file for a last line without one.
+     *
+     * @return <code>false</code> at the end of the file
+     */
+    private boolean locateLine() throws IOException
+    {
+        int end = indexOfLineFeed(position);
+        while (end < 0)
+        {
+            if (endOfFile)
+            {
+                if (position == limit)
+                {
+                    return false;
+                }
+                end = limit;
+                break;
+            }
+            int searched = limit - position;
+            fill();
+            end = indexOfLineFeed(position + searched);
+        }
+        lineEnd = end;
+        return true;
+    }
+
+    private int indexOfLineFeed(int from)
+    {
+        byte[] bytes = this.bytes;
+        for (int i = from; i < limit; ++i)
+        {
+            if (bytes[i] == '\n')
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer and reads behind them.
+     */
+    private void fill() throws IOException
+    {
+        int remaining = limit - position;
+        if (remaining == bytes.length)
+        {
+            throw new IOException("Line " + lineNumber + " of " + dataFile
+                    + " is longer than " + bytes.length + " bytes");
+        }
+        System.arraycopy(bytes, position, bytes, 0, remaining);
+        position = 0;
+        limit = remaining;
+
+        buffer.clear();
+        buffer.position(remaining);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                endOfFile = true;
+                break;
+            }
+        }
+        limit = buffer.position();
+    }
+
+    private boolean isHeader()
+    {
+        String header = CsvSampleWriter.CSV_HEADER;
+        int start = skipSpaces(position, lineEnd);
+        int end = lineEnd;
+        while (end > start && bytes[end - 1] >= 0 && bytes[end - 1] <= ' ')
+        {
+            --end;
+        }
+        if (end - start != header.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < header.length(); ++i)
+        {
+            if (bytes[start + i] != header.charAt(i))
+            {
+                return false;
+            }
+        }
+        position = Math.min(lineEnd + 1, limit);
+        return true;
+    }
+
+    /**
+     * Parses the field at the cursor and moves the cursor behind its
+     * separator. Plain decimals followed directly by the separator are parsed
+     * here; anything else goes through {@link #parseFloatSlowly(int)}.
+     */
+    private float parseFloat() throws IOException
+    {
+        if (retry)
+        {
+            return 0;
+        }
+        byte[] bytes = this.bytes;
+        int start = cursor;
+        int end = lineLocated ? lineEnd : limit;
+        int i = start;
+
+        boolean negative = false;
+        if (i < end && bytes[i] == '-')
+        {
+            negative = true;
+            ++i;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean anyDigit = false;
+        int b;
+        while (i < end && (b = bytes[i] - '0') >= 0 && b <= 9)
+        {
+            // leading zeros are not significant
+            mantissa = mantissa * 10 + b;
+            if (mantissa != 0)
+            {
+                ++digits;
+            }
+            anyDigit = true;
+            ++i;
+        }
+        if (i < end && bytes[i] == '.')
+        {
+            ++i;
+            while (i < end && (b = bytes[i] - '0') >= 0 && b <= 9)
+            {
+                mantissa = mantissa * 10 + b;
+                if (mantissa != 0)
+                {
+                    ++digits;
+                }
+                ++fractionDigits;
+                anyDigit = true;
+                ++i;
+            }
+        }
+        // exponents, which the app never writes, are left to the slow path
+        if (!anyDigit || i == end || bytes[i] != ',' || digits > MAX_FAST_DIGITS)
+        {
+            return parseFloatSlowly(start);
+        }
+
+        float result;
+        if (mantissa == 0)
+        {
+            result = 0f;
+        }
+        else
+        {
+            if (fractionDigits >= POWERS_OF_TEN.length)
+            {
+                return parseFloatSlowly(start);
+            }
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            if (isHalfway(value))
+            {
+                // rounding to double first may have broken a tie
+                return parseFloatSlowly(start);
+            }
+            result = (float) value;
+        }
+        cursor = i + 1;
+        return negative ? -result : result;
+    }
+
+    /**
+     * @return whether the double lies exactly half way between two floats, the
+     *         only case where rounding it again to float can differ from
+     *         rounding the decimal directly
+     */
+    private static boolean isHalfway(double value)
+    {
+        if (Math.abs(value) < Float.MIN_NORMAL)
+        {
+            float rounded = (float) value;
+            if (value == rounded)
+            {
+                return false;
+            }
+            float neighbour = Math.nextAfter(rounded, value);
+            // exact, both floats and their sum fit into a double
+            return value == ((double) rounded + neighbour) / 2;
+        }
+        // a normal float keeps the upper 24 of the 53 significant bits, it
+        // is a tie if the dropped bits are exactly one half
+        return (Double.doubleToRawLongBits(value) & DROPPED_BITS_MASK) == HALF_DROPPED_BITS;
+    }
+
+    /**
+     * Parses the field with <code>Float.parseFloat</code>, which also accepts
+     * surrounding white space, <code>NaN</code> and <code>Infinity</code>.
+     * Requests a retry if the end of the line is not known yet.
+     */
+    private float parseFloatSlowly(int start) throws IOException
+    {
+        if (!lineLocated)
+        {
+            retry = true;
+            return 0;
+        }
+        int end = fieldEnd(start);
+        String field = new String(bytes, start, end - start, "US-ASCII");
+        try
+        {
+            return Float.parseFloat(field);
+        }
+        catch (NumberFormatException e)
+        {
+            throw malformed(e.getMessage());
+        }
+    }
+
+    /**
+     * Parses the last field, which must end the line, and sets
+     * {@link #lineEnd} if it was not known.
+     */
+    private long parseLong() throws IOException
+    {
+        if (retry)
+        {
+            return 0;
+        }
+        byte[] bytes = this.bytes;
+        int start = cursor;
+        int end = lineLocated ? lineEnd : limit;
+        int i = start;
+
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+'))
+        {
+            negative = bytes[i] == '-';
+            ++i;
+        }
+        long value = 0;
+        int digits = 0;
+        int b;
+        while (i < end && (b = bytes[i] - '0') >= 0 && b <= 9)
+        {
+            if (++digits > MAX_LONG_DIGITS)
+            {
+                throw malformed("time out of range");
+            }
+            value = value * 10 + b;
+            ++i;
+        }
+
+        if (!lineLocated)
+        {
+            if (digits > 0 && i < limit && bytes[i] == '\n')
+            {
+                lineEnd = i;
+            }
+            else if (digits > 0 && i + 1 < limit && bytes[i] == '\r' && bytes[i + 1] == '\n')
+            {
+                lineEnd = i + 1;
+            }
+            else if (digits > 0 && i == limit && endOfFile)
+            {
+                lineEnd = limit;
+            }
+            else
+            {
+                retry = true;
+                return 0;
+            }
+            cursor = lineEnd + 1;
+            return negative ? -value : value;
+        }
+
+        if (i < end || digits == 0)
+        {
+            // white space such as a carriage return, or more columns
+            end = fieldEnd(start);
+            if (digits == 0 || skipSpaces(i, end) != end)
+            {
+                return parseLongSlowly(start, end);
+            }
+        }
+        cursor = end + 1;
+        return negative ? -value : value;
+    }
+
+    private long parseLongSlowly(int start, int end) throws IOException
+    {
+        String field = new String(bytes, start, end - start, "US-ASCII").trim();
+        try
+        {
+            return Long.parseLong(field);
+        }
+        catch (NumberFormatException e)
+        {
+            throw malformed("invalid time");
+        }
+    }
+
+    /**
+     * @return the end of the field starting at <code>start</code>, and moves
+     *         the cursor behind it
+     */
+    private int fieldEnd(int start) throws IOException
+    {
+        if (start > lineEnd)
+        {
+            throw malformed("expected 5 columns");
+        }
+        int i = start;
+        while (i < lineEnd && bytes[i] != ',')
+        {
+            ++i;
+        }
+        cursor = i + 1;
+        return i;
+    }
+
+    /**
+     * Skips what <code>String.trim()</code> removes.
+     */
+    private int skipSpaces(int from, int end)
+    {
+        while (from < end && bytes[from] >= 0 && bytes[from] <= ' ')
+        {
+            ++from;
+        }
+        return from;
+    }
+
+    private IOException malformed(String reason)
+    {
+        return new IOException("Malformed sample on line " + lineNumber + " of " + dataFile
+                + ": " + reason);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads a file written by {@link CsvSampleWriter}. The time column only has
+ * millisecond resolution relative to the start of the recording, so the
+ * timestamps of the samples read are that offset in nanoseconds. The rows
+ * are parsed by a {@link CsvSampleParser}.
+ */
+public class CsvSampleReader implements ISampleSource
+{
+    private final CsvSampleParser parser;
+
+    public CsvSampleReader(File dataFile) throws IOException
+    {
+        parser = new CsvSampleParser(dataFile);
+    }
+
+    @Override
+    public boolean next() throws IOException
+    {
+        return parser.next();
+    }
+
+    /**
+     * @return 0, the timestamps are already relative to the start
+     */
+    @Override
+    public long getStartTime()
+    {
+        return 0;
+    }
+
+    @Override
+    public long getTimestamp()
+    {
+        return parser.getTimestamp();
+    }
+
+    @Override
+    public float getX()
+    {
+        return parser.getX();
+    }
+
+    @Override
+    public float getY()
+    {
+        return parser.getY();
+    }
+
+    @Override
+    public float getZ()
+    {
+        return parser.getZ();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        parser.close();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import ch.bfh.sensordataprocessor.util.CsvLineBuffer;
+
+/**
+ * Writes samples in the CSV layout <code>X Axis,Y Axis,Z Axis,Acceleration,Time</code>
+ * where the time is in milliseconds relative to the start time of the recording.
+ * The acceleration is written with float precision like the axes, which is
+ * the precision {@link CsvSampleParser} reads it with.
+ */
+public class CsvSampleWriter implements ISampleWriter
+{
+    public static final String CSV_HEADER = "X Axis,Y Axis,Z Axis,Acceleration,Time";
+    private static final char CSV_DELIM = ',';
+
+    private final CsvLineBuffer lineBuffer = new CsvLineBuffer();
+    private final OutputStream outputStream;
+    private final long startTime;
+
+    /**
+     * @param startTime start of the recording in milliseconds, on the same
+     *            clock as the event timestamps
+     */
+    public CsvSampleWriter(File dataFile, long startTime) throws IOException
+    {
+        this.startTime = startTime;
+        outputStream = new BufferedOutputStream(new FileOutputStream(dataFile));
+        outputStream.write((CSV_HEADER + '\n').getBytes("US-ASCII"));
+    }
+
+    @Override
+    public void writeSample(long timestamp, float x, float y, float z, double acceleration)
+            throws IOException
+    {
+        lineBuffer.reset()
+            .append(x).append(CSV_DELIM)
+            .append(y).append(CSV_DELIM)
+            .append(z).append(CSV_DELIM)
+            .append((float) acceleration).append(CSV_DELIM)
+            .append((timestamp / 1000000) - startTime)
+            .newLine();
+
+        lineBuffer.writeTo(outputStream);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        outputStream.close();
+    }
+}
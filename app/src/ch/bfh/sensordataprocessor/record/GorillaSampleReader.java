@@ -0,0 +1,324 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streaming decoder for files written by {@link GorillaSampleWriter}. Blocks
+ * are read one at a time and decoded sample by sample;
+ * {@link #seek(long)} skips whole blocks by their header.
+ */
+public class GorillaSampleReader implements ISampleSource
+{
+    private final FileInputStream inputStream;
+    private final FileChannel channel;
+    private final ByteBuffer header;
+    private final BitReader bits = new BitReader();
+    private byte[] payload = new byte[0];
+    private ByteBuffer payloadBuffer = ByteBuffer.wrap(payload);
+
+    private final int sensorType;
+    private final int rate;
+    private final long startTime;
+
+    private int remaining;
+    private boolean first;
+    private boolean pending;
+    private long previousDelta;
+    private final int[] values = new int[BinarySampleWriter.AXIS_COUNT];
+    private final int[] leading = new int[BinarySampleWriter.AXIS_COUNT];
+    private final int[] trailing = new int[BinarySampleWriter.AXIS_COUNT];
+
+    private long timestamp;
+
+    public GorillaSampleReader(File dataFile) throws IOException
+    {
+        inputStream = new FileInputStream(dataFile);
+        channel = inputStream.getChannel();
+        header = ByteBuffer.allocate(Math.max(GorillaSampleWriter.HEADER_SIZE,
+                GorillaSampleWriter.BLOCK_HEADER_SIZE)).order(BinarySampleWriter.BYTE_ORDER);
+
+        try
+        {
+            if (!readFully(header, GorillaSampleWriter.HEADER_SIZE))
+            {
+                throw new EOFException("Missing header in " + dataFile);
+            }
+            if (header.getInt() != GorillaSampleWriter.MAGIC)
+            {
+                throw new IOException(dataFile + " is not a compressed sensor recording");
+            }
+            short version = header.getShort();
+            short axisCount = header.getShort();
+            if (version != GorillaSampleWriter.VERSION
+                    || axisCount != BinarySampleWriter.AXIS_COUNT)
+            {
+                throw new IOException("Unsupported recording version " + version
+                        + " with " + axisCount + " axes");
+            }
+            sensorType = header.getInt();
+            rate = header.getInt();
+            startTime = header.getLong();
+        }
+        catch (IOException e)
+        {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc} A truncated trailing block is ignored.
+     */
+    @Override
+    public boolean next() throws IOException
+    {
+        if (pending)
+        {
+            pending = false;
+            return true;
+        }
+        if (remaining == 0 && !readBlock(Long.MIN_VALUE))
+        {
+            return false;
+        }
+        decodeSample();
+        return true;
+    }
+
+    /**
+     * Positions the reader so that the next call to {@link #next()} returns
+     * the first sample at or after <code>target</code>.
+     */
+    public void seek(long target) throws IOException
+    {
+        channel.position(GorillaSampleWriter.HEADER_SIZE);
+        remaining = 0;
+        pending = false;
+        while (readBlock(target))
+        {
+            while (remaining > 0)
+            {
+                decodeSample();
+                if (timestamp >= target)
+                {
+                    pending = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    public int getSensorType()
+    {
+        return sensorType;
+    }
+
+    public int getRate()
+    {
+        return rate;
+    }
+
+    @Override
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    @Override
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    @Override
+    public float getX()
+    {
+        return Float.intBitsToFloat(values[0]);
+    }
+
+    @Override
+    public float getY()
+    {
+        return Float.intBitsToFloat(values[1]);
+    }
+
+    @Override
+    public float getZ()
+    {
+        return Float.intBitsToFloat(values[2]);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        inputStream.close();
+    }
+
+    /**
+     * Reads the next block whose last timestamp is at least
+     * <code>minTimestamp</code>, skipping the payload of earlier ones.
+     */
+    private boolean readBlock(long minTimestamp) throws IOException
+    {
+        while (true)
+        {
+            if (!readFully(header, GorillaSampleWriter.BLOCK_HEADER_SIZE))
+            {
+                return false;
+            }
+            int count = header.getInt();
+            int length = header.getInt();
+            long firstTimestamp = header.getLong();
+            long lastTimestamp = header.getLong();
+            if (count <= 0 || length < 0)
+            {
+                throw new IOException("Corrupt compressed block header");
+            }
+
+            if (lastTimestamp < minTimestamp)
+            {
+                channel.position(channel.position() + length);
+                continue;
+            }
+
+            if (payload.length < length)
+            {
+                payload = new byte[length];
+                payloadBuffer = ByteBuffer.wrap(payload);
+            }
+            payloadBuffer.clear();
+            payloadBuffer.limit(length);
+            while (payloadBuffer.hasRemaining())
+            {
+                if (channel.read(payloadBuffer) < 0)
+                {
+                    return false;
+                }
+            }
+
+            bits.reset(payload, length);
+            remaining = count;
+            first = true;
+            timestamp = firstTimestamp;
+            previousDelta = 0;
+            for (int axis = 0; axis < values.length; ++axis)
+            {
+                values[axis] = 0;
+                leading[axis] = -1;
+            }
+            return true;
+        }
+    }
+
+    private void decodeSample() throws IOException
+    {
+        if (first)
+        {
+            first = false;
+        }
+        else
+        {
+            previousDelta += readDeltaOfDelta();
+            timestamp += previousDelta;
+        }
+        for (int axis = 0; axis < values.length; ++axis)
+        {
+            readValue(axis);
+        }
+        --remaining;
+    }
+
+    private long readDeltaOfDelta() throws IOException
+    {
+        if (!bits.readBit())
+        {
+            return 0;
+        }
+        if (!bits.readBit())
+        {
+            return signExtend(bits.readBits(16), 16);
+        }
+        if (!bits.readBit())
+        {
+            return signExtend(bits.readBits(24), 24);
+        }
+        if (!bits.readBit())
+        {
+            return signExtend(bits.readLong(40), 40);
+        }
+        return bits.readLong(64);
+    }
+
+    private void readValue(int axis) throws IOException
+    {
+        if (!bits.readBit())
+        {
+            return;
+        }
+        int xor;
+        if (!bits.readBit())
+        {
+            if (leading[axis] < 0)
+            {
+                throw new IOException("Corrupt compressed block");
+            }
+            int length = 32 - leading[axis] - trailing[axis];
+            xor = (int) bits.readBits(length) << trailing[axis];
+        }
+        else
+        {
+            int zeros = (int) bits.readBits(5);
+            int length = (int) bits.readBits(5) + 1;
+            if (zeros + length > 32)
+            {
+                throw new IOException("Corrupt compressed block");
+            }
+            leading[axis] = zeros;
+            trailing[axis] = 32 - zeros - length;
+            xor = (int) bits.readBits(length) << trailing[axis];
+        }
+        values[axis] ^= xor;
+    }
+
+    private boolean readFully(ByteBuffer buffer, int length) throws IOException
+    {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private static long signExtend(long value, int bitCount)
+    {
+        int shift = 64 - bitCount;
+        return (value << shift) >> shift;
+    }
+}
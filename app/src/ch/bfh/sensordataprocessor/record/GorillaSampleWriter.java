@@ -0,0 +1,275 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes samples compressed as in Facebook's Gorilla time series database:
+ * timestamps as delta-of-deltas and each axis as the XOR with its previous
+ * value, bit-packed with short prefix codes.
+ * <p>
+ * The file starts with the same {@value #HEADER_SIZE} byte header as
+ * {@link BinarySampleWriter}, with the magic <code>'SDPG'</code>. Samples
+ * are grouped into independently decodable blocks so that a reader can skip
+ * to a point in time without decoding what lies before it:
+ * <pre>
+ * int   sample count
+ * int   payload size in bytes
+ * long  first timestamp
+ * long  last timestamp
+ * byte  payload[payload size]
+ * </pre>
+ * In the payload, each sample after the first starts with the delta-of-delta
+ * of its nanosecond timestamp:
+ * <pre>
+ * 0                       unchanged interval
+ * 10   + 16 bit signed    within &plusmn;32 &micro;s
+ * 110  + 24 bit signed    within &plusmn;8 ms
+ * 1110 + 40 bit signed
+ * 1111 + 64 bit
+ * </pre>
+ * followed, for every sample, by each axis XORed with the previous value of
+ * that axis (0 before the first sample):
+ * <pre>
+ * 0                                  same value
+ * 10 + meaningful bits               within the previous leading and
+ *                                    trailing zero window
+ * 11 + 5 bit leading zeros + 5 bit (length - 1) + meaningful bits
+ * </pre>
+ * As in the binary format the acceleration magnitude is not stored. A block
+ * is only written once full or on {@link #close()}.
+ */
+public class GorillaSampleWriter implements ISampleWriter
+{
+    public static final int MAGIC = 0x53445047;
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = BinarySampleWriter.HEADER_SIZE;
+    public static final int BLOCK_HEADER_SIZE = 24;
+    public static final int DEFAULT_SAMPLES_PER_BLOCK = 1024;
+
+    /** Worst case: 4 + 64 timestamp bits and 2 + 10 + 32 bits per axis. */
+    static final int MAX_SAMPLE_BITS = 68 + 44 * BinarySampleWriter.AXIS_COUNT;
+
+    private final FileOutputStream outputStream;
+    private final ByteBuffer blockHeader;
+    private final BitWriter bits;
+    private final int samplesPerBlock;
+
+    private int count;
+    private long firstTimestamp;
+    private long previousTimestamp;
+    private long previousDelta;
+    private final int[] previousValues = new int[BinarySampleWriter.AXIS_COUNT];
+    private final int[] previousLeading = new int[BinarySampleWriter.AXIS_COUNT];
+    private final int[] previousTrailing = new int[BinarySampleWriter.AXIS_COUNT];
+
+    private long samples;
+    private long bytesWritten;
+
+    public GorillaSampleWriter(File dataFile, int sensorType, int rate, long startTime)
+            throws IOException
+    {
+        this(dataFile, sensorType, rate, startTime, DEFAULT_SAMPLES_PER_BLOCK);
+    }
+
+    public GorillaSampleWriter(File dataFile, int sensorType, int rate, long startTime,
+            int samplesPerBlock) throws IOException
+    {
+        if (samplesPerBlock < 1)
+        {
+            throw new IllegalArgumentException("Samples per block must be positive");
+        }
+        this.samplesPerBlock = samplesPerBlock;
+        bits = new BitWriter((samplesPerBlock * MAX_SAMPLE_BITS + 7) / 8);
+        blockHeader = ByteBuffer.allocate(Math.max(HEADER_SIZE, BLOCK_HEADER_SIZE))
+                .order(BinarySampleWriter.BYTE_ORDER);
+
+        outputStream = new FileOutputStream(dataFile);
+        blockHeader.putInt(MAGIC)
+            .putShort(VERSION)
+            .putShort(BinarySampleWriter.AXIS_COUNT)
+            .putInt(sensorType)
+            .putInt(rate)
+            .putLong(startTime);
+        writeHeader(HEADER_SIZE);
+    }
+
+    @Override
+    public void writeSample(long timestamp, float x, float y, float z, double acceleration)
+            throws IOException
+    {
+        if (count == 0)
+        {
+            firstTimestamp = timestamp;
+            previousDelta = 0;
+            for (int axis = 0; axis < previousValues.length; ++axis)
+            {
+                previousValues[axis] = 0;
+                previousLeading[axis] = -1;
+            }
+        }
+        else
+        {
+            long delta = timestamp - previousTimestamp;
+            writeDeltaOfDelta(delta - previousDelta);
+            previousDelta = delta;
+        }
+        previousTimestamp = timestamp;
+
+        writeValue(0, x);
+        writeValue(1, y);
+        writeValue(2, z);
+
+        ++samples;
+        if (++count == samplesPerBlock)
+        {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes the pending samples as a block.
+     */
+    public void flush() throws IOException
+    {
+        writeBlock();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            writeBlock();
+        }
+        finally
+        {
+            outputStream.close();
+        }
+    }
+
+    public long getSamples()
+    {
+        return samples;
+    }
+
+    /**
+     * @return the size of the file so far, without the pending block
+     */
+    public long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+
+    private void writeDeltaOfDelta(long deltaOfDelta)
+    {
+        if (deltaOfDelta == 0)
+        {
+            bits.writeBits(0, 1);
+        }
+        else if (fits(deltaOfDelta, 16))
+        {
+            bits.writeBits(0x2, 2);
+            bits.writeBits(deltaOfDelta, 16);
+        }
+        else if (fits(deltaOfDelta, 24))
+        {
+            bits.writeBits(0x6, 3);
+            bits.writeBits(deltaOfDelta, 24);
+        }
+        else if (fits(deltaOfDelta, 40))
+        {
+            bits.writeBits(0xE, 4);
+            bits.writeLong(deltaOfDelta, 40);
+        }
+        else
+        {
+            bits.writeBits(0xF, 4);
+            bits.writeLong(deltaOfDelta, 64);
+        }
+    }
+
+    private void writeValue(int axis, float value)
+    {
+        int valueBits = Float.floatToRawIntBits(value);
+        int xor = valueBits ^ previousValues[axis];
+        previousValues[axis] = valueBits;
+
+        if (xor == 0)
+        {
+            bits.writeBits(0, 1);
+            return;
+        }
+
+        int leading = Integer.numberOfLeadingZeros(xor);
+        int trailing = Integer.numberOfTrailingZeros(xor);
+        int windowLeading = previousLeading[axis];
+        int windowTrailing = previousTrailing[axis];
+        if (windowLeading >= 0 && leading >= windowLeading && trailing >= windowTrailing)
+        {
+            bits.writeBits(0x2, 2);
+            bits.writeBits(xor >>> windowTrailing, 32 - windowLeading - windowTrailing);
+        }
+        else
+        {
+            int length = 32 - leading - trailing;
+            bits.writeBits(0x3, 2);
+            bits.writeBits(leading, 5);
+            bits.writeBits(length - 1, 5);
+            bits.writeBits(xor >>> trailing, length);
+            previousLeading[axis] = leading;
+            previousTrailing[axis] = trailing;
+        }
+    }
+
+    private void writeBlock() throws IOException
+    {
+        if (count == 0)
+        {
+            return;
+        }
+        int length = bits.finish();
+        blockHeader.putInt(count)
+            .putInt(length)
+            .putLong(firstTimestamp)
+            .putLong(previousTimestamp);
+        writeHeader(BLOCK_HEADER_SIZE);
+        outputStream.write(bits.array(), 0, length);
+        bytesWritten += length;
+
+        bits.reset();
+        count = 0;
+    }
+
+    private void writeHeader(int length) throws IOException
+    {
+        outputStream.write(blockHeader.array(), 0, length);
+        blockHeader.clear();
+        bytesWritten += length;
+    }
+
+    private static boolean fits(long value, int bitCount)
+    {
+        long limit = 1L << (bitCount - 1);
+        return value >= -limit && value < limit;
+    }
+}
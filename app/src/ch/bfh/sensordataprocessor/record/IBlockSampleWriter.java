@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.IOException;
+
+/**
+ * A writer that can take a whole block of samples, such as a burst from a
+ * hardware FIFO, in one call and one I/O operation.
+ */
+public interface IBlockSampleWriter extends ISampleWriter {
+
+    /**
+     * Writes <code>count</code> samples starting at sample <code>offset</code>.
+     *
+     * @param frames x, y and z of each sample, interleaved, so sample
+     *            <code>i</code> starts at <code>frames[3 * i]</code>
+     */
+    public void writeBlock(long[] timestamps, float[] frames, int offset, int count)
+            throws IOException;
+
+}
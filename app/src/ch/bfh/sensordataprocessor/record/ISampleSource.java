@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.IOException;
+
+/**
+ * Sequential source of recorded three-axis samples. The current sample is
+ * exposed through primitive getters after each successful call to
+ * {@link #next()}.
+ */
+public interface ISampleSource {
+
+    /**
+     * Advances to the next sample.
+     *
+     * @return <code>false</code> once the source is exhausted
+     */
+    public boolean next() throws IOException;
+
+    /**
+     * @return the start of the recording in milliseconds, the offset of the
+     *         time column when converted to CSV
+     */
+    public long getStartTime();
+
+    /**
+     * @return the timestamp of the current sample in nanoseconds
+     */
+    public long getTimestamp();
+
+    public float getX();
+
+    public float getY();
+
+    public float getZ();
+
+    public void close() throws IOException;
+
+}
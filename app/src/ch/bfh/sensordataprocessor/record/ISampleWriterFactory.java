@@ -0,0 +1,24 @@
+/*
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates the writers a recording is stored with.
+ */
+public interface ISampleWriterFactory {
+
+    /**
+     * @param directory directory the recording is written to
+     * @param baseName name of the recorded stream, without extension
+     * @param sensorType the <code>Sensor.TYPE_*</code> that is recorded
+     * @param rate the rate the sensor is registered with
+     * @param startTime start of the recording in milliseconds
+     */
+    public ISampleWriter createWriter(File directory, String baseName, int sensorType, int rate,
+            long startTime) throws IOException;
+
+}
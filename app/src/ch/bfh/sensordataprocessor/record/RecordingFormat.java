@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * File formats sensor samples can be recorded in.
+ */
+public enum RecordingFormat implements ISampleWriterFactory
+{
+    CSV(BinaryRecordingConverter.CSV_EXTENSION),
+    BINARY(BinaryRecordingConverter.BINARY_EXTENSION),
+    COMPRESSED(BinaryRecordingConverter.COMPRESSED_EXTENSION);
+
+    private final String extension;
+
+    private RecordingFormat(String extension)
+    {
+        this.extension = extension;
+    }
+
+    public String getExtension()
+    {
+        return extension;
+    }
+
+    /**
+     * @param baseName file name without extension
+     */
+    @Override
+    public ISampleWriter createWriter(File directory, String baseName, int sensorType, int rate,
+            long startTime) throws IOException
+    {
+        File dataFile = new File(directory, baseName + extension);
+        switch (this)
+        {
+            case BINARY:
+                return new BinarySampleWriter(dataFile, sensorType, rate, startTime);
+            case COMPRESSED:
+                return new GorillaSampleWriter(dataFile, sensorType, rate, startTime);
+            default:
+                return new CsvSampleWriter(dataFile, startTime);
+        }
+    }
+
+    /**
+     * @return the format of the file, determined by its extension
+     */
+    public static RecordingFormat forFile(File dataFile)
+    {
+        String name = dataFile.getName();
+        if (name.endsWith(BINARY.extension))
+        {
+            return BINARY;
+        }
+        return name.endsWith(COMPRESSED.extension) ? COMPRESSED : CSV;
+    }
+
+    /**
+     * Opens a recording of this format for reading.
+     */
+    public ISampleSource openSource(File dataFile) throws IOException
+    {
+        switch (this)
+        {
+            case BINARY:
+                return new BinarySampleReader(dataFile);
+            case COMPRESSED:
+                return new GorillaSampleReader(dataFile);
+            default:
+                return new CsvSampleReader(dataFile);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.record;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer/single-consumer queue of three-axis samples,
+ * stored in primitive arrays so that neither side allocates.
+ * <p>
+ * The producer owns <code>head</code>, the consumer owns <code>tail</code>,
+ * so a slot is only written again after the consumer has released it. A
+ * batch keeps its slots until it is written. A block offered with
+ * {@link #offerBlock} is published at once, and a batch drained into an
+ * {@link IBlockSampleWriter} is handed over with one
+ * {@link IBlockSampleWriter#writeBlock} call.
+ * <p>
+ * With {@link OverflowPolicy#BLOCK} a full buffer parks the producer until
+ * the consumer has written a batch. Sensor events are delivered on the main
+ * thread, so that policy must not be used from a sensor callback.
+ */
+public class SampleRingBuffer
+{
+    private static final long BLOCK_PARK_NANOS = 100000L;
+
+    private final OverflowPolicy overflowPolicy;
+    private final int mask;
+    private final long[] timestamps;
+    private final float[] xValues;
+    private final float[] yValues;
+    private final float[] zValues;
+    private final double[] accelerations;
+    private final long[] batchTimestamps;
+    private final float[] batchFrames;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // written by the producer only
+    private volatile long droppedSamples;
+    private volatile int highWaterMark;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     * @param maxBatch maximum number of samples handed out per {@link #drainTo} call
+     */
+    public SampleRingBuffer(int capacity, int maxBatch, OverflowPolicy overflowPolicy)
+    {
+        if (capacity < 1 || capacity > (1 << 30))
+        {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+        {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+
+        timestamps = new long[size];
+        xValues = new float[size];
+        yValues = new float[size];
+        zValues = new float[size];
+        accelerations = new double[size];
+        batchTimestamps = new long[Math.min(maxBatch, size)];
+        batchFrames = new float[3 * batchTimestamps.length];
+    }
+
+    /**
+     * Publishes a sample. Must only be called from the producer thread.
+     *
+     * @return <code>false</code> if the sample was dropped
+     */
+    public boolean offer(long timestamp, float x, float y, float z, double acceleration)
+    {
+        long h = head.get();
+        long t = tail.get();
+
+        while (h - t > mask)
+        {
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST)
+            {
+                droppedSamples++;
+                return false;
+            }
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            t = tail.get();
+        }
+
+        int index = (int) h & mask;
+        timestamps[index] = timestamp;
+        xValues[index] = x;
+        yValues[index] = y;
+        zValues[index] = z;
+        accelerations[index] = acceleration;
+        head.lazySet(h + 1);
+
+        int used = (int) (h + 1 - t);
+        if (used > highWaterMark)
+        {
+            highWaterMark = used;
+        }
+        return true;
+    }
+
+    /**
+     * Publishes <code>count</code> samples starting at sample
+     * <code>offset</code>, as many at once as there are free slots. Must only
+     * be called from the producer thread. With
+     * {@link OverflowPolicy#DROP_NEWEST} the samples that do not fit are
+     * dropped.
+     *
+     * @param frames x, y and z of each sample, interleaved
+     * @return the number of samples queued
+     */
+    public int offerBlock(long[] blockTimestamps, float[] frames, int offset, int count)
+    {
+        long h = head.get();
+        long t = tail.get();
+        int queued = 0;
+
+        while (queued < count)
+        {
+            int free = (int) (mask + 1 - (h - t));
+            if (free == 0)
+            {
+                if (overflowPolicy == OverflowPolicy.DROP_NEWEST)
+                {
+                    droppedSamples += count - queued;
+                    break;
+                }
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                t = tail.get();
+                continue;
+            }
+
+            int chunk = Math.min(free, count - queued);
+            for (int i = offset + queued, end = i + chunk; i < end; ++i)
+            {
+                int index = (int) h++ & mask;
+                int frame = 3 * i;
+                float x = frames[frame];
+                float y = frames[frame + 1];
+                float z = frames[frame + 2];
+                timestamps[index] = blockTimestamps[i];
+                xValues[index] = x;
+                yValues[index] = y;
+                zValues[index] = z;
+                accelerations[index] = Math.sqrt(x * x + y * y + z * z);
+            }
+            head.lazySet(h);
+            queued += chunk;
+
+            int used = (int) (h - t);
+            if (used > highWaterMark)
+            {
+                highWaterMark = used;
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Hands at most one batch of queued samples to the writer. Must only be
+     * called from the consumer thread. If the writer fails, the samples
+     * written before stay consumed and the failed one is the first of the
+     * next call. An {@link IBlockSampleWriter} gets the batch as one block,
+     * which stays queued if the block fails.
+     *
+     * @return the number of samples written
+     */
+    public int drainTo(ISampleWriter writer) throws IOException
+    {
+        long t = tail.get();
+        int count = (int) Math.min(head.get() - t, batchTimestamps.length);
+        if (count <= 0)
+        {
+            return 0;
+        }
+
+        if (writer instanceof IBlockSampleWriter)
+        {
+            for (int i = 0, frame = 0; i < count; ++i, frame += 3)
+            {
+                int index = (int) (t + i) & mask;
+                batchTimestamps[i] = timestamps[index];
+                batchFrames[frame] = xValues[index];
+                batchFrames[frame + 1] = yValues[index];
+                batchFrames[frame + 2] = zValues[index];
+            }
+            ((IBlockSampleWriter) writer).writeBlock(batchTimestamps, batchFrames, 0, count);
+            tail.lazySet(t + count);
+            return count;
+        }
+
+        int written = 0;
+        try
+        {
+            for (; written < count; ++written)
+            {
+                int index = (int) (t + written) & mask;
+                writer.writeSample(timestamps[index], xValues[index], yValues[index],
+                        zValues[index], accelerations[index]);
+            }
+        }
+        finally
+        {
+            tail.lazySet(t + written);
+        }
+        return written;
+    }
+
+    /**
+     * Drops all queued samples. Must only be called from the consumer thread.
+     *
+     * @return the number of samples dropped
+     */
+    public int discard()
+    {
+        long t = tail.get();
+        long h = head.get();
+        tail.lazySet(h);
+        return (int) (h - t);
+    }
+
+    public int size()
+    {
+        return (int) (head.get() - tail.get());
+    }
+
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+
+    public long getDroppedSamples()
+    {
+        return droppedSamples;
+    }
+
+    /**
+     * @return the largest number of samples that were queued at once
+     */
+    public int getHighWaterMark()
+    {
+        return highWaterMark;
+    }
+}
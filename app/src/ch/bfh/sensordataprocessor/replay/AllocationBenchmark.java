@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Random;
+
+import ch.bfh.sensordataprocessor.plot.PrimitiveXYSeries;
+import ch.bfh.sensordataprocessor.processing.AccelerationProcessor;
+import ch.bfh.sensordataprocessor.processing.IProcessingListener;
+import ch.bfh.sensordataprocessor.processing.MovementDetector;
+import ch.bfh.sensordataprocessor.processing.StepDetector;
+import ch.bfh.sensordataprocessor.record.AsyncSampleWriter;
+import ch.bfh.sensordataprocessor.record.CsvSampleWriter;
+
+/**
+ * Checks that the sensor event path does not allocate once it is warmed up.
+ * Synthetic events at {@value #SAMPLE_RATE_HZ} Hz are fed to two processors
+ * set up like the two listeners of <code>MainActivity</code> at the fastest
+ * rate: both record to CSV through an {@link AsyncSampleWriter}, the first
+ * also plots into {@link PrimitiveXYSeries}, which are redrawn every
+ * {@value #REDRAW_INTERVAL} events, and detects movements and steps. The
+ * bytes allocated by the event thread are measured with the HotSpot thread
+ * allocation counter; the writer threads are not counted. The program
+ * fails if any byte was allocated.
+ * <p>
+ * Usage: <code>AllocationBenchmark [events] [directory]</code>, with the
+ * Androidplot library on the class path.
+ */
+public class AllocationBenchmark
+{
+    private static final float SAMPLE_RATE_HZ = 200f;
+    private static final float PLOT_RATE_HZ = 100f;
+    private static final int DEFAULT_EVENTS = 1000000;
+    private static final int WARM_UP_EVENTS = 200000;
+    private static final int REDRAW_INTERVAL = 25;
+    private static final int DRAW_POINTS = 320;
+    private static final int SERIES_SIZE = 2048;
+    private static final long PLOT_WINDOW = 10000;
+    private static final int SIGNAL_LENGTH = 4096;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final float[] x = new float[SIGNAL_LENGTH];
+    private final float[] y = new float[SIGNAL_LENGTH];
+    private final float[] z = new float[SIGNAL_LENGTH];
+    private final PrimitiveXYSeries[] series = new PrimitiveXYSeries[4];
+    private final AccelerationProcessor plotted;
+    private final AccelerationProcessor unplotted;
+    private final AsyncSampleWriter plottedWriter;
+    private final AsyncSampleWriter unplottedWriter;
+    private long timestamp;
+    private int events;
+
+    public AllocationBenchmark(File directory) throws IOException
+    {
+        // a walk with noise, repeated so no value is computed per event
+        Random random = new Random(1);
+        for (int i = 0; i < SIGNAL_LENGTH; ++i)
+        {
+            double t = i / (double) SAMPLE_RATE_HZ;
+            x[i] = (float) (0.5 * Math.sin(2 * Math.PI * 0.9 * t) + 0.1 * random.nextGaussian());
+            y[i] = (float) (0.3 * Math.cos(2 * Math.PI * 1.8 * t) + 0.1 * random.nextGaussian());
+            z[i] = (float) (9.81 + 2 * Math.sin(2 * Math.PI * 1.8 * t)
+                    + 0.1 * random.nextGaussian());
+        }
+        for (int i = 0; i < series.length; ++i)
+        {
+            series[i] = new PrimitiveXYSeries("Series " + i, SERIES_SIZE, PLOT_WINDOW,
+                    DRAW_POINTS);
+        }
+
+        plottedWriter = new AsyncSampleWriter(new CsvSampleWriter(new File(directory,
+                "allocation-benchmark-plotted.csv"), 0), "SampleWriter-plotted");
+        unplottedWriter = new AsyncSampleWriter(new CsvSampleWriter(new File(directory,
+                "allocation-benchmark-unplotted.csv"), 0), "SampleWriter-unplotted");
+
+        plotted = new AccelerationProcessor(true, true, plottedWriter, null, SAMPLE_RATE_HZ,
+                PLOT_RATE_HZ, new IProcessingListener()
+                {
+                    @Override
+                    public void onPlotFrame(long eventTime, float x, float y, float z,
+                            float acceleration)
+                    {
+                        long time = eventTime / 1000000;
+                        series[0].addLast(time, x);
+                        series[1].addLast(time, y);
+                        series[2].addLast(time, z);
+                        series[3].addLast(time, acceleration);
+                    }
+                });
+        plotted.setMovementDetector(new MovementDetector(null));
+        plotted.setStepDetector(new StepDetector(SAMPLE_RATE_HZ, null));
+        unplotted = new AccelerationProcessor(true, true, unplottedWriter, null,
+                SAMPLE_RATE_HZ, PLOT_RATE_HZ, null);
+    }
+
+    public void run(int count)
+    {
+        long period = (long) (1e9 / SAMPLE_RATE_HZ);
+        for (int i = 0; i < count; ++i)
+        {
+            int index = events % SIGNAL_LENGTH;
+            plotted.process(timestamp, x[index], y[index], z[index]);
+            unplotted.process(timestamp, x[index], y[index], z[index] - 9.81f);
+            if (++events % REDRAW_INTERVAL == 0)
+            {
+                for (PrimitiveXYSeries s : series)
+                {
+                    s.updateDrawPoints(DRAW_POINTS);
+                }
+            }
+            timestamp += period;
+        }
+    }
+
+    public void close() throws IOException
+    {
+        plottedWriter.close();
+        unplottedWriter.close();
+    }
+
+    public long getDroppedSamples()
+    {
+        return plottedWriter.getDroppedSamples() + unplottedWriter.getDroppedSamples();
+    }
+
+    /**
+     * @return the bytes the current thread has allocated so far
+     */
+    private static long allocatedBytes()
+    {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_EVENTS;
+        File directory = new File(args.length > 1 ? args[1]
+                : System.getProperty("java.io.tmpdir"));
+        AllocationBenchmark benchmark = new AllocationBenchmark(directory);
+        benchmark.run(WARM_UP_EVENTS);
+
+        // the first call of the clock allocates, so it stays outside
+        long start = System.nanoTime();
+        long allocated = allocatedBytes();
+        benchmark.run(events);
+        allocated = allocatedBytes() - allocated;
+        long elapsed = System.nanoTime() - start;
+        benchmark.close();
+
+        System.out.printf(Locale.US, "%d events to 2 listeners at %.0f Hz: %.1f ns/event, "
+                + "%d bytes allocated, %.3f bytes/event, %d samples dropped%n", events,
+                SAMPLE_RATE_HZ, (double) elapsed / events, allocated,
+                (double) allocated / events, benchmark.getDroppedSamples());
+        if (allocated != 0)
+        {
+            System.err.println("The event path allocated");
+            System.exit(1);
+        }
+    }
+}
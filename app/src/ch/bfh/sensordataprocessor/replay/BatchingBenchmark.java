@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import ch.bfh.sensordataprocessor.hub.ISampleBlockListener;
+import ch.bfh.sensordataprocessor.hub.SampleBlock;
+import ch.bfh.sensordataprocessor.hub.SimulatedBatchedSource;
+import ch.bfh.sensordataprocessor.processing.AccelerationProcessor;
+import ch.bfh.sensordataprocessor.record.BinarySampleWriter;
+
+/**
+ * Measures the ingestion throughput of batched sensor bursts for burst
+ * sizes from 1 to 1000. A {@link SimulatedBatchedSource} delivers a 1 kHz
+ * accelerometer in bursts of each size, which are filtered and written to a
+ * binary recording once through
+ * {@link AccelerationProcessor#processBlock(long[], float[], int, int)} and
+ * once sample by sample through
+ * {@link AccelerationProcessor#process(long, float, float, float)}. Only the
+ * time spent in the processor and writer is counted, best of three runs. Both paths write each
+ * burst to the file before the next one arrives. The writes to the file
+ * channel are counted by the writer.
+ * <p>
+ * Usage: <code>BatchingBenchmark [simulated seconds]</code>
+ */
+public class BatchingBenchmark
+{
+    private static final int[] BURST_SIZES = { 1, 10, 100, 1000 };
+    private static final int DEFAULT_SECONDS = 1000;
+    private static final int REPETITIONS = 3;
+    private static final int PERIOD_MICROS = 1000;
+    private static final int SENSOR_TYPE = 1;
+
+    private final File file;
+    private long writeCount;
+
+    public BatchingBenchmark(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * @return nanoseconds spent processing
+     * @see #getWriteCount()
+     */
+    public long run(int burstSize, final boolean useBlocks, long simulatedNanos)
+            throws IOException
+    {
+        final BinarySampleWriter writer = new BinarySampleWriter(file, SENSOR_TYPE, 0, 0);
+        final AccelerationProcessor processor = new AccelerationProcessor(true, writer, null,
+                1e6f / PERIOD_MICROS, 0, null);
+        final long[] elapsed = new long[1];
+
+        SimulatedBatchedSource source = new SimulatedBatchedSource(burstSize);
+        source.register(SENSOR_TYPE, PERIOD_MICROS, burstSize * PERIOD_MICROS,
+                new ISampleBlockListener()
+                {
+                    @Override
+                    public void onBlock(int sensorType, SampleBlock block)
+                    {
+                        long start = System.nanoTime();
+                        if (useBlocks)
+                        {
+                            processor.processBlock(block.getTimestamps(), block.getFrames(), 0,
+                                    block.getSize());
+                        }
+                        else
+                        {
+                            long[] timestamps = block.getTimestamps();
+                            float[] frames = block.getFrames();
+                            for (int i = 0; i < block.getSize(); ++i)
+                            {
+                                processor.process(timestamps[i], frames[3 * i],
+                                        frames[3 * i + 1], frames[3 * i + 2]);
+                            }
+                            flush(writer);
+                        }
+                        elapsed[0] += System.nanoTime() - start;
+                    }
+                });
+        try
+        {
+            source.advance(simulatedNanos);
+            source.flush(SENSOR_TYPE);
+        }
+        finally
+        {
+            writer.close();
+            writeCount = writer.getWriteCount();
+        }
+        if (processor.takeWriteError() != null)
+        {
+            throw processor.takeWriteError();
+        }
+        return elapsed[0];
+    }
+
+    /**
+     * @return the number of writes to the file channel in the last run
+     */
+    public long getWriteCount()
+    {
+        return writeCount;
+    }
+
+    private static void flush(BinarySampleWriter writer)
+    {
+        try
+        {
+            writer.flush();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SECONDS;
+        long simulatedNanos = seconds * 1000000000L;
+        long events = simulatedNanos / (PERIOD_MICROS * 1000L);
+
+        File file = File.createTempFile("batching-benchmark", ".bin");
+        BatchingBenchmark benchmark = new BatchingBenchmark(file);
+        try
+        {
+            // warm up both paths
+            benchmark.run(100, true, simulatedNanos / 10);
+            benchmark.run(100, false, simulatedNanos / 10);
+
+            System.out.printf(Locale.US, "%d events at %d Hz%n", events,
+                    1000000 / PERIOD_MICROS);
+            System.out.printf(Locale.US, "%6s %15s %15s %13s %13s%n", "burst",
+                    "block events/s", "single events/s", "block writes", "single writes");
+            for (int burstSize : BURST_SIZES)
+            {
+                long block = Long.MAX_VALUE;
+                long single = Long.MAX_VALUE;
+                long blockWrites = 0;
+                long singleWrites = 0;
+                for (int i = 0; i < REPETITIONS; ++i)
+                {
+                    block = Math.min(block, benchmark.run(burstSize, true, simulatedNanos));
+                    blockWrites = benchmark.getWriteCount();
+                    single = Math.min(single, benchmark.run(burstSize, false, simulatedNanos));
+                    singleWrites = benchmark.getWriteCount();
+                }
+                System.out.printf(Locale.US, "%6d %15.0f %15.0f %13d %13d%n", burstSize,
+                        events / (block / 1e9), events / (single / 1e9), blockWrites,
+                        singleWrites);
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
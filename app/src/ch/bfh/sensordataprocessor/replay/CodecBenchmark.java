@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import ch.bfh.sensordataprocessor.record.BinarySampleWriter;
+import ch.bfh.sensordataprocessor.record.ISampleSource;
+import ch.bfh.sensordataprocessor.record.ISampleWriter;
+import ch.bfh.sensordataprocessor.record.RecordingFormat;
+
+/**
+ * Replays a recording into each recording format and reports the file size,
+ * the compression ratio against the binary format and the encode and decode
+ * throughput, in MB/s of raw binary records. Round trips are checked to be
+ * lossless.
+ * <p>
+ * Usage: <code>CodecBenchmark &lt;recording&gt; [iterations]</code>
+ */
+public class CodecBenchmark
+{
+    private static final int DEFAULT_ITERATIONS = 5;
+    private static final String BASE_NAME = "codec-benchmark";
+
+    private long[] timestamps = new long[4096];
+    private float[] xs = new float[4096];
+    private float[] ys = new float[4096];
+    private float[] zs = new float[4096];
+    private int count;
+
+    public void load(File recording) throws IOException
+    {
+        ISampleSource source = RecordingFormat.forFile(recording).openSource(recording);
+        try
+        {
+            while (source.next())
+            {
+                if (count == timestamps.length)
+                {
+                    int capacity = count * 2;
+                    timestamps = Arrays.copyOf(timestamps, capacity);
+                    xs = Arrays.copyOf(xs, capacity);
+                    ys = Arrays.copyOf(ys, capacity);
+                    zs = Arrays.copyOf(zs, capacity);
+                }
+                timestamps[count] = source.getTimestamp();
+                xs[count] = source.getX();
+                ys[count] = source.getY();
+                zs[count] = source.getZ();
+                ++count;
+            }
+        }
+        finally
+        {
+            source.close();
+        }
+    }
+
+    public void run(File directory, int iterations) throws IOException
+    {
+        double rawMegabytes = (double) count * BinarySampleWriter.RECORD_SIZE / 1e6;
+        long binarySize = 0;
+        System.out.printf(Locale.US, "%d samples, %.2f MB of raw records%n", count,
+                rawMegabytes);
+
+        for (RecordingFormat format : RecordingFormat.values())
+        {
+            File file = new File(directory, BASE_NAME + format.getExtension());
+            long encodeNanos = Long.MAX_VALUE;
+            long decodeNanos = Long.MAX_VALUE;
+            for (int i = 0; i < iterations; ++i)
+            {
+                encodeNanos = Math.min(encodeNanos, encode(format, directory));
+                decodeNanos = Math.min(decodeNanos, decode(format, file));
+            }
+
+            long size = file.length();
+            if (format == RecordingFormat.BINARY)
+            {
+                binarySize = size;
+            }
+            System.out.printf(Locale.US,
+                    "%-10s %10d bytes  %5.2f bytes/sample  encode %7.1f MB/s  decode %7.1f MB/s%n",
+                    format, size, (double) size / Math.max(1, count),
+                    rawMegabytes / (encodeNanos / 1e9), rawMegabytes / (decodeNanos / 1e9));
+            if (format == RecordingFormat.COMPRESSED && binarySize > 0)
+            {
+                System.out.printf(Locale.US, "compression ratio against %s: %.2f%n",
+                        RecordingFormat.BINARY, (double) binarySize / size);
+            }
+            file.delete();
+        }
+    }
+
+    private long encode(RecordingFormat format, File directory) throws IOException
+    {
+        long start = System.nanoTime();
+        ISampleWriter writer = format.createWriter(directory, BASE_NAME, 0, 0, 0);
+        try
+        {
+            for (int i = 0; i < count; ++i)
+            {
+                float x = xs[i];
+                float y = ys[i];
+                float z = zs[i];
+                writer.writeSample(timestamps[i], x, y, z, Math.sqrt(x * x + y * y + z * z));
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long decode(RecordingFormat format, File file) throws IOException
+    {
+        boolean exact = format != RecordingFormat.CSV;
+        long start = System.nanoTime();
+        ISampleSource source = format.openSource(file);
+        int i = 0;
+        try
+        {
+            while (source.next())
+            {
+                if (exact && (i >= count || source.getTimestamp() != timestamps[i]
+                        || Float.floatToRawIntBits(source.getX()) != Float.floatToRawIntBits(xs[i])
+                        || Float.floatToRawIntBits(source.getY()) != Float.floatToRawIntBits(ys[i])
+                        || Float.floatToRawIntBits(source.getZ()) != Float.floatToRawIntBits(zs[i])))
+                {
+                    throw new IOException(format + " round trip differs at sample " + i);
+                }
+                ++i;
+            }
+        }
+        finally
+        {
+            source.close();
+        }
+        if (i != count)
+        {
+            throw new IOException(format + " round trip returned " + i + " of " + count
+                    + " samples");
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1 || args.length > 2)
+        {
+            System.err.println("Usage: CodecBenchmark <recording> [iterations]");
+            System.exit(1);
+        }
+        int iterations = args.length == 2 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+
+        File directory = new File(System.getProperty("java.io.tmpdir"));
+        CodecBenchmark benchmark = new CodecBenchmark();
+        benchmark.load(new File(args[0]));
+        benchmark.run(directory, iterations);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Locale;
+import java.util.Random;
+
+import ch.bfh.sensordataprocessor.record.CsvSampleParser;
+import ch.bfh.sensordataprocessor.record.CsvSampleWriter;
+
+/**
+ * Compares reading a CSV recording line by line with a
+ * <code>BufferedReader</code>, <code>String.split</code> and
+ * <code>Float.parseFloat</code> against the byte level
+ * {@link CsvSampleParser}. A synthetic recording of the given size is
+ * written to the temporary directory first. Both readers are checked to
+ * return the same values.
+ * <p>
+ * Usage: <code>CsvParserBenchmark [megabytes] [iterations]</code>
+ */
+public class CsvParserBenchmark
+{
+    private static final int DEFAULT_MEGABYTES = 256;
+    private static final int DEFAULT_ITERATIONS = 3;
+    private static final int BLOCK_SIZE = 4096;
+    private static final long SAMPLE_INTERVAL_NANOS = 5000000L;
+
+    private final File file;
+    private long rows;
+
+    public CsvParserBenchmark(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Writes a random walk with gravity on the z axis, like a device being
+     * carried around.
+     */
+    public void generate(long bytes) throws IOException
+    {
+        Random random = new Random(1);
+        CsvSampleWriter writer = new CsvSampleWriter(file, 0);
+        try
+        {
+            float x = 0;
+            float y = 0;
+            float z = 9.81f;
+            long timestamp = 0;
+            while (file.length() < bytes)
+            {
+                for (int i = 0; i < BLOCK_SIZE; ++i)
+                {
+                    x += (float) random.nextGaussian() * 0.1f;
+                    y += (float) random.nextGaussian() * 0.1f;
+                    z = 9.81f + (float) random.nextGaussian() * 0.2f;
+                    writer.writeSample(timestamp, x, y, z, Math.sqrt(x * x + y * y + z * z));
+                    timestamp += SAMPLE_INTERVAL_NANOS;
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return a checksum of the values read
+     */
+    public long readWithBufferedReader() throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "US-ASCII"));
+        long checksum = 0;
+        long count = 0;
+        try
+        {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.length() == 0)
+                {
+                    continue;
+                }
+                String[] columns = line.split(",");
+                checksum += Float.floatToIntBits(Float.parseFloat(columns[0]))
+                        + Float.floatToIntBits(Float.parseFloat(columns[1]))
+                        + Float.floatToIntBits(Float.parseFloat(columns[2]))
+                        + Float.floatToIntBits(Float.parseFloat(columns[3]))
+                        + Long.parseLong(columns[4].trim()) * 1000000L;
+                ++count;
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        rows = count;
+        return checksum;
+    }
+
+    /**
+     * @return a checksum of the values read
+     */
+    public long readWithParser() throws IOException
+    {
+        long[] timestamps = new long[BLOCK_SIZE];
+        float[] xs = new float[BLOCK_SIZE];
+        float[] ys = new float[BLOCK_SIZE];
+        float[] zs = new float[BLOCK_SIZE];
+        float[] accelerations = new float[BLOCK_SIZE];
+        CsvSampleParser parser = new CsvSampleParser(file);
+        long checksum = 0;
+        long count = 0;
+        try
+        {
+            int read;
+            while ((read = parser.read(timestamps, xs, ys, zs, accelerations, 0,
+                    BLOCK_SIZE)) > 0)
+            {
+                for (int i = 0; i < read; ++i)
+                {
+                    checksum += Float.floatToIntBits(xs[i]) + Float.floatToIntBits(ys[i])
+                            + Float.floatToIntBits(zs[i])
+                            + Float.floatToIntBits(accelerations[i]) + timestamps[i];
+                }
+                count += read;
+            }
+        }
+        finally
+        {
+            parser.close();
+        }
+        rows = count;
+        return checksum;
+    }
+
+    public void run(int iterations) throws IOException
+    {
+        double megabytes = file.length() / 1e6;
+        long readerNanos = Long.MAX_VALUE;
+        long parserNanos = Long.MAX_VALUE;
+        long readerChecksum = 0;
+        long parserChecksum = 0;
+        long readerRows = 0;
+
+        for (int i = 0; i < iterations; ++i)
+        {
+            long start = System.nanoTime();
+            readerChecksum = readWithBufferedReader();
+            readerNanos = Math.min(readerNanos, System.nanoTime() - start);
+            readerRows = rows;
+
+            start = System.nanoTime();
+            parserChecksum = readWithParser();
+            parserNanos = Math.min(parserNanos, System.nanoTime() - start);
+        }
+        if (readerChecksum != parserChecksum || readerRows != rows)
+        {
+            throw new IOException("The parser read different values than the reader");
+        }
+
+        System.out.printf(Locale.US, "%.1f MB, %d rows%n", megabytes, rows);
+        System.out.printf(Locale.US, "%-15s %8.1f MB/s  %12.0f rows/s%n", "BufferedReader",
+                megabytes / (readerNanos / 1e9), rows / (readerNanos / 1e9));
+        System.out.printf(Locale.US, "%-15s %8.1f MB/s  %12.0f rows/s%n", "CsvSampleParser",
+                megabytes / (parserNanos / 1e9), rows / (parserNanos / 1e9));
+        System.out.printf(Locale.US, "speedup %.2f%n", (double) readerNanos / parserNanos);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length > 2)
+        {
+            System.err.println("Usage: CsvParserBenchmark [megabytes] [iterations]");
+            System.exit(1);
+        }
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MEGABYTES;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+
+        File file = new File(System.getProperty("java.io.tmpdir"), "csv-parser-benchmark.csv");
+        try
+        {
+            CsvParserBenchmark benchmark = new CsvParserBenchmark(file);
+            benchmark.generate(megabytes * 1000000L);
+            benchmark.run(iterations);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
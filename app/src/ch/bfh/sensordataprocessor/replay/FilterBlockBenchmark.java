@@ -0,0 +1,188 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.util.Locale;
+import java.util.Random;
+
+import ch.bfh.sensordataprocessor.math.HighPassFilter;
+import ch.bfh.sensordataprocessor.math.IBlockFilter;
+import ch.bfh.sensordataprocessor.math.LowPassFilter;
+import ch.bfh.sensordataprocessor.math.MovingAverageFilter;
+import ch.bfh.sensordataprocessor.math.MultiChannelFilter;
+
+/**
+ * Compares the per-sample path of the math filters, three
+ * {@link IBlockFilter#processValue(float)} calls per xyz frame, with the
+ * block path, {@link MultiChannelFilter#processInterleaved(float[], int, int)}
+ * over blocks of several sizes. The input is a synthetic three-axis signal
+ * with noise, filtered in place; the copy of the input before each run is
+ * not timed. The largest difference between the outputs of both paths is
+ * reported as a check. Best of three runs.
+ * <p>
+ * Usage: <code>FilterBlockBenchmark [frames]</code>
+ */
+public class FilterBlockBenchmark
+{
+    private static final String[] FILTER_NAMES = { "high-pass", "low-pass", "average 16" };
+    private static final int[] BLOCK_SIZES = { 16, 256, 4096 };
+    private static final int CHANNELS = 3;
+    private static final int MOVING_AVERAGE_SIZE = 16;
+    private static final int DEFAULT_FRAMES = 2000000;
+    private static final int REPETITIONS = 3;
+
+    private final float[] input;
+    private final float[] frames;
+    private final float[] reference;
+
+    public FilterBlockBenchmark(int frameCount)
+    {
+        input = new float[frameCount * CHANNELS];
+        frames = new float[input.length];
+        reference = new float[input.length];
+        Random random = new Random(1);
+        for (int i = 0; i < frameCount; ++i)
+        {
+            double t = i / 200.0;
+            input[i * CHANNELS] = (float) (0.5 * Math.sin(2 * Math.PI * t)
+                    + 0.1 * random.nextGaussian());
+            input[i * CHANNELS + 1] = (float) (0.2 * random.nextGaussian());
+            input[i * CHANNELS + 2] = (float) (9.81 + 0.1 * random.nextGaussian());
+        }
+    }
+
+    private static IBlockFilter createFilter(int kind)
+    {
+        switch (kind)
+        {
+            case 0:
+                return new HighPassFilter();
+            case 1:
+                return new LowPassFilter();
+            default:
+                return new MovingAverageFilter(MOVING_AVERAGE_SIZE);
+        }
+    }
+
+    private static IBlockFilter[] createFilters(int kind)
+    {
+        IBlockFilter[] filters = new IBlockFilter[CHANNELS];
+        for (int channel = 0; channel < CHANNELS; ++channel)
+        {
+            filters[channel] = createFilter(kind);
+        }
+        return filters;
+    }
+
+    /**
+     * @return nanoseconds spent filtering frame by frame, value by value
+     */
+    public long runPerSample(int kind)
+    {
+        IBlockFilter[] filters = createFilters(kind);
+        System.arraycopy(input, 0, frames, 0, input.length);
+        long start = System.nanoTime();
+        for (int i = 0; i < frames.length; i += CHANNELS)
+        {
+            for (int channel = 0; channel < CHANNELS; ++channel)
+            {
+                frames[i + channel] = filters[channel].processValue(frames[i + channel]);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.arraycopy(frames, 0, reference, 0, frames.length);
+        return elapsed;
+    }
+
+    /**
+     * @return nanoseconds spent filtering interleaved blocks of
+     *         <code>blockSize</code> frames
+     */
+    public long runBlocks(int kind, int blockSize)
+    {
+        MultiChannelFilter filter = new MultiChannelFilter(createFilters(kind));
+        System.arraycopy(input, 0, frames, 0, input.length);
+        int frameCount = frames.length / CHANNELS;
+        long start = System.nanoTime();
+        for (int first = 0; first < frameCount; first += blockSize)
+        {
+            filter.processInterleaved(frames, first * CHANNELS,
+                    Math.min(blockSize, frameCount - first));
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return the largest difference between the last block run and the
+     *         last per-sample run
+     */
+    public float maxDifference()
+    {
+        float max = 0;
+        for (int i = 0; i < frames.length; ++i)
+        {
+            max = Math.max(max, Math.abs(frames[i] - reference[i]));
+        }
+        return max;
+    }
+
+    public static void main(String[] args)
+    {
+        int frameCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FRAMES;
+        FilterBlockBenchmark benchmark = new FilterBlockBenchmark(frameCount);
+
+        // warm up
+        for (int kind = 0; kind < FILTER_NAMES.length; ++kind)
+        {
+            benchmark.runPerSample(kind);
+            for (int blockSize : BLOCK_SIZES)
+            {
+                benchmark.runBlocks(kind, blockSize);
+            }
+        }
+
+        double values = (double) frameCount * CHANNELS;
+        System.out.printf(Locale.US, "%d xyz frames, ns per value%n", frameCount);
+        System.out.printf(Locale.US, "%-12s %10s", "filter", "per-sample");
+        for (int blockSize : BLOCK_SIZES)
+        {
+            System.out.printf(Locale.US, " %10s", "block " + blockSize);
+        }
+        System.out.printf(Locale.US, " %10s%n", "max diff");
+        for (int kind = 0; kind < FILTER_NAMES.length; ++kind)
+        {
+            long perSample = Long.MAX_VALUE;
+            for (int i = 0; i < REPETITIONS; ++i)
+            {
+                perSample = Math.min(perSample, benchmark.runPerSample(kind));
+            }
+            System.out.printf(Locale.US, "%-12s %10.2f", FILTER_NAMES[kind], perSample / values);
+            float difference = 0;
+            for (int blockSize : BLOCK_SIZES)
+            {
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < REPETITIONS; ++i)
+                {
+                    best = Math.min(best, benchmark.runBlocks(kind, blockSize));
+                }
+                difference = Math.max(difference, benchmark.maxDifference());
+                System.out.printf(Locale.US, " %10.2f", best / values);
+            }
+            System.out.printf(Locale.US, " %10.2g%n", difference);
+        }
+    }
+}
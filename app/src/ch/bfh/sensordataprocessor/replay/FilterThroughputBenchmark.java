@@ -0,0 +1,194 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.util.Locale;
+import java.util.Random;
+
+import ch.bfh.sensordataprocessor.math.BiquadCascadeFilter;
+import ch.bfh.sensordataprocessor.math.FirFilter;
+import ch.bfh.sensordataprocessor.math.IBlockFilter;
+import ch.bfh.sensordataprocessor.math.WindowFunction;
+
+/**
+ * Measures the throughput of the biquad cascades and windowed-sinc FIR
+ * filters designed for {@value #SAMPLE_RATE_HZ} Hz, value by value and in
+ * blocks of {@value #BLOCK_SIZE} samples, and how many times faster than
+ * three axes at that rate they run on one core. As a check of the designs,
+ * the gain of each filter is measured on sines at {@value #LOW_HZ} Hz,
+ * {@value #MID_HZ} Hz and {@value #HIGH_HZ} Hz once the filter has settled.
+ * Best of three runs.
+ * <p>
+ * Usage: <code>FilterThroughputBenchmark [samples]</code>
+ */
+public class FilterThroughputBenchmark
+{
+    private static final float SAMPLE_RATE_HZ = 200f;
+    private static final double LOW_HZ = 0.1;
+    private static final double MID_HZ = 5;
+    private static final double HIGH_HZ = 60;
+    private static final int AXES = 3;
+    private static final int BLOCK_SIZE = 256;
+    private static final int DEFAULT_SAMPLES = 4000000;
+    private static final int REPETITIONS = 3;
+    private static final String[] FILTER_NAMES = {
+        "Butterworth LP 2nd 20 Hz",
+        "Butterworth LP 4th 20 Hz",
+        "Butterworth LP 8th 20 Hz",
+        "Butterworth HP 4th 0.5 Hz",
+        "Butterworth BP 4th 1-20 Hz",
+        "Chebyshev LP 4th 1 dB 20 Hz",
+        "FIR LP 31 taps 20 Hz",
+        "FIR LP 63 taps 20 Hz",
+        "FIR LP 127 taps 20 Hz",
+        "FIR BP 127 taps 1-20 Hz"
+    };
+
+    private final float[] input;
+    private final float[] output;
+
+    public FilterThroughputBenchmark(int samples)
+    {
+        input = new float[samples];
+        output = new float[samples];
+        Random random = new Random(1);
+        for (int i = 0; i < samples; ++i)
+        {
+            input[i] = (float) random.nextGaussian();
+        }
+    }
+
+    private static IBlockFilter createFilter(int kind)
+    {
+        switch (kind)
+        {
+            case 0:
+                return BiquadCascadeFilter.butterworthLowPass(2, 20, SAMPLE_RATE_HZ);
+            case 1:
+                return BiquadCascadeFilter.butterworthLowPass(4, 20, SAMPLE_RATE_HZ);
+            case 2:
+                return BiquadCascadeFilter.butterworthLowPass(8, 20, SAMPLE_RATE_HZ);
+            case 3:
+                return BiquadCascadeFilter.butterworthHighPass(4, 0.5, SAMPLE_RATE_HZ);
+            case 4:
+                return BiquadCascadeFilter.butterworthBandPass(4, 1, 20, SAMPLE_RATE_HZ);
+            case 5:
+                return BiquadCascadeFilter.chebyshevLowPass(4, 1, 20, SAMPLE_RATE_HZ);
+            case 6:
+                return FirFilter.lowPass(31, 20, SAMPLE_RATE_HZ, WindowFunction.HAMMING);
+            case 7:
+                return FirFilter.lowPass(63, 20, SAMPLE_RATE_HZ, WindowFunction.HAMMING);
+            case 8:
+                return FirFilter.lowPass(127, 20, SAMPLE_RATE_HZ, WindowFunction.HAMMING);
+            default:
+                return FirFilter.bandPass(127, 1, 20, SAMPLE_RATE_HZ, WindowFunction.HAMMING);
+        }
+    }
+
+    /**
+     * @return nanoseconds spent filtering the input value by value
+     */
+    public long run(IBlockFilter filter)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < input.length; ++i)
+        {
+            output[i] = filter.processValue(input[i]);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return nanoseconds spent filtering the input in blocks
+     */
+    public long runBlocks(IBlockFilter filter)
+    {
+        long start = System.nanoTime();
+        for (int first = 0; first < input.length; first += BLOCK_SIZE)
+        {
+            filter.processBlock(input, first, output, first,
+                    Math.min(BLOCK_SIZE, input.length - first));
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return the ratio of the output to the input amplitude of a sine,
+     *         after the filter has settled for 20 periods, and at least 4 s
+     */
+    public static double gain(IBlockFilter filter, double frequencyHz)
+    {
+        int period = (int) Math.round(SAMPLE_RATE_HZ / frequencyHz);
+        int settle = Math.max(20 * period, 4 * (int) SAMPLE_RATE_HZ);
+        double peak = 0;
+        for (int i = 0; i < settle + 2 * period; ++i)
+        {
+            float value = filter.processValue((float) Math.sin(2 * Math.PI * frequencyHz
+                    * i / SAMPLE_RATE_HZ));
+            if (i >= settle)
+            {
+                peak = Math.max(peak, Math.abs(value));
+            }
+        }
+        return peak;
+    }
+
+    private static double decibels(double gain)
+    {
+        return 20 * Math.log10(Math.max(gain, 1e-12));
+    }
+
+    public static void main(String[] args)
+    {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SAMPLES;
+        FilterThroughputBenchmark benchmark = new FilterThroughputBenchmark(samples);
+
+        // warm up
+        for (int kind = 0; kind < FILTER_NAMES.length; ++kind)
+        {
+            benchmark.run(createFilter(kind));
+            benchmark.runBlocks(createFilter(kind));
+        }
+
+        System.out.printf(Locale.US, "%d samples, ns per value, real time is %.0f Hz on %d axes%n",
+                samples, SAMPLE_RATE_HZ, AXES);
+        System.out.printf(Locale.US, "%-28s %9s %9s %11s %8s %8s %8s%n", "filter", "values",
+                "blocks", "x real time", String.format(Locale.US, "%.1f Hz", LOW_HZ),
+                String.format(Locale.US, "%.0f Hz", MID_HZ),
+                String.format(Locale.US, "%.0f Hz", HIGH_HZ));
+        for (int kind = 0; kind < FILTER_NAMES.length; ++kind)
+        {
+            long perValue = Long.MAX_VALUE;
+            long blocks = Long.MAX_VALUE;
+            for (int i = 0; i < REPETITIONS; ++i)
+            {
+                perValue = Math.min(perValue, benchmark.run(createFilter(kind)));
+                blocks = Math.min(blocks, benchmark.runBlocks(createFilter(kind)));
+            }
+            double nanosPerValue = (double) perValue / samples;
+            double nanosPerBlockValue = (double) blocks / samples;
+            // samples per second on one core over the samples per second
+            // of three axes at the sensor rate
+            double realTime = 1e9 / Math.max(nanosPerValue, 1e-3) / (AXES * SAMPLE_RATE_HZ);
+            System.out.printf(Locale.US, "%-28s %9.2f %9.2f %11.0f %5.1f dB %5.1f dB %5.1f dB%n",
+                    FILTER_NAMES[kind], nanosPerValue, nanosPerBlockValue, realTime,
+                    decibels(gain(createFilter(kind), LOW_HZ)),
+                    decibels(gain(createFilter(kind), MID_HZ)),
+                    decibels(gain(createFilter(kind), HIGH_HZ)));
+        }
+    }
+}
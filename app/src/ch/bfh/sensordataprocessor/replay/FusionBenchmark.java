@@ -0,0 +1,563 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import ch.bfh.sensordataprocessor.math.AbstractOrientationFilter;
+import ch.bfh.sensordataprocessor.math.ComplementaryOrientationFilter;
+import ch.bfh.sensordataprocessor.math.MadgwickOrientationFilter;
+import ch.bfh.sensordataprocessor.math.MahonyOrientationFilter;
+import ch.bfh.sensordataprocessor.math.SensorFusion;
+import ch.bfh.sensordataprocessor.record.ISampleSource;
+import ch.bfh.sensordataprocessor.record.ISampleWriter;
+import ch.bfh.sensordataprocessor.record.RecordingFormat;
+
+/**
+ * Measures the updates per second of a {@link SensorFusion} with each
+ * orientation filter by replaying recordings of the accelerometer, the
+ * gyroscope and the magnetometer, merged by timestamp, with and without the
+ * magnetometer. The recordings are read into memory first, so the reading
+ * is not timed. As a check, the mean angle between the measured
+ * acceleration and the estimated gravity is reported.
+ * <p>
+ * Without arguments a session whose true orientation and linear
+ * acceleration are known is synthesised and written to binary recordings
+ * first: {@value #REST} s at rest, then rotations around all axes with
+ * rates up to 1.2 rad/s while the device is shaken, with gyroscope bias and
+ * noise on all sensors. The orientation is compared with the truth from
+ * {@value #SETTLE} s on, and the program fails if the mean error of any
+ * filter exceeds {@value #MAX_MEAN_ERROR} degrees. Best of three runs.
+ * <p>
+ * Usage: <code>FusionBenchmark [accelerometer gyroscope [magnetic-field]]</code>
+ * with recordings in any {@link RecordingFormat}.
+ */
+public class FusionBenchmark
+{
+    private static final String[] FILTER_NAMES = { "complementary", "Madgwick", "Mahony" };
+    private static final int ACCELEROMETER = 0;
+    private static final int GYROSCOPE = 1;
+    private static final int MAGNETIC_FIELD = 2;
+    private static final String[] SENSOR_NAMES = { "accelerometer", "gyroscope",
+        "magnetic-field" };
+
+    private static final float SAMPLE_RATE_HZ = 200f;
+    // the magnetometer delivers every fourth period
+    private static final int MAGNETIC_FIELD_INTERVAL = 4;
+    // the gyroscope event follows the accelerometer event by this many ns
+    private static final long GYROSCOPE_DELAY = 250000;
+    private static final double DURATION = 300;
+    private static final double REST = 5;
+    private static final double SETTLE = 10;
+    private static final double MAX_MEAN_ERROR = 5;
+    private static final int SUBSTEPS = 16;
+    private static final double[] GYROSCOPE_BIAS = { 0.01, -0.005, 0.008 };
+    private static final double GYROSCOPE_NOISE = 0.005;
+    private static final double ACCELEROMETER_NOISE = 0.05;
+    private static final double MAGNETIC_FIELD_NOISE = 0.5;
+    // in micro tesla, pointing north and down at a dip of 63 degrees
+    private static final double FIELD_STRENGTH = 48;
+    private static final double FIELD_DIP = Math.toRadians(63);
+    private static final long SEED = 1;
+    private static final int REPETITIONS = 3;
+
+    // the session merged by timestamp
+    private final int[] types;
+    private final long[] timestamps;
+    private final float[] values;
+    // w, x, y, z of the true orientation and x, y, z of the true linear
+    // acceleration in the sensor frame at each gyroscope event, if known
+    private float[] truth;
+    private final float[] quaternion = new float[4];
+
+    /**
+     * Reads and merges the recordings; the magnetic field may be
+     * <code>null</code>.
+     */
+    public FusionBenchmark(File accelerometer, File gyroscope, File magneticField)
+            throws IOException
+    {
+        File[] recordings = { accelerometer, gyroscope, magneticField };
+        ISampleSource[] sources = new ISampleSource[recordings.length];
+        boolean[] available = new boolean[recordings.length];
+        int capacity = 1024;
+        int[] types = new int[capacity];
+        long[] timestamps = new long[capacity];
+        float[] values = new float[3 * capacity];
+        int count = 0;
+        try
+        {
+            for (int i = 0; i < recordings.length; ++i)
+            {
+                if (recordings[i] != null)
+                {
+                    sources[i] = RecordingFormat.forFile(recordings[i]).openSource(recordings[i]);
+                    available[i] = sources[i].next();
+                }
+            }
+            while (true)
+            {
+                int next = -1;
+                for (int i = 0; i < sources.length; ++i)
+                {
+                    if (available[i] && (next < 0
+                            || sources[i].getTimestamp() < sources[next].getTimestamp()))
+                    {
+                        next = i;
+                    }
+                }
+                if (next < 0)
+                {
+                    break;
+                }
+                if (count == capacity)
+                {
+                    capacity *= 2;
+                    types = Arrays.copyOf(types, capacity);
+                    timestamps = Arrays.copyOf(timestamps, capacity);
+                    values = Arrays.copyOf(values, 3 * capacity);
+                }
+                ISampleSource source = sources[next];
+                types[count] = next;
+                timestamps[count] = source.getTimestamp();
+                values[3 * count] = source.getX();
+                values[3 * count + 1] = source.getY();
+                values[3 * count + 2] = source.getZ();
+                ++count;
+                available[next] = source.next();
+            }
+        }
+        finally
+        {
+            for (ISampleSource source : sources)
+            {
+                if (source != null)
+                {
+                    source.close();
+                }
+            }
+        }
+        this.types = Arrays.copyOf(types, count);
+        this.timestamps = Arrays.copyOf(timestamps, count);
+        this.values = Arrays.copyOf(values, 3 * count);
+    }
+
+    private static AbstractOrientationFilter createFilter(int kind)
+    {
+        switch (kind)
+        {
+            case 0:
+                return new ComplementaryOrientationFilter();
+            case 1:
+                return new MadgwickOrientationFilter();
+            default:
+                return new MahonyOrientationFilter();
+        }
+    }
+
+    /**
+     * Writes the synthetic session, one recording per sensor.
+     *
+     * @return the truth at each gyroscope event, see {@link #truth}
+     */
+    public static float[] synthesize(ISampleWriter[] writers) throws IOException
+    {
+        Random random = new Random(SEED);
+        double period = 1 / (double) SAMPLE_RATE_HZ;
+        int periods = (int) (DURATION * SAMPLE_RATE_HZ);
+        float[] truth = new float[7 * periods];
+        double[] q = { 1, 0, 0, 0 };
+        double[] rate = new double[3];
+        float[] sensor = new float[3];
+        double fieldX = FIELD_STRENGTH * Math.cos(FIELD_DIP);
+        double fieldZ = -FIELD_STRENGTH * Math.sin(FIELD_DIP);
+        for (int i = 0; i < periods; ++i)
+        {
+            double t = i * period;
+            long timestamp = (long) (t * 1e9);
+            if (i > 0)
+            {
+                // integrate the body rate over the last period in fine steps
+                double h = period / SUBSTEPS;
+                for (int j = 0; j < SUBSTEPS; ++j)
+                {
+                    angularRate(t - period + (j + 0.5) * h, rate);
+                    rotate(q, rate, h);
+                }
+            }
+
+            // shaking, in the earth frame
+            double lx = 0;
+            double ly = 0;
+            double lz = 0;
+            if (t >= REST)
+            {
+                lx = 0.5 * Math.sin(2 * Math.PI * 1.1 * t);
+                ly = 0.3 * Math.sin(2 * Math.PI * 0.8 * t + 1);
+                lz = 0.8 * Math.sin(2 * Math.PI * 1.8 * t + 2);
+            }
+            toSensorFrame(q, lx, ly, lz + SensorFusion.GRAVITY, sensor);
+            writers[ACCELEROMETER].writeSample(timestamp,
+                    (float) (sensor[0] + ACCELEROMETER_NOISE * random.nextGaussian()),
+                    (float) (sensor[1] + ACCELEROMETER_NOISE * random.nextGaussian()),
+                    (float) (sensor[2] + ACCELEROMETER_NOISE * random.nextGaussian()), 0);
+
+            // the rate in the middle of the period the event closes
+            angularRate(t - 0.5 * period, rate);
+            writers[GYROSCOPE].writeSample(timestamp + GYROSCOPE_DELAY,
+                    (float) (rate[0] + GYROSCOPE_BIAS[0] + GYROSCOPE_NOISE * random.nextGaussian()),
+                    (float) (rate[1] + GYROSCOPE_BIAS[1] + GYROSCOPE_NOISE * random.nextGaussian()),
+                    (float) (rate[2] + GYROSCOPE_BIAS[2] + GYROSCOPE_NOISE * random.nextGaussian()),
+                    0);
+
+            if (i % MAGNETIC_FIELD_INTERVAL == 0)
+            {
+                toSensorFrame(q, fieldX, 0, fieldZ, sensor);
+                writers[MAGNETIC_FIELD].writeSample(timestamp,
+                        (float) (sensor[0] + MAGNETIC_FIELD_NOISE * random.nextGaussian()),
+                        (float) (sensor[1] + MAGNETIC_FIELD_NOISE * random.nextGaussian()),
+                        (float) (sensor[2] + MAGNETIC_FIELD_NOISE * random.nextGaussian()), 0);
+            }
+
+            toSensorFrame(q, lx, ly, lz, sensor);
+            int offset = 7 * i;
+            for (int j = 0; j < 4; ++j)
+            {
+                truth[offset + j] = (float) q[j];
+            }
+            truth[offset + 4] = sensor[0];
+            truth[offset + 5] = sensor[1];
+            truth[offset + 6] = sensor[2];
+        }
+        return truth;
+    }
+
+    /**
+     * @param rate receives the true angular rate in the sensor frame in rad/s
+     */
+    private static void angularRate(double t, double[] rate)
+    {
+        if (t < REST)
+        {
+            rate[0] = 0;
+            rate[1] = 0;
+            rate[2] = 0;
+            return;
+        }
+        rate[0] = 1.0 * Math.sin(0.7 * t);
+        rate[1] = 0.8 * Math.sin(0.45 * t + 1);
+        rate[2] = 1.2 * Math.sin(0.3 * t + 2);
+    }
+
+    /**
+     * Rotates <code>q</code> by a constant body rate for <code>dt</code>
+     * seconds, <code>q = q * (cos(|r| dt / 2), sin(|r| dt / 2) r / |r|)</code>.
+     */
+    private static void rotate(double[] q, double[] rate, double dt)
+    {
+        double norm = Math.sqrt(rate[0] * rate[0] + rate[1] * rate[1] + rate[2] * rate[2]);
+        if (norm == 0)
+        {
+            return;
+        }
+        double half = 0.5 * norm * dt;
+        double w = Math.cos(half);
+        double s = Math.sin(half) / norm;
+        double x = s * rate[0];
+        double y = s * rate[1];
+        double z = s * rate[2];
+        double q0 = q[0] * w - q[1] * x - q[2] * y - q[3] * z;
+        double q1 = q[0] * x + q[1] * w + q[2] * z - q[3] * y;
+        double q2 = q[0] * y - q[1] * z + q[2] * w + q[3] * x;
+        double q3 = q[0] * z + q[1] * y - q[2] * x + q[3] * w;
+        q[0] = q0;
+        q[1] = q1;
+        q[2] = q2;
+        q[3] = q3;
+    }
+
+    /**
+     * @param sensor receives the earth frame vector in the sensor frame of
+     *            the orientation <code>q</code>
+     */
+    private static void toSensorFrame(double[] q, double x, double y, double z, float[] sensor)
+    {
+        double w = q[0];
+        double i = q[1];
+        double j = q[2];
+        double k = q[3];
+        sensor[0] = (float) ((1 - 2 * (j * j + k * k)) * x + 2 * (i * j + w * k) * y
+                + 2 * (i * k - w * j) * z);
+        sensor[1] = (float) (2 * (i * j - w * k) * x + (1 - 2 * (i * i + k * k)) * y
+                + 2 * (j * k + w * i) * z);
+        sensor[2] = (float) (2 * (i * k + w * j) * x + 2 * (j * k - w * i) * y
+                + (1 - 2 * (i * i + j * j)) * z);
+    }
+
+    public int getEventCount()
+    {
+        return types.length;
+    }
+
+    /**
+     * Feeds the whole session to the fusion.
+     *
+     * @return nanoseconds spent
+     */
+    public long run(SensorFusion fusion, boolean useMagneticField)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < types.length; ++i)
+        {
+            int offset = 3 * i;
+            switch (types[i])
+            {
+                case ACCELEROMETER:
+                    fusion.onAccelerometer(timestamps[i], values[offset], values[offset + 1],
+                            values[offset + 2]);
+                    break;
+                case GYROSCOPE:
+                    fusion.onGyroscope(timestamps[i], values[offset], values[offset + 1],
+                            values[offset + 2]);
+                    break;
+                default:
+                    if (useMagneticField)
+                    {
+                        fusion.onMagneticField(timestamps[i], values[offset],
+                                values[offset + 1], values[offset + 2]);
+                    }
+                    break;
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Feeds the whole session to the fusion, using the magnetometer, and
+     * compares its output after each update.
+     */
+    public Accuracy evaluate(SensorFusion fusion)
+    {
+        Accuracy accuracy = new Accuracy();
+        float ax = 0;
+        float ay = 0;
+        float az = 0;
+        long settled = timestamps.length == 0 ? 0 : timestamps[0] + (long) (SETTLE * 1e9);
+        int gyroscopeEvents = 0;
+        for (int i = 0; i < types.length; ++i)
+        {
+            int offset = 3 * i;
+            float x = values[offset];
+            float y = values[offset + 1];
+            float z = values[offset + 2];
+            if (types[i] == ACCELEROMETER)
+            {
+                fusion.onAccelerometer(timestamps[i], x, y, z);
+                ax = x;
+                ay = y;
+                az = z;
+            }
+            else if (types[i] == MAGNETIC_FIELD)
+            {
+                fusion.onMagneticField(timestamps[i], x, y, z);
+            }
+            else if (fusion.onGyroscope(timestamps[i], x, y, z) && timestamps[i] >= settled)
+            {
+                AbstractOrientationFilter filter = fusion.getFilter();
+                double norm = Math.sqrt(ax * ax + ay * ay + az * az);
+                if (norm > 0)
+                {
+                    double cosine = (ax * filter.getGravityX() + ay * filter.getGravityY()
+                            + az * filter.getGravityZ()) / norm;
+                    accuracy.gravityAngle += Math.toDegrees(Math.acos(clamp(cosine)));
+                }
+                if (truth != null && 7 * gyroscopeEvents < truth.length)
+                {
+                    fusion.getQuaternion(quaternion);
+                    int t = 7 * gyroscopeEvents;
+                    double dot = quaternion[0] * truth[t] + quaternion[1] * truth[t + 1]
+                            + quaternion[2] * truth[t + 2] + quaternion[3] * truth[t + 3];
+                    double error = Math.toDegrees(2 * Math.acos(clamp(Math.abs(dot))));
+                    accuracy.error += error;
+                    accuracy.maxError = Math.max(accuracy.maxError, error);
+                    accuracy.linearSquares += square(fusion.getLinearAccelerationX() - truth[t + 4])
+                            + square(fusion.getLinearAccelerationY() - truth[t + 5])
+                            + square(fusion.getLinearAccelerationZ() - truth[t + 6]);
+                }
+                ++accuracy.count;
+            }
+            if (types[i] == GYROSCOPE)
+            {
+                ++gyroscopeEvents;
+            }
+        }
+        return accuracy;
+    }
+
+    private static double clamp(double cosine)
+    {
+        return Math.max(-1, Math.min(1, cosine));
+    }
+
+    private static double square(double value)
+    {
+        return value * value;
+    }
+
+    static class Accuracy
+    {
+        int count;
+        double gravityAngle;
+        double error;
+        double maxError;
+        double linearSquares;
+
+        double getMeanGravityAngle()
+        {
+            return count == 0 ? 0 : gravityAngle / count;
+        }
+
+        double getMeanError()
+        {
+            return count == 0 ? 0 : error / count;
+        }
+
+        double getLinearRms()
+        {
+            return count == 0 ? 0 : Math.sqrt(linearSquares / count);
+        }
+    }
+
+    private static FusionBenchmark createSynthetic() throws IOException
+    {
+        File directory = new File(System.getProperty("java.io.tmpdir"));
+        ISampleWriter[] writers = new ISampleWriter[SENSOR_NAMES.length];
+        File[] recordings = new File[SENSOR_NAMES.length];
+        try
+        {
+            float[] truth;
+            try
+            {
+                for (int i = 0; i < writers.length; ++i)
+                {
+                    String baseName = "fusion-benchmark-" + SENSOR_NAMES[i];
+                    writers[i] = RecordingFormat.BINARY.createWriter(directory, baseName, 0, 0, 0);
+                    recordings[i] = new File(directory, baseName
+                            + RecordingFormat.BINARY.getExtension());
+                }
+                truth = synthesize(writers);
+            }
+            finally
+            {
+                for (ISampleWriter writer : writers)
+                {
+                    if (writer != null)
+                    {
+                        writer.close();
+                    }
+                }
+            }
+            FusionBenchmark benchmark = new FusionBenchmark(recordings[ACCELEROMETER],
+                    recordings[GYROSCOPE], recordings[MAGNETIC_FIELD]);
+            benchmark.truth = truth;
+            return benchmark;
+        }
+        finally
+        {
+            for (File recording : recordings)
+            {
+                if (recording != null)
+                {
+                    recording.delete();
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        FusionBenchmark benchmark;
+        if (args.length == 0)
+        {
+            benchmark = createSynthetic();
+        }
+        else if (args.length >= 2)
+        {
+            benchmark = new FusionBenchmark(new File(args[0]), new File(args[1]),
+                    args.length > 2 ? new File(args[2]) : null);
+        }
+        else
+        {
+            System.err.println("Usage: FusionBenchmark [accelerometer gyroscope [magnetic-field]]");
+            System.exit(2);
+            return;
+        }
+
+        // warm up
+        for (int kind = 0; kind < FILTER_NAMES.length; ++kind)
+        {
+            benchmark.run(new SensorFusion(createFilter(kind)), true);
+            benchmark.run(new SensorFusion(createFilter(kind)), false);
+        }
+
+        boolean known = benchmark.truth != null;
+        System.out.printf(Locale.US, "%d events%s%n", benchmark.getEventCount(),
+                known ? String.format(Locale.US, ", errors from %.0f s on", SETTLE) : "");
+        System.out.printf(Locale.US, "%-14s %12s %12s %9s %9s %9s %10s%n", "filter",
+                "updates/s", "without mag", "gravity", "error", "max error", "linear rms");
+        boolean failed = false;
+        for (int kind = 0; kind < FILTER_NAMES.length; ++kind)
+        {
+            long withMagneticField = Long.MAX_VALUE;
+            long withoutMagneticField = Long.MAX_VALUE;
+            long updates = 0;
+            for (int i = 0; i < REPETITIONS; ++i)
+            {
+                SensorFusion fusion = new SensorFusion(createFilter(kind));
+                withMagneticField = Math.min(withMagneticField, benchmark.run(fusion, true));
+                updates = fusion.getUpdateCount();
+                withoutMagneticField = Math.min(withoutMagneticField,
+                        benchmark.run(new SensorFusion(createFilter(kind)), false));
+            }
+            Accuracy accuracy = benchmark.evaluate(new SensorFusion(createFilter(kind)));
+            System.out.printf(Locale.US, "%-14s %12.0f %12.0f %9.2f", FILTER_NAMES[kind],
+                    updates * 1e9 / Math.max(withMagneticField, 1),
+                    updates * 1e9 / Math.max(withoutMagneticField, 1),
+                    accuracy.getMeanGravityAngle());
+            if (known)
+            {
+                System.out.printf(Locale.US, " %9.2f %9.2f %10.3f%n", accuracy.getMeanError(),
+                        accuracy.maxError, accuracy.getLinearRms());
+                failed |= accuracy.getMeanError() > MAX_MEAN_ERROR;
+            }
+            else
+            {
+                System.out.printf(Locale.US, " %9s %9s %10s%n", "-", "-", "-");
+            }
+        }
+        System.out.println("(angles in degrees, linear acceleration in m/s^2)");
+        if (failed)
+        {
+            System.err.println("The orientation error is too large");
+            System.exit(1);
+        }
+    }
+}
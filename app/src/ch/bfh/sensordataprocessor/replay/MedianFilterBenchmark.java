@@ -0,0 +1,188 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import ch.bfh.sensordataprocessor.math.SlidingMedianFilter;
+
+/**
+ * Measures the cost of a {@link SlidingMedianFilter} per sample for window
+ * sizes from 5 to 1024, as a plain median, in Hampel mode and block-wise,
+ * next to a sorted array that shifts its elements on every sample, whose
+ * cost grows linearly with the window size, if with a small constant. The
+ * input is a walk-like signal sampled at 200 Hz with a spike every
+ * {@value #SPIKE_INTERVAL} samples; the share of spikes the Hampel filter
+ * replaced is reported as a check. Best of three runs.
+ * <p>
+ * Usage: <code>MedianFilterBenchmark [samples]</code>
+ */
+public class MedianFilterBenchmark
+{
+    private static final int[] WINDOW_SIZES = { 5, 9, 17, 33, 65, 129, 257, 513, 1024 };
+    private static final float SAMPLE_RATE_HZ = 200f;
+    private static final int SPIKE_INTERVAL = 997;
+    private static final float SPIKE_HEIGHT = 30f;
+    private static final int DEFAULT_SAMPLES = 1000000;
+    private static final int REPETITIONS = 3;
+
+    private final float[] input;
+    private final float[] output;
+
+    public MedianFilterBenchmark(int samples)
+    {
+        input = new float[samples];
+        output = new float[samples];
+        Random random = new Random(1);
+        for (int i = 0; i < samples; ++i)
+        {
+            double t = i / (double) SAMPLE_RATE_HZ;
+            input[i] = (float) (9.81 + 2 * Math.sin(2 * Math.PI * 1.8 * t)
+                    + 0.2 * random.nextGaussian());
+            if (i % SPIKE_INTERVAL == SPIKE_INTERVAL - 1)
+            {
+                input[i] += SPIKE_HEIGHT;
+            }
+        }
+    }
+
+    /**
+     * @return nanoseconds spent filtering the input value by value
+     */
+    public long run(SlidingMedianFilter filter)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < input.length; ++i)
+        {
+            output[i] = filter.processValue(input[i]);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return nanoseconds spent filtering the input in one block
+     */
+    public long runBlock(SlidingMedianFilter filter)
+    {
+        long start = System.nanoTime();
+        filter.processBlock(input, 0, output, 0, input.length);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The straightforward median: the window is kept sorted by shifting its
+     * elements around the removed and the inserted value.
+     *
+     * @return nanoseconds spent filtering the input
+     */
+    public long runSortedArray(int windowSize)
+    {
+        float[] window = new float[windowSize];
+        float[] sorted = new float[windowSize];
+        int count = 0;
+        int index = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < input.length; ++i)
+        {
+            float value = input[i];
+            if (count == windowSize)
+            {
+                int removed = Arrays.binarySearch(sorted, 0, count, window[index]);
+                System.arraycopy(sorted, removed + 1, sorted, removed, count - removed - 1);
+                --count;
+            }
+            window[index] = value;
+            if (++index == windowSize)
+            {
+                index = 0;
+            }
+            int position = Arrays.binarySearch(sorted, 0, count, value);
+            if (position < 0)
+            {
+                position = -position - 1;
+            }
+            System.arraycopy(sorted, position, sorted, position + 1, count - position);
+            sorted[position] = value;
+            ++count;
+
+            int half = count / 2;
+            output[i] = (count & 1) != 0 ? sorted[half]
+                    : 0.5f * (sorted[half - 1] + sorted[half]);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return the share of the spikes that are not in the last output
+     */
+    public double spikesReplaced()
+    {
+        int spikes = 0;
+        int replaced = 0;
+        for (int i = SPIKE_INTERVAL - 1; i < input.length; i += SPIKE_INTERVAL)
+        {
+            ++spikes;
+            if (output[i] != input[i])
+            {
+                ++replaced;
+            }
+        }
+        return spikes == 0 ? 0 : (double) replaced / spikes;
+    }
+
+    public static void main(String[] args)
+    {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SAMPLES;
+        MedianFilterBenchmark benchmark = new MedianFilterBenchmark(samples);
+
+        // warm up
+        for (int windowSize : WINDOW_SIZES)
+        {
+            benchmark.run(new SlidingMedianFilter(windowSize));
+            benchmark.run(SlidingMedianFilter.hampel(windowSize));
+            benchmark.runBlock(SlidingMedianFilter.hampel(windowSize));
+            benchmark.runSortedArray(windowSize);
+        }
+
+        System.out.printf(Locale.US, "%d samples at %.0f Hz, a spike every %d samples%n",
+                samples, SAMPLE_RATE_HZ, SPIKE_INTERVAL);
+        System.out.printf(Locale.US, "%6s %10s %10s %10s %10s %9s%n", "window", "median",
+                "hampel", "block", "sorted", "replaced");
+        for (int windowSize : WINDOW_SIZES)
+        {
+            long median = Long.MAX_VALUE;
+            long hampel = Long.MAX_VALUE;
+            long block = Long.MAX_VALUE;
+            long sorted = Long.MAX_VALUE;
+            for (int i = 0; i < REPETITIONS; ++i)
+            {
+                median = Math.min(median, benchmark.run(new SlidingMedianFilter(windowSize)));
+                sorted = Math.min(sorted, benchmark.runSortedArray(windowSize));
+                block = Math.min(block,
+                        benchmark.runBlock(SlidingMedianFilter.hampel(windowSize)));
+                hampel = Math.min(hampel, benchmark.run(SlidingMedianFilter.hampel(windowSize)));
+            }
+            System.out.printf(Locale.US, "%6d %10.1f %10.1f %10.1f %10.1f %8.0f%%%n", windowSize,
+                    (double) median / samples, (double) hampel / samples,
+                    (double) block / samples, (double) sorted / samples,
+                    100 * benchmark.spikesReplaced());
+        }
+        System.out.println("(ns per sample)");
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.bfh.sensordataprocessor.math.WindowFunction;
+import ch.bfh.sensordataprocessor.processing.AdaptiveRateController;
+import ch.bfh.sensordataprocessor.processing.AccelerationProcessor;
+import ch.bfh.sensordataprocessor.processing.AxisStatistics;
+import ch.bfh.sensordataprocessor.processing.IProcessingListener;
+import ch.bfh.sensordataprocessor.processing.MovementDetector;
+import ch.bfh.sensordataprocessor.processing.ProcessingStats;
+import ch.bfh.sensordataprocessor.processing.SpectralAnalyzer;
+import ch.bfh.sensordataprocessor.processing.StatisticsSnapshot;
+import ch.bfh.sensordataprocessor.processing.StepDetector;
+import ch.bfh.sensordataprocessor.record.ISampleSource;
+import ch.bfh.sensordataprocessor.record.ISampleWriter;
+import ch.bfh.sensordataprocessor.record.RecordingFormat;
+
+/**
+ * Streams a recorded session through an {@link AccelerationProcessor} on the
+ * JVM, either paced like the original recording, a multiple of it, or as fast
+ * as possible, and reports the throughput and the latency of each stage. The
+ * decisions an {@link AdaptiveRateController} would have made, the
+ * movements found by a {@link MovementDetector}, the steps counted by a
+ * {@link StepDetector} and the spectrum of the last window of a
+ * {@link SpectralAnalyzer} are reported as well.
+ * <p>
+ * Usage:
+ * <code>ReplayEngine &lt;recording&gt; [speed|max] [--no-filter] [output]</code>
+ * where the recording is an <code>accelerometer.csv</code> or
+ * <code>linearAcceleration.csv</code> file or a binary or compressed
+ * recording, and speed
+ * is <code>1</code> for real time.
+ */
+public class ReplayEngine
+{
+    /** Speed for replaying without pacing. */
+    public static final double MAX_SPEED = 0;
+
+    private static final int RATE_ESTIMATE_SAMPLES = 64;
+    private static final float DEFAULT_SAMPLE_RATE_HZ = 200f;
+    private static final float PLOT_RATE_HZ = 100f;
+    private static final double STATISTICS_WINDOW_SECONDS = 2;
+    // SENSOR_DELAY_NORMAL
+    private static final int REST_PERIOD_MICROS = 200000;
+    private static final int SPECTRUM_WINDOW_SIZE = 256;
+    private static final double[] SPECTRUM_BAND_EDGES_HZ = { 0.5, 3, 10, 30 };
+    private static final String[] CHANNEL_NAMES = { "X", "Y", "Z", "Acceleration" };
+
+    private final AccelerationProcessor processor;
+    private final double speed;
+    private long samples;
+    private long elapsedNanos;
+
+    /**
+     * @param speed multiple of the recorded pace, {@link #MAX_SPEED} or less
+     *            to replay as fast as possible
+     */
+    public ReplayEngine(AccelerationProcessor processor, double speed)
+    {
+        this.processor = processor;
+        this.speed = speed;
+    }
+
+    /**
+     * Replays all samples of the source. The source is not closed.
+     *
+     * @return the number of samples replayed
+     */
+    public long replay(ISampleSource source) throws IOException
+    {
+        boolean paced = speed > MAX_SPEED;
+        long firstTimestamp = 0;
+        long start = System.nanoTime();
+        long count = 0;
+
+        while (source.next())
+        {
+            long timestamp = source.getTimestamp();
+            if (count == 0)
+            {
+                firstTimestamp = timestamp;
+            }
+            else if (paced)
+            {
+                long due = start + (long) ((timestamp - firstTimestamp) / speed);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0)
+                {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+
+            processor.process(timestamp, source.getX(), source.getY(), source.getZ());
+            ++count;
+
+            IOException error = processor.takeWriteError();
+            if (error != null)
+            {
+                throw error;
+            }
+        }
+
+        elapsedNanos = System.nanoTime() - start;
+        samples = count;
+        return count;
+    }
+
+    public long getSamples()
+    {
+        return samples;
+    }
+
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    public double getEventsPerSecond()
+    {
+        return elapsedNanos == 0 ? 0 : samples * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Estimates the sample rate from the median interval of the first samples
+     * of a recording.
+     */
+    public static float estimateSampleRateHz(File recording) throws IOException
+    {
+        ISampleSource source = RecordingFormat.forFile(recording).openSource(recording);
+        try
+        {
+            long[] intervals = new long[RATE_ESTIMATE_SAMPLES];
+            int count = 0;
+            long previous = 0;
+            boolean first = true;
+            while (count < intervals.length && source.next())
+            {
+                long timestamp = source.getTimestamp();
+                if (!first && timestamp > previous)
+                {
+                    intervals[count++] = timestamp - previous;
+                }
+                previous = timestamp;
+                first = false;
+            }
+            if (count == 0)
+            {
+                return DEFAULT_SAMPLE_RATE_HZ;
+            }
+            Arrays.sort(intervals, 0, count);
+            return (float) (1e9 / intervals[count / 2]);
+        }
+        finally
+        {
+            source.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        File recording = null;
+        File output = null;
+        double speed = MAX_SPEED;
+        boolean useFilter = true;
+        boolean speedSet = false;
+
+        for (String arg : args)
+        {
+            if (arg.equals("--no-filter"))
+            {
+                useFilter = false;
+            }
+            else if (recording == null)
+            {
+                recording = new File(arg);
+            }
+            else if (!speedSet && arg.equals("max"))
+            {
+                speedSet = true;
+            }
+            else if (!speedSet && isNumber(arg))
+            {
+                speed = Double.parseDouble(arg);
+                speedSet = true;
+            }
+            else if (output == null)
+            {
+                output = new File(arg);
+            }
+            else
+            {
+                recording = null;
+                break;
+            }
+        }
+        if (recording == null)
+        {
+            System.err.println("Usage: ReplayEngine <recording> [speed|max] [--no-filter]"
+                    + " [output]");
+            System.exit(1);
+        }
+
+        float sampleRateHz = estimateSampleRateHz(recording);
+        ISampleSource source = RecordingFormat.forFile(recording).openSource(recording);
+        ISampleWriter writer = null;
+        try
+        {
+            if (output != null)
+            {
+                long startTime = source.getStartTime();
+                String name = output.getName();
+                int dot = name.lastIndexOf('.');
+                File directory = output.getAbsoluteFile().getParentFile();
+                writer = RecordingFormat.forFile(output).createWriter(directory,
+                        dot < 0 ? name : name.substring(0, dot), 0, 0, startTime);
+            }
+
+            CountingListener listener = new CountingListener();
+            AccelerationProcessor processor = new AccelerationProcessor(useFilter, writer,
+                    null, sampleRateHz, PLOT_RATE_HZ, listener);
+            ProcessingStats stats = new ProcessingStats();
+            processor.setStats(stats);
+            AxisStatistics statistics = new AxisStatistics(
+                    Math.max(1, (int) (STATISTICS_WINDOW_SECONDS * sampleRateHz)),
+                    0.5, 0.95);
+            processor.setStatistics(statistics);
+            AdaptiveRateController rateController = new AdaptiveRateController(
+                    REST_PERIOD_MICROS, 0, sampleRateHz, null);
+            processor.setRateController(rateController);
+            MovementDetector movementDetector = new MovementDetector(null);
+            processor.setMovementDetector(movementDetector);
+            SpectralAnalyzer spectralAnalyzer = new SpectralAnalyzer(SPECTRUM_WINDOW_SIZE,
+                    SPECTRUM_WINDOW_SIZE / 2, sampleRateHz, WindowFunction.HANN,
+                    SPECTRUM_BAND_EDGES_HZ, null);
+            processor.setSpectralAnalyzer(spectralAnalyzer);
+            StepDetector stepDetector = new StepDetector(sampleRateHz, null);
+            processor.setStepDetector(stepDetector);
+
+            ReplayEngine engine = new ReplayEngine(processor, speed);
+            engine.replay(source);
+            movementDetector.finish();
+
+            System.out.printf(Locale.US, "Replayed %d samples (%.1f Hz) in %.3f s: %.0f events/s%n",
+                    engine.getSamples(), sampleRateHz, engine.getElapsedNanos() / 1e9,
+                    engine.getEventsPerSecond());
+            System.out.printf(Locale.US, "%d plot frames%n", listener.plotFrames);
+            System.out.print(stats);
+            System.out.println("Adaptive rate: " + rateController);
+            System.out.println("Movement: " + movementDetector);
+            System.out.println("Steps: " + stepDetector);
+            System.out.println("Spectrum: " + spectralAnalyzer);
+
+            StatisticsSnapshot snapshot = statistics.createSnapshot();
+            if (statistics.readSnapshot(snapshot))
+            {
+                System.out.printf(Locale.US, "Last %.0f s of the recording:%n",
+                        STATISTICS_WINDOW_SECONDS);
+                for (int channel = 0; channel < CHANNEL_NAMES.length; ++channel)
+                {
+                    System.out.printf(Locale.US,
+                            "%-12s mean %8.4f  sd %8.4f  rms %8.4f  min %8.4f  max %8.4f"
+                            + "  p50 %8.4f  p95 %8.4f%n",
+                            CHANNEL_NAMES[channel], snapshot.getMean(channel),
+                            snapshot.getStandardDeviation(channel), snapshot.getRms(channel),
+                            snapshot.getMin(channel), snapshot.getMax(channel),
+                            snapshot.getQuantile(channel, 0), snapshot.getQuantile(channel, 1));
+                }
+            }
+        }
+        finally
+        {
+            source.close();
+            if (writer != null)
+            {
+                writer.close();
+            }
+        }
+    }
+
+    private static boolean isNumber(String value)
+    {
+        try
+        {
+            Double.parseDouble(value);
+            return true;
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+    }
+
+    private static class CountingListener implements IProcessingListener
+    {
+        long plotFrames;
+
+        @Override
+        public void onPlotFrame(long timestamp, float x, float y, float z, float acceleration)
+        {
+            ++plotFrames;
+        }
+    }
+}
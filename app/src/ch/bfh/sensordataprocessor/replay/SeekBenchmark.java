@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import ch.bfh.sensordataprocessor.record.BinarySampleWriter;
+import ch.bfh.sensordataprocessor.record.ISampleWriter;
+import ch.bfh.sensordataprocessor.store.SegmentedSampleReader;
+import ch.bfh.sensordataprocessor.store.SessionStore;
+
+/**
+ * Measures how long {@link SegmentedSampleReader#seek(long)} takes in a
+ * large session written through a {@link SessionStore} at
+ * {@value #SAMPLE_RATE_HZ} Hz, split into segments of an hour, against
+ * reading the session from its start up to its middle. Each seek is timed
+ * with a new reader, which loads the indexes it needs, and again with one
+ * reader that is kept open. The segments were just written, so they are
+ * likely in the page cache. Every seek is checked to land on the first
+ * sample at or after its target and the program fails otherwise.
+ * <p>
+ * Usage: <code>SeekBenchmark [samples] [directory]</code>
+ */
+public class SeekBenchmark
+{
+    private static final float SAMPLE_RATE_HZ = 200f;
+    private static final long DEFAULT_SAMPLES = 100000000L;
+    private static final int COLD_SEEKS = 100;
+    private static final int WARM_SEEKS = 10000;
+    private static final String STREAM = "accelerometer";
+    private static final long SEED = 1;
+
+    private final SessionStore store;
+    private final File session;
+    private final long samples;
+    private final long period = (long) (1e9 / SAMPLE_RATE_HZ);
+
+    public SeekBenchmark(File root, long samples) throws IOException
+    {
+        store = new SessionStore(root, Long.MAX_VALUE, Long.MAX_VALUE);
+        session = store.createSession();
+        this.samples = samples;
+    }
+
+    /**
+     * @return nanoseconds spent writing the session
+     */
+    public long write() throws IOException
+    {
+        long start = System.nanoTime();
+        ISampleWriter writer = store.createWriter(session, STREAM, 0, 0, 0);
+        try
+        {
+            for (long i = 0; i < samples; ++i)
+            {
+                float value = i % 1000;
+                writer.writeSample(i * period, value, -value, 9.81f, 0);
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    public long getBytes()
+    {
+        return store.getSize();
+    }
+
+    /**
+     * Seeks to random timestamps, between samples as often as on them.
+     *
+     * @param reader reader to use, or <code>null</code> for a new one each
+     *            seek
+     * @return nanoseconds spent, or -1 if a seek ended up on the wrong sample
+     */
+    public long seek(SegmentedSampleReader reader, int seeks) throws IOException
+    {
+        Random random = new Random(SEED);
+        long duration = samples * period;
+        long elapsed = 0;
+        for (int i = 0; i < seeks; ++i)
+        {
+            long target = (long) (random.nextDouble() * (duration - period));
+            long expected = (target + period - 1) / period * period;
+            long start = System.nanoTime();
+            SegmentedSampleReader current = reader != null ? reader
+                    : store.openReader(session, STREAM);
+            try
+            {
+                current.seek(target);
+                if (!current.next() || current.getTimestamp() != expected)
+                {
+                    return -1;
+                }
+            }
+            finally
+            {
+                if (reader == null)
+                {
+                    current.close();
+                }
+            }
+            elapsed += System.nanoTime() - start;
+        }
+        return elapsed;
+    }
+
+    /**
+     * @return nanoseconds spent reading from the start to the middle
+     */
+    public long scanToMiddle() throws IOException
+    {
+        long middle = samples / 2 * period;
+        long start = System.nanoTime();
+        SegmentedSampleReader reader = store.openReader(session, STREAM);
+        try
+        {
+            while (reader.next() && reader.getTimestamp() < middle)
+            {
+                // skip
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    public SegmentedSampleReader openReader() throws IOException
+    {
+        return store.openReader(session, STREAM);
+    }
+
+    public void delete()
+    {
+        File stream = new File(session, STREAM);
+        File[] files = stream.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        stream.delete();
+        session.delete();
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        long samples = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_SAMPLES;
+        File root = new File(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir"),
+                "seek-benchmark");
+        SeekBenchmark benchmark = new SeekBenchmark(root, samples);
+        boolean failed;
+        try
+        {
+            long writing = benchmark.write();
+            SegmentedSampleReader reader = benchmark.openReader();
+            int segments = reader.getSegmentCount();
+            System.out.printf(Locale.US, "%d samples at %.0f Hz in %d segments, %.1f MB of %d "
+                    + "byte records, written in %.1f s%n", samples, SAMPLE_RATE_HZ, segments,
+                    benchmark.getBytes() / 1e6, BinarySampleWriter.RECORD_SIZE, writing / 1e9);
+
+            // warm up
+            benchmark.seek(null, COLD_SEEKS);
+            benchmark.seek(reader, WARM_SEEKS);
+
+            long cold = benchmark.seek(null, COLD_SEEKS);
+            long warm = benchmark.seek(reader, WARM_SEEKS);
+            reader.close();
+            long scan = benchmark.scanToMiddle();
+            failed = cold < 0 || warm < 0;
+            System.out.printf(Locale.US, "seek with a new reader %10.3f ms%n",
+                    cold / 1e6 / COLD_SEEKS);
+            System.out.printf(Locale.US, "seek with an open reader %8.3f ms%n",
+                    warm / 1e6 / WARM_SEEKS);
+            System.out.printf(Locale.US, "scan to the middle %14.3f ms, %.0f times a seek "
+                    + "with a new reader%n", scan / 1e6, (double) scan * COLD_SEEKS / cold);
+        }
+        finally
+        {
+            benchmark.delete();
+            root.delete();
+        }
+        if (failed)
+        {
+            System.err.println("A seek did not find the first sample after its target");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.util.Locale;
+
+import ch.bfh.sensordataprocessor.hub.FakeSensorSource;
+import ch.bfh.sensordataprocessor.hub.ISensorSubscriber;
+import ch.bfh.sensordataprocessor.hub.SensorHub;
+import ch.bfh.sensordataprocessor.hub.SensorSlot;
+import ch.bfh.sensordataprocessor.hub.Subscription;
+
+/**
+ * Load test of the {@link SensorHub} fan-out on the JVM. Three simulated
+ * sensors run at 1 kHz; a third of the subscribers take every event, a
+ * third are rate limited to 60 Hz like a display and a third decimate by
+ * four like a recorder of a downsampled stream.
+ * <p>
+ * Usage: <code>SensorHubBenchmark [subscribers] [simulated seconds]</code>
+ */
+public class SensorHubBenchmark
+{
+    private static final int DEFAULT_SUBSCRIBERS = 12;
+    private static final int DEFAULT_SECONDS = 600;
+    private static final int[] SENSOR_TYPES = { 1, 4, 10 };
+    private static final long DISPLAY_INTERVAL = 1000000000L / 60;
+    private static final int RECORDER_DECIMATION = 4;
+
+    public static void main(String[] args)
+    {
+        int subscriberCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SUBSCRIBERS;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+
+        FakeSensorSource source = new FakeSensorSource();
+        SensorHub hub = new SensorHub(source);
+        Subscription[] subscriptions = new Subscription[subscriberCount];
+        final double[] sink = new double[1];
+        ISensorSubscriber subscriber = new ISensorSubscriber()
+        {
+            @Override
+            public void onSample(SensorSlot slot)
+            {
+                sink[0] += slot.getX() + slot.getY() + slot.getZ();
+            }
+        };
+        for (int i = 0; i < subscriberCount; ++i)
+        {
+            int type = SENSOR_TYPES[i % SENSOR_TYPES.length];
+            switch ((i / SENSOR_TYPES.length) % 3)
+            {
+                case 0:
+                    subscriptions[i] = hub.subscribe(type, 0, subscriber);
+                    break;
+                case 1:
+                    subscriptions[i] = hub.subscribe(type, 0, DISPLAY_INTERVAL, 1, subscriber);
+                    break;
+                default:
+                    subscriptions[i] = hub.subscribe(type, 0, 0, RECORDER_DECIMATION,
+                            subscriber);
+                    break;
+            }
+        }
+
+        // warm up, then measure
+        source.advance(10 * 1000000000L);
+        long deliveredBefore = delivered(subscriptions);
+        long start = System.nanoTime();
+        long events = source.advance(seconds * 1000000000L);
+        long elapsed = System.nanoTime() - start;
+        long deliveries = delivered(subscriptions) - deliveredBefore;
+
+        System.out.printf(Locale.US, "%d subscribers, %d sensor registrations%n",
+                subscriberCount, source.getRegistrations());
+        System.out.printf(Locale.US, "%d events, %d deliveries in %.1f ms%n", events,
+                deliveries, elapsed / 1e6);
+        System.out.printf(Locale.US, "%.1f ns per event, %.1f ns per delivery, %.2f M events/s%n",
+                (double) elapsed / events, (double) elapsed / Math.max(1, deliveries),
+                events / (elapsed / 1e3));
+        for (int i = 0; i < Math.min(subscriberCount, 3 * SENSOR_TYPES.length); ++i)
+        {
+            System.out.printf(Locale.US, "subscription %2d type %2d delivered %9d skipped %9d%n",
+                    i, subscriptions[i].getSensorType(), subscriptions[i].getDelivered(),
+                    subscriptions[i].getSkipped());
+        }
+        if (sink[0] == 0)
+        {
+            System.out.println();
+        }
+    }
+
+    private static long delivered(Subscription[] subscriptions)
+    {
+        long delivered = 0;
+        for (Subscription subscription : subscriptions)
+        {
+            delivered += subscription.getDelivered();
+        }
+        return delivered;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.util.Locale;
+import java.util.Random;
+
+import ch.bfh.sensordataprocessor.math.WindowFunction;
+import ch.bfh.sensordataprocessor.processing.SpectralAnalyzer;
+
+/**
+ * Measures the cost of a {@link SpectralAnalyzer} per sample for several
+ * window sizes with half overlap, and the share of one core it needs at the
+ * fastest accelerometer rates. The input is a synthetic vibration at
+ * {@value #SIGNAL_HZ} Hz plus noise, sampled at 1 kHz, whose dominant
+ * frequency is reported as a check. Best of three runs.
+ * <p>
+ * Usage: <code>SpectrumBenchmark [simulated seconds]</code>
+ */
+public class SpectrumBenchmark
+{
+    private static final int[] WINDOW_SIZES = { 128, 256, 512, 1024 };
+    private static final float[] BUDGET_RATES_HZ = { 200f, 500f, 1000f };
+    private static final float SAMPLE_RATE_HZ = 1000f;
+    private static final double SIGNAL_HZ = 37.3;
+    private static final double[] BAND_EDGES_HZ = { 0.5, 5, 20, 50, 200, 500 };
+    private static final int DEFAULT_SECONDS = 600;
+    private static final int REPETITIONS = 3;
+
+    private final long[] timestamps;
+    private final float[] x;
+    private final float[] y;
+    private final float[] z;
+
+    public SpectrumBenchmark(int samples)
+    {
+        timestamps = new long[samples];
+        x = new float[samples];
+        y = new float[samples];
+        z = new float[samples];
+        Random random = new Random(1);
+        long period = (long) (1e9 / SAMPLE_RATE_HZ);
+        for (int i = 0; i < samples; ++i)
+        {
+            double t = i / (double) SAMPLE_RATE_HZ;
+            double vibration = Math.sin(2 * Math.PI * SIGNAL_HZ * t);
+            timestamps[i] = i * period;
+            x[i] = (float) (0.5 * vibration + 0.1 * random.nextGaussian());
+            y[i] = (float) (0.2 * vibration + 0.1 * random.nextGaussian());
+            z[i] = (float) (9.81 + 0.1 * random.nextGaussian());
+        }
+    }
+
+    /**
+     * @return nanoseconds spent in the analyzer
+     */
+    public long run(SpectralAnalyzer analyzer)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < timestamps.length; ++i)
+        {
+            analyzer.add(timestamps[i], x[i], y[i], z[i]);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static SpectralAnalyzer createAnalyzer(int windowSize)
+    {
+        return new SpectralAnalyzer(windowSize, windowSize / 2, SAMPLE_RATE_HZ,
+                WindowFunction.HANN, BAND_EDGES_HZ, null);
+    }
+
+    public static void main(String[] args)
+    {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SECONDS;
+        int samples = (int) (seconds * SAMPLE_RATE_HZ);
+        SpectrumBenchmark benchmark = new SpectrumBenchmark(samples);
+
+        // warm up
+        for (int windowSize : WINDOW_SIZES)
+        {
+            benchmark.run(createAnalyzer(windowSize));
+        }
+
+        System.out.printf(Locale.US, "%d samples at %.0f Hz, %.1f Hz vibration on x and y%n",
+                samples, SAMPLE_RATE_HZ, SIGNAL_HZ);
+        System.out.printf(Locale.US, "%6s %10s %10s", "window", "ns/sample", "peak Hz");
+        for (float rate : BUDGET_RATES_HZ)
+        {
+            System.out.printf(Locale.US, " %8s", String.format(Locale.US, "%.0f Hz", rate));
+        }
+        System.out.println();
+        for (int windowSize : WINDOW_SIZES)
+        {
+            long best = Long.MAX_VALUE;
+            SpectralAnalyzer analyzer = null;
+            for (int i = 0; i < REPETITIONS; ++i)
+            {
+                analyzer = createAnalyzer(windowSize);
+                best = Math.min(best, benchmark.run(analyzer));
+            }
+            double nanosPerSample = (double) best / samples;
+            System.out.printf(Locale.US, "%6d %10.1f %10.2f", windowSize, nanosPerSample,
+                    analyzer.getPeakFrequency(0));
+            // share of one core needed at the rate
+            for (float rate : BUDGET_RATES_HZ)
+            {
+                System.out.printf(Locale.US, " %7.3f%%", nanosPerSample * rate * 1e-7);
+            }
+            System.out.println();
+        }
+    }
+}
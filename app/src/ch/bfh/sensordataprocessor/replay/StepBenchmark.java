@@ -0,0 +1,292 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import ch.bfh.sensordataprocessor.processing.AccelerationProcessor;
+import ch.bfh.sensordataprocessor.processing.IStepListener;
+import ch.bfh.sensordataprocessor.processing.ProcessingStage;
+import ch.bfh.sensordataprocessor.processing.ProcessingStats;
+import ch.bfh.sensordataprocessor.processing.StepDetector;
+import ch.bfh.sensordataprocessor.record.ISampleSource;
+import ch.bfh.sensordataprocessor.record.ISampleWriter;
+import ch.bfh.sensordataprocessor.record.RecordingFormat;
+
+/**
+ * Measures the accuracy and throughput of a {@link StepDetector} by
+ * replaying recordings through an {@link AccelerationProcessor} with a
+ * {@link ReplayEngine}, as fast as possible.
+ * <p>
+ * Without arguments a session of known steps is synthesised for each of
+ * several sample rates and written to a binary recording first: walking,
+ * running and slow walking with varying stride strength, timing jitter,
+ * sway and noise, separated by pauses at rest. Its steps and true cadence
+ * are compared with the detected ones, once with the axes high-pass filtered
+ * and once without, which must not change the counts.
+ * <p>
+ * Usage: <code>StepBenchmark [recording[:steps] ...]</code> where
+ * <code>steps</code> is the number of steps counted by hand, if known.
+ */
+public class StepBenchmark
+{
+    private static final float[] SAMPLE_RATES_HZ = { 50f, 100f, 200f };
+    private static final double GRAVITY = 9.81;
+    private static final double NOISE = 0.2;
+    private static final long SEED = 1;
+    // where in a step the vertical acceleration peaks
+    private static final double PEAK_PHASE = 0.25;
+
+    // seconds and step frequency in Hz of each segment, 0 Hz at rest
+    private static final double[][] SEGMENTS = {
+        { 5, 0 }, { 60, 1.8 }, { 4, 0 }, { 30, 2.8 }, { 8, 0 }, { 45, 1.4 },
+        { 3, 0 }, { 20, 2.1 }, { 1.2, 0 }, { 40, 1.9 }, { 5, 0 }
+    };
+
+    private final double[] segmentEnds = new double[SEGMENTS.length];
+
+    public StepBenchmark()
+    {
+        double end = 0;
+        for (int i = 0; i < SEGMENTS.length; ++i)
+        {
+            end += SEGMENTS[i][0];
+            segmentEnds[i] = end;
+        }
+    }
+
+    /**
+     * Writes the synthetic session at the given rate.
+     *
+     * @return the number of steps in it
+     */
+    public long synthesize(ISampleWriter writer, float sampleRateHz) throws IOException
+    {
+        Random random = new Random(SEED);
+        double period = 1 / (double) sampleRateHz;
+        long steps = 0;
+        int segment = 0;
+        double phase = 0;
+        double frequency = 0;
+        double strength = 0;
+        for (long i = 0; i * period < segmentEnds[segmentEnds.length - 1]; ++i)
+        {
+            double t = i * period;
+            while (t >= segmentEnds[segment])
+            {
+                ++segment;
+                phase = 0;
+            }
+            double stepHz = SEGMENTS[segment][1];
+            double vertical = 0;
+            double lateral = 0;
+            if (stepHz > 0)
+            {
+                if (phase == 0 || phase >= 1)
+                {
+                    // every step a little different
+                    phase = phase == 0 ? 0 : phase - 1;
+                    frequency = stepHz * (1 + 0.05 * random.nextGaussian());
+                    strength = (1.5 + random.nextDouble() * 1.5) * stepHz / 1.8;
+                }
+                double angle = 2 * Math.PI * phase;
+                // push-off, a harmonic and the heel strike
+                vertical = strength * (Math.sin(angle) + 0.35 * Math.sin(2 * angle + 0.7)
+                        + 0.8 * Math.exp(-square((phase - 0.05) / 0.02)));
+                // the body sways once per stride of two steps
+                lateral = 0.4 * strength * Math.sin(Math.PI * (steps + phase));
+                double next = phase + frequency * period;
+                if (phase < PEAK_PHASE && next >= PEAK_PHASE)
+                {
+                    // a step counts once its peak is in the data
+                    ++steps;
+                }
+                phase = next;
+            }
+            float x = (float) (lateral + 0.3 * vertical + NOISE * random.nextGaussian());
+            float y = (float) (0.2 * vertical + NOISE * random.nextGaussian());
+            float z = (float) (GRAVITY + vertical + NOISE * random.nextGaussian());
+            double acceleration = Math.sqrt(x * x + y * y + z * z);
+            writer.writeSample((long) (t * 1e9), x, y, z, acceleration);
+        }
+        return steps;
+    }
+
+    /**
+     * @return the true cadence in steps per minute at the time, 0 at rest
+     */
+    public double getCadence(long timestamp)
+    {
+        double t = timestamp * 1e-9;
+        for (int i = 0; i < segmentEnds.length; ++i)
+        {
+            if (t < segmentEnds[i])
+            {
+                return 60 * SEGMENTS[i][1];
+            }
+        }
+        return 0;
+    }
+
+    private static double square(double value)
+    {
+        return value * value;
+    }
+
+    /**
+     * Replays a recording through a processor with a step detector.
+     */
+    static Result replay(File recording, boolean useFilter, IStepListener listener)
+            throws IOException
+    {
+        float sampleRateHz = ReplayEngine.estimateSampleRateHz(recording);
+        ISampleSource source = RecordingFormat.forFile(recording).openSource(recording);
+        try
+        {
+            AccelerationProcessor processor = new AccelerationProcessor(useFilter, null, null,
+                    sampleRateHz, 0, null);
+            ProcessingStats stats = new ProcessingStats();
+            processor.setStats(stats);
+            StepDetector detector = new StepDetector(sampleRateHz, listener);
+            processor.setStepDetector(detector);
+            ReplayEngine engine = new ReplayEngine(processor, ReplayEngine.MAX_SPEED);
+            engine.replay(source);
+
+            Result result = new Result();
+            result.sampleRateHz = sampleRateHz;
+            result.steps = detector.getSteps();
+            result.eventsPerSecond = engine.getEventsPerSecond();
+            result.stepNanos = stats.getMeanNanos(ProcessingStage.STEPS);
+            return result;
+        }
+        finally
+        {
+            source.close();
+        }
+    }
+
+    static class Result
+    {
+        float sampleRateHz;
+        long steps;
+        double eventsPerSecond;
+        double stepNanos;
+    }
+
+    /**
+     * Compares the cadence reported with each step with the true one.
+     */
+    private static class CadenceListener implements IStepListener
+    {
+        private final StepBenchmark benchmark;
+        double absoluteError;
+        int count;
+
+        CadenceListener(StepBenchmark benchmark)
+        {
+            this.benchmark = benchmark;
+        }
+
+        @Override
+        public void onStep(long timestamp, long steps, double cadence)
+        {
+            double expected = benchmark.getCadence(timestamp);
+            if (cadence > 0 && expected > 0)
+            {
+                absoluteError += Math.abs(cadence - expected);
+                ++count;
+            }
+        }
+    }
+
+    private static void runSynthetic() throws IOException
+    {
+        StepBenchmark benchmark = new StepBenchmark();
+        File directory = new File(System.getProperty("java.io.tmpdir"));
+        System.out.printf(Locale.US, "%7s %6s %6s %8s %6s %12s %12s %10s%n", "rate", "filter",
+                "steps", "detected", "error", "cadence err", "events/s", "ns/sample");
+        for (float sampleRateHz : SAMPLE_RATES_HZ)
+        {
+            String baseName = String.format(Locale.US, "step-benchmark-%.0f", sampleRateHz);
+            ISampleWriter writer = RecordingFormat.BINARY.createWriter(directory, baseName,
+                    0, 0, 0);
+            File recording = new File(directory, baseName + RecordingFormat.BINARY.getExtension());
+            long steps;
+            try
+            {
+                steps = benchmark.synthesize(writer, sampleRateHz);
+            }
+            finally
+            {
+                writer.close();
+            }
+
+            try
+            {
+                for (boolean useFilter : new boolean[] { false, true })
+                {
+                    CadenceListener listener = new CadenceListener(benchmark);
+                    // warm up, then measure
+                    replay(recording, useFilter, null);
+                    Result result = replay(recording, useFilter, listener);
+                    System.out.printf(Locale.US,
+                            "%4.0f Hz %6s %6d %8d %5.1f%% %8.1f/min %12.0f %10.1f%n",
+                            sampleRateHz, useFilter ? "on" : "off", steps, result.steps,
+                            100.0 * (result.steps - steps) / steps,
+                            listener.count == 0 ? 0 : listener.absoluteError / listener.count,
+                            result.eventsPerSecond, result.stepNanos);
+                }
+            }
+            finally
+            {
+                recording.delete();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length == 0)
+        {
+            runSynthetic();
+            return;
+        }
+
+        System.out.printf(Locale.US, "%-40s %7s %8s %6s %12s %10s%n", "recording", "rate",
+                "detected", "error", "events/s", "ns/sample");
+        for (String arg : args)
+        {
+            int colon = arg.lastIndexOf(':');
+            long expected = -1;
+            File recording = new File(arg);
+            if (colon > 0 && !recording.exists())
+            {
+                recording = new File(arg.substring(0, colon));
+                expected = Long.parseLong(arg.substring(colon + 1));
+            }
+            Result result = replay(recording, false, null);
+            System.out.printf(Locale.US, "%-40s %4.0f Hz %8d %6s %12.0f %10.1f%n",
+                    recording.getPath(), result.sampleRateHz, result.steps,
+                    expected <= 0 ? "-" : String.format(Locale.US, "%.1f%%",
+                            100.0 * (result.steps - expected) / expected),
+                    result.eventsPerSecond, result.stepNanos);
+        }
+    }
+}
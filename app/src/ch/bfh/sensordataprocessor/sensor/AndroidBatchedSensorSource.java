@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.sensor;
+
+import java.lang.reflect.Method;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseArray;
+import ch.bfh.sensordataprocessor.hub.IBatchedSensorSource;
+import ch.bfh.sensordataprocessor.hub.ISampleBlockListener;
+import ch.bfh.sensordataprocessor.hub.SampleBlock;
+
+/**
+ * Registers sensors with a maximum report latency so that the hardware FIFO
+ * batches their events, and collects each burst into a {@link SampleBlock}.
+ * <p>
+ * <code>SensorManager</code> dispatches the events of a burst one by one,
+ * but all of them before it returns to the looper. The first event of a
+ * burst therefore posts a task to the handler, which runs right after the
+ * last one and passes the block on. Blocks are also passed on when they are
+ * full.
+ * <p>
+ * Batching needs API level 19, whose methods are called by reflection since
+ * the app is built against API level 18. On older devices the sensors are
+ * registered without batching and every event arrives in a block of its own.
+ */
+public class AndroidBatchedSensorSource implements IBatchedSensorSource
+{
+    public static final int DEFAULT_BLOCK_CAPACITY = 1024;
+    private static final String TAG = "AndroidBatchedSensorSource";
+    private static final int KITKAT = 19;
+
+    private final SensorManager sensorManager;
+    private final Handler handler;
+    private final int blockCapacity;
+    private final SparseArray<Batch> batches = new SparseArray<Batch>();
+    private final Method registerWithLatency;
+    private final Method flush;
+
+    /**
+     * @param handler handler of the thread the events are delivered and the
+     *            blocks processed on, usually a background thread so that the
+     *            block can be written to disk there
+     */
+    public AndroidBatchedSensorSource(SensorManager sensorManager, Handler handler,
+            int blockCapacity)
+    {
+        this.sensorManager = sensorManager;
+        this.handler = handler;
+        this.blockCapacity = blockCapacity;
+
+        Method registerWithLatency = null;
+        Method flush = null;
+        if (Build.VERSION.SDK_INT >= KITKAT)
+        {
+            try
+            {
+                registerWithLatency = SensorManager.class.getMethod("registerListener",
+                        SensorEventListener.class, Sensor.class, int.class, int.class,
+                        Handler.class);
+                flush = SensorManager.class.getMethod("flush", SensorEventListener.class);
+            }
+            catch (NoSuchMethodException e)
+            {
+                Log.w(TAG, "Sensor batching is not available", e);
+            }
+        }
+        this.registerWithLatency = registerWithLatency;
+        this.flush = flush;
+    }
+
+    public AndroidBatchedSensorSource(SensorManager sensorManager, Handler handler)
+    {
+        this(sensorManager, handler, DEFAULT_BLOCK_CAPACITY);
+    }
+
+    @Override
+    public boolean register(int sensorType, int samplingPeriodMicros,
+            int maxReportLatencyMicros, ISampleBlockListener listener)
+    {
+        Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+        if (sensor == null)
+        {
+            return false;
+        }
+        unregister(sensorType);
+
+        Batch batch = new Batch(sensorType, listener);
+        batches.put(sensorType, batch);
+        if (registerWithLatency != null)
+        {
+            try
+            {
+                return (Boolean) registerWithLatency.invoke(sensorManager, batch, sensor,
+                        samplingPeriodMicros, maxReportLatencyMicros, handler);
+            }
+            catch (Exception e)
+            {
+                Log.w(TAG, "Could not register with batching", e);
+            }
+        }
+        return sensorManager.registerListener(batch, sensor, samplingPeriodMicros, handler);
+    }
+
+    @Override
+    public void unregister(int sensorType)
+    {
+        Batch batch = batches.get(sensorType);
+        if (batch != null)
+        {
+            sensorManager.unregisterListener(batch);
+            batches.remove(sensorType);
+            handler.removeCallbacks(batch);
+            // hand on what was collected on the handler's thread
+            if (Looper.myLooper() == handler.getLooper())
+            {
+                batch.run();
+            }
+            else
+            {
+                handler.post(batch);
+            }
+        }
+    }
+
+    /**
+     * Asks the FIFO to deliver the held back events; the block follows once
+     * they have been dispatched.
+     */
+    @Override
+    public void flush(int sensorType)
+    {
+        Batch batch = batches.get(sensorType);
+        if (batch != null && flush != null)
+        {
+            try
+            {
+                flush.invoke(sensorManager, batch);
+            }
+            catch (Exception e)
+            {
+                Log.w(TAG, "Could not flush the sensor FIFO", e);
+            }
+        }
+    }
+
+    /**
+     * Collects the events of one sensor and passes them on as a block when
+     * the burst ends.
+     */
+    private final class Batch implements SensorEventListener, Runnable
+    {
+        private final int sensorType;
+        private final ISampleBlockListener listener;
+        private final SampleBlock block = new SampleBlock(blockCapacity);
+        private boolean posted;
+
+        Batch(int sensorType, ISampleBlockListener listener)
+        {
+            this.sensorType = sensorType;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event)
+        {
+            if (block.add(event.timestamp, event.values[0], event.values[1], event.values[2]))
+            {
+                run();
+            }
+            else if (!posted)
+            {
+                posted = handler.post(this);
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy)
+        {
+            // not part of the samples
+        }
+
+        /**
+         * Ends the burst.
+         */
+        @Override
+        public void run()
+        {
+            posted = false;
+            if (!block.isEmpty())
+            {
+                listener.onBlock(sensorType, block);
+                block.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.sensor;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import ch.bfh.sensordataprocessor.hub.ISensorSource;
+import ch.bfh.sensordataprocessor.hub.SensorHub;
+
+/**
+ * Publishes the events of the device's sensors to a {@link SensorHub}. The
+ * hub registers each sensor type with this source once, so every sensor has a
+ * single <code>SensorManager</code> registration however many parts of the
+ * app consume it.
+ * <p>
+ * The shared hub registers the types that are only consumed in blocks with
+ * an {@link AndroidBatchedSensorSource} instead, whose events are delivered
+ * on a background thread.
+ */
+public class AndroidSensorSource implements ISensorSource, SensorEventListener
+{
+    private static final String BATCH_THREAD_NAME = "SensorBatches";
+
+    private static SensorHub sharedHub;
+    private static Handler batchHandler;
+
+    private final SensorManager sensorManager;
+    private SensorHub hub;
+
+    public AndroidSensorSource(SensorManager sensorManager)
+    {
+        this.sensorManager = sensorManager;
+    }
+
+    /**
+     * @return the hub shared by all activities of the process
+     */
+    public static synchronized SensorHub getSharedHub(Context context)
+    {
+        if (sharedHub == null)
+        {
+            SensorManager sensorManager = (SensorManager) context.getApplicationContext()
+                    .getSystemService(Context.SENSOR_SERVICE);
+            HandlerThread batchThread = new HandlerThread(BATCH_THREAD_NAME);
+            batchThread.start();
+            batchHandler = new Handler(batchThread.getLooper());
+            sharedHub = new SensorHub(new AndroidSensorSource(sensorManager),
+                    new AndroidBatchedSensorSource(sensorManager, batchHandler));
+        }
+        return sharedHub;
+    }
+
+    /**
+     * @return the handler of the thread the shared hub delivers batched
+     *         blocks on
+     */
+    public static synchronized Handler getBatchHandler(Context context)
+    {
+        getSharedHub(context);
+        return batchHandler;
+    }
+
+    /**
+     * Periods of 1 to 3 microseconds are taken as <code>SENSOR_DELAY_*</code>
+     * constants by <code>SensorManager</code>, which only makes them slower.
+     */
+    @Override
+    public boolean register(int sensorType, int samplingPeriodMicros, SensorHub hub)
+    {
+        Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+        if (sensor == null)
+        {
+            return false;
+        }
+        this.hub = hub;
+        sensorManager.unregisterListener(this, sensor);
+        return sensorManager.registerListener(this, sensor, samplingPeriodMicros);
+    }
+
+    @Override
+    public void unregister(int sensorType)
+    {
+        Sensor sensor = sensorManager.getDefaultSensor(sensorType);
+        if (sensor != null)
+        {
+            sensorManager.unregisterListener(this, sensor);
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event)
+    {
+        hub.publish(event.sensor.getType(), event.timestamp, event.accuracy, event.values,
+                event.values.length);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy)
+    {
+        // every event carries its accuracy
+    }
+}
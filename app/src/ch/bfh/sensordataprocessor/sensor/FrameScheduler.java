@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.sensor;
+
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+
+/**
+ * Runs a task at most once per display frame, however often it is requested.
+ * <p>
+ * On API 16 and above the task is posted to the {@link Choreographer}, so it
+ * runs at the next vsync. Older devices have no vsync callback; the task is
+ * then posted with a delay of one 60 Hz frame. Must be used from the UI
+ * thread.
+ */
+public class FrameScheduler
+{
+    private static final long FRAME_MILLIS = 16;
+
+    private final Runnable task;
+    private final Handler handler;
+    private final Runnable frameRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            runFrame();
+        }
+    };
+    private final VsyncCallback vsyncCallback;
+    private boolean pending;
+
+    public FrameScheduler(Runnable task)
+    {
+        this.task = task;
+        if (Build.VERSION.SDK_INT >= 16)
+        {
+            this.handler = null;
+            this.vsyncCallback = new VsyncCallback();
+        }
+        else
+        {
+            this.handler = new Handler();
+            this.vsyncCallback = null;
+        }
+    }
+
+    /**
+     * Requests the task for the next frame; does nothing if it is already
+     * requested.
+     */
+    public void schedule()
+    {
+        if (pending)
+        {
+            return;
+        }
+        pending = true;
+
+        if (vsyncCallback != null)
+        {
+            vsyncCallback.post();
+        }
+        else
+        {
+            handler.postDelayed(frameRunnable, FRAME_MILLIS);
+        }
+    }
+
+    /**
+     * Drops a pending request.
+     */
+    public void cancel()
+    {
+        if (!pending)
+        {
+            return;
+        }
+        pending = false;
+
+        if (vsyncCallback != null)
+        {
+            vsyncCallback.remove();
+        }
+        else
+        {
+            handler.removeCallbacks(frameRunnable);
+        }
+    }
+
+    private void runFrame()
+    {
+        pending = false;
+        task.run();
+    }
+
+    /**
+     * Kept in its own class so that {@link Choreographer} is only loaded on
+     * devices that have it.
+     */
+    private final class VsyncCallback implements Choreographer.FrameCallback
+    {
+        void post()
+        {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void remove()
+        {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos)
+        {
+            runFrame();
+        }
+    }
+}
@@ -16,10 +16,7 @@
 
 package ch.bfh.sensordataprocessor.sensor;
 
-import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
@@ -31,17 +28,35 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 import ch.bfh.sensordataprocessor.BuildConfig;
 import ch.bfh.sensordataprocessor.R;
+import ch.bfh.sensordataprocessor.hub.ISensorSubscriber;
+import ch.bfh.sensordataprocessor.hub.SensorHub;
+import ch.bfh.sensordataprocessor.hub.SensorSlot;
+import ch.bfh.sensordataprocessor.hub.Subscription;
+import ch.bfh.sensordataprocessor.util.CharTextBuffer;
 
 /**
  * Displays the details of a sensor.
+ * <p>
+ * Sensors can deliver far more events than the display can show. Events only
+ * overwrite a snapshot of the latest sample, and the views are updated from
+ * it at most once per display frame. The number of events received and of
+ * frames rendered is shown to make the coalescing visible.
  */
-public class SensorDisplayFragment extends Fragment implements SensorEventListener
+public class SensorDisplayFragment extends Fragment implements ISensorSubscriber
 {
     private static final String TAG = "SensorDisplayFragment";
     private static final String THETA = "\u0398";
     private static final String ACCELERATION_UNITS = "m/s\u00B2";
+    private static final int NO_TYPE = -1;
+    private static final int NO_ACCURACY = -1;
+    private static final int DISPLAY_NONE = 0;
+    private static final int DISPLAY_AXES = 1;
+    private static final int DISPLAY_SINGLE_VALUE = 2;
+    private static final int TEXT_CAPACITY = 32;
+    private static final int VALUE_DECIMALS = 6;
     
-    private SensorManager sensorManager;
+    private SensorHub sensorHub;
+    private Subscription subscription;
     private Sensor sensor;
     private TextView name;
     private TextView type;
@@ -66,6 +81,40 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
     private TextView singleValue;
     private TextView cosLabel;
     private TextView cos;
+    private TextView renderStats;
+    
+    // latest sample, overwritten by every event until the next frame
+    private final float[] latestValues = new float[SensorSlot.MAX_VALUES];
+    private int latestValueCount;
+    private int latestType = NO_TYPE;
+    private int latestAccuracy = NO_ACCURACY;
+    private long latestTimestamp;
+    private long eventsReceived;
+    private long framesRendered;
+    
+    // what the views currently show
+    private int displayedType = NO_TYPE;
+    private int displayedAccuracy = NO_ACCURACY;
+    private int displayMode = DISPLAY_NONE;
+    private boolean cosDisplayed;
+    
+    // one buffer per view, a TextView keeps the array it is given
+    private final CharTextBuffer timestampText = new CharTextBuffer(TEXT_CAPACITY, 0);
+    private final CharTextBuffer xAxisText = new CharTextBuffer(TEXT_CAPACITY, VALUE_DECIMALS);
+    private final CharTextBuffer yAxisText = new CharTextBuffer(TEXT_CAPACITY, VALUE_DECIMALS);
+    private final CharTextBuffer zAxisText = new CharTextBuffer(TEXT_CAPACITY, VALUE_DECIMALS);
+    private final CharTextBuffer singleValueText = new CharTextBuffer(TEXT_CAPACITY, VALUE_DECIMALS);
+    private final CharTextBuffer cosText = new CharTextBuffer(TEXT_CAPACITY, VALUE_DECIMALS);
+    private final CharTextBuffer renderStatsText = new CharTextBuffer(2 * TEXT_CAPACITY, 0);
+    
+    private final FrameScheduler frameScheduler = new FrameScheduler(new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            render();
+        }
+    });
     
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
@@ -73,8 +122,7 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
     {
         View layout = inflater.inflate(R.layout.sensor_view, null);
         
-        sensorManager =
-                (SensorManager) getActivity().getSystemService(Context.SENSOR_SERVICE);
+        sensorHub = AndroidSensorSource.getSharedHub(getActivity());
         
         name = (TextView) layout.findViewById(R.id.name);
         type = (TextView) layout.findViewById(R.id.type);
@@ -99,16 +147,14 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
         singleValue = (TextView) layout.findViewById(R.id.singleValue);
         cosLabel = (TextView) layout.findViewById(R.id.cosLabel);
         cos = (TextView) layout.findViewById(R.id.cos);
+        renderStats = (TextView) layout.findViewById(R.id.renderStats);
         
         layout.findViewById(R.id.delayFastest).setOnClickListener(new OnClickListener()
         {
             @Override
             public void onClick(View v)
             {
-                sensorManager.unregisterListener(SensorDisplayFragment.this);
-                sensorManager.registerListener(SensorDisplayFragment.this,
-                        sensor, 
-                        SensorManager.SENSOR_DELAY_FASTEST);
+                subscribe(SensorManager.SENSOR_DELAY_FASTEST);
             }
         });
         
@@ -117,10 +163,7 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
             @Override
             public void onClick(View v)
             {
-                sensorManager.unregisterListener(SensorDisplayFragment.this);
-                sensorManager.registerListener(SensorDisplayFragment.this,
-                        sensor, 
-                        SensorManager.SENSOR_DELAY_GAME);
+                subscribe(SensorManager.SENSOR_DELAY_GAME);
             }
         });
         
@@ -129,10 +172,7 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
             @Override
             public void onClick(View v)
             {
-                sensorManager.unregisterListener(SensorDisplayFragment.this);
-                sensorManager.registerListener(SensorDisplayFragment.this,
-                        sensor, 
-                        SensorManager.SENSOR_DELAY_NORMAL);
+                subscribe(SensorManager.SENSOR_DELAY_NORMAL);
             }
         });
         
@@ -141,10 +181,7 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
             @Override
             public void onClick(View v)
             {
-                sensorManager.unregisterListener(SensorDisplayFragment.this);
-                sensorManager.registerListener(SensorDisplayFragment.this,
-                        sensor, 
-                        SensorManager.SENSOR_DELAY_UI);
+                subscribe(SensorManager.SENSOR_DELAY_UI);
             }
         });
 
@@ -169,16 +206,27 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
         vendor.setText(String.valueOf(sensor.getVendor()));
         version.setText(String.valueOf(sensor.getVersion()));
         
-        sensorManager.registerListener(this,
-                sensor,
-                SensorManager.SENSOR_DELAY_NORMAL);
+        eventsReceived = 0;
+        framesRendered = 0;
+        
+        subscribe(SensorManager.SENSOR_DELAY_NORMAL);
     }
 
-    /**
-     * @see android.hardware.SensorEventListener#onAccuracyChanged(android.hardware.Sensor, int)
-     */
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy)
+    private void subscribe(int rate)
+    {
+        sensorHub.unsubscribe(subscription);
+        subscription = sensorHub.subscribe(sensor.getType(),
+                SensorRates.samplingPeriodMicros(rate), this);
+    }
+
+    private void unsubscribe()
+    {
+        sensorHub.unsubscribe(subscription);
+        subscription = null;
+        frameScheduler.cancel();
+    }
+
+    private void showAccuracy(int accuracy)
     {
         switch(accuracy)
         {
@@ -198,97 +246,136 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
     }
 
     /**
-     * @see android.hardware.SensorEventListener#onSensorChanged(android.hardware.SensorEvent)
+     * Only keeps the latest values; the views are updated at most once per
+     * display frame by {@link #render()}.
+     *
+     * @see ch.bfh.sensordataprocessor.hub.ISensorSubscriber#onSample(ch.bfh.sensordataprocessor.hub.SensorSlot)
      */
     @Override
-    public void onSensorChanged(SensorEvent event)
+    public void onSample(SensorSlot slot)
+    {
+        latestType = slot.getSensorType();
+        latestTimestamp = slot.getTimestamp();
+        latestAccuracy = slot.getAccuracy();
+        latestValueCount = slot.getValueCount();
+        for (int i = 0; i < latestValueCount; ++i)
+        {
+            latestValues[i] = slot.getValue(i);
+        }
+        ++eventsReceived;
+        
+        frameScheduler.schedule();
+    }
+
+    /**
+     * Shows the latest sample. Labels, units and visibilities only change
+     * with the sensor type, so they are set once; the numbers are formatted
+     * into reused buffers.
+     */
+    private void render()
     {
-        onAccuracyChanged(event.sensor, event.accuracy);
+        if (latestType != displayedType)
+        {
+            showLayout(latestType);
+            displayedType = latestType;
+        }
+        if (latestAccuracy != displayedAccuracy)
+        {
+            showAccuracy(latestAccuracy);
+            displayedAccuracy = latestAccuracy;
+        }
+        
+        setText(timestamp, timestampText.reset().append(latestTimestamp));
+        
+        if (displayMode == DISPLAY_AXES)
+        {
+            setText(xAxis, xAxisText.reset().append(latestValues[0]));
+            setText(yAxis, yAxisText.reset().append(latestValues[1]));
+            setText(zAxis, zAxisText.reset().append(latestValues[2]));
+            
+            if (cosDisplayed && latestValueCount >= 4)
+            {
+                cosLabel.setVisibility(View.VISIBLE);
+                cos.setVisibility(View.VISIBLE);
+                setText(cos, cosText.reset().append(latestValues[3]));
+            }
+        }
+        else if (displayMode == DISPLAY_SINGLE_VALUE)
+        {
+            setText(singleValue, singleValueText.reset().append(latestValues[0]));
+        }
         
+        ++framesRendered;
+        setText(renderStats, renderStatsText.reset()
+                .append(eventsReceived).append(" / ").append(framesRendered));
+    }
+
+    private static void setText(TextView view, CharTextBuffer text)
+    {
+        view.setText(text.array(), 0, text.length());
+    }
+
+    private void showLayout(int sensorType)
+    {
         timestampLabel.setVisibility(View.VISIBLE);
         timestamp.setVisibility(View.VISIBLE);
-        timestamp.setText(String.valueOf(event.timestamp));
         timestampUnits.setVisibility(View.VISIBLE);
         
-        switch (event.sensor.getType())
+        cosLabel.setVisibility(View.GONE);
+        cos.setVisibility(View.GONE);
+        cosDisplayed = false;
+        
+        switch (sensorType)
         {
             case Sensor.TYPE_ACCELEROMETER:
-                showEventData("Acceleration - gravity on axis",
-                        ACCELERATION_UNITS,
-                        event.values[0],
-                        event.values[1],
-                        event.values[2]);
+                showAxesLayout("Acceleration - gravity on axis",
+                        ACCELERATION_UNITS);
                 break;
                 
             case Sensor.TYPE_MAGNETIC_FIELD:
-                showEventData("Abient Magnetic Field",
-                        "uT",
-                        event.values[0],
-                        event.values[1],
-                        event.values[2]);
+                showAxesLayout("Abient Magnetic Field",
+                        "uT");
                 break;
             case Sensor.TYPE_GYROSCOPE:
-                showEventData("Angular speed around axis",
-                        "radians/sec",
-                        event.values[0],
-                        event.values[1],
-                        event.values[2]);
+                showAxesLayout("Angular speed around axis",
+                        "radians/sec");
                 break;
             case Sensor.TYPE_LIGHT:
-                showEventData("Ambient light",
-                        "lux",
-                        event.values[0]);
+                showSingleValueLayout("Ambient light",
+                        "lux");
                 break;
             case Sensor.TYPE_PRESSURE:
-                showEventData("Atmospheric pressure",
-                        "hPa",
-                        event.values[0]);
+                showSingleValueLayout("Atmospheric pressure",
+                        "hPa");
                 break;
             case Sensor.TYPE_PROXIMITY:
-                showEventData("Distance",
-                        "cm",
-                        event.values[0]);
+                showSingleValueLayout("Distance",
+                        "cm");
                 break;
             case Sensor.TYPE_GRAVITY:
-                showEventData("Gravity",
-                        ACCELERATION_UNITS,
-                        event.values[0],
-                        event.values[1],
-                        event.values[2]);
+                showAxesLayout("Gravity",
+                        ACCELERATION_UNITS);
                 break;
             case Sensor.TYPE_LINEAR_ACCELERATION:
-                showEventData("Acceleration (not including gravity)",
-                        ACCELERATION_UNITS,
-                        event.values[0],
-                        event.values[1],
-                        event.values[2]);
+                showAxesLayout("Acceleration (not including gravity)",
+                        ACCELERATION_UNITS);
                 break;
             case Sensor.TYPE_ROTATION_VECTOR:
                 
-                showEventData("Rotation Vector",
-                        null,
-                        event.values[0],
-                        event.values[1],
-                        event.values[2]);
+                showAxesLayout("Rotation Vector",
+                        null);
                 
                 xAxisLabel.setText("x*sin(" + THETA + "/2)");
                 yAxisLabel.setText("y*sin(" + THETA + "/2)");
                 zAxisLabel.setText("z*sin(" + THETA + "/2)");
                 
-                if (event.values.length == 4)
-                {
-                    cosLabel.setVisibility(View.VISIBLE);
-                    cos.setVisibility(View.VISIBLE);
-                    cos.setText(String.valueOf(event.values[3]));
-                }
+                // shown by render() once a sample carries the fourth value
+                cosDisplayed = true;
                 
                 break;
             case Sensor.TYPE_ORIENTATION:
-                showEventData("Angle",
-                        "Degrees",
-                        event.values[0],
-                        event.values[1],
-                        event.values[2]);
+                showAxesLayout("Angle",
+                        "Degrees");
                 
                 xAxisLabel.setText(R.string.azimuthLabel);
                 yAxisLabel.setText(R.string.pitchLabel);
@@ -296,20 +383,23 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
                 
                 break;
             case Sensor.TYPE_RELATIVE_HUMIDITY:
-                showEventData("Relatice ambient air humidity",
-                        "%",
-                        event.values[0]);
+                showSingleValueLayout("Relatice ambient air humidity",
+                        "%");
                 break;
             case Sensor.TYPE_AMBIENT_TEMPERATURE:
-                showEventData("Ambien temperature",
-                        "degree Celcius",
-                        event.values[0]);
+                showSingleValueLayout("Ambien temperature",
+                        "degree Celcius");
+                break;
+            default:
+                displayMode = DISPLAY_NONE;
                 break;
         }
     }
     
-    private void showEventData(String label, String units, float x, float y, float z)
+    private void showAxesLayout(String label, String units)
     {
+        displayMode = DISPLAY_AXES;
+        
         dataLabel.setVisibility(View.VISIBLE);
         dataLabel.setText(label);
         
@@ -328,21 +418,20 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
         xAxisLabel.setVisibility(View.VISIBLE);
         xAxisLabel.setText(R.string.xAxisLabel);
         xAxis.setVisibility(View.VISIBLE);
-        xAxis.setText(String.valueOf(x));
         
         yAxisLabel.setVisibility(View.VISIBLE);
         yAxisLabel.setText(R.string.yAxisLabel);
         yAxis.setVisibility(View.VISIBLE);
-        yAxis.setText(String.valueOf(y));
         
         zAxisLabel.setVisibility(View.VISIBLE);
         zAxisLabel.setText(R.string.zAxisLabel);
         zAxis.setVisibility(View.VISIBLE);
-        zAxis.setText(String.valueOf(z));
     }
     
-    private void showEventData(String label, String units, float value)
+    private void showSingleValueLayout(String label, String units)
     {
+        displayMode = DISPLAY_SINGLE_VALUE;
+        
         dataLabel.setVisibility(View.VISIBLE);
         dataLabel.setText(label);
         
@@ -350,7 +439,6 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
         dataUnits.setText("(" + units + "):");
         
         singleValue.setVisibility(View.VISIBLE);
-        singleValue.setText(String.valueOf(value));
         
         xAxisLabel.setVisibility(View.GONE);
         xAxis.setVisibility(View.GONE);
@@ -374,10 +462,10 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
         {
             if (BuildConfig.DEBUG)
             {
-                Log.d(TAG, "Unregistering listener");
+                Log.d(TAG, "Unsubscribing from the sensor hub");
             }
             
-            sensorManager.unregisterListener(this);
+            unsubscribe();
         }
     }
 
@@ -392,9 +480,9 @@ public class SensorDisplayFragment extends Fragment implements SensorEventListen
         if (BuildConfig.DEBUG)
         {
             Log.d(TAG, "onPause");
-            Log.d(TAG, "Unregistering listener");
+            Log.d(TAG, "Unsubscribing from the sensor hub");
         }
         
-        sensorManager.unregisterListener(this);
+        unsubscribe();
     }
 }
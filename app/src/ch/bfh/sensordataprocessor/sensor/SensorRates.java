@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.sensor;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+/**
+ * Translates the rates passed to <code>SensorManager.registerListener</code>
+ * into nominal sample rates. Devices are free to deliver faster, so these
+ * are only used to size rate dependent processing such as decimation.
+ */
+public class SensorRates
+{
+    private static final float MICROS_PER_SECOND = 1000000f;
+    private static final float DEFAULT_FASTEST_RATE_HZ = 200f;
+
+    /**
+     * @return the sampling period in microseconds for a
+     *         <code>SENSOR_DELAY_*</code> constant or a period in
+     *         microseconds, 0 for the fastest rate
+     */
+    public static int samplingPeriodMicros(int rate)
+    {
+        switch (rate)
+        {
+            case SensorManager.SENSOR_DELAY_FASTEST:
+                return 0;
+            case SensorManager.SENSOR_DELAY_GAME:
+                return 20000;
+            case SensorManager.SENSOR_DELAY_UI:
+                return 66667;
+            case SensorManager.SENSOR_DELAY_NORMAL:
+                return 200000;
+            default:
+                return rate;
+        }
+    }
+
+    public static float nominalRateHz(int rate, Sensor sensor)
+    {
+        switch (rate)
+        {
+            case SensorManager.SENSOR_DELAY_FASTEST:
+                if (sensor != null && sensor.getMinDelay() > 0)
+                {
+                    return MICROS_PER_SECOND / sensor.getMinDelay();
+                }
+                return DEFAULT_FASTEST_RATE_HZ;
+            case SensorManager.SENSOR_DELAY_GAME:
+                return MICROS_PER_SECOND / 20000;
+            case SensorManager.SENSOR_DELAY_UI:
+                return MICROS_PER_SECOND / 66667;
+            case SensorManager.SENSOR_DELAY_NORMAL:
+                return MICROS_PER_SECOND / 200000;
+            default:
+                // any other value is a sampling period in microseconds
+                return MICROS_PER_SECOND / rate;
+        }
+    }
+}
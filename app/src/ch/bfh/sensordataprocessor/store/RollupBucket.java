@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.store;
+
+import java.nio.ByteBuffer;
+
+import ch.bfh.sensordataprocessor.record.BinarySampleWriter;
+
+/**
+ * Minimum, maximum, mean and RMS per axis of the samples in one time bucket.
+ * Buckets of a finer tier are merged into the coarser ones, so each sample
+ * is only added once. A bucket is reused for every bucket it accumulates or
+ * reads.
+ */
+public class RollupBucket
+{
+    public static final int AXIS_COUNT = BinarySampleWriter.AXIS_COUNT;
+
+    /**
+     * long start, int count, then per axis float min, max, mean and RMS
+     */
+    public static final int RECORD_SIZE = 8 + 4 + 16 * AXIS_COUNT;
+
+    private final float[] min = new float[AXIS_COUNT];
+    private final float[] max = new float[AXIS_COUNT];
+    private final double[] sum = new double[AXIS_COUNT];
+    private final double[] sumOfSquares = new double[AXIS_COUNT];
+    private long start;
+    private int count;
+
+    public void reset(long start)
+    {
+        this.start = start;
+        count = 0;
+        for (int axis = 0; axis < AXIS_COUNT; ++axis)
+        {
+            min[axis] = Float.POSITIVE_INFINITY;
+            max[axis] = Float.NEGATIVE_INFINITY;
+            sum[axis] = 0;
+            sumOfSquares[axis] = 0;
+        }
+    }
+
+    public void add(float x, float y, float z)
+    {
+        add(0, x);
+        add(1, y);
+        add(2, z);
+        ++count;
+    }
+
+    /**
+     * Adds all samples of a bucket of a finer tier.
+     */
+    public void merge(RollupBucket other)
+    {
+        for (int axis = 0; axis < AXIS_COUNT; ++axis)
+        {
+            min[axis] = Math.min(min[axis], other.min[axis]);
+            max[axis] = Math.max(max[axis], other.max[axis]);
+            sum[axis] += other.sum[axis];
+            sumOfSquares[axis] += other.sumOfSquares[axis];
+        }
+        count += other.count;
+    }
+
+    /**
+     * @return the start of the bucket in nanoseconds
+     */
+    public long getStart()
+    {
+        return start;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public float getMin(int axis)
+    {
+        return min[axis];
+    }
+
+    public float getMax(int axis)
+    {
+        return max[axis];
+    }
+
+    public double getMean(int axis)
+    {
+        return count == 0 ? 0 : sum[axis] / count;
+    }
+
+    public double getRms(int axis)
+    {
+        return count == 0 ? 0 : Math.sqrt(sumOfSquares[axis] / count);
+    }
+
+    void write(ByteBuffer buffer)
+    {
+        buffer.putLong(start).putInt(count);
+        for (int axis = 0; axis < AXIS_COUNT; ++axis)
+        {
+            buffer.putFloat(min[axis])
+                .putFloat(max[axis])
+                .putFloat((float) getMean(axis))
+                .putFloat((float) getRms(axis));
+        }
+    }
+
+    void read(ByteBuffer buffer)
+    {
+        start = buffer.getLong();
+        count = buffer.getInt();
+        for (int axis = 0; axis < AXIS_COUNT; ++axis)
+        {
+            min[axis] = buffer.getFloat();
+            max[axis] = buffer.getFloat();
+            double mean = buffer.getFloat();
+            double rms = buffer.getFloat();
+            sum[axis] = mean * count;
+            sumOfSquares[axis] = rms * rms * count;
+        }
+    }
+
+    private void add(int axis, float value)
+    {
+        if (value < min[axis])
+        {
+            min[axis] = value;
+        }
+        if (value > max[axis])
+        {
+            max[axis] = value;
+        }
+        sum[axis] += value;
+        sumOfSquares[axis] += (double) value * value;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ch.bfh.sensordataprocessor.record.BinarySampleWriter;
+
+/**
+ * Reads the buckets of one rollup file written by a {@link RollupWriter}.
+ * Buckets have a fixed size and are in time order, so {@link #seek(long)}
+ * is a binary search over the file. A file that is still being written can
+ * be read up to its last complete bucket.
+ */
+public class RollupReader
+{
+    private static final int BUCKETS_PER_READ = 256;
+
+    private final FileInputStream inputStream;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(
+            RollupBucket.RECORD_SIZE * BUCKETS_PER_READ).order(BinarySampleWriter.BYTE_ORDER);
+    private final ByteBuffer single = ByteBuffer.allocate(RollupBucket.RECORD_SIZE)
+            .order(BinarySampleWriter.BYTE_ORDER);
+    private final long duration;
+    private final long startTime;
+
+    public RollupReader(File rollupFile) throws IOException
+    {
+        inputStream = new FileInputStream(rollupFile);
+        channel = inputStream.getChannel();
+        try
+        {
+            ByteBuffer header = ByteBuffer.allocate(RollupWriter.HEADER_SIZE)
+                    .order(BinarySampleWriter.BYTE_ORDER);
+            while (header.hasRemaining() && channel.read(header) >= 0)
+            {
+                // read the whole header
+            }
+            header.flip();
+            if (header.remaining() < RollupWriter.HEADER_SIZE
+                    || header.getInt() != RollupWriter.MAGIC)
+            {
+                throw new IOException(rollupFile + " is not a rollup file");
+            }
+            header.getShort();
+            if (header.getShort() != RollupBucket.AXIS_COUNT)
+            {
+                throw new IOException(rollupFile + " has an unsupported axis count");
+            }
+            duration = header.getLong();
+            startTime = header.getLong();
+        }
+        catch (IOException e)
+        {
+            inputStream.close();
+            throw e;
+        }
+        buffer.limit(0);
+    }
+
+    /**
+     * Reads the next bucket into <code>bucket</code>.
+     *
+     * @return <code>false</code> at the end of the file
+     */
+    public boolean next(RollupBucket bucket) throws IOException
+    {
+        if (buffer.remaining() < RollupBucket.RECORD_SIZE)
+        {
+            buffer.compact();
+            while (buffer.position() < RollupBucket.RECORD_SIZE)
+            {
+                if (channel.read(buffer) < 0)
+                {
+                    break;
+                }
+            }
+            buffer.flip();
+            if (buffer.remaining() < RollupBucket.RECORD_SIZE)
+            {
+                return false;
+            }
+        }
+        bucket.read(buffer);
+        return true;
+    }
+
+    /**
+     * Positions the reader so that {@link #next(RollupBucket)} returns the
+     * bucket containing <code>timestamp</code>, or the first one after it.
+     */
+    public void seek(long timestamp) throws IOException
+    {
+        long low = 0;
+        long high = getBucketCount() - 1;
+        long found = high + 1;
+        while (low <= high)
+        {
+            long middle = (low + high) >>> 1;
+            if (bucketStart(middle) + duration > timestamp)
+            {
+                found = middle;
+                high = middle - 1;
+            }
+            else
+            {
+                low = middle + 1;
+            }
+        }
+        channel.position(RollupWriter.HEADER_SIZE + found * RollupBucket.RECORD_SIZE);
+        buffer.clear();
+        buffer.limit(0);
+    }
+
+    /**
+     * @return the number of complete buckets in the file
+     */
+    public long getBucketCount() throws IOException
+    {
+        return (channel.size() - RollupWriter.HEADER_SIZE) / RollupBucket.RECORD_SIZE;
+    }
+
+    /**
+     * @return the length of a bucket in nanoseconds
+     */
+    public long getDuration()
+    {
+        return duration;
+    }
+
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    public void close() throws IOException
+    {
+        inputStream.close();
+    }
+
+    private long bucketStart(long bucket) throws IOException
+    {
+        single.clear();
+        long position = RollupWriter.HEADER_SIZE + bucket * RollupBucket.RECORD_SIZE;
+        while (single.hasRemaining())
+        {
+            if (channel.read(single, position + single.position()) < 0)
+            {
+                throw new IOException("Unexpected end of rollup file");
+            }
+        }
+        return single.getLong(0);
+    }
+}
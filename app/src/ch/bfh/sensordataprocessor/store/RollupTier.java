@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.store;
+
+/**
+ * Resolutions at which a {@link RollupWriter} aggregates a stream, finest
+ * first.
+ */
+public enum RollupTier
+{
+    SECOND(1000000000L, "second"),
+    MINUTE(60L * 1000000000L, "minute"),
+    HOUR(60L * 60 * 1000000000L, "hour");
+
+    public static final String EXTENSION = ".rol";
+
+    private final long duration;
+    private final String name;
+
+    private RollupTier(long duration, String name)
+    {
+        this.duration = duration;
+        this.name = name;
+    }
+
+    /**
+     * @return the length of a bucket in nanoseconds
+     */
+    public long getDuration()
+    {
+        return duration;
+    }
+
+    public String getFileName()
+    {
+        return name + EXTENSION;
+    }
+
+    /**
+     * @return the start of the bucket <code>timestamp</code> falls into
+     */
+    public long bucketStart(long timestamp)
+    {
+        long remainder = timestamp % duration;
+        return remainder < 0 ? timestamp - remainder - duration : timestamp - remainder;
+    }
+
+    /**
+     * Picks the coarsest tier that still has at least one bucket per pixel
+     * when the time range is drawn <code>pixels</code> wide.
+     *
+     * @return the tier, or <code>null</code> if even the finest tier is too
+     *         coarse and the raw samples have to be read
+     */
+    public static RollupTier select(long from, long to, int pixels)
+    {
+        long nanosPerPixel = (to - from) / Math.max(pixels, 1);
+        RollupTier[] tiers = values();
+        for (int i = tiers.length - 1; i >= 0; --i)
+        {
+            if (tiers[i].duration <= nanosPerPixel)
+            {
+                return tiers[i];
+            }
+        }
+        return null;
+    }
+}
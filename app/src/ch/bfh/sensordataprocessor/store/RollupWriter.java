@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ch.bfh.sensordataprocessor.record.BinarySampleWriter;
+import ch.bfh.sensordataprocessor.record.ISampleWriter;
+
+/**
+ * Passes samples on to another writer and rolls them up into one file per
+ * {@link RollupTier} as they arrive. Each sample is added to the bucket of
+ * the finest tier; a bucket that is complete is appended to its file and
+ * merged into the next coarser tier, so no second pass over the recording is
+ * needed. The bucket still being filled of each tier is only written when
+ * the writer is closed.
+ * <p>
+ * A rollup file has the {@value #HEADER_SIZE} byte header
+ * <pre>
+ * int   magic        'SDPR'
+ * short version      1
+ * short axis count   3
+ * long  duration     nanoseconds per bucket
+ * long  start time   milliseconds, as in the recording
+ * </pre>
+ * followed by {@link RollupBucket#RECORD_SIZE} byte buckets in time order.
+ * Empty buckets are not written.
+ */
+public class RollupWriter implements ISampleWriter
+{
+    public static final int MAGIC = 0x53445052;
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+
+    private final ISampleWriter sampleWriter;
+    private final RollupTier[] tiers = RollupTier.values();
+    private final RollupBucket[] buckets = new RollupBucket[tiers.length];
+    private final FileOutputStream[] outputStreams = new FileOutputStream[tiers.length];
+    private final FileChannel[] channels = new FileChannel[tiers.length];
+    private final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + RollupBucket.RECORD_SIZE)
+            .order(BinarySampleWriter.BYTE_ORDER);
+
+    /**
+     * @param sampleWriter receives every sample, may be <code>null</code> to
+     *            only write the rollups
+     * @param directory directory the rollup files are written to
+     * @param startTime start of the recording in milliseconds
+     */
+    public RollupWriter(ISampleWriter sampleWriter, File directory, long startTime)
+            throws IOException
+    {
+        this.sampleWriter = sampleWriter;
+        try
+        {
+            for (int i = 0; i < tiers.length; ++i)
+            {
+                buckets[i] = new RollupBucket();
+                outputStreams[i] = new FileOutputStream(new File(directory,
+                        tiers[i].getFileName()));
+                channels[i] = outputStreams[i].getChannel();
+
+                buffer.clear();
+                buffer.putInt(MAGIC)
+                    .putShort(VERSION)
+                    .putShort((short) RollupBucket.AXIS_COUNT)
+                    .putLong(tiers[i].getDuration())
+                    .putLong(startTime);
+                write(i);
+            }
+        }
+        catch (IOException e)
+        {
+            closeFiles();
+            throw e;
+        }
+    }
+
+    @Override
+    public void writeSample(long timestamp, float x, float y, float z, double acceleration)
+            throws IOException
+    {
+        if (sampleWriter != null)
+        {
+            sampleWriter.writeSample(timestamp, x, y, z, acceleration);
+        }
+
+        RollupBucket bucket = buckets[0];
+        long start = tiers[0].bucketStart(timestamp);
+        if (bucket.getCount() > 0 && bucket.getStart() != start)
+        {
+            closeBucket(0);
+        }
+        if (bucket.getCount() == 0)
+        {
+            bucket.reset(start);
+        }
+        bucket.add(x, y, z);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            for (int i = 0; i < tiers.length; ++i)
+            {
+                if (buckets[i].getCount() > 0)
+                {
+                    closeBucket(i);
+                }
+            }
+        }
+        finally
+        {
+            try
+            {
+                closeFiles();
+            }
+            finally
+            {
+                if (sampleWriter != null)
+                {
+                    sampleWriter.close();
+                }
+            }
+        }
+    }
+
+    private void closeBucket(int tier) throws IOException
+    {
+        RollupBucket bucket = buckets[tier];
+        buffer.clear();
+        bucket.write(buffer);
+        write(tier);
+
+        int next = tier + 1;
+        if (next < tiers.length)
+        {
+            RollupBucket coarser = buckets[next];
+            long start = tiers[next].bucketStart(bucket.getStart());
+            if (coarser.getCount() > 0 && coarser.getStart() != start)
+            {
+                closeBucket(next);
+            }
+            if (coarser.getCount() == 0)
+            {
+                coarser.reset(start);
+            }
+            coarser.merge(bucket);
+        }
+        bucket.reset(bucket.getStart());
+    }
+
+    private void write(int tier) throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channels[tier].write(buffer);
+        }
+    }
+
+    private void closeFiles() throws IOException
+    {
+        IOException failure = null;
+        for (FileOutputStream outputStream : outputStreams)
+        {
+            if (outputStream == null)
+            {
+                continue;
+            }
+            try
+            {
+                outputStream.close();
+            }
+            catch (IOException e)
+            {
+                failure = e;
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+}
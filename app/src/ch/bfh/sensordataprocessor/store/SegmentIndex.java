@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import ch.bfh.sensordataprocessor.record.BinarySampleWriter;
+
+/**
+ * Sparse time index of a segment: the timestamp and record number of every
+ * {@link #INTERVAL}th record, appended to a <code>.idx</code> file next to
+ * the segment while it is written.
+ * <pre>
+ * int   magic     'SDPI'
+ * int   interval  records between entries
+ * then per entry:
+ * long  timestamp nanoseconds
+ * long  record    index of the record in the segment
+ * </pre>
+ */
+public class SegmentIndex
+{
+    public static final int MAGIC = 0x53445049;
+    public static final int INTERVAL = 512;
+    public static final String EXTENSION = ".idx";
+
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 16;
+
+    private final long[] timestamps;
+    private final long[] records;
+    private final int size;
+
+    private SegmentIndex(long[] timestamps, long[] records, int size)
+    {
+        this.timestamps = timestamps;
+        this.records = records;
+        this.size = size;
+    }
+
+    /**
+     * Reads the index of a segment; a missing or truncated index yields the
+     * entries that are complete.
+     */
+    public static SegmentIndex read(File indexFile) throws IOException
+    {
+        if (!indexFile.exists())
+        {
+            return new SegmentIndex(new long[0], new long[0], 0);
+        }
+        FileInputStream inputStream = new FileInputStream(indexFile);
+        try
+        {
+            FileChannel channel = inputStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size())
+                    .order(BinarySampleWriter.BYTE_ORDER);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+            {
+                // read the whole file
+            }
+            buffer.flip();
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC)
+            {
+                throw new IOException(indexFile + " is not a segment index");
+            }
+            buffer.getInt();
+
+            int size = buffer.remaining() / ENTRY_SIZE;
+            long[] timestamps = new long[size];
+            long[] records = new long[size];
+            for (int i = 0; i < size; ++i)
+            {
+                timestamps[i] = buffer.getLong();
+                records[i] = buffer.getLong();
+            }
+            return new SegmentIndex(timestamps, records, size);
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return the timestamp of the first record of the segment,
+     *         <code>Long.MAX_VALUE</code> if the index is empty
+     */
+    public long getFirstTimestamp()
+    {
+        return size == 0 ? Long.MAX_VALUE : timestamps[0];
+    }
+
+    /**
+     * @return the record number of the last entry at or before
+     *         <code>timestamp</code>, 0 if there is none
+     */
+    public long findRecord(long timestamp)
+    {
+        int low = 0;
+        int high = size - 1;
+        int found = -1;
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] <= timestamp)
+            {
+                found = middle;
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+        return found < 0 ? 0 : records[found];
+    }
+
+    /**
+     * Appends entries while a segment is written. Each entry is written
+     * straight through so the index never lags far behind the segment.
+     */
+    static class Writer
+    {
+        private final FileOutputStream outputStream;
+        private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE)
+                .order(BinarySampleWriter.BYTE_ORDER);
+
+        Writer(File indexFile) throws IOException
+        {
+            outputStream = new FileOutputStream(indexFile);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .order(BinarySampleWriter.BYTE_ORDER);
+            header.putInt(MAGIC).putInt(INTERVAL);
+            outputStream.write(header.array());
+        }
+
+        void add(long timestamp, long record) throws IOException
+        {
+            entry.clear();
+            entry.putLong(timestamp).putLong(record);
+            outputStream.write(entry.array());
+        }
+
+        void close() throws IOException
+        {
+            outputStream.close();
+        }
+    }
+}
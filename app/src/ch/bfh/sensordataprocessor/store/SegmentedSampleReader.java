@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.store;
+
+import java.io.File;
+import java.io.IOException;
+
+import ch.bfh.sensordataprocessor.record.BinarySampleReader;
+import ch.bfh.sensordataprocessor.record.ISampleSource;
+
+/**
+ * Reads the segments written by a {@link SegmentedSampleWriter} as one
+ * stream. {@link #seek(long)} finds the segment by the first entry of each
+ * {@link SegmentIndex} and the position inside it by the index, so only up
+ * to {@link SegmentIndex#INTERVAL} records are scanned whatever the size of
+ * the recording. Segments still being written can be read up to their last
+ * complete record.
+ */
+public class SegmentedSampleReader implements ISampleSource
+{
+    private final File[] segments;
+    private final SegmentIndex[] indexes;
+    private int current = -1;
+    private BinarySampleReader reader;
+    private boolean pending;
+    private long startTime;
+
+    public SegmentedSampleReader(File directory) throws IOException
+    {
+        segments = SegmentedSampleWriter.listSegments(directory);
+        indexes = new SegmentIndex[segments.length];
+        if (segments.length > 0)
+        {
+            open(0);
+            startTime = reader.getStartTime();
+        }
+    }
+
+    @Override
+    public boolean next() throws IOException
+    {
+        if (pending)
+        {
+            pending = false;
+            return true;
+        }
+        while (reader != null)
+        {
+            if (reader.next())
+            {
+                return true;
+            }
+            if (current + 1 >= segments.length)
+            {
+                return false;
+            }
+            open(current + 1);
+        }
+        return false;
+    }
+
+    /**
+     * Positions the reader so that the next call to {@link #next()} returns
+     * the first sample at or after <code>target</code>.
+     */
+    public void seek(long target) throws IOException
+    {
+        pending = false;
+        if (segments.length == 0)
+        {
+            return;
+        }
+
+        // last segment starting at or before the target
+        int low = 0;
+        int high = segments.length - 1;
+        int found = 0;
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            if (index(middle).getFirstTimestamp() <= target)
+            {
+                found = middle;
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+
+        open(found);
+        reader.seekRecord(index(found).findRecord(target));
+        while (next())
+        {
+            if (reader.getTimestamp() >= target)
+            {
+                pending = true;
+                return;
+            }
+        }
+    }
+
+    public int getSegmentCount()
+    {
+        return segments.length;
+    }
+
+    @Override
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    @Override
+    public long getTimestamp()
+    {
+        return reader.getTimestamp();
+    }
+
+    @Override
+    public float getX()
+    {
+        return reader.getX();
+    }
+
+    @Override
+    public float getY()
+    {
+        return reader.getY();
+    }
+
+    @Override
+    public float getZ()
+    {
+        return reader.getZ();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (reader != null)
+        {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    private void open(int segment) throws IOException
+    {
+        close();
+        reader = new BinarySampleReader(segments[segment]);
+        current = segment;
+    }
+
+    private SegmentIndex index(int segment) throws IOException
+    {
+        if (indexes[segment] == null)
+        {
+            indexes[segment] = SegmentIndex.read(SegmentedSampleWriter.indexFile(segments[segment]));
+        }
+        return indexes[segment];
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import ch.bfh.sensordataprocessor.record.BinaryRecordingConverter;
+import ch.bfh.sensordataprocessor.record.BinarySampleWriter;
+import ch.bfh.sensordataprocessor.record.ISampleWriter;
+
+/**
+ * Appends samples to a directory of numbered binary segment files, each
+ * with a {@link SegmentIndex}. A new segment is started once the current
+ * one holds the maximum number of samples or spans the maximum duration.
+ * Writing into a directory that already has segments continues after them.
+ */
+public class SegmentedSampleWriter implements ISampleWriter
+{
+    public static final String SEGMENT_EXTENSION = BinaryRecordingConverter.BINARY_EXTENSION;
+
+    private final File directory;
+    private final int sensorType;
+    private final int rate;
+    private final long startTime;
+    private final long maxSegmentSamples;
+    private final long maxSegmentDuration;
+    private final SessionStore store;
+
+    private int sequence;
+    private File segmentFile;
+    private BinarySampleWriter segment;
+    private SegmentIndex.Writer index;
+    private long segmentSamples;
+    private long segmentStart;
+
+    /**
+     * @param maxSegmentSamples samples per segment, which fixes its size
+     * @param maxSegmentDuration nanoseconds per segment
+     * @param store notified of the stream and its new segments to apply its
+     *            retention, may be <code>null</code>
+     */
+    public SegmentedSampleWriter(File directory, int sensorType, int rate, long startTime,
+            long maxSegmentSamples, long maxSegmentDuration, SessionStore store)
+            throws IOException
+    {
+        // registered first, so retention cannot remove the directory before
+        // the first segment is in it
+        if (store != null)
+        {
+            store.streamOpened(directory);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            if (store != null)
+            {
+                store.streamClosed(directory);
+            }
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+        this.sensorType = sensorType;
+        this.rate = rate;
+        this.startTime = startTime;
+        this.maxSegmentSamples = maxSegmentSamples;
+        this.maxSegmentDuration = maxSegmentDuration;
+        this.store = store;
+
+        File[] existing = listSegments(directory);
+        sequence = existing.length == 0 ? 0 : parseSequence(existing[existing.length - 1]);
+    }
+
+    @Override
+    public void writeSample(long timestamp, float x, float y, float z, double acceleration)
+            throws IOException
+    {
+        if (segment == null || segmentSamples >= maxSegmentSamples
+                || timestamp - segmentStart >= maxSegmentDuration)
+        {
+            startSegment(timestamp);
+        }
+        if (segmentSamples % SegmentIndex.INTERVAL == 0)
+        {
+            // the segment buffers at most one interval, so the index is
+            // written once the records it points to are
+            segment.flush();
+            index.add(timestamp, segmentSamples);
+        }
+        segment.writeSample(timestamp, x, y, z, acceleration);
+        ++segmentSamples;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            closeSegment();
+        }
+        finally
+        {
+            if (store != null)
+            {
+                store.streamClosed(directory);
+            }
+        }
+    }
+
+    /**
+     * @return the segment files of a directory in the order they were written
+     */
+    public static File[] listSegments(File directory)
+    {
+        File[] files = directory.listFiles();
+        if (files == null)
+        {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files)
+        {
+            if (file.getName().endsWith(SEGMENT_EXTENSION))
+            {
+                files[count++] = file;
+            }
+        }
+        File[] segments = new File[count];
+        System.arraycopy(files, 0, segments, 0, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * @return the index file belonging to a segment
+     */
+    public static File indexFile(File segmentFile)
+    {
+        String name = segmentFile.getName();
+        return new File(segmentFile.getParentFile(),
+                name.substring(0, name.length() - SEGMENT_EXTENSION.length())
+                        + SegmentIndex.EXTENSION);
+    }
+
+    private void startSegment(long timestamp) throws IOException
+    {
+        closeSegment();
+        ++sequence;
+        segmentFile = new File(directory,
+                String.format(Locale.US, "%08d", sequence) + SEGMENT_EXTENSION);
+        segment = new BinarySampleWriter(segmentFile, sensorType, rate, startTime);
+        index = new SegmentIndex.Writer(indexFile(segmentFile));
+        segmentSamples = 0;
+        segmentStart = timestamp;
+
+        if (store != null)
+        {
+            store.segmentOpened(segmentFile);
+            store.enforceRetention();
+        }
+    }
+
+    private void closeSegment() throws IOException
+    {
+        if (segment == null)
+        {
+            return;
+        }
+        try
+        {
+            segment.close();
+        }
+        finally
+        {
+            index.close();
+            if (store != null)
+            {
+                store.segmentClosed(segmentFile);
+            }
+            segment = null;
+            index = null;
+        }
+    }
+
+    private static int parseSequence(File segmentFile)
+    {
+        String name = segmentFile.getName();
+        try
+        {
+            return Integer.parseInt(name.substring(0,
+                    name.length() - SEGMENT_EXTENSION.length()));
+        }
+        catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+}
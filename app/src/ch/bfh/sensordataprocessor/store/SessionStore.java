@@ -0,0 +1,319 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import ch.bfh.sensordataprocessor.record.ISampleWriter;
+import ch.bfh.sensordataprocessor.record.ISampleWriterFactory;
+
+/**
+ * Keeps recordings as sessions below a root directory, each stream of a
+ * session as a directory of segments written by a
+ * {@link SegmentedSampleWriter}:
+ * <pre>
+ * root/20130612-141502/accelerometer/00000001.bin
+ * root/20130612-141502/accelerometer/00000001.idx
+ * root/20130612-141502/accelerometer/second.rol
+ * </pre>
+ * Each stream is also rolled up by a {@link RollupWriter}, so long sessions
+ * can be drawn without reading the raw samples.
+ * Whenever a segment is started the oldest closed segments of all sessions
+ * are deleted until the store fits into its size budget, rollups included,
+ * and holds nothing older than its maximum age. The rollups are small and
+ * outlive the segments they summarize until the last segment of their
+ * stream is deleted. Writers of several streams share the store, so
+ * its bookkeeping is synchronized.
+ */
+public class SessionStore implements ISampleWriterFactory
+{
+    public static final long DEFAULT_SEGMENT_SAMPLES = 1 << 20;
+    public static final long DEFAULT_SEGMENT_DURATION = 60L * 60 * 1000000000L;
+
+    private static final String SESSION_PATTERN = "yyyyMMdd-HHmmss";
+
+    private final File root;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final Set<File> openSegments = new HashSet<File>();
+    private final Set<File> openStreams = new HashSet<File>();
+
+    /**
+     * @param maxBytes size budget of all sessions, <code>Long.MAX_VALUE</code>
+     *            for no limit
+     * @param maxAgeMillis maximum age of a segment, <code>Long.MAX_VALUE</code>
+     *            for no limit
+     */
+    public SessionStore(File root, long maxBytes, long maxAgeMillis)
+    {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Creates the directory of a new session named after the current time.
+     */
+    public File createSession() throws IOException
+    {
+        String name = new SimpleDateFormat(SESSION_PATTERN, Locale.US).format(new Date());
+        File session = new File(root, name);
+        for (int i = 1; session.exists(); ++i)
+        {
+            session = new File(root, name + "-" + i);
+        }
+        if (!session.mkdirs())
+        {
+            throw new IOException("Could not create " + session);
+        }
+        return session;
+    }
+
+    /**
+     * @return the session directories, oldest first
+     */
+    public File[] listSessions()
+    {
+        File[] sessions = listDirectories(root);
+        Arrays.sort(sessions);
+        return sessions;
+    }
+
+    /**
+     * @param directory the session directory
+     * @param baseName name of the stream, which becomes the directory of its
+     *            segments
+     */
+    @Override
+    public ISampleWriter createWriter(File directory, String baseName, int sensorType, int rate,
+            long startTime) throws IOException
+    {
+        File stream = new File(directory, baseName);
+        ISampleWriter segments = new SegmentedSampleWriter(stream, sensorType, rate,
+                startTime, DEFAULT_SEGMENT_SAMPLES, DEFAULT_SEGMENT_DURATION, this);
+        return new RollupWriter(segments, stream, startTime);
+    }
+
+    public SegmentedSampleReader openReader(File session, String baseName) throws IOException
+    {
+        return new SegmentedSampleReader(new File(session, baseName));
+    }
+
+    /**
+     * Opens the rollup of a stream for drawing the time range
+     * <code>from</code> to <code>to</code>, in nanoseconds, <code>pixels</code>
+     * wide; see {@link RollupTier#select(long, long, int)}.
+     *
+     * @return the reader of the coarsest sufficient tier, or <code>null</code>
+     *         if the raw samples are needed and {@link #openReader(File, String)}
+     *         should be used
+     */
+    public RollupReader openRollup(File session, String baseName, long from, long to,
+            int pixels) throws IOException
+    {
+        RollupTier tier = RollupTier.select(from, to, pixels);
+        if (tier == null)
+        {
+            return null;
+        }
+        RollupReader reader = new RollupReader(new File(new File(session, baseName),
+                tier.getFileName()));
+        reader.seek(from);
+        return reader;
+    }
+
+    /**
+     * Deletes the oldest closed segments while the store exceeds its size
+     * budget or holds segments older than its maximum age. Once the last
+     * segment of a stream is gone its rollups are deleted with it, and the
+     * directories left empty are removed. The rollups count towards the
+     * budget. The directory of a stream whose writer is open is kept even
+     * if it has no segment yet, and so are its rollups and its session.
+     */
+    public synchronized void enforceRetention()
+    {
+        List<File> segments = new ArrayList<File>();
+        Map<File, Integer> remainingSegments = new HashMap<File, Integer>();
+        long totalBytes = 0;
+        for (File session : listDirectories(root))
+        {
+            for (File stream : listDirectories(session))
+            {
+                File[] streamSegments = SegmentedSampleWriter.listSegments(stream);
+                for (File segment : streamSegments)
+                {
+                    totalBytes += segmentBytes(segment);
+                    if (!openSegments.contains(segment))
+                    {
+                        segments.add(segment);
+                    }
+                }
+                // the rollups of a closed stream without segments go below
+                if (streamSegments.length > 0 || openStreams.contains(stream))
+                {
+                    totalBytes += rollupBytes(stream);
+                }
+                remainingSegments.put(stream, streamSegments.length);
+            }
+        }
+
+        Collections.sort(segments, new Comparator<File>()
+        {
+            @Override
+            public int compare(File left, File right)
+            {
+                long l = left.lastModified();
+                long r = right.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        for (File segment : segments)
+        {
+            if (totalBytes <= maxBytes && segment.lastModified() >= oldest)
+            {
+                break;
+            }
+            totalBytes -= segmentBytes(segment);
+            segment.delete();
+            SegmentedSampleWriter.indexFile(segment).delete();
+
+            File stream = segment.getParentFile();
+            int remaining = remainingSegments.get(stream) - 1;
+            remainingSegments.put(stream, remaining);
+            if (remaining == 0 && !openStreams.contains(stream))
+            {
+                totalBytes -= rollupBytes(stream);
+            }
+        }
+
+        for (File session : listDirectories(root))
+        {
+            boolean open = false;
+            boolean removed = false;
+            for (File stream : listDirectories(session))
+            {
+                if (openStreams.contains(stream))
+                {
+                    open = true;
+                }
+                else if (SegmentedSampleWriter.listSegments(stream).length == 0)
+                {
+                    for (RollupTier tier : RollupTier.values())
+                    {
+                        new File(stream, tier.getFileName()).delete();
+                    }
+                    if (stream.delete())
+                    {
+                        removed = true;
+                    }
+                }
+            }
+            // a session that is still empty may be about to get its writers
+            if (removed && !open)
+            {
+                session.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes used by all sessions
+     */
+    public long getSize()
+    {
+        long bytes = 0;
+        for (File session : listDirectories(root))
+        {
+            for (File stream : listDirectories(session))
+            {
+                for (File file : stream.listFiles())
+                {
+                    bytes += file.length();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    synchronized void streamOpened(File stream)
+    {
+        openStreams.add(stream);
+    }
+
+    synchronized void streamClosed(File stream)
+    {
+        openStreams.remove(stream);
+    }
+
+    synchronized void segmentOpened(File segment)
+    {
+        openSegments.add(segment);
+    }
+
+    synchronized void segmentClosed(File segment)
+    {
+        openSegments.remove(segment);
+    }
+
+    private static long segmentBytes(File segment)
+    {
+        return segment.length() + SegmentedSampleWriter.indexFile(segment).length();
+    }
+
+    private static long rollupBytes(File stream)
+    {
+        long bytes = 0;
+        for (RollupTier tier : RollupTier.values())
+        {
+            bytes += new File(stream, tier.getFileName()).length();
+        }
+        return bytes;
+    }
+
+    private static File[] listDirectories(File directory)
+    {
+        File[] files = directory.listFiles();
+        if (files == null)
+        {
+            return new File[0];
+        }
+        List<File> directories = new ArrayList<File>(files.length);
+        for (File file : files)
+        {
+            if (file.isDirectory())
+            {
+                directories.add(file);
+            }
+        }
+        return directories.toArray(new File[directories.size()]);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.util;
+
+/**
+ * Reusable text buffer that formats primitives straight into a
+ * <code>char[]</code>, for <code>TextView.setText(char[], int, int)</code>.
+ * Nothing is allocated once the buffer has been created, so views can be
+ * updated every frame without garbage.
+ * <p>
+ * A <code>TextView</code> keeps a reference to the array it was given, so
+ * each view needs a buffer of its own, and a buffer must only be refilled
+ * right before it is set again.
+ */
+public class CharTextBuffer
+{
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L
+    };
+    private static final char[] NAN = { 'N', 'a', 'N' };
+    private static final char[] INFINITY = { 'I', 'n', 'f', 'i', 'n', 'i', 't', 'y' };
+    private static final char[] LONG_MIN = { '-', '9', '2', '2', '3', '3', '7', '2', '0', '3',
+        '6', '8', '5', '4', '7', '7', '5', '8', '0', '8' };
+
+    private final char[] buffer;
+    private final char[] digits = new char[20];
+    private final int decimals;
+    private int length;
+
+    /**
+     * @param decimals number of decimals doubles are formatted with
+     */
+    public CharTextBuffer(int capacity, int decimals)
+    {
+        if (decimals < 0 || decimals >= POWERS_OF_TEN.length)
+        {
+            throw new IllegalArgumentException("decimals must be between 0 and "
+                    + (POWERS_OF_TEN.length - 1));
+        }
+        this.buffer = new char[capacity];
+        this.decimals = decimals;
+    }
+
+    public CharTextBuffer reset()
+    {
+        length = 0;
+        return this;
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public char[] array()
+    {
+        return buffer;
+    }
+
+    public CharTextBuffer append(char c)
+    {
+        buffer[length++] = c;
+        return this;
+    }
+
+    /**
+     * Appends the characters of a constant; meant for short literals such as
+     * separators.
+     */
+    public CharTextBuffer append(String text)
+    {
+        int count = text.length();
+        text.getChars(0, count, buffer, length);
+        length += count;
+        return this;
+    }
+
+    public CharTextBuffer append(long value)
+    {
+        if (value == Long.MIN_VALUE)
+        {
+            return append(LONG_MIN);
+        }
+        if (value < 0)
+        {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int count = 0;
+        do
+        {
+            digits[count++] = (char) ('0' + (value % 10));
+            value /= 10;
+        }
+        while (value != 0);
+
+        while (count > 0)
+        {
+            buffer[length++] = digits[--count];
+        }
+        return this;
+    }
+
+    /**
+     * Appends the value in fixed-point notation with the configured number of
+     * decimals. Values whose magnitude does not fit into a <code>long</code>
+     * once scaled are clamped.
+     */
+    public CharTextBuffer append(double value)
+    {
+        if (value != value)
+        {
+            return append(NAN);
+        }
+        boolean negative = value < 0;
+        if (negative)
+        {
+            value = -value;
+        }
+        if (value == Double.POSITIVE_INFINITY)
+        {
+            if (negative)
+            {
+                buffer[length++] = '-';
+            }
+            return append(INFINITY);
+        }
+
+        long scale = POWERS_OF_TEN[decimals];
+        long scaled = (long) (value * scale + 0.5);
+        if (negative && scaled != 0)
+        {
+            buffer[length++] = '-';
+        }
+        append(scaled / scale);
+
+        if (decimals > 0)
+        {
+            buffer[length++] = '.';
+            long fraction = scaled % scale;
+            for (int i = decimals - 1; i >= 0; --i)
+            {
+                long digit = fraction / POWERS_OF_TEN[i];
+                buffer[length++] = (char) ('0' + digit);
+                fraction -= digit * POWERS_OF_TEN[i];
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(buffer, 0, length);
+    }
+
+    private CharTextBuffer append(char[] chars)
+    {
+        System.arraycopy(chars, 0, buffer, length, chars.length);
+        length += chars.length;
+        return this;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2013 Bern University of Applied Sciences BFH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ch.bfh.sensordataprocessor.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Reusable ASCII line buffer that formats primitives straight into a
+ * <code>byte[]</code>. Nothing is allocated once the buffer has been created,
+ * so it can be used on the sensor callback path.
+ * <p>
+ * Floats are written in the notation of <code>Float.toString</code>, with
+ * the fewest significant digits that <code>Float.parseFloat</code> reads back
+ * as the same value, so a recording keeps the exact sensor values.
+ */
+public class CsvLineBuffer
+{
+    private static final int DEFAULT_CAPACITY = 256;
+    /** Significant digits that always identify a float. */
+    private static final int MAX_FLOAT_DIGITS = 9;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final byte[] NAN = { 'N', 'a', 'N' };
+    private static final byte[] INFINITY = { 'I', 'n', 'f', 'i', 'n', 'i', 't', 'y' };
+    private static final byte[] ZERO = { '0', '.', '0' };
+    private static final byte[] LONG_MIN = { '-', '9', '2', '2', '3', '3', '7', '2', '0', '3',
+        '6', '8', '5', '4', '7', '7', '5', '8', '0', '8' };
+
+    private final byte[] buffer;
+    private final byte[] digits = new byte[20];
+    private int length;
+
+    public CsvLineBuffer(int capacity)
+    {
+        this.buffer = new byte[capacity];
+    }
+
+    public CsvLineBuffer()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public CsvLineBuffer reset()
+    {
+        length = 0;
+        return this;
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public byte[] array()
+    {
+        return buffer;
+    }
+
+    public CsvLineBuffer append(char c)
+    {
+        buffer[length++] = (byte) c;
+        return this;
+    }
+
+    public CsvLineBuffer append(long value)
+    {
+        if (value == Long.MIN_VALUE)
+        {
+            return append(LONG_MIN);
+        }
+        if (value < 0)
+        {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int count = 0;
+        do
+        {
+            digits[count++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        while (value != 0);
+
+        while (count > 0)
+        {
+            buffer[length++] = digits[--count];
+        }
+        return this;
+    }
+
+    /**
+     * Appends the shortest decimal that reads back as <code>value</code>, in
+     * plain notation from 10<sup>-3</sup> to below 10<sup>7</sup> and in
+     * computerized scientific notation such as <code>1.5E-7</code> otherwise.
+     */
+    public CsvLineBuffer append(float value)
+    {
+        if (value != value)
+        {
+            return append(NAN);
+        }
+        if (Float.floatToRawIntBits(value) < 0)
+        {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        if (value == Float.POSITIVE_INFINITY)
+        {
+            return append(INFINITY);
+        }
+        if (value == 0)
+        {
+            return append(ZERO);
+        }
+
+        // value is about significand * 10^-scale
+        int exponent = (int) Math.floor(Math.log10(value));
+        long significand = 0;
+        int scale = 0;
+        for (int count = 1; count <= MAX_FLOAT_DIGITS; ++count)
+        {
+            scale = count - 1 - exponent;
+            significand = Math.round(scale >= 0 ? value * powerOfTen(scale)
+                    : value / powerOfTen(-scale));
+            if (count == MAX_FLOAT_DIGITS || readsBackAs(significand, scale, value))
+            {
+                break;
+            }
+        }
+        while (significand % 10 == 0)
+        {
+            significand /= 10;
+            --scale;
+        }
+        int count = 0;
+        do
+        {
+            digits[count++] = (byte) ('0' + (significand % 10));
+            significand /= 10;
+        }
+        while (significand != 0);
+
+        // digits holds the significand in reverse, the first one at
+        // 10^pointPosition
+        int pointPosition = count - 1 - scale;
+        if (pointPosition >= -3 && pointPosition < 7)
+        {
+            appendPlain(count, pointPosition);
+        }
+        else
+        {
+            appendScientific(count, pointPosition);
+        }
+        return this;
+    }
+
+    private void appendPlain(int count, int pointPosition)
+    {
+        if (pointPosition < 0)
+        {
+            buffer[length++] = '0';
+            buffer[length++] = '.';
+            for (int i = -1; i > pointPosition; --i)
+            {
+                buffer[length++] = '0';
+            }
+            while (count > 0)
+            {
+                buffer[length++] = digits[--count];
+            }
+            return;
+        }
+        for (int i = pointPosition; i >= 0; --i)
+        {
+            buffer[length++] = count > 0 ? digits[--count] : (byte) '0';
+        }
+        buffer[length++] = '.';
+        if (count == 0)
+        {
+            buffer[length++] = '0';
+        }
+        while (count > 0)
+        {
+            buffer[length++] = digits[--count];
+        }
+    }
+
+    private void appendScientific(int count, int exponent)
+    {
+        buffer[length++] = digits[--count];
+        buffer[length++] = '.';
+        if (count == 0)
+        {
+            buffer[length++] = '0';
+        }
+        while (count > 0)
+        {
+            buffer[length++] = digits[--count];
+        }
+        buffer[length++] = 'E';
+        append((long) exponent);
+    }
+
+    /**
+     * Checks if <code>significand * 10^-scale</code> parses to
+     * <code>value</code>. Within the range of exactly representable
+     * operands one multiplication or division rounds the decimal correctly
+     * to a double, which rounds to the float a parser returns unless it lies
+     * exactly between two floats. Outside that range the check fails, so
+     * the caller falls back to {@value #MAX_FLOAT_DIGITS} digits.
+     */
+    private static boolean readsBackAs(long significand, int scale, float value)
+    {
+        if (scale >= POWERS_OF_TEN.length || -scale >= POWERS_OF_TEN.length)
+        {
+            return false;
+        }
+        double decimal = scale >= 0 ? significand / POWERS_OF_TEN[scale]
+                : significand * POWERS_OF_TEN[-scale];
+        float rounded = (float) decimal;
+        if (rounded != value)
+        {
+            return false;
+        }
+        float neighbour = decimal > rounded ? Math.nextUp(rounded)
+                : Math.nextAfter(rounded, Double.NEGATIVE_INFINITY);
+        return decimal != ((double) rounded + neighbour) / 2;
+    }
+
+    private static double powerOfTen(int exponent)
+    {
+        return exponent < POWERS_OF_TEN.length ? POWERS_OF_TEN[exponent]
+                : Math.pow(10, exponent);
+    }
+
+    public CsvLineBuffer newLine()
+    {
+        buffer[length++] = '\n';
+        return this;
+    }
+
+    public void writeTo(OutputStream out) throws IOException
+    {
+        out.write(buffer, 0, length);
+    }
+
+    private CsvLineBuffer append(byte[] bytes)
+    {
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+        return this;
+    }
+}